@@ -9,9 +9,9 @@ import java.net.DatagramPacket;
  * as long as the Virtual CDJ is active.
  *
  * They also provide information about the timing of a variety upcoming beats and bars, which would be helpful
- * for implementing Sync in a player, but since the full {@link org.deepsymmetry.beatlink.data.BeatGrid} can be
- * used for that purpose just as well, access has not been provided to those values. If they would be useful to
- * you, please open an Issue.
+ * for implementing Sync in a player. The most useful of these, the time until the next beat and the next bar, are
+ * available through {@link #getNextBeat()} and {@link #getNextBar()}, and are used by the
+ * {@link DeviceTimingEstimator} to learn how much network delay beats from each device experience.
  *
  * @author James Elliott
  */
@@ -28,6 +28,16 @@ public class Beat extends DeviceUpdate {
      */
     private final int bpm;
 
+    /**
+     * The value reported in place of upcoming beat times when the track ends before that beat.
+     */
+    private static final long NO_BEAT = 0xffffffffL;
+
+    /**
+     * When this beat is estimated to have actually been sent, once network delay has been accounted for.
+     */
+    private volatile long correctedTimestamp;
+
     /**
      * Constructor sets all the immutable interpreted fields based on the packet content.
      *
@@ -37,6 +47,57 @@ public class Beat extends DeviceUpdate {
         super(packet, "Beat announcement", 96);
         pitch = (int)Util.bytesToNumber(packetBytes, 85, 3);
         bpm = (int)Util.bytesToNumber(packetBytes, 90, 2);
+        correctedTimestamp = timestamp;
+    }
+
+    /**
+     * Get the number of milliseconds until the next beat, as reported in the packet. This is the time it would take
+     * if the track were playing at normal speed, so it must be divided by {@link Util#pitchToMultiplier(long)} of
+     * {@link #getPitch()} to find the actual time.
+     *
+     * @return the time until the next beat at normal speed, or -1 if the track ends first
+     * @since 0.6.3
+     */
+    public long getNextBeat() {
+        final long result = Util.bytesToNumber(packetBytes, 0x24, 4);
+        return (result == NO_BEAT)? -1 : result;
+    }
+
+    /**
+     * Get the number of milliseconds until the next bar (down beat), as reported in the packet. This is the time
+     * it would take if the track were playing at normal speed, so it must be divided by
+     * {@link Util#pitchToMultiplier(long)} of {@link #getPitch()} to find the actual time.
+     *
+     * @return the time until the next bar at normal speed, or -1 if the track ends first
+     * @since 0.6.3
+     */
+    public long getNextBar() {
+        final long result = Util.bytesToNumber(packetBytes, 0x2c, 4);
+        return (result == NO_BEAT)? -1 : result;
+    }
+
+    /**
+     * <p>Get the time at which this beat is estimated to have been sent by the device, which is the time at which it
+     * was received, less any delay that the {@link DeviceTimingEstimator} has learned this packet experienced
+     * beyond the fastest deliveries seen from the same device, and less any extra latency configured for the
+     * device through {@link DeviceTimingEstimator#setExtraLatency(int, long)}.</p>
+     *
+     * <p>This is the same as {@link #getTimestamp()} until the estimator has seen a few beats from the device.</p>
+     *
+     * @return the corrected nanosecond timestamp of the beat
+     * @since 0.6.3
+     */
+    public long getCorrectedTimestamp() {
+        return correctedTimestamp;
+    }
+
+    /**
+     * Record the estimated time at which this beat was sent, once network delay has been accounted for.
+     *
+     * @param correctedTimestamp the corrected nanosecond timestamp
+     */
+    void setCorrectedTimestamp(long correctedTimestamp) {
+        this.correctedTimestamp = correctedTimestamp;
     }
 
     /**
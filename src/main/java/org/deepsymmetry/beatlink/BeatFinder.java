@@ -121,7 +121,9 @@ public class BeatFinder extends LifecycleParticipant {
 
                                         case BEAT:
                                             if (isPacketLongEnough(packet, 96, "beat")) {
-                                                deliverBeat(new Beat(packet));
+                                                final Beat beat = new Beat(packet);
+                                                DeviceTimingEstimator.getInstance().beatReceived(beat);
+                                                deliverBeat(beat);
                                             }
                                             break;
 
@@ -0,0 +1,83 @@
+package org.deepsymmetry.beatlink;
+
+/**
+ * Describes what the {@link DeviceTimingEstimator} has learned about the delays experienced by packets from a
+ * particular device on their way to us.
+ *
+ * @author James Elliott
+ * @since 0.6.3
+ */
+@SuppressWarnings("WeakerAccess")
+public class DeviceTiming {
+
+    /**
+     * The device number whose packets are described.
+     */
+    public final int deviceNumber;
+
+    /**
+     * The average time, in nanoseconds, by which beat packets from the device arrive later than the fastest ones
+     * we have seen recently. This is the part of the network latency that can be learned by comparing the arrival
+     * times of beats with the beat timing the device reports.
+     */
+    public final double meanDelay;
+
+    /**
+     * The standard deviation of the delay of beat packets from the device, in nanoseconds.
+     */
+    public final double jitter;
+
+    /**
+     * The offset between the device's beat clock and our own clock, in nanoseconds, relative to when we began
+     * following the device. Changes in this value reveal drift between the clocks.
+     */
+    public final double clockOffset;
+
+    /**
+     * The fixed latency, in nanoseconds, which has been configured for the device because it can't be measured,
+     * such as the delay added by an extra network switch or a distant room.
+     */
+    public final long extraLatency;
+
+    /**
+     * The number of beats that have contributed to the estimate since it was last restarted.
+     */
+    public final long beatsObserved;
+
+    /**
+     * Constructor simply sets the fields of this immutable value class.
+     *
+     * @param deviceNumber the device number whose packets are described
+     * @param meanDelay the average delay beyond the fastest packets
+     * @param jitter the standard deviation of the delay
+     * @param clockOffset the offset between the device's beat clock and ours
+     * @param extraLatency the configured fixed latency
+     * @param beatsObserved the number of beats that contributed to the estimate
+     */
+    DeviceTiming(int deviceNumber, double meanDelay, double jitter, double clockOffset, long extraLatency,
+                 long beatsObserved) {
+        this.deviceNumber = deviceNumber;
+        this.meanDelay = meanDelay;
+        this.jitter = jitter;
+        this.clockOffset = clockOffset;
+        this.extraLatency = extraLatency;
+        this.beatsObserved = beatsObserved;
+    }
+
+    /**
+     * Calculate the total latency that is subtracted from the arrival times of status packets from the device,
+     * for which individual delays can't be measured.
+     *
+     * @return the mean delay plus the configured extra latency, in nanoseconds
+     */
+    public long getLatency() {
+        return Math.round(meanDelay) + extraLatency;
+    }
+
+    @Override
+    public String toString() {
+        return "DeviceTiming[deviceNumber:" + deviceNumber + ", meanDelay:" + String.format("%.0f", meanDelay) +
+                ", jitter:" + String.format("%.0f", jitter) + ", clockOffset:" + String.format("%.0f", clockOffset) +
+                ", extraLatency:" + extraLatency + ", beatsObserved:" + beatsObserved + "]";
+    }
+}
@@ -0,0 +1,409 @@
+package org.deepsymmetry.beatlink;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * <p>Learns, separately for each device, how much delay its packets experience on their way to us, so that the
+ * times at which beats were actually sent can be estimated. Every {@link DeviceUpdate} is stamped with the time
+ * it was received, which includes transmission and queuing delays that vary from packet to packet, and which are
+ * larger for devices that are further away on the network.</p>
+ *
+ * <p>Each beat packet reports how long it will be until the next beat, so by following that chain the estimator
+ * knows when each beat was sent according to the device's own beat clock. Comparing that with when the beats
+ * arrived gives the offset between the two clocks plus the delay of each packet. The smallest offset seen over
+ * recent beats belongs to the packets that were delayed least, so the amount by which each beat exceeds it is the
+ * extra delay that packet experienced, which is subtracted to produce {@link Beat#getCorrectedTimestamp()}. Status
+ * packets carry no such timing, so the average delay learned from the device's beats is subtracted from them
+ * instead. Beat numbers and play state in status packets reveal when a player has jumped or stopped, at which
+ * point the chain of beats is restarted.</p>
+ *
+ * <p>The delay that every packet from a device experiences can't be learned this way, so if one device is known to
+ * be further away than the others (for example behind extra network switches), that latency can be configured
+ * with {@link #setExtraLatency(int, long)}.</p>
+ *
+ * @author James Elliott
+ * @since 0.6.3
+ */
+@SuppressWarnings("WeakerAccess")
+public class DeviceTimingEstimator {
+
+    /**
+     * The number of recent beats whose clock offsets are examined to find the least delayed packet.
+     */
+    private static final int OFFSET_WINDOW = 32;
+
+    /**
+     * The number of beats that must be observed from a device before corrections are applied.
+     */
+    private static final int MIN_BEATS = 4;
+
+    /**
+     * If more beats than this seem to have been missed, restart rather than extrapolating across the gap.
+     */
+    private static final int MAX_MISSED_BEATS = 8;
+
+    /**
+     * An offset that changes by more than this fraction of a beat means the beat chain has been broken, for example
+     * by a pitch change partway through a beat.
+     */
+    private static final double OFFSET_JUMP_FRACTION = 0.25;
+
+    /**
+     * When the beat interval reported by a beat packet differs from the one implied by its tempo by more than this
+     * many nanoseconds, the beat grid is not evenly spaced, so the reported interval is used. Otherwise the
+     * tempo-derived interval is used, because it is not rounded to whole milliseconds.
+     */
+    private static final double INTERVAL_TOLERANCE = 2000000.0;
+
+    /**
+     * How quickly the average delay and jitter respond to new beats.
+     */
+    private static final double SMOOTHING = 0.1;
+
+    /**
+     * Holds what we have learned about a single device. All access is synchronized on the instance.
+     */
+    private static class DeviceState {
+
+        /**
+         * Whether we are currently following an unbroken chain of beats from the device.
+         */
+        boolean following;
+
+        /**
+         * The arrival time of the first beat in the current chain, from which the device's beat clock is measured.
+         */
+        long origin;
+
+        /**
+         * The time of the most recent beat according to the device's beat clock, in nanoseconds after the origin.
+         */
+        double deviceTime;
+
+        /**
+         * How long the most recent beat said it would be until the next one, in nanoseconds.
+         */
+        double interval;
+
+        /**
+         * When the most recent beat arrived.
+         */
+        long lastArrival;
+
+        /**
+         * The clock offsets of recent beats.
+         */
+        final double[] offsets = new double[OFFSET_WINDOW];
+
+        /**
+         * How many entries in {@link #offsets} are valid.
+         */
+        int offsetCount;
+
+        /**
+         * Where the next offset will be stored in {@link #offsets}.
+         */
+        int nextOffset;
+
+        /**
+         * The clock offset of the most recent beat.
+         */
+        double lastOffset;
+
+        /**
+         * The smallest offset in the window.
+         */
+        double minOffset;
+
+        /**
+         * The smoothed delay of beats beyond the least delayed one.
+         */
+        double meanDelay;
+
+        /**
+         * The smoothed variance of that delay.
+         */
+        double delayVariance;
+
+        /**
+         * The number of beats in the current chain.
+         */
+        long beatsObserved;
+
+        /**
+         * The beat number most recently reported in a status packet, or -1 if none is known.
+         */
+        int lastBeatNumber = -1;
+    }
+
+    /**
+     * What we have learned about each device, indexed by device number.
+     */
+    private final ConcurrentMap<Integer, DeviceState> states = new ConcurrentHashMap<Integer, DeviceState>();
+
+    /**
+     * The fixed latencies that have been configured for devices, in nanoseconds, indexed by device number.
+     */
+    private final Map<Integer, Long> extraLatencies = new ConcurrentHashMap<Integer, Long>();
+
+    /**
+     * Find the state for a device, creating it if necessary.
+     *
+     * @param deviceNumber the device of interest
+     *
+     * @return the state in which we record what we learn about it
+     */
+    private DeviceState stateFor(int deviceNumber) {
+        DeviceState state = states.get(deviceNumber);
+        if (state == null) {
+            state = new DeviceState();
+            final DeviceState existing = states.putIfAbsent(deviceNumber, state);
+            if (existing != null) {
+                state = existing;
+            }
+        }
+        return state;
+    }
+
+    /**
+     * Configure a fixed latency for a device, which will be subtracted from the arrival times of all its packets
+     * in addition to the delays that can be learned. This is useful when a device is known to be further away on
+     * the network than the others.
+     *
+     * @param deviceNumber the device whose latency is being configured
+     * @param nanoseconds the latency to subtract, or 0 to remove any configured latency
+     */
+    public void setExtraLatency(int deviceNumber, long nanoseconds) {
+        if (nanoseconds == 0) {
+            extraLatencies.remove(deviceNumber);
+        } else {
+            extraLatencies.put(deviceNumber, nanoseconds);
+        }
+    }
+
+    /**
+     * Check the fixed latency that has been configured for a device.
+     *
+     * @param deviceNumber the device of interest
+     *
+     * @return the latency subtracted from its packets' arrival times in addition to learned delays, in nanoseconds
+     */
+    public long getExtraLatency(int deviceNumber) {
+        final Long result = extraLatencies.get(deviceNumber);
+        return (result == null)? 0 : result;
+    }
+
+    /**
+     * Work out how long a beat packet says it will be until the next beat.
+     *
+     * @param beat the beat packet
+     *
+     * @return the expected beat interval in nanoseconds, or 0 if it can't be determined
+     */
+    private static double expectedInterval(Beat beat) {
+        final double tempo = beat.getEffectiveTempo();
+        final double tempoInterval = (tempo > 0.0)? 60000000000.0 / tempo : 0.0;
+        final long nextBeat = beat.getNextBeat();
+        final double multiplier = Util.pitchToMultiplier(beat.getPitch());
+        if (nextBeat > 0 && multiplier > 0.0) {
+            final double reportedInterval = nextBeat * 1000000.0 / multiplier;
+            if (tempoInterval <= 0.0 || Math.abs(reportedInterval - tempoInterval) > INTERVAL_TOLERANCE) {
+                return reportedInterval;
+            }
+        }
+        return tempoInterval;
+    }
+
+    /**
+     * Begin following a new chain of beats from a device.
+     *
+     * @param state the state of the device
+     * @param arrival when the first beat of the chain arrived
+     */
+    private static void restart(DeviceState state, long arrival) {
+        state.following = true;
+        state.origin = arrival;
+        state.deviceTime = 0.0;
+        state.offsets[0] = 0.0;
+        state.offsetCount = 1;
+        state.nextOffset = 1 % OFFSET_WINDOW;
+        state.lastOffset = 0.0;
+        state.minOffset = 0.0;
+        state.beatsObserved = 1;
+    }
+
+    /**
+     * Learn from a beat packet that has just been received, and record its corrected timestamp. This is called by
+     * the {@link BeatFinder} before the beat is delivered to any listeners.
+     *
+     * @param beat the beat that was received
+     */
+    void beatReceived(Beat beat) {
+        final long arrival = beat.getTimestamp();
+        final long extraLatency = getExtraLatency(beat.getDeviceNumber());
+        final DeviceState state = stateFor(beat.getDeviceNumber());
+        long delay = 0;
+        synchronized (state) {
+            final long steps = state.following && state.interval > 0.0 ?
+                    Math.round((arrival - state.lastArrival) / state.interval) : 0;
+            if (steps < 1 || steps > MAX_MISSED_BEATS) {
+                restart(state, arrival);
+            } else {
+                final double deviceTime = state.deviceTime + steps * state.interval;
+                final double offset = (arrival - state.origin) - deviceTime;
+                if (Math.abs(offset - state.lastOffset) > state.interval * OFFSET_JUMP_FRACTION) {
+                    restart(state, arrival);
+                } else {
+                    state.deviceTime = deviceTime;
+                    state.lastOffset = offset;
+                    state.offsets[state.nextOffset] = offset;
+                    state.nextOffset = (state.nextOffset + 1) % OFFSET_WINDOW;
+                    state.offsetCount = Math.min(state.offsetCount + 1, OFFSET_WINDOW);
+                    double min = offset;
+                    for (int i = 0; i < state.offsetCount; i++) {
+                        min = Math.min(min, state.offsets[i]);
+                    }
+                    state.minOffset = min;
+                    state.beatsObserved++;
+
+                    final double excess = offset - min;
+                    final double difference = excess - state.meanDelay;
+                    state.meanDelay += SMOOTHING * difference;
+                    state.delayVariance = (1.0 - SMOOTHING) *
+                            (state.delayVariance + SMOOTHING * difference * difference);
+                    if (state.beatsObserved >= MIN_BEATS) {
+                        delay = Math.round(excess);
+                    }
+                }
+            }
+            state.interval = expectedInterval(beat);
+            state.lastArrival = arrival;
+        }
+        beat.setCorrectedTimestamp(arrival - delay - extraLatency);
+    }
+
+    /**
+     * Learn from a status packet that has just been received, noticing when the player has stopped or jumped, which
+     * breaks the chain of beats we are following. This is called by the {@link VirtualCdj}.
+     *
+     * @param status the status that was received
+     */
+    void statusReceived(CdjStatus status) {
+        final DeviceState state = states.get(status.getDeviceNumber());
+        if (state == null) {
+            return;
+        }
+        synchronized (state) {
+            final int beatNumber = status.getBeatNumber();
+            if (!status.isPlaying() || !status.isPlayingForwards() ||
+                    (state.lastBeatNumber >= 0 && beatNumber >= 0 &&
+                            (beatNumber < state.lastBeatNumber || beatNumber > state.lastBeatNumber + 2))) {
+                state.following = false;
+            }
+            state.lastBeatNumber = beatNumber;
+        }
+    }
+
+    /**
+     * Estimate when a device update was sent, by subtracting the delay we have learned for the device that sent it.
+     * Beats are corrected individually as described in {@link Beat#getCorrectedTimestamp()}; other updates have the
+     * device's average delay and configured extra latency subtracted.
+     *
+     * @param update the update of interest
+     *
+     * @return the corrected nanosecond timestamp of the update
+     */
+    public long getCorrectedTimestamp(DeviceUpdate update) {
+        if (update instanceof Beat) {
+            return ((Beat) update).getCorrectedTimestamp();
+        }
+        final DeviceTiming timing = getTiming(update.getDeviceNumber());
+        if (timing == null) {
+            return update.getTimestamp() - getExtraLatency(update.getDeviceNumber());
+        }
+        return update.getTimestamp() - timing.getLatency();
+    }
+
+    /**
+     * Build a description of what we have learned about a device.
+     *
+     * @param deviceNumber the device of interest
+     * @param state the state we have recorded for it
+     *
+     * @return the description, or {@code null} if too few beats have been seen to say anything useful
+     */
+    private DeviceTiming describe(int deviceNumber, DeviceState state) {
+        synchronized (state) {
+            if (state.beatsObserved < MIN_BEATS) {
+                return null;
+            }
+            return new DeviceTiming(deviceNumber, state.meanDelay, Math.sqrt(state.delayVariance), state.minOffset,
+                    getExtraLatency(deviceNumber), state.beatsObserved);
+        }
+    }
+
+    /**
+     * Find out what we have learned about the delays experienced by packets from a device.
+     *
+     * @param deviceNumber the device of interest
+     *
+     * @return the timing details, or {@code null} if we have not yet seen enough beats from the device
+     */
+    public DeviceTiming getTiming(int deviceNumber) {
+        final DeviceState state = states.get(deviceNumber);
+        return (state == null)? null : describe(deviceNumber, state);
+    }
+
+    /**
+     * Find out what we have learned about the delays experienced by packets from all devices.
+     *
+     * @return the timing details of every device from which we have seen enough beats, indexed by device number
+     */
+    public Map<Integer, DeviceTiming> getTimings() {
+        final Map<Integer, DeviceTiming> result = new HashMap<Integer, DeviceTiming>();
+        for (Map.Entry<Integer, DeviceState> entry : states.entrySet()) {
+            final DeviceTiming timing = describe(entry.getKey(), entry.getValue());
+            if (timing != null) {
+                result.put(entry.getKey(), timing);
+            }
+        }
+        return Collections.unmodifiableMap(result);
+    }
+
+    /**
+     * Forget everything that has been learned about all devices, although configured extra latencies are kept.
+     */
+    public void reset() {
+        states.clear();
+    }
+
+    /**
+     * Holds the singleton instance of this class.
+     */
+    private static final DeviceTimingEstimator ourInstance = new DeviceTimingEstimator();
+
+    /**
+     * Get the singleton instance of this class.
+     *
+     * @return the only instance of this class which exists
+     */
+    public static DeviceTimingEstimator getInstance() {
+        return ourInstance;
+    }
+
+    /**
+     * Prevent direct instantiation.
+     */
+    private DeviceTimingEstimator() {
+        // Nothing to do.
+    }
+
+    @Override
+    public String toString() {
+        return "DeviceTimingEstimator[timings:" + getTimings() + ", extraLatencies:" + extraLatencies + "]";
+    }
+}
@@ -0,0 +1,116 @@
+package org.deepsymmetry.beatlink;
+
+/**
+ * Describes the tempo and beat phase of the tempo master as estimated by filtering the beat and status packets it
+ * sends, so that the jitter introduced by the network and by packet processing is smoothed away. Estimates are
+ * available from {@link VirtualCdj#getMasterTempoEstimate()}, and are delivered to registered
+ * {@link MasterTempoEstimateListener} instances whenever the master sends a beat.
+ *
+ * @author James Elliott
+ * @since 0.6.3
+ */
+@SuppressWarnings("WeakerAccess")
+public class MasterTempoEstimate {
+
+    /**
+     * The device number of the tempo master whose beats were used to form the estimate.
+     */
+    public final int deviceNumber;
+
+    /**
+     * The estimated effective tempo of the master, in beats per minute.
+     */
+    public final double tempo;
+
+    /**
+     * The estimated duration of a beat, in nanoseconds.
+     */
+    public final double beatInterval;
+
+    /**
+     * The {@link System#nanoTime()} value at which the most recent beat is estimated to have occurred. This may
+     * differ by a few milliseconds from the timestamp of the beat packet, because the filter removes the variation
+     * in how long packets took to arrive.
+     */
+    public final long beatTimestamp;
+
+    /**
+     * The position of the most recent beat within its measure (1 through 4), or 0 if the master is a device which
+     * does not report meaningful measure positions.
+     */
+    public final int beatWithinBar;
+
+    /**
+     * How much the estimate can be trusted, from 0.0 (it has just been reset, or beats are arriving erratically)
+     * to 1.0 (beats have been arriving steadily where they were predicted).
+     */
+    public final double confidence;
+
+    /**
+     * The number of beats that have contributed to the estimate since it was last reset.
+     */
+    public final long beatsObserved;
+
+    /**
+     * Constructor simply sets the fields of this immutable value class.
+     *
+     * @param deviceNumber the device number of the tempo master
+     * @param beatInterval the estimated duration of a beat, in nanoseconds
+     * @param beatTimestamp when the most recent beat is estimated to have occurred
+     * @param beatWithinBar the position of the most recent beat within its measure, or 0 if not known
+     * @param confidence how much the estimate can be trusted
+     * @param beatsObserved the number of beats that have contributed to the estimate
+     */
+    MasterTempoEstimate(int deviceNumber, double beatInterval, long beatTimestamp, int beatWithinBar,
+                        double confidence, long beatsObserved) {
+        this.deviceNumber = deviceNumber;
+        this.tempo = 60000000000.0 / beatInterval;
+        this.beatInterval = beatInterval;
+        this.beatTimestamp = beatTimestamp;
+        this.beatWithinBar = beatWithinBar;
+        this.confidence = confidence;
+        this.beatsObserved = beatsObserved;
+    }
+
+    /**
+     * Calculate the beat phase of the master at a particular moment, assuming it keeps playing at the estimated
+     * tempo.
+     *
+     * @param nanoTime the {@link System#nanoTime()} value of the moment of interest
+     *
+     * @return how far through its beat the master is at that moment, from 0.0 (on the beat) up to but not
+     *         including 1.0
+     */
+    public double getPhase(long nanoTime) {
+        final double beats = (nanoTime - beatTimestamp) / beatInterval;
+        return beats - Math.floor(beats);
+    }
+
+    /**
+     * Calculate the current beat phase of the master, assuming it has kept playing at the estimated tempo.
+     *
+     * @return how far through its beat the master is now, from 0.0 (on the beat) up to but not including 1.0
+     */
+    public double getPhase() {
+        return getPhase(System.nanoTime());
+    }
+
+    /**
+     * Calculate when the master will next reach a beat, assuming it keeps playing at the estimated tempo.
+     *
+     * @param nanoTime the {@link System#nanoTime()} value after which the beat is wanted
+     *
+     * @return the {@link System#nanoTime()} value at which the first beat after {@code nanoTime} will occur
+     */
+    public long getTimeOfNextBeat(long nanoTime) {
+        final double beats = Math.floor((nanoTime - beatTimestamp) / beatInterval) + 1.0;
+        return beatTimestamp + Math.round(beats * beatInterval);
+    }
+
+    @Override
+    public String toString() {
+        return "MasterTempoEstimate[deviceNumber:" + deviceNumber + ", tempo:" + String.format("%.3f", tempo) +
+                ", beatTimestamp:" + beatTimestamp + ", beatWithinBar:" + beatWithinBar +
+                ", confidence:" + String.format("%.2f", confidence) + ", beatsObserved:" + beatsObserved + "]";
+    }
+}
@@ -0,0 +1,33 @@
+package org.deepsymmetry.beatlink;
+
+/**
+ * <p>The listener interface for receiving filtered estimates of the tempo master's tempo and beat phase. Classes
+ * that want to follow the master more smoothly than the raw beat packets allow, such as visualizers, can implement
+ * this interface and register the listener object using
+ * {@link VirtualCdj#addMasterTempoEstimateListener(MasterTempoEstimateListener)}. Whenever the master sends a beat,
+ * the estimate is updated and the listener's {@link #estimateUpdated(MasterTempoEstimate)} method is invoked.</p>
+ *
+ * <p>Note that in order for beats to be reported, the {@link BeatFinder} must be active as well.</p>
+ *
+ * @author James Elliott
+ * @since 0.6.3
+ */
+@SuppressWarnings("WeakerAccess")
+public interface MasterTempoEstimateListener {
+
+    /**
+     * <p>Invoked when the tempo master has sent a beat and the estimate of its tempo and phase has been updated.</p>
+     *
+     * <p>To reduce latency, estimates are delivered to listeners directly on the thread that is receiving beats
+     * from the network, so if you want to interact with user interface objects in this method, you need to use
+     * <code><a href="http://docs.oracle.com/javase/8/docs/api/javax/swing/SwingUtilities.html#invokeLater-java.lang.Runnable-">javax.swing.SwingUtilities.invokeLater(Runnable)</a></code>
+     * to do so on the Event Dispatch Thread.</p>
+     *
+     * <p>Even if you are not interacting with user interface objects, any code in this method
+     * <em>must</em> finish quickly, or it will add latency for other listeners, and beat announcements will back up.
+     * If you want to perform lengthy processing of any sort, do so on another thread.</p>
+     *
+     * @param estimate the updated estimate of the master's tempo and phase
+     */
+    void estimateUpdated(MasterTempoEstimate estimate);
+}
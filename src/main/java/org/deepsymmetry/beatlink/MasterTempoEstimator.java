@@ -0,0 +1,276 @@
+package org.deepsymmetry.beatlink;
+
+/**
+ * <p>Estimates the tempo and beat phase of the tempo master using a two-state Kalman filter, whose state is the
+ * time of the most recent beat and the beat interval. Each beat packet's arrival time, corrected for network delay
+ * by the {@link DeviceTimingEstimator}, is a noisy measurement of the beat time, and the tempo reported in beat and
+ * status packets is a measurement of the interval. Status packets also carry beat numbers, which let us notice when
+ * the master jumps to a different point in its track, so that the phase can be re-established rather than slowly
+ * dragged into place.</p>
+ *
+ * <p>This class is used by the {@link VirtualCdj}, which feeds it the packets sent by the current tempo master.</p>
+ *
+ * @author James Elliott
+ * @since 0.6.3
+ */
+class MasterTempoEstimator {
+
+    /**
+     * The variance of beat packet arrival times around the true beat times, in square nanoseconds, reflecting
+     * network and processing jitter of a couple of milliseconds.
+     */
+    private static final double ARRIVAL_VARIANCE = 2000000.0 * 2000000.0;
+
+    /**
+     * How much the beat time may drift from one beat to the next beyond what the beat interval explains, in square
+     * nanoseconds.
+     */
+    private static final double PHASE_PROCESS_VARIANCE = 500000.0 * 500000.0;
+
+    /**
+     * How much the beat interval may change from one beat to the next, as a fraction of the interval.
+     */
+    private static final double INTERVAL_PROCESS_FRACTION = 0.001;
+
+    /**
+     * How precisely the tempo reported in packets reflects the actual beat interval, as a fraction of the interval.
+     */
+    private static final double REPORTED_INTERVAL_FRACTION = 0.0005;
+
+    /**
+     * A reported tempo that differs from the estimate by more than this fraction is treated as a deliberate tempo
+     * change, so the filter adopts it immediately rather than converging on it over several beats.
+     */
+    private static final double TEMPO_JUMP_FRACTION = 0.02;
+
+    /**
+     * A beat arriving further than this fraction of a beat from where it was predicted means the master has
+     * jumped, so the phase is re-established from the new beat.
+     */
+    private static final double PHASE_JUMP_FRACTION = 0.25;
+
+    /**
+     * If more beats than this seem to have been missed, start over rather than extrapolating across the gap.
+     */
+    private static final int MAX_MISSED_BEATS = 8;
+
+    /**
+     * How many beats must be observed before the estimate is given full confidence.
+     */
+    private static final int BEATS_FOR_CONFIDENCE = 4;
+
+    /**
+     * The standard deviation of the beat time, as a fraction of the beat interval, at which confidence drops to zero.
+     */
+    private static final double UNCERTAIN_PHASE_FRACTION = 0.05;
+
+    /**
+     * The device whose beats we are following, or 0 if we have not seen any since we were last reset.
+     */
+    private int deviceNumber;
+
+    /**
+     * The {@link System#nanoTime()} value from which {@link #beatTime} is measured, to preserve precision.
+     */
+    private long origin;
+
+    /**
+     * The estimated time of the most recent beat, in nanoseconds after {@link #origin}.
+     */
+    private double beatTime;
+
+    /**
+     * The estimated beat interval, in nanoseconds.
+     */
+    private double interval;
+
+    /**
+     * The variance of the beat time estimate.
+     */
+    private double timeVariance;
+
+    /**
+     * The covariance between the beat time and interval estimates.
+     */
+    private double covariance;
+
+    /**
+     * The variance of the interval estimate.
+     */
+    private double intervalVariance;
+
+    /**
+     * The number of beats observed since the estimate was started.
+     */
+    private long beatsObserved;
+
+    /**
+     * The beat number most recently reported in a status packet from the master, or -1 if none is known.
+     */
+    private int lastBeatNumber = -1;
+
+    /**
+     * Set when status packets show that the master has stopped or jumped, so the next beat re-establishes the phase.
+     */
+    private boolean phaseLost;
+
+    /**
+     * The most recent estimate, or {@code null} if we have none.
+     */
+    private MasterTempoEstimate estimate;
+
+    /**
+     * Forget everything we know, because the tempo master has changed or gone away.
+     */
+    synchronized void reset() {
+        deviceNumber = 0;
+        beatsObserved = 0;
+        lastBeatNumber = -1;
+        phaseLost = false;
+        estimate = null;
+    }
+
+    /**
+     * Get the most recent estimate.
+     *
+     * @return the estimated tempo and phase of the master, or {@code null} if no beats have been seen from it
+     */
+    synchronized MasterTempoEstimate getEstimate() {
+        return estimate;
+    }
+
+    /**
+     * Start a new estimate from a single beat.
+     *
+     * @param beat the beat from which the estimate should start
+     * @param reportedInterval the beat interval implied by the tempo the beat reported
+     */
+    private void start(Beat beat, double reportedInterval) {
+        deviceNumber = beat.getDeviceNumber();
+        origin = beat.getCorrectedTimestamp();
+        beatTime = 0.0;
+        interval = reportedInterval;
+        timeVariance = ARRIVAL_VARIANCE;
+        covariance = 0.0;
+        intervalVariance = square(reportedInterval * REPORTED_INTERVAL_FRACTION);
+        beatsObserved = 1;
+        phaseLost = false;
+    }
+
+    /**
+     * Incorporate a measurement of the beat interval.
+     *
+     * @param measured the beat interval implied by a reported tempo
+     */
+    private void measureInterval(double measured) {
+        final double s = intervalVariance + square(measured * REPORTED_INTERVAL_FRACTION);
+        final double timeGain = covariance / s;
+        final double intervalGain = intervalVariance / s;
+        final double innovation = measured - interval;
+        beatTime += timeGain * innovation;
+        interval += intervalGain * innovation;
+        timeVariance -= timeGain * covariance;
+        covariance *= (1.0 - intervalGain);
+        intervalVariance *= (1.0 - intervalGain);
+    }
+
+    /**
+     * Process a beat packet from the tempo master.
+     *
+     * @param beat the beat that was received
+     *
+     * @return the updated estimate, or {@code null} if the beat did not report a usable tempo
+     */
+    synchronized MasterTempoEstimate beatReceived(Beat beat) {
+        final double tempo = beat.getEffectiveTempo();
+        if (tempo <= 0.0) {
+            return estimate;
+        }
+        final double reportedInterval = 60000000000.0 / tempo;
+
+        if (deviceNumber != beat.getDeviceNumber() || beatsObserved == 0 || phaseLost ||
+                Math.abs(reportedInterval - interval) > interval * TEMPO_JUMP_FRACTION) {
+            start(beat, reportedInterval);
+        } else {
+            final double arrival = beat.getCorrectedTimestamp() - origin;
+            final long steps = Math.round((arrival - beatTime) / interval);
+            if (steps < 1 || steps > MAX_MISSED_BEATS ||
+                    Math.abs(arrival - (beatTime + steps * interval)) > interval * PHASE_JUMP_FRACTION) {
+                start(beat, reportedInterval);
+            } else {
+                // Predict forward to the beat that has arrived.
+                beatTime += steps * interval;
+                timeVariance += 2.0 * steps * covariance + steps * steps * intervalVariance +
+                        steps * PHASE_PROCESS_VARIANCE;
+                covariance += steps * intervalVariance;
+                intervalVariance += steps * square(interval * INTERVAL_PROCESS_FRACTION);
+
+                // Correct using the arrival time of the beat.
+                final double s = timeVariance + ARRIVAL_VARIANCE;
+                final double timeGain = timeVariance / s;
+                final double intervalGain = covariance / s;
+                final double innovation = arrival - beatTime;
+                beatTime += timeGain * innovation;
+                interval += intervalGain * innovation;
+                intervalVariance -= intervalGain * covariance;
+                covariance *= (1.0 - timeGain);
+                timeVariance *= (1.0 - timeGain);
+
+                // Then using the tempo the beat reported.
+                measureInterval(reportedInterval);
+                beatsObserved++;
+            }
+        }
+
+        // Keep the reference point near the latest beat so precision is not lost over long sessions.
+        final long shift = (long) beatTime;
+        origin += shift;
+        beatTime -= shift;
+
+        final double certainty = 1.0 - Math.sqrt(timeVariance) / (interval * UNCERTAIN_PHASE_FRACTION);
+        final double confidence = Math.max(0.0, Math.min(1.0, certainty)) *
+                Math.min(1.0, (double) beatsObserved / BEATS_FOR_CONFIDENCE);
+        estimate = new MasterTempoEstimate(deviceNumber, interval, origin + Math.round(beatTime),
+                beat.isBeatWithinBarMeaningful()? beat.getBeatWithinBar() : 0, confidence, beatsObserved);
+        return estimate;
+    }
+
+    /**
+     * Process a status packet from the tempo master, using its tempo to refine the beat interval, and its beat
+     * number and play state to notice when the master has stopped or jumped.
+     *
+     * @param status the status that was received
+     */
+    synchronized void statusReceived(CdjStatus status) {
+        if (status.getDeviceNumber() != deviceNumber || beatsObserved == 0) {
+            return;
+        }
+        final int beatNumber = status.getBeatNumber();
+        if (!status.isPlaying() || !status.isPlayingForwards() || status.getBpm() == 0xffff) {
+            phaseLost = true;
+        } else if (lastBeatNumber >= 0 && beatNumber >= 0 &&
+                (beatNumber < lastBeatNumber || beatNumber > lastBeatNumber + 2)) {
+            phaseLost = true;  // The master has looped or jumped within its track.
+        } else {
+            final double tempo = status.getEffectiveTempo();
+            if (tempo > 0.0) {
+                final double measured = 60000000000.0 / tempo;
+                if (Math.abs(measured - interval) <= interval * TEMPO_JUMP_FRACTION) {
+                    measureInterval(measured);
+                }
+            }
+        }
+        lastBeatNumber = beatNumber;
+    }
+
+    /**
+     * Square a number.
+     *
+     * @param x the number to be squared
+     *
+     * @return its square
+     */
+    private static double square(double x) {
+        return x * x;
+    }
+}
@@ -0,0 +1,258 @@
+package org.deepsymmetry.beatlink;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * <p>Provides exclusive access to named resources, such as files being fetched by
+ * {@link org.deepsymmetry.beatlink.data.CrateDigger}, to protect against race conditions where one thread creates a
+ * file and another thinks it has already been downloaded and tries to parse the partial file.</p>
+ *
+ * <p>Each name gets its own {@link ReentrantLock}, which exists only while some thread holds or is waiting for it,
+ * so there is no limit on the number of names that can be used over time. Unlike
+ * {@link Util#allocateNamedLock(String)}, finding the lock for a name does not require any global monitor, so
+ * threads working with different names never wait for each other. Counts of how often locks were contended, and
+ * how long threads spent waiting for them, are kept to help diagnose performance problems.</p>
+ *
+ * <p>Every successful call to {@link #lock(String)} or {@link #tryLock(String, long, TimeUnit)} must be balanced by
+ * a call to {@link #unlock(String)} from the same thread, normally in a {@code finally} block.</p>
+ *
+ * @author James Elliott
+ * @since 0.6.3
+ */
+@SuppressWarnings("WeakerAccess")
+public class NamedLocks {
+
+    /**
+     * Holds the lock for a name, along with a count of the threads which are using it. Once the count drops to
+     * zero, the entry is retired and removed from the map, and a new one will be created if the name is used again.
+     */
+    private static class Entry {
+        final ReentrantLock lock = new ReentrantLock();
+        final AtomicInteger users = new AtomicInteger(1);
+    }
+
+    /**
+     * The locks which are currently in use, indexed by name.
+     */
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+
+    /**
+     * Counts the number of times locks have been acquired.
+     */
+    private final AtomicLong acquisitions = new AtomicLong();
+
+    /**
+     * Counts the number of times a thread had to wait for a lock which another thread held.
+     */
+    private final AtomicLong contentions = new AtomicLong();
+
+    /**
+     * Counts the number of times a thread gave up on acquiring a lock because it was not available in time.
+     */
+    private final AtomicLong timeouts = new AtomicLong();
+
+    /**
+     * The total time, in nanoseconds, that threads have spent waiting for locks held by other threads.
+     */
+    private final AtomicLong waitNanos = new AtomicLong();
+
+    /**
+     * Find the entry for a name, creating it if necessary, and register the calling thread as one of its users.
+     *
+     * @param name identifies the resource to be locked
+     *
+     * @return the entry whose lock should be used
+     */
+    private Entry acquireEntry(String name) {
+        while (true) {
+            Entry entry = entries.get(name);
+            if (entry == null) {
+                entry = new Entry();
+                if (entries.putIfAbsent(name, entry) == null) {
+                    return entry;
+                }
+            } else {
+                final int users = entry.users.get();
+                if (users > 0 && entry.users.compareAndSet(users, users + 1)) {
+                    return entry;
+                }
+                // Otherwise the entry is being retired, or its count changed; look again.
+            }
+        }
+    }
+
+    /**
+     * Indicate that the calling thread is done with an entry, removing it if no other threads are using it.
+     *
+     * @param name the name under which the entry is stored
+     * @param entry the entry that is no longer needed
+     */
+    private void releaseEntry(String name, Entry entry) {
+        if (entry.users.decrementAndGet() == 0) {
+            entries.remove(name, entry);
+        }
+    }
+
+    /**
+     * Acquire exclusive access to a named resource, waiting as long as necessary for any other thread to finish
+     * with it.
+     *
+     * @param name uniquely identifies the resource to which exclusive access is needed
+     */
+    public void lock(String name) {
+        final Entry entry = acquireEntry(name);
+        if (!entry.lock.tryLock()) {
+            contentions.incrementAndGet();
+            final long started = System.nanoTime();
+            entry.lock.lock();
+            waitNanos.addAndGet(System.nanoTime() - started);
+        }
+        acquisitions.incrementAndGet();
+    }
+
+    /**
+     * Acquire exclusive access to a named resource only if no other thread is using it.
+     *
+     * @param name uniquely identifies the resource to which exclusive access is needed
+     *
+     * @return {@code true} if the lock was acquired, in which case {@link #unlock(String)} must be called later
+     */
+    public boolean tryLock(String name) {
+        final Entry entry = acquireEntry(name);
+        if (entry.lock.tryLock()) {
+            acquisitions.incrementAndGet();
+            return true;
+        }
+        contentions.incrementAndGet();
+        timeouts.incrementAndGet();
+        releaseEntry(name, entry);
+        return false;
+    }
+
+    /**
+     * Acquire exclusive access to a named resource, waiting no longer than the specified time for any other thread
+     * to finish with it.
+     *
+     * @param name uniquely identifies the resource to which exclusive access is needed
+     * @param timeout the maximum time to wait
+     * @param unit the units in which {@code timeout} is expressed
+     *
+     * @return {@code true} if the lock was acquired, in which case {@link #unlock(String)} must be called later
+     *
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    public boolean tryLock(String name, long timeout, TimeUnit unit) throws InterruptedException {
+        final Entry entry = acquireEntry(name);
+        boolean acquired = false;
+        try {
+            acquired = entry.lock.tryLock();
+            if (!acquired) {
+                contentions.incrementAndGet();
+                final long started = System.nanoTime();
+                try {
+                    acquired = entry.lock.tryLock(timeout, unit);
+                } finally {
+                    waitNanos.addAndGet(System.nanoTime() - started);
+                }
+                if (!acquired) {
+                    timeouts.incrementAndGet();
+                }
+            }
+            if (acquired) {
+                acquisitions.incrementAndGet();
+            }
+            return acquired;
+        } finally {
+            if (!acquired) {
+                releaseEntry(name, entry);
+            }
+        }
+    }
+
+    /**
+     * Give up exclusive access to a named resource that was previously locked by the calling thread.
+     *
+     * @param name the name that was passed when the lock was acquired
+     *
+     * @throws IllegalMonitorStateException if the calling thread does not hold the lock
+     */
+    public void unlock(String name) {
+        final Entry entry = entries.get(name);
+        if (entry == null || !entry.lock.isHeldByCurrentThread()) {
+            throw new IllegalMonitorStateException("Current thread does not hold the lock named " + name);
+        }
+        entry.lock.unlock();
+        releaseEntry(name, entry);
+    }
+
+    /**
+     * Check whether any thread currently holds the lock for a named resource.
+     *
+     * @param name identifies the resource
+     *
+     * @return {@code true} if the resource is locked
+     */
+    public boolean isLocked(String name) {
+        final Entry entry = entries.get(name);
+        return entry != null && entry.lock.isLocked();
+    }
+
+    /**
+     * Check how many names currently have locks that are held or being waited for.
+     *
+     * @return the number of locks in use
+     */
+    public int getActiveLockCount() {
+        return entries.size();
+    }
+
+    /**
+     * Check how many times locks have been acquired.
+     *
+     * @return the number of successful lock acquisitions
+     */
+    public long getAcquisitionCount() {
+        return acquisitions.get();
+    }
+
+    /**
+     * Check how many times a thread found that a lock it wanted was held by another thread.
+     *
+     * @return the number of contended lock attempts
+     */
+    public long getContentionCount() {
+        return contentions.get();
+    }
+
+    /**
+     * Check how many times a thread gave up on a lock because it was not available in time.
+     *
+     * @return the number of failed {@code tryLock} attempts
+     */
+    public long getTimeoutCount() {
+        return timeouts.get();
+    }
+
+    /**
+     * Check how long threads have spent waiting for locks held by other threads.
+     *
+     * @param unit the units in which the time should be reported
+     *
+     * @return the total time spent waiting
+     */
+    public long getTotalWaitTime(TimeUnit unit) {
+        return unit.convert(waitNanos.get(), TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public String toString() {
+        return "NamedLocks[active:" + getActiveLockCount() + ", acquisitions:" + getAcquisitionCount() +
+                ", contentions:" + getContentionCount() + ", timeouts:" + getTimeoutCount() +
+                ", waitMillis:" + getTotalWaitTime(TimeUnit.MILLISECONDS) + "]";
+    }
+}
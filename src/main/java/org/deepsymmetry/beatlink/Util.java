@@ -476,7 +476,10 @@ public class Util {
      *
      * @param name uniquely identifies some resource to which exclusive access is needed
      * @return an object that can be used with a {@code synchronized} block to guarantee exclusive access to the resource
+     *
+     * @deprecated every call passes through a single global monitor; use an instance of {@link NamedLocks} instead
      */
+    @Deprecated
     public synchronized static Object allocateNamedLock(String name) {
         Object result = namedLocks.get(name);
         if (result != null) {
@@ -494,7 +497,10 @@ public class Util {
      * it is eligible for garbage collection if no other threads have it allocated.
      *
      * @param name uniquely identifies some resource to which exclusive access was previously needed
+     *
+     * @deprecated every call passes through a single global monitor; use an instance of {@link NamedLocks} instead
      */
+    @Deprecated
     public synchronized static void freeNamedLock(String name) {
         int count = namedLockUseCounts.get(name);
         if (count > 1) {
@@ -323,10 +323,34 @@ public class VirtualCdj extends LifecycleParticipant {
                 (newMaster != null && ((oldMaster == null) || !newMaster.getAddress().equals(oldMaster.getAddress()) ||
                         newMaster.getDeviceNumber() != oldMaster.getDeviceNumber()))) {
             // This is a change in master, so report it to any registered listeners
+            tempoEstimator.reset();
             deliverMasterChangedAnnouncement(newMaster);
         }
     }
 
+    /**
+     * Filters the beats and status packets sent by the tempo master to estimate its tempo and phase smoothly.
+     */
+    private final MasterTempoEstimator tempoEstimator = new MasterTempoEstimator();
+
+    /**
+     * <p>Get the current estimate of the tempo master's tempo and beat phase. Unlike {@link #getMasterTempo()},
+     * which reports the tempo in the latest packet, and beat announcements, which are timed by when packets arrived,
+     * this is filtered across many beats so that the jitter added by the network is smoothed away.</p>
+     *
+     * <p>Note that in order for beats to be reported, the {@link BeatFinder} must be active as well.</p>
+     *
+     * @return the estimated tempo and phase of the master, or {@code null} if there is no master, or no beats have
+     *         been received from it yet
+     *
+     * @throws IllegalStateException if the {@code VirtualCdj} is not active
+     * @since 0.6.3
+     */
+    public MasterTempoEstimate getMasterTempoEstimate() {
+        ensureRunning();
+        return tempoEstimator.getEstimate();
+    }
+
     /**
      * How large a tempo change is required before we consider it to be a real difference.
      */
@@ -451,6 +475,7 @@ public class VirtualCdj extends LifecycleParticipant {
 
         // Keep track of the largest sync number we see.
         if (update instanceof CdjStatus) {
+            DeviceTimingEstimator.getInstance().statusReceived((CdjStatus) update);
             int syncNumber = ((CdjStatus)update).getSyncNumber();
             if (syncNumber > this.largestSyncCounter.get()) {
                 this.largestSyncCounter.set(syncNumber);
@@ -479,6 +504,9 @@ public class VirtualCdj extends LifecycleParticipant {
                 master.set(false);
                 nextMaster.set(0xff);
                 setTempoMaster(update);
+                if (update instanceof CdjStatus) {
+                    tempoEstimator.statusReceived((CdjStatus) update);
+                }
                 if (update.getBpm() != 0xffff) {  // Ignore invalid tempo, i.e. when master has no track loaded.
                     setMasterTempo(update.getEffectiveTempo());
                 }
@@ -519,8 +547,12 @@ public class VirtualCdj extends LifecycleParticipant {
      */
     void processBeat(Beat beat) {
         if (isRunning() && beat.isTempoMaster()) {
+            final MasterTempoEstimate estimate = tempoEstimator.beatReceived(beat);
             setMasterTempo(beat.getEffectiveTempo());
             deliverBeatAnnouncement(beat);
+            if (estimate != null) {
+                deliverTempoEstimate(estimate);
+            }
         }
     }
 
@@ -1276,6 +1308,70 @@ public class VirtualCdj extends LifecycleParticipant {
         }
     }
 
+    /**
+     * Keeps track of the registered master tempo estimate listeners.
+     */
+    private final Set<MasterTempoEstimateListener> estimateListeners =
+            Collections.newSetFromMap(new ConcurrentHashMap<MasterTempoEstimateListener, Boolean>());
+
+    /**
+     * <p>Adds the specified listener to receive filtered estimates of the tempo master's tempo and phase each time
+     * the master sends a beat. If {@code listener} is {@code null} or already present in the set of registered
+     * listeners, no exception is thrown and no action is performed.</p>
+     *
+     * <p>To reduce latency, estimates are delivered to listeners directly on the thread that is receiving beats
+     * from the network, so listener methods <em>must</em> finish quickly.</p>
+     *
+     * @param listener the master tempo estimate listener to add
+     * @since 0.6.3
+     */
+    public void addMasterTempoEstimateListener(MasterTempoEstimateListener listener) {
+        if (listener != null) {
+            estimateListeners.add(listener);
+        }
+    }
+
+    /**
+     * Removes the specified listener so that it no longer receives estimates of the tempo master's tempo and
+     * phase. If {@code listener} is {@code null} or not present in the set of registered listeners, no exception
+     * is thrown and no action is performed.
+     *
+     * @param listener the master tempo estimate listener to remove
+     * @since 0.6.3
+     */
+    public void removeMasterTempoEstimateListener(MasterTempoEstimateListener listener) {
+        if (listener != null) {
+            estimateListeners.remove(listener);
+        }
+    }
+
+    /**
+     * Get the set of master tempo estimate listeners that are currently registered.
+     *
+     * @return the currently registered master tempo estimate listeners
+     * @since 0.6.3
+     */
+    @SuppressWarnings("WeakerAccess")
+    public Set<MasterTempoEstimateListener> getMasterTempoEstimateListeners() {
+        // Make a copy so callers get an immutable snapshot of the current state.
+        return Collections.unmodifiableSet(new HashSet<MasterTempoEstimateListener>(estimateListeners));
+    }
+
+    /**
+     * Send an updated estimate of the master's tempo and phase to all registered estimate listeners.
+     *
+     * @param estimate the updated estimate
+     */
+    private void deliverTempoEstimate(final MasterTempoEstimate estimate) {
+        for (final MasterTempoEstimateListener listener : getMasterTempoEstimateListeners()) {
+            try {
+                listener.estimateUpdated(estimate);
+            } catch (Throwable t) {
+                logger.warn("Problem delivering master tempo estimate to listener", t);
+            }
+        }
+    }
+
     /**
      * Keeps track of the registered device update listeners.
      */
@@ -2133,6 +2229,12 @@ public class VirtualCdj extends LifecycleParticipant {
         return master.get();
     }
 
+    /**
+     * How confident the master tempo estimate must be before we use it, rather than the arrival time of the beat
+     * packet, to align our metronome when synced.
+     */
+    private static final double SYNC_ESTIMATE_CONFIDENCE = 0.5;
+
     /**
      * Used to respond to master tempo changes and beats when we are synced, aligning our own metronome.
      */
@@ -2153,7 +2255,14 @@ public class VirtualCdj extends LifecycleParticipant {
         @Override
         public void newBeat(Beat beat) {
             if (!isTempoMaster()) {
-                metronome.setBeatPhase(0.0);
+                // Align with the filtered beat time once it can be trusted, so network jitter does not nudge our
+                // metronome back and forth on every beat.
+                final MasterTempoEstimate estimate = tempoEstimator.getEstimate();
+                if (estimate != null && estimate.confidence >= SYNC_ESTIMATE_CONFIDENCE) {
+                    metronome.setBeatPhase(estimate.getPhase());
+                } else {
+                    metronome.setBeatPhase(0.0);
+                }
             }
         }
     };
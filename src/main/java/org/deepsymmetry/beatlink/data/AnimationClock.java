@@ -0,0 +1,313 @@
+package org.deepsymmetry.beatlink.data;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.swing.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * <p>Provides a single animation timer shared by every component which shows the playback position of a player, so
+ * that a wall of waveform views needs one thread rather than one each, and they all move in step.</p>
+ *
+ * <p>Frames are scheduled at fixed intervals from when the clock started, at the rate set by
+ * {@link #setFrameRate(int)}. For each frame, the position of every player with a registered listener is read from
+ * the {@link TimeFinder} just once, as of the moment the frame was due, and then all listeners are called together
+ * in a single task on the Swing Event Dispatch Thread, so the repaints they request are coalesced into one pass. If
+ * that thread has not finished with the previous frame by the time the next one is due, or the clock itself falls
+ * behind, frames are skipped rather than allowed to queue up.</p>
+ *
+ * <p>The clock thread is started when the first listener is added, and ends when the last one is removed.</p>
+ *
+ * @author James Elliott
+ * @since 0.6.3
+ */
+@SuppressWarnings("WeakerAccess")
+public class AnimationClock {
+
+    private static final Logger logger = LoggerFactory.getLogger(AnimationClock.class);
+
+    /**
+     * The number of frames delivered each second unless {@link #setFrameRate(int)} is called.
+     */
+    public static final int DEFAULT_FRAME_RATE = 30;
+
+    /**
+     * The highest frame rate that can be requested.
+     */
+    public static final int MAX_FRAME_RATE = 240;
+
+    /**
+     * The number of frames to deliver each second.
+     */
+    private final AtomicInteger frameRate = new AtomicInteger(DEFAULT_FRAME_RATE);
+
+    /**
+     * The registered listeners, along with the player each one wants positions for.
+     */
+    private final Map<AnimationListener, Integer> animationListeners =
+            new ConcurrentHashMap<AnimationListener, Integer>();
+
+    /**
+     * Set while a frame is waiting to be delivered on the Event Dispatch Thread, so that frames are skipped rather
+     * than queued when that thread is too busy to keep up.
+     */
+    private final AtomicBoolean framePending = new AtomicBoolean(false);
+
+    /**
+     * The number of frames that have been delivered.
+     */
+    private final AtomicLong frameCount = new AtomicLong();
+
+    /**
+     * The number of frames that have been skipped because the clock or the Event Dispatch Thread fell behind.
+     */
+    private final AtomicLong skippedFrameCount = new AtomicLong();
+
+    /**
+     * The thread which times the frames, or {@code null} when no listeners are registered. A thread which finds
+     * it is no longer the one recorded here ends.
+     */
+    private volatile Thread clockThread;
+
+    /**
+     * Holds what needs to be delivered to one listener for a frame.
+     */
+    private static class FrameUpdate {
+
+        /**
+         * The listener to be called.
+         */
+        final AnimationListener listener;
+
+        /**
+         * The player for which the listener was registered.
+         */
+        final int player;
+
+        /**
+         * The player's position at the moment of the frame.
+         */
+        final long milliseconds;
+
+        /**
+         * Constructor simply sets the fields.
+         *
+         * @param listener the listener to be called
+         * @param player the player for which it was registered
+         * @param milliseconds the player's position
+         */
+        FrameUpdate(AnimationListener listener, int player, long milliseconds) {
+            this.listener = listener;
+            this.player = player;
+            this.milliseconds = milliseconds;
+        }
+    }
+
+    /**
+     * Set the number of frames to deliver each second. Takes effect from the next frame.
+     *
+     * @param framesPerSecond the desired frame rate
+     *
+     * @throws IllegalArgumentException if {@code framesPerSecond} is less than one or greater than
+     *         {@link #MAX_FRAME_RATE}
+     */
+    public void setFrameRate(int framesPerSecond) {
+        if (framesPerSecond < 1 || framesPerSecond > MAX_FRAME_RATE) {
+            throw new IllegalArgumentException("framesPerSecond must be between 1 and " + MAX_FRAME_RATE);
+        }
+        frameRate.set(framesPerSecond);
+    }
+
+    /**
+     * Check the number of frames being delivered each second.
+     *
+     * @return the frame rate
+     */
+    public int getFrameRate() {
+        return frameRate.get();
+    }
+
+    /**
+     * Check how many frames have been delivered.
+     *
+     * @return the number of frames delivered since the clock was created
+     */
+    public long getFrameCount() {
+        return frameCount.get();
+    }
+
+    /**
+     * Check how many frames have been skipped because the clock thread or the Event Dispatch Thread could not keep
+     * up with the frame rate. If this grows steadily, consider lowering the frame rate.
+     *
+     * @return the number of frames skipped since the clock was created
+     */
+    public long getSkippedFrameCount() {
+        return skippedFrameCount.get();
+    }
+
+    /**
+     * Adds a listener to receive a call with the position of a player on every animation frame, starting the clock
+     * if this is the first listener. If {@code listener} is {@code null}, no exception is thrown and no action is
+     * performed. If it is already registered, it is switched to the new player.
+     *
+     * @param player the player number whose position the listener wants
+     * @param listener the listener to add
+     */
+    public synchronized void addAnimationListener(int player, AnimationListener listener) {
+        if (listener == null) {
+            return;
+        }
+        animationListeners.put(listener, player);
+        if (clockThread == null) {
+            final Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    runClock();
+                }
+            }, "beat-link AnimationClock");
+            thread.setDaemon(true);
+            clockThread = thread;
+            thread.start();
+        }
+    }
+
+    /**
+     * Removes a listener so that it no longer receives animation frames, stopping the clock if this was the last
+     * listener. If {@code listener} is {@code null} or not registered, no exception is thrown and no action is
+     * performed.
+     *
+     * @param listener the listener to remove
+     */
+    public synchronized void removeAnimationListener(AnimationListener listener) {
+        if (listener == null) {
+            return;
+        }
+        animationListeners.remove(listener);
+        if (animationListeners.isEmpty() && clockThread != null) {
+            final Thread thread = clockThread;
+            clockThread = null;
+            LockSupport.unpark(thread);
+        }
+    }
+
+    /**
+     * Get the listeners that are currently receiving animation frames.
+     *
+     * @return the registered listeners, along with the player number each one was registered for
+     */
+    public Map<AnimationListener, Integer> getAnimationListeners() {
+        // Make a copy so callers get an immutable snapshot of the current state.
+        return Collections.unmodifiableMap(new HashMap<AnimationListener, Integer>(animationListeners));
+    }
+
+    /**
+     * Read the positions needed for a frame and arrange for them to be delivered to the listeners on the Event
+     * Dispatch Thread, unless the previous frame has not yet been delivered.
+     *
+     * @param frameTime the {@link System#nanoTime()} value at which the frame was due
+     */
+    private void deliverFrame(long frameTime) {
+        if (!framePending.compareAndSet(false, true)) {
+            skippedFrameCount.incrementAndGet();
+            return;
+        }
+        try {
+            final TimeFinder timeFinder = TimeFinder.getInstance();
+            final Map<Integer, Long> positions = new HashMap<Integer, Long>();
+            final List<FrameUpdate> updates = new ArrayList<FrameUpdate>(animationListeners.size());
+            for (Map.Entry<AnimationListener, Integer> entry : animationListeners.entrySet()) {
+                final int player = entry.getValue();
+                Long position = positions.get(player);
+                if (position == null) {  // Read each player's position only once per frame.
+                    position = timeFinder.isRunning()? timeFinder.getTimeAt(player, frameTime) : -1L;
+                    positions.put(player, position);
+                }
+                updates.add(new FrameUpdate(entry.getKey(), player, position));
+            }
+            frameCount.incrementAndGet();
+            SwingUtilities.invokeLater(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (FrameUpdate update : updates) {
+                            try {
+                                update.listener.animationFrame(update.player, update.milliseconds);
+                            } catch (Throwable t) {
+                                logger.warn("Problem delivering animation frame to listener", t);
+                            }
+                        }
+                    } finally {
+                        framePending.set(false);
+                    }
+                }
+            });
+        } catch (Throwable t) {
+            logger.warn("Problem preparing animation frame", t);
+            framePending.set(false);
+        }
+    }
+
+    /**
+     * The body of the clock thread, which delivers frames at fixed intervals until it is replaced or no longer
+     * needed. If it falls more than a frame behind, it skips the frames it missed rather than delivering them late.
+     */
+    private void runClock() {
+        final Thread self = Thread.currentThread();
+        long period = 1000000000L / frameRate.get();
+        long next = System.nanoTime() + period;
+        while (clockThread == self) {
+            final long wait = next - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+                continue;
+            }
+            deliverFrame(next);
+            period = 1000000000L / frameRate.get();
+            next += period;
+            final long behind = System.nanoTime() - next;
+            if (behind >= 0) {
+                final long missed = behind / period + 1;
+                skippedFrameCount.addAndGet(missed);
+                next += missed * period;
+            }
+        }
+    }
+
+    /**
+     * Holds the singleton instance of this class.
+     */
+    private static final AnimationClock ourInstance = new AnimationClock();
+
+    /**
+     * Get the singleton instance of this class.
+     *
+     * @return the only instance of this class which exists.
+     */
+    public static AnimationClock getInstance() {
+        return ourInstance;
+    }
+
+    /**
+     * Prevent direct instantiation.
+     */
+    private AnimationClock() {
+        // Nothing to do.
+    }
+
+    @Override
+    public String toString() {
+        return "AnimationClock[frameRate:" + frameRate.get() + ", listeners:" + animationListeners.size() +
+                ", frames:" + frameCount.get() + ", skipped:" + skippedFrameCount.get() + "]";
+    }
+}
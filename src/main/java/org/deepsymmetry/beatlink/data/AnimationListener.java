@@ -0,0 +1,29 @@
+package org.deepsymmetry.beatlink.data;
+
+/**
+ * <p>The listener interface for receiving animation frames from the {@link AnimationClock}.</p>
+ *
+ * <p>Classes that draw a player's playback position, such as waveform components, can implement this interface,
+ * and then pass the implementing instance to {@link AnimationClock#addAnimationListener(int, AnimationListener)}.
+ * Then, once per frame, {@link #animationFrame(int, long)} will be called with the position the player had reached
+ * at the moment of that frame.</p>
+ *
+ * @author James Elliott
+ * @since 0.6.3
+ */
+@SuppressWarnings("WeakerAccess")
+public interface AnimationListener {
+    /**
+     * <p>Invoked once for each animation frame.</p>
+     *
+     * <p>Frames for all listeners are delivered together on the Swing Event Dispatch Thread, so that all the
+     * components they cause to be repainted are painted in the same pass. This means any code in this method
+     * <em>must</em> finish quickly, or it will delay the next frame (which will be skipped if it is not ready
+     * in time) and make the user interface sluggish.</p>
+     *
+     * @param player the player number for which the listener was registered
+     * @param milliseconds how far into the track the player had reached at the moment of the frame, or -1 if we
+     *                     don't know
+     */
+    void animationFrame(int player, long milliseconds);
+}
@@ -1,6 +1,5 @@
 package org.deepsymmetry.beatlink.data;
 
-import com.googlecode.concurrentlinkedhashmap.ConcurrentLinkedHashMap;
 import org.deepsymmetry.beatlink.*;
 import org.deepsymmetry.beatlink.dbserver.*;
 import org.slf4j.Logger;
@@ -12,6 +11,7 @@ import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.LinkedBlockingDeque;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * <p>Watches for new metadata to become available for tracks loaded on players, and queries the
@@ -71,14 +71,8 @@ public class ArtFinder extends LifecycleParticipant {
 
         @Override
         public void mediaUnmounted(SlotReference slot) {
-            // Iterate over a copy to avoid concurrent modification issues.
-            final Set<DataReference> keys = new HashSet<DataReference>(artCache.keySet());
-            for (DataReference artReference : keys) {
-                if (SlotReference.getSlotReference(artReference) == slot) {
-                    logger.debug("Evicting cached artwork in response to unmount report {}", artReference);
-                    artCache.remove(artReference);
-                }
-            }
+            logger.debug("Evicting cached artwork in response to unmount report {}", slot);
+            DataCache.getInstance().removeSlot(DataCache.Kind.ART, slot);
             // Again iterate over a copy to avoid concurrent modification issues.
             final Set<Map.Entry<DeckReference,AlbumArt>> copy = new HashSet<Map.Entry<DeckReference, AlbumArt>>(hotCache.entrySet());
             for (Map.Entry<DeckReference, AlbumArt> entry : copy) {
@@ -90,6 +84,24 @@ public class ArtFinder extends LifecycleParticipant {
         }
     };
 
+    /**
+     * Discards any cached copies of a piece of artwork which changed or disappeared when the database of its media
+     * was refreshed, so that it will be retrieved again rather than reused.
+     *
+     * @param artReference the artwork which is no longer valid
+     */
+    void forgetArt(DataReference artReference) {
+        // Iterate over a copy to avoid concurrent modification issues.
+        final Set<Map.Entry<DeckReference,AlbumArt>> copy = new HashSet<Map.Entry<DeckReference, AlbumArt>>(hotCache.entrySet());
+        for (Map.Entry<DeckReference, AlbumArt> entry : copy) {
+            if (artReference.equals(entry.getValue().artReference)) {
+                logger.debug("Evicting hot cached artwork in response to database change {}", entry.getValue());
+                hotCache.remove(entry.getKey());
+            }
+        }
+        DataCache.getInstance().remove(DataCache.Kind.ART, artReference);
+    }
+
     /**
      * Our announcement listener watches for devices to disappear from the network so we can discard all information
      * about them.
@@ -160,12 +172,7 @@ public class ArtFinder extends LifecycleParticipant {
                 }
             }
         }
-        // Again iterate over a copy to avoid concurrent modification issues
-        for (DataReference art : new HashSet<DataReference>(artCache.keySet())) {
-            if (art.player == player) {
-                artCache.remove(art);
-            }
-        }
+        DataCache.getInstance().removePlayer(DataCache.Kind.ART, player);
     }
 
     /**
@@ -227,43 +234,49 @@ public class ArtFinder extends LifecycleParticipant {
     }
 
     /**
-     * The maximum number of artwork images we will retain in our cache.
+     * The maximum number of artwork images we used to retain in our cache.
+     *
+     * @deprecated art is now kept in the shared {@link DataCache}, whose size is measured in bytes
      */
+    @Deprecated
     public static final int DEFAULT_ART_CACHE_SIZE = 100;
 
     /**
-     * Establish the second-level artwork cache. Since multiple tracks share the same art, it can be worthwhile to keep
-     * art around even for tracks that are not currently loaded, to save on having to request it again when another
-     * track from the same album is loaded.
+     * Records the value most recently passed to {@link #setArtCacheSize(int)}, for compatibility.
      */
-    private final ConcurrentLinkedHashMap<DataReference, AlbumArt> artCache =
-            new ConcurrentLinkedHashMap.Builder<DataReference, AlbumArt>().maximumWeightedCapacity(DEFAULT_ART_CACHE_SIZE).build();
+    private final AtomicInteger artCacheSize = new AtomicInteger(DEFAULT_ART_CACHE_SIZE);
 
     /**
      * Check how many album art images can be kept in the in-memory second-level cache.
      *
-     * @return the maximum number of distinct album art images that will automatically be kept for reuse in the
-     *         in-memory art cache.
+     * @return the value most recently passed to {@link #setArtCacheSize(int)}
+     *
+     * @deprecated art is now kept in the shared {@link DataCache}, whose budget is set in bytes using
+     *             {@link DataCache#setMaxSize(long)}
      */
+    @Deprecated
     public long getArtCacheSize() {
-        return artCache.capacity();
+        return artCacheSize.get();
     }
 
     /**
-     * Set how many album art images can be kept in the in-memory second-level cache.
+     * Set how many album art images can be kept in the in-memory second-level cache. This no longer has any effect,
+     * because art is now kept in the shared {@link DataCache}, weighed by the number of bytes it occupies.
      *
      * @param size the maximum number of distinct album art images that will automatically be kept for reuse in the
-     *         in-memory art cache; if you set this to a smaller number than are currently present in the cache, some
-     *         of the older images will be immediately discarded so that only the number you specified remain
+     *         in-memory art cache
      *
      * @throws IllegalArgumentException if {@code} size is less than 1
+     *
+     * @deprecated use {@link DataCache#setMaxSize(long)} to control the memory used for cached art and other data
      */
+    @Deprecated
     public void setArtCacheSize(int size) {
         if (size < 1) {
             throw new IllegalArgumentException("size must be at least 1");
 
         }
-        artCache.setCapacity(size);
+        artCacheSize.set(size);
     }
 
     /**
@@ -272,29 +285,36 @@ public class ArtFinder extends LifecycleParticipant {
      *
      * @param artReference uniquely identifies the desired album art
      * @param trackType the kind of track that owns the art
+     * @param metadata the metadata of the track that owns the art, if known, so the {@link PersistentDataStore}
+     *                 can be consulted
      * @param failIfPassive will prevent the request from taking place if we are in passive mode, so that automatic
      *                      artwork updates will use available caches only
      *
      * @return the album art found, if any
      */
     private AlbumArt requestArtworkInternal(final DataReference artReference, final CdjStatus.TrackType trackType,
-                                            final boolean failIfPassive) {
+                                            final TrackMetadata metadata, final boolean failIfPassive) {
 
         // First check if we are using cached data for this slot.
         @SuppressWarnings("deprecation") MetadataCache cache = MetadataFinder.getInstance().getMetadataCache(SlotReference.getSlotReference(artReference));
         if (cache != null) {
             final AlbumArt result = cache.getAlbumArt(null, artReference);
-            if (result != null) {
-                artCache.put(artReference, result);
-            }
+            DataCache.getInstance().putAlbumArt(result);
             return result;
         }
 
-        // Then see if any registered metadata providers can offer it for us.
+        // Then see if our persistent data store or any registered metadata providers can offer it for us.
+        final AlbumArt stored = PersistentDataStore.getInstance().getAlbumArt(metadata, artReference);
+        if (stored != null) {
+            DataCache.getInstance().putAlbumArt(stored);
+            return stored;
+        }
         final MediaDetails sourceDetails = MetadataFinder.getInstance().getMediaDetailsFor(artReference.getSlotReference());
         if (sourceDetails != null) {
             final AlbumArt provided = MetadataFinder.getInstance().allMetadataProviders.getAlbumArt(sourceDetails, artReference);
             if (provided != null) {
+                DataCache.getInstance().putAlbumArt(provided);
+                PersistentDataStore.getInstance().storeAlbumArt(metadata, provided);
                 return provided;
             }
         }
@@ -315,8 +335,9 @@ public class ArtFinder extends LifecycleParticipant {
 
         try {
             AlbumArt artwork = ConnectionManager.getInstance().invokeWithClientSession(artReference.player, task, "requesting artwork");
-            if (artwork != null) {  // Our cache file load or network request succeeded, so add to the level 2 cache.
-                artCache.put(artReference, artwork);
+            if (artwork != null) {  // Our network request succeeded, so add to the level 2 cache.
+                DataCache.getInstance().putAlbumArt(artwork);
+                PersistentDataStore.getInstance().storeAlbumArt(metadata, artwork);
             }
             return artwork;
         } catch (Exception e) {
@@ -340,7 +361,7 @@ public class ArtFinder extends LifecycleParticipant {
         ensureRunning();
         AlbumArt artwork = findArtInMemoryCaches(artReference);  // First check the in-memory artwork caches.
         if (artwork == null) {
-            artwork = requestArtworkInternal(artReference, trackType, false);
+            artwork = requestArtworkInternal(artReference, trackType, null, false);
         }
         return artwork;
     }
@@ -388,8 +409,8 @@ public class ArtFinder extends LifecycleParticipant {
             }
         }
 
-        // Not in the hot cache, see if it is in our LRU cache
-        return artCache.get(artReference);
+        // Not in the hot cache, see if it is in the shared LRU cache
+        return DataCache.getInstance().getAlbumArt(artReference);
     }
 
     /**
@@ -493,7 +514,8 @@ public class ArtFinder extends LifecycleParticipant {
                         @Override
                         public void run() {
                             try {
-                                AlbumArt art = requestArtworkInternal(artReference, update.metadata.trackType, true);
+                                AlbumArt art = requestArtworkInternal(artReference, update.metadata.trackType,
+                                        update.metadata, true);
                                 if (art != null) {
                                     updateArt(update, art);
                                 }
@@ -593,7 +615,7 @@ public class ArtFinder extends LifecycleParticipant {
                 }
             });
             hotCache.clear();
-            artCache.clear();
+            DataCache.getInstance().clear(DataCache.Kind.ART);
             deliverLifecycleAnnouncement(logger, false);
         }
     }
@@ -622,9 +644,10 @@ public class ArtFinder extends LifecycleParticipant {
     @Override
     public String toString() {
         StringBuilder sb = new StringBuilder("ArtFinder[running:").append(isRunning()).append(", passive:");
-        sb.append(MetadataFinder.getInstance().isPassive()).append(", artCacheSize:").append(getArtCacheSize());
+        sb.append(MetadataFinder.getInstance().isPassive());
         if (isRunning()) {
-            sb.append(", loadedArt:").append(getLoadedArt()).append(", cached art:").append(artCache.size());
+            sb.append(", loadedArt:").append(getLoadedArt()).append(", cached art:")
+                    .append(DataCache.getInstance().getStatistics(DataCache.Kind.ART).entryCount);
         }
         return sb.append("]").toString();
     }
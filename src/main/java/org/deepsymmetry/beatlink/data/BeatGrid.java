@@ -64,6 +64,115 @@ public class BeatGrid {
      */
     private final long[] timeWithinTrackValues;
 
+    /**
+     * The width of each bucket in the time index, in milliseconds. This is shorter than a beat at any tempo a player
+     * can reach, so after consulting the index a lookup only needs to step past one or two beats.
+     */
+    private static final int INDEX_BUCKET_MILLISECONDS = 128;
+
+    /**
+     * The largest number of buckets we are willing to allocate for a time index. Grids which span a longer time
+     * than this covers (more than four hours) are searched instead.
+     */
+    private static final int MAX_INDEX_BUCKETS = 1 << 17;
+
+    /**
+     * Lookup tables derived from the beat grid, which are built the first time they are needed so that grids which
+     * are only stored or passed along do not pay for them.
+     */
+    private static class Index {
+
+        /**
+         * For each time bucket, the array index of the last beat which starts at or before the start of the
+         * bucket, or -1 if the bucket starts before the first beat. This is {@code null} if the grid spans too much
+         * time to be indexed this way.
+         */
+        final int[] bucketBeats;
+
+        /**
+         * The length of each beat in milliseconds, indexed like the beat grid arrays. The length of the last beat
+         * is calculated from its tempo.
+         */
+        final double[] beatIntervals;
+
+        /**
+         * The beat number of the down beat which starts the bar containing each beat, indexed like the beat grid
+         * arrays. Beats before the first down beat are treated as belonging to a bar starting at beat 1.
+         */
+        final int[] barStarts;
+
+        /**
+         * The bar number containing each beat, indexed like the beat grid arrays, counting from 1 at the first
+         * down beat. Beats before the first down beat are in bar 0.
+         */
+        final int[] barNumbers;
+
+        /**
+         * Build the lookup tables for a beat grid.
+         *
+         * @param beatWithinBarValues the musical count of each beat
+         * @param bpmValues the tempo of each beat
+         * @param timeWithinTrackValues the start time of each beat
+         */
+        Index(int[] beatWithinBarValues, int[] bpmValues, long[] timeWithinTrackValues) {
+            final int count = timeWithinTrackValues.length;
+            beatIntervals = new double[count];
+            barStarts = new int[count];
+            barNumbers = new int[count];
+            int barStart = 1;
+            int bar = 0;
+            for (int i = 0; i < count; i++) {
+                if (i + 1 < count) {
+                    beatIntervals[i] = timeWithinTrackValues[i + 1] - timeWithinTrackValues[i];
+                } else {
+                    beatIntervals[i] = (bpmValues[i] > 0)? 6000000.0 / bpmValues[i] :
+                            ((i > 0)? beatIntervals[i - 1] : 0.0);
+                }
+                if (beatWithinBarValues[i] == 1) {
+                    barStart = i + 1;
+                    bar++;
+                }
+                barStarts[i] = barStart;
+                barNumbers[i] = bar;
+            }
+
+            final long span = (count > 0)? timeWithinTrackValues[count - 1] : -1;
+            if (span < 0 || span / INDEX_BUCKET_MILLISECONDS >= MAX_INDEX_BUCKETS) {
+                bucketBeats = null;
+            } else {
+                bucketBeats = new int[(int) (span / INDEX_BUCKET_MILLISECONDS) + 1];
+                int beat = -1;
+                for (int bucket = 0; bucket < bucketBeats.length; bucket++) {
+                    final long bucketStart = (long) bucket * INDEX_BUCKET_MILLISECONDS;
+                    while (beat + 1 < count && timeWithinTrackValues[beat + 1] <= bucketStart) {
+                        beat++;
+                    }
+                    bucketBeats[bucket] = beat;
+                }
+            }
+        }
+    }
+
+    /**
+     * Holds the lookup tables once they have been built.
+     */
+    private volatile Index index;
+
+    /**
+     * Get the lookup tables for this beat grid, building them if this is the first time they have been needed.
+     * Concurrent first calls may each build them, but the results are identical, so that is harmless.
+     *
+     * @return the lookup tables
+     */
+    private Index getIndex() {
+        Index result = index;
+        if (result == null) {
+            result = new Index(beatWithinBarValues, bpmValues, timeWithinTrackValues);
+            index = result;
+        }
+        return result;
+    }
+
     /**
      * Constructor for when reading from the network.
      *
@@ -223,7 +332,53 @@ public class BeatGrid {
     }
 
     /**
-     * Finds the beat in which the specified track position falls.
+     * Get the length of a beat, which is the time until the following beat starts, or for the last beat in the
+     * grid, the length implied by its tempo.
+     *
+     * @param beatNumber the beat number desired, must fall within the range 1..beatCount
+     *
+     * @return the length of the beat in milliseconds
+     *
+     * @throws IllegalArgumentException if {@code number} is less than 1 or greater than {@code beatCount}
+     * @since 0.6.3
+     */
+    public double getBeatInterval(int beatNumber) {
+        return getIndex().beatIntervals[beatOffset(beatNumber)];
+    }
+
+    /**
+     * Find the down beat which starts the bar containing a beat.
+     *
+     * @param beatNumber the beat number of interest, must fall within the range 1..beatCount
+     *
+     * @return the beat number at which the bar containing that beat starts, or 1 if the beat comes before the
+     *         first down beat in the track
+     *
+     * @throws IllegalArgumentException if {@code number} is less than 1 or greater than {@code beatCount}
+     * @since 0.6.3
+     */
+    public int getBarStart(int beatNumber) {
+        return getIndex().barStarts[beatOffset(beatNumber)];
+    }
+
+    /**
+     * Find the bar in which a beat falls, counting from 1 at the first down beat of the track.
+     *
+     * @param beatNumber the beat number of interest, must fall within the range 1..beatCount
+     *
+     * @return the bar number containing that beat, or 0 if the beat comes before the first down beat
+     *
+     * @throws IllegalArgumentException if {@code number} is less than 1 or greater than {@code beatCount}
+     * @since 0.6.3
+     */
+    public int getBarNumber(int beatNumber) {
+        return getIndex().barNumbers[beatOffset(beatNumber)];
+    }
+
+    /**
+     * Finds the beat in which the specified track position falls. This consults a time index which maps
+     * fixed-length slices of the track to the beats that start within them, so it takes constant time rather than
+     * searching the grid.
      *
      * @param milliseconds how long the track has been playing
      *
@@ -231,6 +386,17 @@ public class BeatGrid {
      */
     @SuppressWarnings("WeakerAccess")
     public int findBeatAtTime(long milliseconds) {
+        if (beatCount == 0 || milliseconds < timeWithinTrackValues[0]) {
+            return -1;
+        }
+        final int[] bucketBeats = getIndex().bucketBeats;
+        if (bucketBeats != null) {
+            int beat = bucketBeats[(int) Math.min(milliseconds / INDEX_BUCKET_MILLISECONDS, bucketBeats.length - 1)];
+            while (beat + 1 < beatCount && timeWithinTrackValues[beat + 1] <= milliseconds) {
+                beat++;
+            }
+            return beat + 1;  // Change 0-based array index to 1-based beat number.
+        }
         int found = Arrays.binarySearch(timeWithinTrackValues, milliseconds);
         if (found >= 0) {  // An exact match, just change 0-based array index to 1-based beat number
             return found + 1;
@@ -241,6 +407,72 @@ public class BeatGrid {
         }
     }
 
+    /**
+     * Create a cursor for finding the beats at a series of track positions which mostly move forward in small
+     * steps, such as the columns of a waveform being painted.
+     *
+     * @return a new cursor, positioned before the start of the track
+     * @since 0.6.3
+     */
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * Finds the beats at a sequence of track positions by stepping forward from the beat found for the previous
+     * position, falling back to {@link BeatGrid#findBeatAtTime(long)} when the position moves backwards or a long
+     * way forwards. Each cursor is meant to be used by a single thread, for the duration of a loop.
+     *
+     * @since 0.6.3
+     */
+    public class Cursor {
+
+        /**
+         * The largest number of beats we will step past before deciding a lookup would be faster.
+         */
+        private static final int MAX_STEPS = 4;
+
+        /**
+         * The array index of the beat found for the previous position, or -1 if it was before the first beat.
+         */
+        private int beat = -1;
+
+        /**
+         * The previous position looked up, in milliseconds.
+         */
+        private long previous = Long.MIN_VALUE;
+
+        /**
+         * Prevent instantiation other than through {@link BeatGrid#cursor()}.
+         */
+        private Cursor() {
+        }
+
+        /**
+         * Finds the beat in which the specified track position falls, with the same results as
+         * {@link BeatGrid#findBeatAtTime(long)}.
+         *
+         * @param milliseconds how long the track has been playing
+         *
+         * @return the beat number represented by that time, or -1 if the time is before the first beat
+         */
+        public int findBeatAtTime(long milliseconds) {
+            if (milliseconds < previous) {
+                beat = Math.max(-1, BeatGrid.this.findBeatAtTime(milliseconds) - 1);
+            } else {
+                int steps = 0;
+                while (beat + 1 < beatCount && timeWithinTrackValues[beat + 1] <= milliseconds) {
+                    if (++steps > MAX_STEPS) {
+                        beat = Math.max(-1, BeatGrid.this.findBeatAtTime(milliseconds) - 1);
+                        break;
+                    }
+                    beat++;
+                }
+            }
+            previous = milliseconds;
+            return (beat < 0)? -1 : beat + 1;
+        }
+    }
 
     @Override
     public String toString() {
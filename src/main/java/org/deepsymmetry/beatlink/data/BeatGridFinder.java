@@ -77,9 +77,27 @@ public class BeatGridFinder extends LifecycleParticipant {
                     hotCache.remove(entry.getKey());
                 }
             }
+            DataCache.getInstance().removeSlot(DataCache.Kind.BEAT_GRID, slot);
         }
     };
 
+    /**
+     * Discards any cached beat grid for a track whose row changed or disappeared when the database of its media was
+     * refreshed, so that it will be retrieved again rather than reused.
+     *
+     * @param track the track whose beat grid is no longer valid
+     */
+    void forgetTrack(DataReference track) {
+        // Iterate over a copy to avoid concurrent modification issues
+        for (Map.Entry<DeckReference, BeatGrid> entry : new HashMap<DeckReference, BeatGrid>(hotCache).entrySet()) {
+            if (track.equals(entry.getValue().dataReference)) {
+                logger.debug("Evicting cached beat grid in response to database change {}", entry.getValue());
+                hotCache.remove(entry.getKey());
+            }
+        }
+        DataCache.getInstance().remove(DataCache.Kind.BEAT_GRID, track);
+    }
+
     /**
      * Our announcement listener watches for devices to disappear from the network so we can discard all information
      * about them.
@@ -150,6 +168,7 @@ public class BeatGridFinder extends LifecycleParticipant {
                 }
             }
         }
+        DataCache.getInstance().removePlayer(DataCache.Kind.BEAT_GRID, player);
     }
 
     /**
@@ -218,17 +237,41 @@ public class BeatGridFinder extends LifecycleParticipant {
         return result;
     }
 
+    /**
+     * Look for a beat grid in the shared in-memory {@link DataCache}, so that tracks which are reloaded do not need
+     * to be requested again, and if it is not there, obtain it and add it to that cache.
+     *
+     * @param trackReference uniquely identifies the desired beat grid
+     * @param metadata the metadata of the track, if known, so the {@link PersistentDataStore} can be consulted
+     * @param failIfPassive will prevent the request from taking place if we are in passive mode, so that automatic
+     *                      beat grid updates will use available caches only
+     *
+     * @return the beat grid found, if any
+     */
+    private BeatGrid requestBeatGridInternal(final DataReference trackReference, final TrackMetadata metadata,
+                                             final boolean failIfPassive) {
+        final BeatGrid cached = DataCache.getInstance().getBeatGrid(trackReference);
+        if (cached != null) {
+            return cached;
+        }
+        final BeatGrid result = fetchBeatGrid(trackReference, metadata, failIfPassive);
+        DataCache.getInstance().putBeatGrid(result);
+        return result;
+    }
+
     /**
      * Ask the specified player for the beat grid in the specified slot with the specified rekordbox ID,
      * using cached media instead if it is available, and possibly giving up if we are in passive mode.
      *
      * @param trackReference uniquely identifies the desired beat grid
+     * @param metadata the metadata of the track, if known, so the {@link PersistentDataStore} can be consulted
      * @param failIfPassive will prevent the request from taking place if we are in passive mode, so that automatic
      *                      beat grid updates will use available caches only
      *
      * @return the beat grid found, if any
      */
-    private BeatGrid requestBeatGridInternal(final DataReference trackReference, final boolean failIfPassive) {
+    private BeatGrid fetchBeatGrid(final DataReference trackReference, final TrackMetadata metadata,
+                                   final boolean failIfPassive) {
 
         // First check if we are using cached data for this slot
         @SuppressWarnings("deprecation") MetadataCache cache = MetadataFinder.getInstance().getMetadataCache(SlotReference.getSlotReference(trackReference));
@@ -236,14 +279,20 @@ public class BeatGridFinder extends LifecycleParticipant {
             return cache.getBeatGrid(null, trackReference);
         }
 
-        // Then see if any registered metadata providers can offer it to us.
+        // Then see if any registered metadata providers can offer it to us. They go before our persistent data
+        // store because they read the analysis on the mounted media, which may have had its grid edited.
         final MediaDetails sourceDetails = MetadataFinder.getInstance().getMediaDetailsFor(trackReference.getSlotReference());
-        if (sourceDetails !=  null) {
+        if (sourceDetails != null) {
             final BeatGrid provided = MetadataFinder.getInstance().allMetadataProviders.getBeatGrid(sourceDetails, trackReference);
             if (provided != null) {
+                PersistentDataStore.getInstance().storeBeatGrid(metadata, provided);
                 return provided;
             }
         }
+        final BeatGrid stored = PersistentDataStore.getInstance().getBeatGrid(metadata);
+        if (stored != null) {
+            return stored;
+        }
 
         // At this point, unless we are allowed to actively request the data, we are done. We can always actively
         // request tracks from rekordbox.
@@ -260,7 +309,9 @@ public class BeatGridFinder extends LifecycleParticipant {
         };
 
         try {
-            return ConnectionManager.getInstance().invokeWithClientSession(trackReference.player, task, "requesting beat grid");
+            final BeatGrid beatGrid = ConnectionManager.getInstance().invokeWithClientSession(trackReference.player, task, "requesting beat grid");
+            PersistentDataStore.getInstance().storeBeatGrid(metadata, beatGrid);
+            return beatGrid;
         } catch (Exception e) {
             logger.error("Problem requesting beat grid, returning null", e);
         }
@@ -281,7 +332,7 @@ public class BeatGridFinder extends LifecycleParticipant {
                 return cached;
             }
         }
-        return requestBeatGridInternal(track, false);
+        return requestBeatGridInternal(track, null, false);
     }
 
     /**
@@ -413,7 +464,8 @@ public class BeatGridFinder extends LifecycleParticipant {
                         @Override
                         public void run() {
                             try {
-                                BeatGrid grid = requestBeatGridInternal(update.metadata.trackReference, true);
+                                BeatGrid grid = requestBeatGridInternal(update.metadata.trackReference,
+                                        update.metadata, true);
                                 if (grid != null && grid.beatCount > 0) {
                                     updateBeatGrid(update, grid);
                                 }
@@ -521,6 +573,7 @@ public class BeatGridFinder extends LifecycleParticipant {
                 }
             });
             hotCache.clear();
+            DataCache.getInstance().clear(DataCache.Kind.BEAT_GRID);
             deliverLifecycleAnnouncement(logger, false);
         }
     }
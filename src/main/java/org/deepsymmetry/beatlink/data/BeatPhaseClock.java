@@ -0,0 +1,664 @@
+package org.deepsymmetry.beatlink.data;
+
+import org.deepsymmetry.beatlink.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * <p>Follows the beat phase of a single player, or of whichever device is currently the tempo master, and delivers
+ * evenly spaced sub-beat ticks to registered {@link BeatTickListener} instances, for example to drive a MIDI clock
+ * at 24 pulses per quarter note, or a sequencer at 96.</p>
+ *
+ * <p>Upcoming ticks are predicted from the playback position reported by the {@link TimeFinder}, the player's
+ * pitch, and the times of the beats in the track's {@link BeatGrid}, so ticks stay aligned with the actual beats
+ * even when they are not evenly spaced. When no beat grid is available (for example when following a mixer as tempo
+ * master), ticks are extrapolated from the timestamp and effective tempo of the most recent beat packet.</p>
+ *
+ * <p>To deliver ticks with little jitter, the clock thread parks until shortly before each tick is due, predicting
+ * it again each time it wakes up, and then spins for the last fraction of a millisecond. The threshold at which it
+ * switches to spinning can be adjusted with {@link #setSpinThreshold(long)}, trading CPU use for accuracy, and the
+ * accuracy actually achieved is reported by {@link #getMeanLateness()}, {@link #getMaxLateness()}, and
+ * {@link #getJitter()}.</p>
+ *
+ * @author James Elliott
+ * @since 0.6.3
+ */
+@SuppressWarnings("WeakerAccess")
+public class BeatPhaseClock extends LifecycleParticipant {
+
+    private static final Logger logger = LoggerFactory.getLogger(BeatPhaseClock.class);
+
+    /**
+     * The player number to pass to the constructor in order to follow whichever device is the current tempo master.
+     */
+    public static final int MASTER = 0;
+
+    /**
+     * The default number of nanoseconds before a tick is due at which the clock thread stops parking and begins to
+     * spin.
+     */
+    public static final long DEFAULT_SPIN_THRESHOLD = 500000;
+
+    /**
+     * The longest time for which the clock thread will park before predicting the next tick again, in nanoseconds,
+     * so that changes in pitch or position are noticed promptly.
+     */
+    private static final long MAX_PARK_NANOS = 2000000;
+
+    /**
+     * How long the clock thread parks between checks when the player is not playing, in nanoseconds.
+     */
+    private static final long IDLE_PARK_NANOS = 5000000;
+
+    /**
+     * How many beat intervals can pass without a new beat packet before we decide that a player we are following
+     * without a beat grid has stopped.
+     */
+    private static final double MAX_BEATS_WITHOUT_PACKET = 2.5;
+
+    /**
+     * Marks that no tick has yet been delivered for the current source of timing information.
+     */
+    private static final long NO_TICK = Long.MIN_VALUE;
+
+    /**
+     * The player we are following, or {@link #MASTER}.
+     */
+    private final int player;
+
+    /**
+     * The number of ticks delivered in each beat.
+     */
+    private final int ticksPerBeat;
+
+    /**
+     * Create a clock which follows a player, or the tempo master.
+     *
+     * @param player the player number to follow, or {@link #MASTER} to follow the current tempo master
+     * @param ticksPerBeat the number of ticks to deliver during each beat, such as 24 for a MIDI clock
+     *
+     * @throws IllegalArgumentException if {@code player} is negative or {@code ticksPerBeat} is less than one
+     */
+    public BeatPhaseClock(int player, int ticksPerBeat) {
+        if (player < 0) {
+            throw new IllegalArgumentException("player cannot be negative");
+        }
+        if (ticksPerBeat < 1) {
+            throw new IllegalArgumentException("ticksPerBeat must be at least 1");
+        }
+        this.player = player;
+        this.ticksPerBeat = ticksPerBeat;
+    }
+
+    /**
+     * Check which player this clock follows.
+     *
+     * @return the player number, or {@link #MASTER} if the clock follows the current tempo master
+     */
+    public int getPlayer() {
+        return player;
+    }
+
+    /**
+     * Check how finely this clock divides each beat.
+     *
+     * @return the number of ticks delivered during each beat
+     */
+    public int getTicksPerBeat() {
+        return ticksPerBeat;
+    }
+
+    /**
+     * How many nanoseconds before a tick is due the clock thread begins spinning rather than parking.
+     */
+    private final AtomicLong spinThreshold = new AtomicLong(DEFAULT_SPIN_THRESHOLD);
+
+    /**
+     * Set how many nanoseconds before a tick is due the clock thread stops parking and begins to spin. Larger values
+     * make ticks more punctual on systems whose timers are coarse, at the cost of keeping a processor busy for longer
+     * during each tick.
+     *
+     * @param nanoseconds the spin threshold; zero means never spin
+     *
+     * @throws IllegalArgumentException if {@code nanoseconds} is negative
+     */
+    public void setSpinThreshold(long nanoseconds) {
+        if (nanoseconds < 0) {
+            throw new IllegalArgumentException("spin threshold cannot be negative");
+        }
+        spinThreshold.set(nanoseconds);
+    }
+
+    /**
+     * Check how many nanoseconds before a tick is due the clock thread stops parking and begins to spin.
+     *
+     * @return the spin threshold
+     */
+    public long getSpinThreshold() {
+        return spinThreshold.get();
+    }
+
+    /**
+     * How much earlier than the actual beat timing ticks are delivered, in nanoseconds.
+     */
+    private final AtomicLong latency = new AtomicLong(0);
+
+    /**
+     * Set how much earlier than the player's actual beat timing ticks should be delivered, to compensate for the
+     * latency of whatever the ticks are driving. For example, if video output takes 80 milliseconds to appear, a
+     * latency of 80,000,000 nanoseconds makes the video change on the beat. Negative values deliver ticks late,
+     * for outputs which are ahead of the players.
+     *
+     * @param nanoseconds the output latency to compensate for
+     * @since 0.6.3
+     */
+    public void setLatency(long nanoseconds) {
+        latency.set(nanoseconds);
+    }
+
+    /**
+     * Check how much earlier than the player's actual beat timing ticks are delivered.
+     *
+     * @return the output latency being compensated for, in nanoseconds
+     * @since 0.6.3
+     */
+    public long getLatency() {
+        return latency.get();
+    }
+
+    /**
+     * The most recent beat packet received from each device, which lets us follow devices for which no beat grid is
+     * available, including mixers.
+     */
+    private final Map<Integer, Beat> latestBeats = new ConcurrentHashMap<Integer, Beat>();
+
+    /**
+     * Records beat packets as they arrive.
+     */
+    private final BeatListener beatListener = new BeatListener() {
+        @Override
+        public void newBeat(Beat beat) {
+            latestBeats.put(beat.getDeviceNumber(), beat);
+        }
+    };
+
+    /**
+     * Keeps track of the registered tick listeners.
+     */
+    private final Set<BeatTickListener> tickListeners =
+            Collections.newSetFromMap(new ConcurrentHashMap<BeatTickListener, Boolean>());
+
+    /**
+     * Adds the specified tick listener to receive ticks from this clock. If {@code listener} is {@code null} or
+     * already present in the set of registered listeners, no exception is thrown and no action is performed.
+     *
+     * <p>Ticks are delivered on the clock thread, so listeners must return very quickly to avoid disturbing the
+     * timing of the ticks that follow.</p>
+     *
+     * @param listener the tick listener to add
+     */
+    public void addBeatTickListener(BeatTickListener listener) {
+        if (listener != null) {
+            tickListeners.add(listener);
+        }
+    }
+
+    /**
+     * Removes the specified tick listener so that it no longer receives ticks from this clock. If {@code listener}
+     * is {@code null} or not present in the set of registered listeners, no exception is thrown and no action is
+     * performed.
+     *
+     * @param listener the tick listener to remove
+     */
+    public void removeBeatTickListener(BeatTickListener listener) {
+        if (listener != null) {
+            tickListeners.remove(listener);
+        }
+    }
+
+    /**
+     * Get the set of tick listeners that are currently registered.
+     *
+     * @return the currently registered tick listeners
+     */
+    public Set<BeatTickListener> getBeatTickListeners() {
+        // Make a copy so callers get an immutable snapshot of the current state.
+        return Collections.unmodifiableSet(new HashSet<BeatTickListener>(tickListeners));
+    }
+
+    /**
+     * Send a tick to all registered listeners.
+     *
+     * @param tick the tick that has been reached
+     */
+    private void deliverTick(BeatTick tick) {
+        for (final BeatTickListener listener : tickListeners) {
+            try {
+                listener.tick(tick);
+            } catch (Throwable t) {
+                logger.warn("Problem delivering beat tick to listener", t);
+            }
+        }
+    }
+
+    /**
+     * The number of ticks delivered since statistics were last reset.
+     */
+    private long tickCount;
+
+    /**
+     * The sum of the lateness of the ticks delivered since statistics were last reset, in nanoseconds.
+     */
+    private double latenessSum;
+
+    /**
+     * The sum of the squares of the lateness of the ticks delivered since statistics were last reset.
+     */
+    private double latenessSquareSum;
+
+    /**
+     * The greatest lateness of any tick delivered since statistics were last reset, in nanoseconds.
+     */
+    private long maxLateness;
+
+    /**
+     * Record the timing accuracy of a tick that has been delivered.
+     *
+     * @param lateness how many nanoseconds after it was due the tick was delivered
+     */
+    private synchronized void recordLateness(long lateness) {
+        tickCount++;
+        latenessSum += lateness;
+        latenessSquareSum += (double) lateness * lateness;
+        maxLateness = Math.max(maxLateness, lateness);
+    }
+
+    /**
+     * Discard the timing statistics gathered so far, so that new measurements can be made, for example after
+     * changing the spin threshold.
+     */
+    public synchronized void resetStatistics() {
+        tickCount = 0;
+        latenessSum = 0;
+        latenessSquareSum = 0;
+        maxLateness = 0;
+    }
+
+    /**
+     * Check how many ticks have been delivered since the statistics were last reset.
+     *
+     * @return the number of ticks delivered
+     */
+    public synchronized long getTickCount() {
+        return tickCount;
+    }
+
+    /**
+     * Check how late ticks have been delivered, on average, since the statistics were last reset.
+     *
+     * @return the mean number of nanoseconds between when ticks were due and when they were delivered
+     */
+    public synchronized double getMeanLateness() {
+        return (tickCount == 0) ? 0.0 : latenessSum / tickCount;
+    }
+
+    /**
+     * Check the latest that any tick has been delivered since the statistics were last reset.
+     *
+     * @return the greatest number of nanoseconds between when a tick was due and when it was delivered
+     */
+    public synchronized long getMaxLateness() {
+        return maxLateness;
+    }
+
+    /**
+     * Check how much the lateness of ticks has varied since the statistics were last reset.
+     *
+     * @return the standard deviation of the tick lateness, in nanoseconds
+     */
+    public synchronized double getJitter() {
+        if (tickCount == 0) {
+            return 0.0;
+        }
+        final double mean = latenessSum / tickCount;
+        return Math.sqrt(Math.max(0.0, latenessSquareSum / tickCount - mean * mean));
+    }
+
+    // The following fields describe the most recent prediction, and are used only by the clock thread.
+
+    /**
+     * The device whose timing information was used for the most recent prediction.
+     */
+    private int sourceDevice;
+
+    /**
+     * The beat grid used for the most recent prediction, or {@code null} if it was extrapolated from a beat packet.
+     */
+    private BeatGrid sourceGrid;
+
+    /**
+     * The {@link System#nanoTime()} value at which the most recent prediction was made.
+     */
+    private long predictedAt;
+
+    /**
+     * The position within the track, in milliseconds, that the player was predicted to have reached.
+     */
+    private double predictedPosition;
+
+    /**
+     * The pitch at which the player was playing, where 1.0 means normal speed.
+     */
+    private double predictedPitch;
+
+    /**
+     * The effective tempo at which the player was playing.
+     */
+    private double predictedTempo;
+
+    /**
+     * The beat packet from which ticks are being extrapolated when there is no beat grid.
+     */
+    private Beat sourceBeat;
+
+    /**
+     * The index of the beat described by {@link #sourceBeat}, counted since we started following the device
+     * without a beat grid, so that tick indices keep increasing from one beat packet to the next.
+     */
+    private long sourceBeatIndex;
+
+    /**
+     * Work out where the device we are following is now, and how fast it is playing.
+     *
+     * @param now the {@link System#nanoTime()} value for which the prediction is wanted
+     *
+     * @return {@code true} if the device is playing forwards, so ticks can be predicted
+     */
+    private boolean predict(long now) {
+        int device = player;
+        if (player == MASTER) {
+            final DeviceUpdate master = VirtualCdj.getInstance().isRunning()?
+                    VirtualCdj.getInstance().getTempoMaster() : null;
+            if (master == null) {
+                return false;
+            }
+            device = master.getDeviceNumber();
+        }
+        if (device != sourceDevice) {
+            sourceDevice = device;
+            sourceGrid = null;
+            sourceBeat = null;
+        }
+        predictedAt = now;
+
+        final TrackPositionUpdate position = TimeFinder.getInstance().isRunning()?
+                TimeFinder.getInstance().getLatestPositionFor(device) : null;
+        if (position != null && position.beatGrid != null && position.beatGrid.beatCount > 1) {
+            if (!position.playing || position.reverse || position.pitch <= 0.0) {
+                return false;
+            }
+            sourceGrid = position.beatGrid;
+            sourceBeat = null;
+            predictedPitch = position.pitch;
+            predictedPosition = position.milliseconds +
+                    (now - position.correctedTimestamp) / 1000000.0 * position.pitch;
+            final int beat = Math.max(1, sourceGrid.findBeatAtTime((long) predictedPosition));
+            predictedTempo = sourceGrid.getBpm(beat) * position.pitch / 100.0;
+            return true;
+        }
+
+        final Beat beat = latestBeats.get(device);
+        if (beat == null || beat.getEffectiveTempo() <= 0.0) {
+            return false;
+        }
+        predictedTempo = beat.getEffectiveTempo();
+        if (now - beat.getCorrectedTimestamp() > MAX_BEATS_WITHOUT_PACKET * beatInterval()) {
+            return false;  // The device seems to have stopped playing.
+        }
+        if (beat != sourceBeat) {
+            if (sourceBeat == null) {
+                sourceBeatIndex++;
+            } else {  // Count any beats whose packets were lost, so predictions don't fall a beat behind.
+                sourceBeatIndex += Math.max(1, Math.round((beat.getCorrectedTimestamp() -
+                        sourceBeat.getCorrectedTimestamp()) / beatInterval()));
+            }
+            sourceGrid = null;
+            sourceBeat = beat;
+        }
+        return true;
+    }
+
+    /**
+     * Calculate how long a beat lasts at the predicted tempo.
+     *
+     * @return the beat interval in nanoseconds
+     */
+    private double beatInterval() {
+        return 60000000000.0 / predictedTempo;
+    }
+
+    /**
+     * Find when a beat occurs in the track we are following, extrapolating past the end of the beat grid using the
+     * interval between its last two beats, since players keep sending beats after the end of the grid.
+     *
+     * @param beatNumber the beat of interest
+     *
+     * @return the time at which the beat occurs within the track, in milliseconds
+     */
+    private long timeOfBeat(int beatNumber) {
+        final int count = sourceGrid.beatCount;
+        if (beatNumber <= count) {
+            return sourceGrid.getTimeWithinTrack(beatNumber);
+        }
+        final long last = sourceGrid.getTimeWithinTrack(count);
+        return last + (beatNumber - count) * (last - sourceGrid.getTimeWithinTrack(count - 1));
+    }
+
+    /**
+     * Find the first tick which falls after the predicted position. Ticks are numbered from zero, which is the first
+     * beat of the beat grid (or the beat in the first beat packet we saw), so that tick {@code n} belongs to beat
+     * {@code n / ticksPerBeat}.
+     *
+     * @return the index of the next tick
+     */
+    private long nextTickIndex() {
+        if (sourceGrid != null) {
+            final int beat = sourceGrid.findBeatAtTime((long) predictedPosition);
+            if (beat < 1) {
+                return 0;
+            }
+            final long start = timeOfBeat(beat);
+            final double fraction = (predictedPosition - start) / Math.max(1, timeOfBeat(beat + 1) - start);
+            return (long) (beat - 1) * ticksPerBeat + (long) Math.floor(fraction * ticksPerBeat) + 1;
+        }
+        final double fraction = (predictedAt - sourceBeat.getCorrectedTimestamp()) / beatInterval();
+        return sourceBeatIndex * ticksPerBeat + (long) Math.floor(fraction * ticksPerBeat) + 1;
+    }
+
+    /**
+     * Predict when a tick will occur.
+     *
+     * @param index the index of the tick, as described in {@link #nextTickIndex()}
+     *
+     * @return the {@link System#nanoTime()} value at which the tick should be delivered
+     */
+    private long tickTime(long index) {
+        final long beatIndex = index / ticksPerBeat;
+        final double fraction = (double) (index % ticksPerBeat) / ticksPerBeat;
+        if (sourceGrid != null) {
+            final int beat = (int) beatIndex + 1;
+            final long start = timeOfBeat(beat);
+            final double trackTime = start + fraction * (timeOfBeat(beat + 1) - start);
+            return predictedAt + Math.round((trackTime - predictedPosition) * 1000000.0 / predictedPitch);
+        }
+        return sourceBeat.getCorrectedTimestamp() +
+                Math.round((beatIndex - sourceBeatIndex + fraction) * beatInterval());
+    }
+
+    /**
+     * Build the description of a tick that is being delivered.
+     *
+     * @param index the index of the tick, as described in {@link #nextTickIndex()}
+     * @param scheduled when the tick was due
+     * @param delivered when the tick is actually being delivered
+     *
+     * @return the tick description
+     */
+    private BeatTick describeTick(long index, long scheduled, long delivered) {
+        final long beatIndex = index / ticksPerBeat;
+        final int tick = (int) (index % ticksPerBeat);
+        if (sourceGrid != null) {
+            final int beat = (int) beatIndex + 1;
+            final int count = sourceGrid.beatCount;
+            final int beatWithinBar = (beat <= count)? sourceGrid.getBeatWithinBar(beat) :
+                    (int) ((sourceGrid.getBeatWithinBar(count) - 1 + beat - count) % 4) + 1;
+            return new BeatTick(sourceDevice, beat, beatWithinBar, tick, ticksPerBeat, predictedTempo,
+                    scheduled, delivered);
+        }
+        int beatWithinBar = sourceBeat.getBeatWithinBar();
+        if (beatWithinBar >= 1 && beatWithinBar <= 4) {
+            beatWithinBar = (int) ((((beatWithinBar - 1 + beatIndex - sourceBeatIndex) % 4) + 4) % 4) + 1;
+        } else {
+            beatWithinBar = 0;
+        }
+        return new BeatTick(sourceDevice, -1, beatWithinBar, tick, ticksPerBeat, predictedTempo,
+                scheduled, delivered);
+    }
+
+    /**
+     * The body of the clock thread, which predicts and delivers ticks until the clock is stopped.
+     */
+    private void runClock() {
+        long lastDelivered = NO_TICK;
+        Object lastSource = null;
+        int lastDevice = -1;
+        while (clockThread.get() == Thread.currentThread()) {
+            final long shift = latency.get();
+            if (!predict(System.nanoTime() + shift)) {
+                lastDelivered = NO_TICK;
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+                continue;
+            }
+            final Object source = (sourceGrid != null)? sourceGrid : latestBeats;
+            if (source != lastSource || sourceDevice != lastDevice) {
+                lastDelivered = NO_TICK;  // Tick indices from different sources can't be compared.
+                lastSource = source;
+                lastDevice = sourceDevice;
+            }
+
+            long next = nextTickIndex();
+            if (lastDelivered != NO_TICK) {
+                final long gap = next - lastDelivered;
+                if (gap <= 1 + Math.max(1, ticksPerBeat / 2) && gap > -2L * ticksPerBeat) {
+                    // Either we are slightly ahead of the player, in which case we wait for the tick after the one we
+                    // delivered, or a prediction moved forward a little, and we catch up on the ticks we skipped
+                    // rather than leaving gaps in the clock. Larger differences mean the player jumped.
+                    next = lastDelivered + 1;
+                }
+            }
+
+            final long due = tickTime(next) - shift;
+            final long remaining = due - System.nanoTime();
+            final long threshold = spinThreshold.get();
+            if (remaining > threshold) {
+                LockSupport.parkNanos(Math.min(remaining - threshold, MAX_PARK_NANOS));
+                continue;  // Predict again, since the player may have changed pitch or position while we slept.
+            }
+            //noinspection StatementWithEmptyBody
+            while (System.nanoTime() - due < 0) {
+                // Spin for the final stretch, because parking is not precise enough.
+            }
+            final long delivered = System.nanoTime();
+            lastDelivered = next;
+            recordLateness(delivered - due);
+            if (!tickListeners.isEmpty()) {
+                deliverTick(describeTick(next, due, delivered));
+            }
+        }
+    }
+
+    /**
+     * The thread which is delivering ticks, if we are running.
+     */
+    private final AtomicReference<Thread> clockThread = new AtomicReference<Thread>();
+
+    /**
+     * Set up to automatically stop if anything we depend on stops.
+     */
+    private final LifecycleListener lifecycleListener = new LifecycleListener() {
+        @Override
+        public void started(LifecycleParticipant sender) {
+            logger.debug("A BeatPhaseClock does not auto-start when {} does.", sender);
+        }
+
+        @Override
+        public void stopped(LifecycleParticipant sender) {
+            if (isRunning()) {
+                logger.info("BeatPhaseClock stopping because {} has.", sender);
+                stop();
+            }
+        }
+    };
+
+    @Override
+    public boolean isRunning() {
+        return clockThread.get() != null;
+    }
+
+    /**
+     * <p>Start delivering ticks. Starts the {@link TimeFinder} if it is not already running, because we need it to
+     * follow the position of players within their beat grids, and this in turn starts the {@link BeatFinder} and
+     * {@link VirtualCdj}.</p>
+     *
+     * @throws Exception if there is a problem starting the required components
+     */
+    public synchronized void start() throws Exception {
+        if (!isRunning()) {
+            TimeFinder.getInstance().addLifecycleListener(lifecycleListener);
+            TimeFinder.getInstance().start();
+            BeatFinder.getInstance().addBeatListener(beatListener);
+            sourceDevice = -1;
+            final Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    runClock();
+                }
+            }, "beat-link BeatPhaseClock " + ((player == MASTER)? "master" : ("player " + player)));
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MAX_PRIORITY);
+            clockThread.set(thread);
+            thread.start();
+            deliverLifecycleAnnouncement(logger, true);
+        }
+    }
+
+    /**
+     * Stop delivering ticks.
+     */
+    public synchronized void stop() {
+        final Thread thread = clockThread.getAndSet(null);
+        if (thread != null) {
+            LockSupport.unpark(thread);
+            BeatFinder.getInstance().removeBeatListener(beatListener);
+            TimeFinder.getInstance().removeLifecycleListener(lifecycleListener);
+            latestBeats.clear();
+            deliverLifecycleAnnouncement(logger, false);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "BeatPhaseClock[player:" + ((player == MASTER)? "master" : player) + ", ticksPerBeat:" + ticksPerBeat +
+                ", running:" + isRunning() + ", ticks:" + getTickCount() +
+                ", meanLatenessNanos:" + String.format("%.0f", getMeanLateness()) + "]";
+    }
+}
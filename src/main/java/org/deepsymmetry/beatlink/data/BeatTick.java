@@ -0,0 +1,114 @@
+package org.deepsymmetry.beatlink.data;
+
+/**
+ * Describes a sub-beat tick delivered by a {@link BeatPhaseClock}, identifying where in the beat it falls, when it
+ * was supposed to happen, and when it was actually delivered.
+ *
+ * @author James Elliott
+ * @since 0.6.3
+ */
+@SuppressWarnings("WeakerAccess")
+public class BeatTick {
+
+    /**
+     * The player whose position the tick follows, which will be the current tempo master's device number when the
+     * clock follows the master.
+     */
+    public final int player;
+
+    /**
+     * The beat within the track to which the tick belongs, or -1 if the player's beat grid is not available, so
+     * the tick was predicted from beat packets alone.
+     */
+    public final int beatNumber;
+
+    /**
+     * The position of the beat within its measure (1 through 4), or 0 if that is not known.
+     */
+    public final int beatWithinBar;
+
+    /**
+     * The tick within the beat, from 0 (which falls on the beat itself) to one less than {@link #ticksPerBeat}.
+     */
+    public final int tick;
+
+    /**
+     * The number of ticks in each beat.
+     */
+    public final int ticksPerBeat;
+
+    /**
+     * The effective tempo, in beats per minute, at which the player was playing when the tick was predicted.
+     */
+    public final double tempo;
+
+    /**
+     * The {@link System#nanoTime()} value at which the tick was scheduled to be delivered. This is when the tick was
+     * predicted to occur, less the latency configured for the clock through {@link BeatPhaseClock#setLatency(long)}.
+     */
+    public final long scheduledNanos;
+
+    /**
+     * The {@link System#nanoTime()} value at which the tick was actually delivered.
+     */
+    public final long deliveredNanos;
+
+    /**
+     * Constructor simply sets the fields of this immutable value class.
+     *
+     * @param player the player whose position the tick follows
+     * @param beatNumber the beat to which the tick belongs, or -1 if not known
+     * @param beatWithinBar the position of the beat within its measure, or 0 if not known
+     * @param tick the tick within the beat
+     * @param ticksPerBeat the number of ticks in each beat
+     * @param tempo the effective tempo when the tick was predicted
+     * @param scheduledNanos when the tick was scheduled to be delivered
+     * @param deliveredNanos when the tick was actually delivered
+     */
+    BeatTick(int player, int beatNumber, int beatWithinBar, int tick, int ticksPerBeat, double tempo,
+             long scheduledNanos, long deliveredNanos) {
+        this.player = player;
+        this.beatNumber = beatNumber;
+        this.beatWithinBar = beatWithinBar;
+        this.tick = tick;
+        this.ticksPerBeat = ticksPerBeat;
+        this.tempo = tempo;
+        this.scheduledNanos = scheduledNanos;
+        this.deliveredNanos = deliveredNanos;
+    }
+
+    /**
+     * Check whether this tick falls on a beat.
+     *
+     * @return {@code true} if this is the first tick of a beat
+     */
+    public boolean isBeat() {
+        return tick == 0;
+    }
+
+    /**
+     * Check whether this tick falls on the first beat of a measure.
+     *
+     * @return {@code true} if this is the first tick of the down beat
+     */
+    public boolean isDownBeat() {
+        return tick == 0 && beatWithinBar == 1;
+    }
+
+    /**
+     * Check how late the tick was delivered.
+     *
+     * @return the number of nanoseconds between when the tick was scheduled and when it was delivered,
+     *         which will be negative in the rare cases that it was delivered early
+     */
+    public long getLatenessNanos() {
+        return deliveredNanos - scheduledNanos;
+    }
+
+    @Override
+    public String toString() {
+        return "BeatTick[player:" + player + ", beatNumber:" + beatNumber + ", beatWithinBar:" + beatWithinBar +
+                ", tick:" + tick + "/" + ticksPerBeat + ", tempo:" + String.format("%.2f", tempo) +
+                ", latenessNanos:" + getLatenessNanos() + "]";
+    }
+}
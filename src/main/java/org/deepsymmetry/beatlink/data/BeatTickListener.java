@@ -0,0 +1,26 @@
+package org.deepsymmetry.beatlink.data;
+
+/**
+ * <p>The listener interface for receiving sub-beat clock ticks from a {@link BeatPhaseClock}.</p>
+ *
+ * <p>Classes that want to drive something in time with a player or the tempo master, such as a MIDI clock or a
+ * lighting sequencer, can implement this interface, and then pass the implementing instance to
+ * {@link BeatPhaseClock#addBeatTickListener(BeatTickListener)}. Then, whenever the clock reaches a tick,
+ * {@link #tick(BeatTick)} will be called with the details.</p>
+ *
+ * @author James Elliott
+ * @since 0.6.3
+ */
+@SuppressWarnings("WeakerAccess")
+public interface BeatTickListener {
+    /**
+     * <p>Invoked when the clock reaches a sub-beat tick.</p>
+     *
+     * <p>Ticks are delivered on the clock's own timing thread, which may be delivering dozens of ticks per beat,
+     * so any code in this method <em>must</em> finish very quickly, or it will delay the following ticks and spoil
+     * their timing. If you want to perform lengthy processing of any sort, do so on another thread.</p>
+     *
+     * @param tick describes the tick that has been reached
+     */
+    void tick(BeatTick tick);
+}
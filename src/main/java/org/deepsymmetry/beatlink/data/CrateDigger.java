@@ -1,5 +1,6 @@
 package org.deepsymmetry.beatlink.data;
 
+import com.googlecode.concurrentlinkedhashmap.ConcurrentLinkedHashMap;
 import io.kaitai.struct.RandomAccessFileKaitaiStream;
 import org.deepsymmetry.beatlink.*;
 import org.deepsymmetry.cratedigger.Database;
@@ -9,13 +10,13 @@ import org.deepsymmetry.cratedigger.pdb.RekordboxPdb;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.File;
-import java.io.IOException;
+import java.io.*;
+import java.security.MessageDigest;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * <p>Uses the <a href="https://github.com/Deep-Symmetry/crate-digger#crate-digger">Crate Digger</a> library to
@@ -149,17 +150,15 @@ public class CrateDigger {
                 logger.warn("Unable to clear FileFetcher connections for player that we can't find backup address for!");
             }
 
+            searchIndexes.remove(slot);
+            databaseDetails.remove(slot);
             final Database database = databases.remove(slot);
             if (database != null) {
                 deliverDatabaseUpdate(slot, database, false);
-                try {
-                    database.close();
-                } catch (IOException e) {
-                    logger.error("Problem closing parsed rekordbox database export.", e);
-                }
-                //noinspection ResultOfMethodCallIgnored
-                database.sourceFile.delete();
+                closeDatabase(database);
             }
+            clearParsedAnalysis(slot);
+            retainedMediaDirectories.remove(slot);  // Files kept across restarts stay where they are.
             final String prefix = slotPrefix(slot);
             File[] files = downloadDirectory.listFiles();
             if (files != null) {
@@ -167,6 +166,7 @@ public class CrateDigger {
                     if (file.getName().startsWith(prefix)) {
                         //noinspection ResultOfMethodCallIgnored
                         file.delete();
+                        downloadBudget.forget(file);
                     }
                 }
             }
@@ -194,7 +194,19 @@ public class CrateDigger {
     /**
      * Holds the local databases we have fetched for mounted media, so we can use them to respond to metadata requests.
      */
-    private final Map<SlotReference, Database> databases = new ConcurrentHashMap<SlotReference, Database>();
+    private final ConcurrentMap<SlotReference, Database> databases = new ConcurrentHashMap<SlotReference, Database>();
+
+    /**
+     * Keeps track of the databases we have closed, so that threads which found one before it was replaced or unmounted
+     * can tell that its rows can no longer be read. Only changed or checked while synchronized on the database.
+     */
+    private final Set<Database> closedDatabases =
+            Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<Database, Boolean>()));
+
+    /**
+     * Holds the search indexes we have built for the databases of mounted media.
+     */
+    private final ConcurrentMap<SlotReference, DatabaseSearchIndex> searchIndexes = new ConcurrentHashMap<SlotReference, DatabaseSearchIndex>();
 
     /**
      * Return the filesystem path needed to mount the NFS filesystem associated with a particular media slot.
@@ -234,7 +246,26 @@ public class CrateDigger {
      * @throws IOException if there is a problem fetching the file
      */
     private void fetchFile(SlotReference slot, String path, File destination) throws IOException {
-        destination.deleteOnExit();
+        fetchFile(slot, path, destination, getRetryLimit());
+    }
+
+    /**
+     * Helper method to call the {@link FileFetcher} with the right arguments to get a file for a particular slot,
+     * making no more than the specified number of attempts. Each attempt downloads the whole file, because the
+     * {@link FileFetcher} offers no way to request part of one, so a failed attempt cannot be resumed. Also arranges
+     * for the file to be deleted when we are shutting down in case we fail to clean it up ourselves.
+     *
+     * @param slot the slot from which a file is desired
+     * @param path the path to the file within the slot's mounted filesystem
+     * @param destination where to write the file contents
+     * @param tryLimit the maximum number of attempts to make
+     *
+     * @throws IOException if there is a problem fetching the file
+     */
+    private void fetchFile(SlotReference slot, String path, File destination, int tryLimit) throws IOException {
+        if (downloadDirectory.equals(destination.getParentFile())) {
+            destination.deleteOnExit();  // Files being kept across restarts live elsewhere.
+        }
         final DeviceAnnouncement player = DeviceFinder.getInstance().getLatestAnnouncementFrom(slot.player);
         if (player == null) {
             throw new IOException("Cannot fetch file from player that is not found on the network; slot: " + slot);
@@ -243,21 +274,26 @@ public class CrateDigger {
         if (path.startsWith("PIONEER/") && mediaWithHiddenPioneerFolder.contains(slot)) {
             path = "." + path;  // We are dealing with HFS+ media, so skip the first, failed attempt to read it.
         }
-        while (triesMade < getRetryLimit()) {
+        while (triesMade < tryLimit) {
+            final FetchMonitor monitor = new FetchMonitor(slot, path, destination, triesMade + 1);
             try {
                 FileFetcher.getInstance().fetch(player.getAddress(), mountPath(slot.slot), path, destination);
+                verifyDownload(path, destination);
+                monitor.finish(FileFetchProgress.State.FINISHED);
                 return;
             } catch (IOException e) {
-                if (path.startsWith("PIONEER/") &&
+                if (path.startsWith("PIONEER/") && e.getMessage() != null &&
                         e.getMessage().contains("lookup of element \"PIONEER\" returned status")) {
                     // Workaround for the fact that HFS+ formatted devices hide their PIONEER directory as a dot-file.
+                    monitor.finish(null);
                     mediaWithHiddenPioneerFolder.add(slot);  // Skip the initial failed attempt next time we access it.
-                    fetchFile(slot, "." + path, destination);
+                    fetchFile(slot, "." + path, destination, tryLimit);
                     return;
                 }
                 triesMade++;
-                if (triesMade < getRetryLimit()) {
-                    logger.warn("Attempt to fetch file from player failed, tries left: " + (getRetryLimit() - triesMade), e);
+                if (triesMade < tryLimit) {
+                    monitor.finish(FileFetchProgress.State.RETRYING);
+                    logger.warn("Attempt to fetch file from player failed, tries left: " + (tryLimit - triesMade), e);
                     try {
                         //noinspection BusyWait
                         Thread.sleep(Math.min(MAX_RETRY_INTERVAL, triesMade * RETRY_BACKOFF));
@@ -265,8 +301,166 @@ public class CrateDigger {
                         logger.warn("Interrupted while sleeping between file fetch attempts. Retrying immediately.");
                     }
                 } else {
+                    monitor.finish(FileFetchProgress.State.FAILED);
                     throw e;
                 }
+            } finally {
+                monitor.finish(FileFetchProgress.State.FAILED);  // Does nothing if the attempt was already reported.
+            }
+        }
+    }
+
+    /**
+     * How often, in milliseconds, we report the progress of downloads to any registered {@link FileFetchListener}.
+     */
+    private static final long FETCH_PROGRESS_INTERVAL = 250;
+
+    /**
+     * Used to periodically report the progress of downloads that are underway. Its thread is only created once a
+     * download starts while a {@link FileFetchListener} is registered.
+     */
+    private final ScheduledExecutorService fetchProgressReporter = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            final Thread thread = new Thread(r, "CrateDigger fetch progress");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    /**
+     * Keeps track of a single download attempt, reporting its progress to any registered {@link FileFetchListener}
+     * by watching the destination file grow. Does nothing if there are no listeners when the attempt starts.
+     */
+    private class FetchMonitor implements Runnable {
+        private final SlotReference slot;
+        private final String path;
+        private final File destination;
+        private final int attempt;
+        private final long started = System.nanoTime();
+        private final ScheduledFuture<?> reporter;
+        private final AtomicBoolean finished = new AtomicBoolean(false);
+
+        /**
+         * Start monitoring a download attempt.
+         *
+         * @param slot the slot from which the file is being downloaded
+         * @param path the path of the file within the slot's mounted filesystem
+         * @param destination where the file contents are being written
+         * @param attempt which attempt this is, starting with 1
+         */
+        FetchMonitor(SlotReference slot, String path, File destination, int attempt) {
+            this.slot = slot;
+            this.path = path;
+            this.destination = destination;
+            this.attempt = attempt;
+            if (fetchListeners.isEmpty()) {
+                reporter = null;
+            } else {
+                deliverFetchProgress(buildProgress(FileFetchProgress.State.STARTED));
+                reporter = fetchProgressReporter.scheduleAtFixedRate(this, FETCH_PROGRESS_INTERVAL,
+                        FETCH_PROGRESS_INTERVAL, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        /**
+         * Describe the current state of the download.
+         *
+         * @param state the stage the download has reached
+         *
+         * @return the progress to report to listeners
+         */
+        private FileFetchProgress buildProgress(FileFetchProgress.State state) {
+            return new FileFetchProgress(slot, path, destination, state, attempt, destination.length(),
+                    expectedLength(path, destination), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+        }
+
+        @Override
+        public void run() {
+            deliverFetchProgress(buildProgress(FileFetchProgress.State.IN_PROGRESS));
+        }
+
+        /**
+         * Stop monitoring the attempt, and report how it ended. Only the first call has any effect, so this can also
+         * be called in a {@code finally} block to make sure the reporter stops however the attempt ends.
+         *
+         * @param state the way the attempt ended, or {@code null} if it should not be reported because it is being
+         *              replaced by an attempt using a different path
+         */
+        void finish(FileFetchProgress.State state) {
+            if (finished.compareAndSet(false, true) && reporter != null) {
+                reporter.cancel(false);
+                if (state != null) {
+                    deliverFetchProgress(buildProgress(state));
+                }
+            }
+        }
+    }
+
+    /**
+     * Determine how long a downloaded file ought to be, if its format allows that to be known from the beginning
+     * of the file. Rekordbox track analysis files record their length in their header.
+     *
+     * @param path the path of the file within the player's mounted filesystem
+     * @param file the local copy of the file, which may still be downloading
+     *
+     * @return the expected length of the file, or -1 if that cannot be determined (yet)
+     */
+    private long expectedLength(String path, File file) {
+        if (!(path.endsWith(".DAT") || path.endsWith(".EXT")) || file.length() < 12) {
+            return -1;
+        }
+        try {
+            final DataInputStream stream = new DataInputStream(new FileInputStream(file));
+            try {
+                final int magic = stream.readInt();
+                stream.readInt();  // Skip the header length.
+                final long length = stream.readInt() & 0xffffffffL;
+                return (magic == ANLZ_MAGIC) ? length : -1;
+            } finally {
+                stream.close();
+            }
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * The first four bytes of a rekordbox track analysis file, the characters {@code PMAI}.
+     */
+    private static final int ANLZ_MAGIC = 0x504d4149;
+
+    /**
+     * Check that a file we have just downloaded is complete, as far as its format allows us to tell, so that a
+     * truncated download is retried rather than handed to the parser.
+     *
+     * @param path the path of the file within the player's mounted filesystem
+     * @param file the local copy of the file
+     *
+     * @throws IOException if the file is clearly incomplete
+     */
+    private void verifyDownload(String path, File file) throws IOException {
+        final long actual = file.length();
+        if (actual == 0) {
+            throw new IOException("Downloaded file " + path + " is empty.");
+        }
+        if (path.endsWith(".DAT") || path.endsWith(".EXT")) {
+            final long expected = expectedLength(path, file);
+            if (expected != actual) {
+                throw new IOException("Downloaded analysis file " + path + " has length " + actual +
+                        ", but its header says it should be " + expected);
+            }
+        } else if (path.endsWith(".pdb") && actual >= 8) {
+            final RandomAccessFile raf = new RandomAccessFile(file, "r");
+            try {
+                raf.seek(4);
+                final long pageSize = Integer.reverseBytes(raf.readInt()) & 0xffffffffL;  // Little-endian.
+                if (pageSize == 0 || actual % pageSize != 0) {
+                    throw new IOException("Downloaded database " + path + " has length " + actual +
+                            ", which is not a multiple of its page size " + pageSize);
+                }
+            } finally {
+                raf.close();
             }
         }
     }
@@ -302,56 +496,589 @@ public class CrateDigger {
 
     /**
      * Whenever we learn media details about a newly-mounted media slot, if it is rekordbox media, start the process
-     * of fetching and parsing the database so we can offer metadata for that slot.
+     * of fetching and parsing the database so we can offer metadata for that slot. If we already have a database for
+     * the slot, refreshing of changed databases has been turned on, and the details show that tracks or playlists
+     * have been added or removed since we fetched it, start the process of refreshing it instead.
      */
     private final MediaDetailsListener mediaDetailsListener = new MediaDetailsListener() {
         @Override
         public void detailsAvailable(final MediaDetails details) {
             if (isRunning() && details.mediaType == CdjStatus.TrackType.REKORDBOX &&
-                    details.slotReference.slot != CdjStatus.TrackSourceSlot.COLLECTION &&  // We always use dbserver to talk to rekordbox.
-                    !databases.containsKey(details.slotReference) &&
-                    activeRequests.add(details.slotReference)) {
-                new Thread(new Runnable() {
-                    @Override
-                    public void run() {
-                        File file = null;
-                        try {
-                            file = new File(downloadDirectory, slotPrefix(details.slotReference) + "export.pdb");
-                            logger.info("Fetching rekordbox export.pdb from player " + details.slotReference.player +
-                                    ", slot " + details.slotReference.slot);
-                            long started = System.nanoTime();
-                            fetchFile(details.slotReference, "PIONEER/rekordbox/export.pdb", file);
-                            long duration = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
-                            logger.info("Finished fetching export.pdb from player " + details.slotReference.player +
-                                    ", slot " + details.slotReference.slot + "; received " +
-                                    humanReadableByteCount(file.length(), true) + " in " + duration + "ms, " +
-                                    humanReadableByteCount(file.length() * 1000 / duration, true) + "/s.");
-                            started = System.nanoTime();
-                            Database database = new Database(file);
-                            duration = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
-                            logger.info("Parsing database took " + duration + "ms, " +
-                                            (database.trackIndex.size() * 1000 / duration) + " tracks/s");
-                            databases.put(details.slotReference, database);
-                            deliverDatabaseUpdate(details.slotReference, database, true);
-                        } catch (Throwable t) {
-                            logger.error("Problem fetching rekordbox database for media " + details +
-                                    ", will not offer metadata for it.", t);
-                            if (file != null) {
-                                //noinspection ResultOfMethodCallIgnored
-                                file.delete();
+                    details.slotReference.slot != CdjStatus.TrackSourceSlot.COLLECTION) {  // We always use dbserver to talk to rekordbox.
+                final Database existing = databases.get(details.slotReference);
+                if ((existing == null || (isRefreshingChangedDatabases() && databaseNeedsRefresh(details))) &&
+                        activeRequests.add(details.slotReference)) {
+                    new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                if (existing == null) {
+                                    fetchDatabase(details);
+                                } else {
+                                    refreshDatabase(details, existing);
+                                }
+                            } finally {
+                                activeRequests.remove(details.slotReference);
                             }
-                        } finally {
-                            activeRequests.remove(details.slotReference);
                         }
-                    }
-                }).start();
+                    }).start();
+                }
             }
         }
     };
 
+    /**
+     * Keeps track of the media details that were current when we fetched the database for each slot, so we can tell
+     * when the media has changed enough that the database needs to be refreshed.
+     */
+    private final Map<SlotReference, MediaDetails> databaseDetails = new ConcurrentHashMap<SlotReference, MediaDetails>();
+
+    /**
+     * Check whether newly reported media details indicate that the database we hold for the slot is out of date.
+     *
+     * @param details the media details that have just been received
+     *
+     * @return {@code true} if the media now appears to be different, or to have different tracks or playlists
+     */
+    private boolean databaseNeedsRefresh(MediaDetails details) {
+        final MediaDetails original = databaseDetails.get(details.slotReference);
+        if (original == null) {
+            return false;  // We are still fetching the database for this slot.
+        }
+        return !details.hashKey().equals(original.hashKey()) || details.hasChanged(original);
+    }
+
+    /**
+     * Whether we download a fresh copy of the database of mounted media when its details show it has changed.
+     */
+    private final AtomicBoolean refreshChangedDatabases = new AtomicBoolean(false);
+
+    /**
+     * <p>Set whether the database of mounted media should be downloaded again when new media details show that its
+     * tracks or playlists have changed, such as when rekordbox exports more tracks to media that is still mounted in
+     * a player. This is off by default.</p>
+     *
+     * <p>There is no way to ask the player for only the parts of the database that changed, so each refresh downloads
+     * the whole {@code export.pdb} file again, which can be many megabytes for a large collection and competes with
+     * the downloads needed for tracks being loaded. The refreshed file is compared with the one we already have, and
+     * if nothing changed it is simply discarded. When refreshing is off, a changed database is only picked up when
+     * the media is next mounted.</p>
+     *
+     * @param refresh {@code true} if changed databases should be downloaded again
+     *
+     * @since 0.6.3
+     */
+    public void setRefreshChangedDatabases(boolean refresh) {
+        refreshChangedDatabases.set(refresh);
+    }
+
+    /**
+     * Check whether the database of mounted media is downloaded again when new media details show that its tracks or
+     * playlists have changed.
+     *
+     * @return {@code true} if changed databases are being refreshed
+     *
+     * @since 0.6.3
+     */
+    @SuppressWarnings("WeakerAccess")
+    public boolean isRefreshingChangedDatabases() {
+        return refreshChangedDatabases.get();
+    }
+
+    /**
+     * Download and parse the database of newly mounted media, and make it available for metadata requests.
+     *
+     * @param details describes the media whose database is desired
+     */
+    private void fetchDatabase(MediaDetails details) {
+        File file = null;
+        try {
+            file = new File(downloadDirectory, slotPrefix(details.slotReference) + "export.pdb");
+            logger.info("Fetching rekordbox export.pdb from player " + details.slotReference.player +
+                    ", slot " + details.slotReference.slot);
+            long started = System.nanoTime();
+            fetchFile(details.slotReference, "PIONEER/rekordbox/export.pdb", file);
+            long duration = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+            logger.info("Finished fetching export.pdb from player " + details.slotReference.player +
+                    ", slot " + details.slotReference.slot + "; received " +
+                    humanReadableByteCount(file.length(), true) + " in " + duration + "ms, " +
+                    humanReadableByteCount(file.length() * 1000 / Math.max(1, duration), true) + "/s.");
+            started = System.nanoTime();
+            Database database = new Database(file);
+            duration = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+            logger.info("Parsing database took " + duration + "ms, " +
+                            (database.trackIndex.size() * 1000 / Math.max(1, duration)) + " tracks/s");
+            attachRetainedDirectory(details, database);
+            final Map<Long, String> prefetchPaths = isPrefetchingAnalysis()? prefetchOrder(database) : null;
+            databaseDetails.put(details.slotReference, details);
+            databases.put(details.slotReference, database);
+            deliverDatabaseUpdate(details.slotReference, database, true);
+            buildSearchIndex(details.slotReference, database);
+            if (prefetchPaths != null) {
+                startPrefetch(details.slotReference, database, prefetchPaths);
+            }
+        } catch (Throwable t) {
+            logger.error("Problem fetching rekordbox database for media " + details +
+                    ", will not offer metadata for it.", t);
+            if (file != null) {
+                //noinspection ResultOfMethodCallIgnored
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * Download a fresh copy of the database of media that has changed while mounted. If the file turns out to be
+     * identical, page for page, to the one we already have, it is simply discarded. Otherwise it is parsed and
+     * compared with the old database, cached data for tracks which changed or vanished is discarded, the new
+     * database replaces the old one, and listeners are told what changed.
+     *
+     * @param details describes the media in its current state
+     * @param oldDatabase the database we have been using for the slot
+     */
+    private void refreshDatabase(MediaDetails details, Database oldDatabase) {
+        final SlotReference slot = details.slotReference;
+        final File file = new File(downloadDirectory, slotPrefix(slot) + "export-" + System.currentTimeMillis() + ".pdb");
+        Database newDatabase = null;
+        try {
+            logger.info("Media in player " + slot.player + ", slot " + slot.slot + " has changed, refreshing export.pdb");
+            fetchFile(slot, "PIONEER/rekordbox/export.pdb", file);
+            final int[] pageCounts = countChangedPages(oldDatabase.sourceFile, file);
+            if (pageCounts[0] == 0) {
+                logger.info("Refreshed export.pdb from player " + slot.player + ", slot " + slot.slot +
+                        " is unchanged; keeping the existing database.");
+                databaseDetails.put(slot, details);
+                //noinspection ResultOfMethodCallIgnored
+                file.delete();
+                return;
+            }
+            newDatabase = new Database(file);
+            final DatabaseChange change = compareDatabases(slot, oldDatabase, newDatabase, pageCounts[0], pageCounts[1]);
+            logger.info("Refreshed database for player " + slot.player + ", slot " + slot.slot + ": " + change);
+            final Map<Long, String> prefetchPaths = isPrefetchingAnalysis()? prefetchOrder(newDatabase) : null;
+            if (!isRunning() || !databases.replace(slot, oldDatabase, newDatabase)) {
+                logger.info("Media was unmounted while refreshing its database, discarding the refreshed version.");
+                newDatabase.close();
+                //noinspection ResultOfMethodCallIgnored
+                file.delete();
+                return;
+            }
+            databaseDetails.put(slot, details);
+            forgetStaleData(slot, oldDatabase, newDatabase, change);
+            deliverDatabaseChange(slot, oldDatabase, newDatabase, change);
+            closeDatabase(oldDatabase);  // Waits for any thread still reading rows of the old version.
+            final File mediaDirectory = retainedMediaDirectories.get(slot);
+            if (mediaDirectory != null) {  // Keep the refreshed export, so changes are measured from it next time.
+                try {
+                    copyFile(newDatabase.sourceFile, new File(mediaDirectory, "export.pdb"));
+                } catch (IOException e) {
+                    logger.warn("Unable to keep refreshed export.pdb for media in slot " + slot, e);
+                }
+            }
+            buildSearchIndex(slot, newDatabase);
+            if (prefetchPaths != null) {
+                startPrefetch(slot, newDatabase, prefetchPaths);
+            }
+        } catch (Throwable t) {
+            logger.error("Problem refreshing rekordbox database for media " + details +
+                    ", continuing to use the previous version.", t);
+            if (newDatabase != null && databases.get(slot) != newDatabase) {
+                try {
+                    newDatabase.close();
+                } catch (IOException e) {
+                    logger.error("Problem closing discarded rekordbox database export.", e);
+                }
+            }
+            if (newDatabase == null || databases.get(slot) != newDatabase) {
+                //noinspection ResultOfMethodCallIgnored
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * Close a database which has been unmounted or replaced, and delete its file. Threads that found the database
+     * before then may still be reading its rows, so we wait until none of them is doing so, and mark it closed so that
+     * they do not try again afterwards.
+     *
+     * @param database the database which is no longer published
+     */
+    private void closeDatabase(Database database) {
+        synchronized (database) {
+            closedDatabases.add(database);
+            try {
+                database.close();
+            } catch (IOException e) {
+                logger.error("Problem closing parsed rekordbox database export.", e);
+            }
+        }
+        //noinspection ResultOfMethodCallIgnored
+        database.sourceFile.delete();
+    }
+
+    /**
+     * Check whether a database has been closed because its media was unmounted or its export was replaced by a
+     * refreshed version. Must be called while synchronized on the database, and its rows must not be read if this
+     * returns {@code true}.
+     *
+     * @param database the database to check
+     *
+     * @return {@code true} if the rows of the database can no longer be read
+     */
+    boolean isClosed(Database database) {
+        return closedDatabases.contains(database);
+    }
+
+    /**
+     * Compare two versions of a database export page by page, to find out whether anything has changed.
+     *
+     * @param oldFile the version we already have
+     * @param newFile the version just downloaded
+     *
+     * @return a two-element array holding the number of pages that differ, and the number of pages in the new file
+     *
+     * @throws IOException if there is a problem reading either file
+     */
+    private int[] countChangedPages(File oldFile, File newFile) throws IOException {
+        final InputStream oldStream = new BufferedInputStream(new FileInputStream(oldFile));
+        try {
+            final InputStream newStream = new BufferedInputStream(new FileInputStream(newFile));
+            try {
+                final byte[] header = new byte[8];
+                final int pageSize;
+                if (readPage(newStream, header) == header.length) {
+                    // The page size is the second little-endian 32-bit integer of the file header.
+                    pageSize = (header[4] & 0xff) | ((header[5] & 0xff) << 8) | ((header[6] & 0xff) << 16) | ((header[7] & 0xff) << 24);
+                } else {
+                    pageSize = 0;
+                }
+                if (pageSize < header.length || pageSize > 65536) {
+                    throw new IOException("Unreasonable page size " + pageSize + " in " + newFile);
+                }
+                final byte[] oldPage = new byte[pageSize];
+                final byte[] newPage = new byte[pageSize];
+                System.arraycopy(header, 0, newPage, 0, header.length);
+                int newLength = header.length + readPage(newStream, newPage, header.length);
+                int oldLength = readPage(oldStream, oldPage);
+                int changed = 0;
+                int total = 0;
+                while (newLength > 0 || oldLength > 0) {
+                    if (newLength > 0) {
+                        total++;
+                    }
+                    if (newLength != oldLength || !Arrays.equals(oldPage, newPage)) {
+                        changed++;
+                    }
+                    newLength = readPage(newStream, newPage);
+                    oldLength = readPage(oldStream, oldPage);
+                }
+                return new int[] { changed, total };
+            } finally {
+                newStream.close();
+            }
+        } finally {
+            oldStream.close();
+        }
+    }
+
+    /**
+     * Read as much of a page as is available from a stream, filling any part of the buffer that could not be read
+     * with zeros so that a short final page compares consistently.
+     *
+     * @param stream the stream to read from
+     * @param page the buffer into which the page should be read
+     *
+     * @return the number of bytes actually read, which will be zero at the end of the stream
+     *
+     * @throws IOException if there is a problem reading the stream
+     */
+    private int readPage(InputStream stream, byte[] page) throws IOException {
+        return readPage(stream, page, 0);
+    }
+
+    /**
+     * Read the rest of a page from a stream, starting at the specified offset within the page, filling any part of
+     * the buffer that could not be read with zeros.
+     *
+     * @param stream the stream to read from
+     * @param page the buffer into which the page should be read
+     * @param offset how much of the page has already been read
+     *
+     * @return the number of additional bytes actually read
+     *
+     * @throws IOException if there is a problem reading the stream
+     */
+    private int readPage(InputStream stream, byte[] page, int offset) throws IOException {
+        int position = offset;
+        while (position < page.length) {
+            final int count = stream.read(page, position, page.length - position);
+            if (count < 0) {
+                break;
+            }
+            position += count;
+        }
+        Arrays.fill(page, position, page.length, (byte) 0);
+        return position - offset;
+    }
+
+    /**
+     * Check whether two versions of a track row differ in any way that matters to us.
+     *
+     * @param oldRow the row from the previous version of the database
+     * @param newRow the row from the refreshed database
+     *
+     * @return {@code true} if the track's metadata, artwork or analysis may have changed
+     */
+    private boolean trackRowChanged(RekordboxPdb.TrackRow oldRow, RekordboxPdb.TrackRow newRow) {
+        return oldRow.artistId() != newRow.artistId() || oldRow.originalArtistId() != newRow.originalArtistId() ||
+                oldRow.remixerId() != newRow.remixerId() || oldRow.albumId() != newRow.albumId() ||
+                oldRow.labelId() != newRow.labelId() || oldRow.genreId() != newRow.genreId() ||
+                oldRow.keyId() != newRow.keyId() || oldRow.colorId() != newRow.colorId() ||
+                oldRow.artworkId() != newRow.artworkId() || oldRow.tempo() != newRow.tempo() ||
+                oldRow.duration() != newRow.duration() || oldRow.rating() != newRow.rating() ||
+                oldRow.fileSize() != newRow.fileSize() || oldRow.year() != newRow.year() ||
+                !textEquals(oldRow.title(), newRow.title()) || !textEquals(oldRow.comment(), newRow.comment()) ||
+                !textEquals(oldRow.analyzePath(), newRow.analyzePath()) ||
+                !textEquals(oldRow.filePath(), newRow.filePath());
+    }
+
+    /**
+     * Compare two strings from database rows.
+     *
+     * @param a the first string
+     * @param b the second string
+     *
+     * @return {@code true} if they have the same text
+     */
+    private boolean textEquals(RekordboxPdb.DeviceSqlString a, RekordboxPdb.DeviceSqlString b) {
+        final String aText = Database.getText(a);
+        final String bText = Database.getText(b);
+        return (aText == null) ? bText == null : aText.equals(bText);
+    }
+
+    /**
+     * Extracts the text by which a row of one of the tables a track refers to, such as an artist or album, is
+     * displayed, so that changes to those rows can be found.
+     *
+     * @param <T> the type of row
+     */
+    private interface RowText<T> {
+        /**
+         * Get the displayed text of a row.
+         *
+         * @param row the row of interest
+         *
+         * @return the name or other text shown for the row
+         */
+        RekordboxPdb.DeviceSqlString textOf(T row);
+    }
+
+    /**
+     * Find the rows of one of the tables tracks refer to whose text differs between two versions of a database, or
+     * which have been removed. A track which still refers to such a row by the same ID has changed, even though its
+     * own row has not.
+     *
+     * @param oldDatabase the previous version of the database, on which we synchronize while reading its rows
+     * @param oldRows the table from the previous version of the database
+     * @param newRows the table from the refreshed database
+     * @param text extracts the text of a row
+     * @param <T> the type of row in the table
+     *
+     * @return the IDs of the rows whose text has changed
+     */
+    private <T> Set<Long> changedRowIds(Database oldDatabase, Map<Long, T> oldRows, Map<Long, T> newRows,
+                                        RowText<T> text) {
+        final Set<Long> changed = new HashSet<Long>();
+        synchronized (oldDatabase) {  // Other threads may still be reading rows of the old database.
+            for (Map.Entry<Long, T> entry : oldRows.entrySet()) {
+                final T newRow = newRows.get(entry.getKey());
+                if (newRow == null || !textEquals(text.textOf(entry.getValue()), text.textOf(newRow))) {
+                    changed.add(entry.getKey());
+                }
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * The number of tracks compared each time we synchronize on the old database while comparing two versions.
+     */
+    private static final int COMPARE_CHUNK_SIZE = 500;
+
+    /**
+     * Figure out which tracks and playlists differ between two versions of a slot's database. A track has changed if
+     * its own row differs, or if an artist, album, label, genre, key or color it refers to has been renamed. The old
+     * database may still be in use by other threads, so its rows are read while synchronized on it, a chunk at a
+     * time; the new database must not yet have been published.
+     *
+     * @param slot the slot whose database was refreshed
+     * @param oldDatabase the previous version of the database
+     * @param newDatabase the refreshed database
+     * @param changedPages the number of pages that differ between the two files
+     * @param totalPages the number of pages in the new file
+     *
+     * @return a description of the differences
+     */
+    private DatabaseChange compareDatabases(SlotReference slot, Database oldDatabase, Database newDatabase,
+                                            int changedPages, int totalPages) {
+        final List<DataReference> added = new ArrayList<DataReference>();
+        final List<DataReference> removed = new ArrayList<DataReference>();
+        final List<DataReference> changed = new ArrayList<DataReference>();
+        final Set<Long> artists = changedRowIds(oldDatabase, oldDatabase.artistIndex, newDatabase.artistIndex,
+                new RowText<RekordboxPdb.ArtistRow>() {
+                    @Override
+                    public RekordboxPdb.DeviceSqlString textOf(RekordboxPdb.ArtistRow row) {
+                        return row.name();
+                    }
+                });
+        final Set<Long> albums = changedRowIds(oldDatabase, oldDatabase.albumIndex, newDatabase.albumIndex,
+                new RowText<RekordboxPdb.AlbumRow>() {
+                    @Override
+                    public RekordboxPdb.DeviceSqlString textOf(RekordboxPdb.AlbumRow row) {
+                        return row.name();
+                    }
+                });
+        final Set<Long> labels = changedRowIds(oldDatabase, oldDatabase.labelIndex, newDatabase.labelIndex,
+                new RowText<RekordboxPdb.LabelRow>() {
+                    @Override
+                    public RekordboxPdb.DeviceSqlString textOf(RekordboxPdb.LabelRow row) {
+                        return row.name();
+                    }
+                });
+        final Set<Long> genres = changedRowIds(oldDatabase, oldDatabase.genreIndex, newDatabase.genreIndex,
+                new RowText<RekordboxPdb.GenreRow>() {
+                    @Override
+                    public RekordboxPdb.DeviceSqlString textOf(RekordboxPdb.GenreRow row) {
+                        return row.name();
+                    }
+                });
+        final Set<Long> keys = changedRowIds(oldDatabase, oldDatabase.musicalKeyIndex, newDatabase.musicalKeyIndex,
+                new RowText<RekordboxPdb.KeyRow>() {
+                    @Override
+                    public RekordboxPdb.DeviceSqlString textOf(RekordboxPdb.KeyRow row) {
+                        return row.name();
+                    }
+                });
+        final Set<Long> colors = changedRowIds(oldDatabase, oldDatabase.colorIndex, newDatabase.colorIndex,
+                new RowText<RekordboxPdb.ColorRow>() {
+                    @Override
+                    public RekordboxPdb.DeviceSqlString textOf(RekordboxPdb.ColorRow row) {
+                        return row.name();
+                    }
+                });
+        final List<Map.Entry<Long, RekordboxPdb.TrackRow>> entries =
+                new ArrayList<Map.Entry<Long, RekordboxPdb.TrackRow>>(newDatabase.trackIndex.entrySet());
+        for (int chunk = 0; chunk < entries.size(); chunk += COMPARE_CHUNK_SIZE) {
+            // Other threads may still be reading rows of the old database, so take turns with them.
+            synchronized (oldDatabase) {
+                for (Map.Entry<Long, RekordboxPdb.TrackRow> entry :
+                        entries.subList(chunk, Math.min(entries.size(), chunk + COMPARE_CHUNK_SIZE))) {
+                    final RekordboxPdb.TrackRow oldRow = oldDatabase.trackIndex.get(entry.getKey());
+                    final RekordboxPdb.TrackRow newRow = entry.getValue();
+                    if (oldRow == null) {
+                        added.add(new DataReference(slot, entry.getKey().intValue()));
+                    } else if (trackRowChanged(oldRow, newRow) || artists.contains(newRow.artistId()) ||
+                            artists.contains(newRow.originalArtistId()) || artists.contains(newRow.remixerId()) ||
+                            albums.contains(newRow.albumId()) || labels.contains(newRow.labelId()) ||
+                            genres.contains(newRow.genreId()) || keys.contains(newRow.keyId()) ||
+                            colors.contains((long) newRow.colorId())) {
+                        changed.add(new DataReference(slot, entry.getKey().intValue()));
+                    }
+                }
+            }
+        }
+        for (Long id : oldDatabase.trackIndex.keySet()) {
+            if (!newDatabase.trackIndex.containsKey(id)) {
+                removed.add(new DataReference(slot, id.intValue()));
+            }
+        }
+        final boolean playlistsChanged = !oldDatabase.playlistIndex.equals(newDatabase.playlistIndex);
+        return new DatabaseChange(slot, added, removed, changed, playlistsChanged, changedPages, totalPages);
+    }
+
+    /**
+     * Discard anything we have cached about tracks or artwork that changed or vanished when a database was refreshed,
+     * so that it will be looked up again in the new database. This covers our own parsed analysis and downloaded
+     * files, the {@link PersistentDataStore}, the {@link DataCache}, and the hot caches of the finders, so a changed
+     * track that is loaded in a player is looked up again on its next status update.
+     *
+     * @param slot the slot whose database was refreshed
+     * @param oldDatabase the previous version of the database
+     * @param newDatabase the refreshed database
+     * @param change the differences between them
+     */
+    private void forgetStaleData(SlotReference slot, Database oldDatabase, Database newDatabase, DatabaseChange change) {
+        final List<DataReference> stale = new ArrayList<DataReference>(change.removedTracks);
+        stale.addAll(change.changedTracks);
+        for (DataReference track : stale) {
+            parsedAnalysis.remove(track);
+            parsedExtendedAnalysis.remove(track);
+            deleteDownload(downloadFile(slot, "track-" + track.rekordboxId + "-anlz.dat"));
+            deleteDownload(downloadFile(slot, "track-" + track.rekordboxId + "-anlz.ext"));
+            forgetStoredTrack(track, oldDatabase);
+            MetadataFinder.getInstance().forgetTrack(track);
+            BeatGridFinder.getInstance().forgetTrack(track);
+            WaveformFinder.getInstance().forgetTrack(track);
+            final long oldArtworkId;
+            synchronized (oldDatabase) {
+                final RekordboxPdb.TrackRow oldRow = oldDatabase.trackIndex.get((long) track.rekordboxId);
+                oldArtworkId = (oldRow == null)? 0 : oldRow.artworkId();
+            }
+            if (oldArtworkId != 0) {  // The track may now have different art.
+                ArtFinder.getInstance().forgetArt(new DataReference(slot, (int) oldArtworkId));
+            }
+        }
+        final Set<Long> changedArt = changedRowIds(oldDatabase, oldDatabase.artworkIndex, newDatabase.artworkIndex,
+                new RowText<RekordboxPdb.ArtworkRow>() {
+                    @Override
+                    public RekordboxPdb.DeviceSqlString textOf(RekordboxPdb.ArtworkRow row) {
+                        return row.path();
+                    }
+                });
+        for (Long artworkId : changedArt) {
+            deleteDownload(downloadFile(slot, "art-" + artworkId + ".jpg"));
+            ArtFinder.getInstance().forgetArt(new DataReference(slot, artworkId.intValue()));
+        }
+        if (!changedArt.isEmpty()) {  // The tracks using replaced artwork may have it in the persistent store.
+            final List<DataReference> artTracks = new ArrayList<DataReference>();
+            synchronized (oldDatabase) {
+                for (Map.Entry<Long, RekordboxPdb.TrackRow> entry : oldDatabase.trackIndex.entrySet()) {
+                    if (changedArt.contains(entry.getValue().artworkId())) {
+                        artTracks.add(new DataReference(slot, entry.getKey().intValue()));
+                    }
+                }
+            }
+            for (DataReference track : artTracks) {
+                forgetStoredTrack(track, oldDatabase);
+            }
+        }
+    }
+
+    /**
+     * Tell the {@link PersistentDataStore} to stop offering the items it has stored for a track that has changed or
+     * disappeared, identifying the track by the metadata it had in the database from which it was loaded.
+     *
+     * @param track the track which changed
+     * @param oldDatabase the previous version of the database, in which the track can still be found
+     */
+    private void forgetStoredTrack(DataReference track, Database oldDatabase) {
+        if (PersistentDataStore.getInstance().isEnabled()) {
+            try {
+                final TrackMetadata metadata;
+                synchronized (oldDatabase) {  // Other threads may still be reading rows of the old database.
+                    metadata = new TrackMetadata(track, oldDatabase, null);
+                }
+                PersistentDataStore.getInstance().forgetTrack(metadata);
+            } catch (Exception e) {
+                logger.warn("Problem forgetting stored data for changed track " + track, e);
+            }
+        }
+    }
+
     /**
      * Find the database we have downloaded and parsed that can provide information about the supplied data
-     * reference, if any.
+     * reference, if any. The rows of a database are read lazily from a single shared file stream, so we only read
+     * them while synchronized on the database, and so must any other code that reads them.
      *
      * @param reference identifies the location from which data is desired
      *
@@ -364,7 +1091,8 @@ public class CrateDigger {
 
     /**
      * Find the database we have downloaded and parsed that can provide information about the supplied slot
-     * reference, if any.
+     * reference, if any. Synchronize on the database while reading its rows, as described in
+     * {@link #findDatabase(DataReference)}.
      *
      * @param slot identifies the slot from which data is desired
      *
@@ -374,6 +1102,98 @@ public class CrateDigger {
         return databases.get(slot);
     }
 
+    /**
+     * Find the search index we have built for the database of the media in the specified slot, if any. This allows
+     * tracks to be found by text, tempo or key without asking the player to perform menu queries. The index is
+     * built in the background once the database has been parsed and delivered to listeners, so that metadata can
+     * be offered as soon as possible; until the index is ready, this returns {@code null}.
+     *
+     * @param slot identifies the slot whose tracks are to be searched
+     *
+     * @return the search index for that slot's database, or {@code null} if one is not (yet) available
+     *
+     * @since 0.6.3
+     */
+    public DatabaseSearchIndex findSearchIndex(SlotReference slot) {
+        return searchIndexes.get(slot);
+    }
+
+    /**
+     * Start building the search index for a newly parsed database on a background thread, once the database has been
+     * published, so that it can be used for ID lookups while that work happens. The rows are read while synchronized
+     * on the database a chunk at a time, so lookups can proceed in between. The index is only published if the media
+     * is still mounted when it is finished. A failure here is logged but does not prevent the database itself from
+     * being used.
+     *
+     * @param slot the slot in which the media is mounted
+     * @param database the database that has just been parsed
+     */
+    private void buildSearchIndex(final SlotReference slot, final Database database) {
+        final Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    final long started = System.nanoTime();
+                    final DatabaseSearchIndex index = new DatabaseSearchIndex(slot, database);
+                    if (databases.get(slot) == database) {
+                        searchIndexes.put(slot, index);
+                        if (databases.get(slot) != database) {  // Unmounted while we were publishing, discard it.
+                            searchIndexes.remove(slot, index);
+                        }
+                    }
+                    logger.info("Building search index for " + index.getTrackCount() + " tracks took " +
+                            TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started) + "ms.");
+                } catch (Throwable t) {
+                    if (databases.get(slot) == database) {
+                        logger.error("Problem building search index for database from slot " + slot, t);
+                    } else {
+                        logger.debug("Media was unmounted while building its search index, abandoning it.", t);
+                    }
+                }
+            }
+        }, "CrateDigger search index " + slot);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Provides exclusive access to the files we download, and to the work of parsing them, so that one thread never
+     * tries to use a file another is still downloading, and a file is only downloaded and parsed once.
+     */
+    private final NamedLocks fileLocks = new NamedLocks();
+
+    /**
+     * Get the locks which protect the files being downloaded and parsed, so that their contention statistics can
+     * be examined when diagnosing performance problems.
+     *
+     * @return the named locks used for downloaded files
+     *
+     * @since 0.6.3
+     */
+    @SuppressWarnings("WeakerAccess")
+    public NamedLocks getFileLocks() {
+        return fileLocks;
+    }
+
+    /**
+     * Look up the path of the analysis file of a track, reading its row while synchronized on the database.
+     *
+     * @param track the track whose analysis file is desired
+     * @param database the parsed database export in which the track can be found
+     *
+     * @return the path of the track's analysis file within the mounted filesystem, or {@code null} if the track is
+     *         not in the database or the database has been closed
+     */
+    private String findAnalyzePath(DataReference track, Database database) {
+        synchronized (database) {
+            if (isClosed(database)) {
+                return null;
+            }
+            final RekordboxPdb.TrackRow trackRow = database.trackIndex.get((long) track.rekordboxId);
+            return (trackRow == null)? null : Database.getText(trackRow.analyzePath());
+        }
+    }
+
     /**
      * Find the analysis file for the specified track, downloading it from the player if we have not already done so.
      * Be sure to call {@code _io().close()} when you are done using the returned struct.
@@ -381,93 +1201,444 @@ public class CrateDigger {
      * @param track the track whose analysis file is desired
      * @param database the parsed database export from which the analysis path can be determined
      *
-     * @return the parsed file containing the track analysis
+     * @return the parsed file containing the track analysis
+     */
+    private RekordboxAnlz findTrackAnalysis(DataReference track, Database database) {
+        File file = null;
+        try {
+            final String analyzePath = findAnalyzePath(track, database);
+            if (analyzePath != null) {
+                file = downloadFile(track.getSlotReference(), "track-" + track.rekordboxId + "-anlz.dat");
+                final String filePath = file.getCanonicalPath();
+                fileLocks.lock(filePath);
+                try {
+                    if (!file.canRead()) {  // We need to download it.
+                        fetchFile(track.getSlotReference(), analyzePath, file);
+                    }
+                    downloadBudget.recordUse(file);
+                    return new RekordboxAnlz(new RandomAccessFileKaitaiStream(filePath));
+                } catch (Exception e) {  // We can give a more specific error including the file path.
+                    logger.error("Problem parsing analysis file " + analyzePath + " for track " + track + " from database " + database, e);
+                    deleteDownload(file);
+                } finally {
+                    fileLocks.unlock(filePath);
+                    enforceDownloadBudget();
+                }
+            } else {
+                logger.warn("Unable to find track " + track + " in database " + database);
+            }
+        } catch (Exception e) {
+            logger.error("Problem fetching analysis file for track " + track + " from database " + database, e);
+            if (file != null) {
+                deleteDownload(file);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Find the extended analysis file for the specified track, downloading it from the player if we have not already
+     * done so. Be sure to call {@code _io().close()} when you are done using the returned struct.
+     *
+     * @param track the track whose extended analysis file is desired
+     * @param database the parsed database export from which the analysis path can be determined
+     *
+     * @return the parsed file containing the track analysis
+     */
+    private RekordboxAnlz findExtendedAnalysis(DataReference track, Database database) {
+        File file = null;
+        try {
+            final String analyzePath = findAnalyzePath(track, database);
+            if (analyzePath != null) {
+                file = downloadFile(track.getSlotReference(), "track-" + track.rekordboxId + "-anlz.ext");
+                final String filePath = file.getCanonicalPath();
+                final String extendedPath = analyzePath.replaceAll("\\.DAT$", ".EXT");
+                fileLocks.lock(filePath);
+                try {
+                    if (!file.canRead()) {  // We need to download it.
+                        fetchFile(track.getSlotReference(), extendedPath, file);
+                    }
+                    downloadBudget.recordUse(file);
+                    return new RekordboxAnlz(new RandomAccessFileKaitaiStream(filePath));
+                } catch (Exception e) {  // We can give a more specific error including the file path.
+                    logger.error("Problem parsing extended analysis file " + extendedPath + " for track " + track + " from database " + database, e);
+                    deleteDownload(file);
+                } finally {
+                    fileLocks.unlock(filePath);
+                    enforceDownloadBudget();
+                }
+            } else {
+                logger.warn("Unable to find track " + track + " in database " + database);
+            }
+        } catch (Exception e) {
+            logger.error("Problem fetching extended analysis file for track " + track + " from database " + database, e);
+            if (file != null) {
+                deleteDownload(file);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Holds everything we are able to extract from a single track analysis file, so the file only needs to be parsed
+     * once no matter how many different kinds of data are requested from it.
+     */
+    private static class ParsedAnalysis {
+        private static final Logger logger = LoggerFactory.getLogger(CrateDigger.class);
+
+        /**
+         * Whether color waveforms were preferred when the waveforms were extracted, so we can tell if they are stale.
+         */
+        final boolean colorPreferred;
+
+        /**
+         * The beat grid found in the file, if any.
+         */
+        final BeatGrid beatGrid;
+
+        /**
+         * The cue list found in the file, if any.
+         */
+        final CueList cueList;
+
+        /**
+         * The waveform preview found in the file, if any.
+         */
+        final WaveformPreview preview;
+
+        /**
+         * The waveform detail found in the file, if any.
+         */
+        final WaveformDetail detail;
+
+        /**
+         * Extract all the data we might need from a parsed analysis file, making a single pass over it. A problem
+         * extracting one kind of data is logged and leaves only that field {@code null}, so the rest remains usable.
+         *
+         * @param track the track whose analysis file was parsed
+         * @param file the parsed analysis file
+         * @param colorPreferred whether color waveforms are currently preferred
+         */
+        ParsedAnalysis(DataReference track, RekordboxAnlz file, boolean colorPreferred) {
+            this.colorPreferred = colorPreferred;
+            BeatGrid foundGrid = null;
+            CueList foundCueList = null;
+            WaveformPreview foundPreview = null;
+            WaveformDetail foundDetail = null;
+            try {
+                foundGrid = new BeatGrid(track, file);
+            } catch (IllegalArgumentException e) {
+                // No beat grid in this file.
+            } catch (Exception e) {
+                logger.warn("Problem extracting beat grid for track " + track + " from analysis file", e);
+            }
+            try {
+                foundCueList = new CueList(file);
+            } catch (Exception e) {
+                logger.warn("Problem extracting cue list for track " + track + " from analysis file", e);
+            }
+            try {
+                foundPreview = new WaveformPreview(track, file);
+            } catch (IllegalStateException e) {
+                // No usable waveform preview in this file.
+            } catch (Exception e) {
+                logger.warn("Problem extracting waveform preview for track " + track + " from analysis file", e);
+            }
+            try {
+                foundDetail = new WaveformDetail(track, file);
+            } catch (IllegalStateException e) {
+                // No waveform detail in this file.
+            } catch (Exception e) {
+                logger.warn("Problem extracting waveform detail for track " + track + " from analysis file", e);
+            }
+            beatGrid = foundGrid;
+            cueList = foundCueList;
+            preview = foundPreview;
+            detail = foundDetail;
+        }
+    }
+
+    /**
+     * The maximum number of tracks whose parsed analysis files we keep around. Once the data has been delivered to
+     * the finders it lives in their own caches, so we only need enough room for the tracks currently being loaded.
+     */
+    private static final int PARSED_ANALYSIS_CACHE_SIZE = 16;
+
+    /**
+     * Holds the data extracted from recently parsed track analysis (.DAT) files.
+     */
+    private final ConcurrentLinkedHashMap<DataReference, ParsedAnalysis> parsedAnalysis =
+            new ConcurrentLinkedHashMap.Builder<DataReference, ParsedAnalysis>()
+                    .maximumWeightedCapacity(PARSED_ANALYSIS_CACHE_SIZE).build();
+
+    /**
+     * Holds the data extracted from recently parsed extended track analysis (.EXT) files.
+     */
+    private final ConcurrentLinkedHashMap<DataReference, ParsedAnalysis> parsedExtendedAnalysis =
+            new ConcurrentLinkedHashMap.Builder<DataReference, ParsedAnalysis>()
+                    .maximumWeightedCapacity(PARSED_ANALYSIS_CACHE_SIZE).build();
+
+    /**
+     * Find the data that can be extracted from one of the analysis files of the specified track, downloading and
+     * parsing the file if we have not recently done so. Since the finders request all the different kinds of
+     * data at the same time when a track is loaded, this takes a lock for the track so that only one of them
+     * parses the file, and the rest reuse its results.
+     *
+     * @param track the track whose analysis is desired
+     * @param database the parsed database export from which the analysis path can be determined
+     * @param extended {@code true} if the extended analysis file is desired, {@code false} for the basic one
+     *
+     * @return the extracted data, or {@code null} if the file could not be found or parsed
+     *
+     * @throws IOException if there is a problem closing the parsed file
+     */
+    private ParsedAnalysis findParsedAnalysis(DataReference track, Database database, boolean extended) throws IOException {
+        final Map<DataReference, ParsedAnalysis> cache = extended ? parsedExtendedAnalysis : parsedAnalysis;
+        final boolean colorPreferred = WaveformFinder.getInstance().isColorPreferred();
+        final String lockName = "parsed-" + (extended ? "ext-" : "dat-") + track;
+        fileLocks.lock(lockName);
+        try {
+            ParsedAnalysis result = cache.get(track);
+            if (result != null && result.colorPreferred == colorPreferred) {
+                return result;
+            }
+            final RekordboxAnlz file = extended ? findExtendedAnalysis(track, database) : findTrackAnalysis(track, database);
+            if (file == null) {
+                return null;
+            }
+            try {
+                result = new ParsedAnalysis(track, file, colorPreferred);
+            } finally {
+                file._io().close();
+            }
+            if (databases.get(track.getSlotReference()) == database) {  // Don't cache results for unmounted media.
+                cache.put(track, result);
+            }
+            return result;
+        } finally {
+            fileLocks.unlock(lockName);
+        }
+    }
+
+    /**
+     * Discard any parsed analysis data we are holding for tracks in the specified slot.
+     *
+     * @param slot the slot whose media has been unmounted
+     */
+    private void clearParsedAnalysis(SlotReference slot) {
+        for (Map<DataReference, ParsedAnalysis> cache : Arrays.asList(parsedAnalysis, parsedExtendedAnalysis)) {
+            final Iterator<DataReference> iterator = cache.keySet().iterator();
+            while (iterator.hasNext()) {
+                if (iterator.next().getSlotReference().equals(slot)) {
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * Whether we should download the analysis files of every track as soon as a database has been parsed.
+     */
+    private final AtomicBoolean prefetchAnalysis = new AtomicBoolean(false);
+
+    /**
+     * Set whether the track analysis files of every track on newly mounted media should be downloaded in the
+     * background as soon as its database has been parsed, so that loading those tracks later will not require any
+     * network activity. Tracks that appear in playlists are downloaded first, in playlist order, followed by the
+     * rest of the collection. This takes effect for media whose databases are parsed after it is turned on; media
+     * that is already mounted is not prefetched.
+     *
+     * @param prefetch {@code true} if analysis files should be downloaded in advance
+     *
+     * @since 0.6.3
+     */
+    public void setPrefetchAnalysis(boolean prefetch) {
+        prefetchAnalysis.set(prefetch);
+    }
+
+    /**
+     * Check whether the track analysis files of every track on newly mounted media are downloaded in the background
+     * as soon as its database has been parsed.
+     *
+     * @return {@code true} if analysis files are being downloaded in advance
+     *
+     * @since 0.6.3
+     */
+    @SuppressWarnings("WeakerAccess")
+    public boolean isPrefetchingAnalysis() {
+        return prefetchAnalysis.get();
+    }
+
+    /**
+     * How many analysis files we will download at once from a single media slot when prefetching.
+     */
+    private final AtomicInteger prefetchConcurrency = new AtomicInteger(2);
+
+    /**
+     * Set how many analysis files will be downloaded at once from a single media slot when prefetching. Keeping this
+     * small avoids competing with the downloads needed for tracks that are actually being loaded.
+     *
+     * @param concurrency the number of background download threads to use for each media slot
+     *
+     * @since 0.6.3
+     */
+    public void setPrefetchConcurrency(int concurrency) {
+        if (concurrency < 1 || concurrency > 8) {
+            throw new IllegalArgumentException("concurrency must be between 1 and 8");
+        }
+        prefetchConcurrency.set(concurrency);
+    }
+
+    /**
+     * Check how many analysis files will be downloaded at once from a single media slot when prefetching.
+     *
+     * @return the number of background download threads used for each media slot
+     *
+     * @since 0.6.3
+     */
+    @SuppressWarnings("WeakerAccess")
+    public int getPrefetchConcurrency() {
+        return prefetchConcurrency.get();
+    }
+
+    /**
+     * Determine the order in which tracks should be prefetched: first those that appear in playlists, since those
+     * are the tracks most likely to be played, and then the rest of the collection. The analysis path of each track
+     * is read here, on the thread that parsed the database and before it is made available to any other thread,
+     * because reading rows from a database is not thread-safe; the prefetch threads then only need to fetch files.
+     *
+     * @param database the database whose tracks are to be prefetched
+     *
+     * @return the analysis file paths of all tracks in the database, indexed by track ID, in the order they should
+     *         be prefetched
+     */
+    private Map<Long, String> prefetchOrder(Database database) {
+        final Set<Long> ordered = new LinkedHashSet<Long>();
+        for (List<Long> playlist : database.playlistIndex.values()) {
+            for (Long id : playlist) {
+                if (database.trackIndex.containsKey(id)) {
+                    ordered.add(id);
+                }
+            }
+        }
+        ordered.addAll(database.trackIndex.keySet());
+        final Map<Long, String> paths = new LinkedHashMap<Long, String>();
+        for (Long id : ordered) {
+            final String analyzePath = Database.getText(database.trackIndex.get(id).analyzePath());
+            if (analyzePath != null) {
+                paths.put(id, analyzePath);
+            }
+        }
+        return paths;
+    }
+
+    /**
+     * Start low-priority background threads to download the analysis files of every track in a newly parsed
+     * database. They give up as soon as the media is unmounted, we are stopped, prefetching is turned off, or the
+     * downloaded files come close enough to filling the download budget that another download might cause files to
+     * be evicted. The files fetched by the run are protected from eviction until it finishes, so that the tracks it
+     * fetched first, which are the ones most likely to be played, are not discarded to make room for later ones.
+     *
+     * @param slot the slot in which the media is mounted
+     * @param database the database that has just been parsed
+     * @param analyzePaths the analysis file paths of the tracks to prefetch, as found by
+     *                     {@link #prefetchOrder(Database)} before the database was published
      */
-    private RekordboxAnlz findTrackAnalysis(DataReference track, Database database) {
-        File file = null;
-        try {
-            RekordboxPdb.TrackRow trackRow = database.trackIndex.get((long) track.rekordboxId);
-            if (trackRow != null) {
-                file = new File(downloadDirectory, slotPrefix(track.getSlotReference()) +
-                        "track-" + track.rekordboxId + "-anlz.dat");
-                final String filePath = file.getCanonicalPath();
-                final String analyzePath = Database.getText(trackRow.analyzePath());
-                try {
-                    synchronized (Util.allocateNamedLock(filePath)) {
-                        if (file.canRead()) {  // We have already downloaded it.
-                            return new RekordboxAnlz(new RandomAccessFileKaitaiStream(filePath));
+    private void startPrefetch(final SlotReference slot, final Database database, final Map<Long, String> analyzePaths) {
+        final Iterator<Map.Entry<Long, String>> iterator = analyzePaths.entrySet().iterator();
+        final AtomicInteger fetched = new AtomicInteger(0);
+        final AtomicInteger remainingThreads = new AtomicInteger(prefetchConcurrency.get());
+        final List<File> prefetched = Collections.synchronizedList(new ArrayList<File>());
+        final long started = System.nanoTime();
+        logger.info("Prefetching analysis files for " + analyzePaths.size() + " tracks from player " + slot.player +
+                ", slot " + slot.slot);
+        for (int i = 0; i < remainingThreads.get(); i++) {
+            final Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        while (isRunning() && isPrefetchingAnalysis() && databases.get(slot) == database &&
+                                downloadBudget.hasRoomToPrefetch()) {
+                            final Map.Entry<Long, String> entry;
+                            synchronized (iterator) {
+                                if (!iterator.hasNext()) {
+                                    break;
+                                }
+                                entry = iterator.next();
+                            }
+                            final long id = entry.getKey();
+                            final String analyzePath = entry.getValue();
+                            final boolean gotAnalysis = prefetchFile(slot, id, analyzePath, "-anlz.dat", prefetched);
+                            // Older media has no extended analysis files, so this is allowed to fail.
+                            prefetchFile(slot, id, analyzePath.replaceAll("\\.DAT$", ".EXT"), "-anlz.ext",
+                                    prefetched);
+                            if (gotAnalysis) {
+                                fetched.incrementAndGet();
+                            }
+                        }
+                    } catch (Throwable t) {
+                        logger.error("Problem prefetching analysis files from slot " + slot, t);
+                    } finally {
+                        if (remainingThreads.decrementAndGet() == 0) {
+                            synchronized (prefetched) {
+                                downloadBudget.unpin(prefetched);
+                            }
+                            enforceDownloadBudget();
+                            logger.info("Finished prefetching analysis files from player " + slot.player + ", slot " +
+                                    slot.slot + "; fetched " + fetched.get() + " of " + analyzePaths.size() + " tracks in " +
+                                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started) + "ms.");
                         }
-                        file.deleteOnExit();  // Prepare to download it.
-                        fetchFile(track.getSlotReference(), analyzePath, file);
-                        return new RekordboxAnlz(new RandomAccessFileKaitaiStream(filePath));
                     }
-                } catch (Exception e) {  // We can give a more specific error including the file path.
-                    logger.error("Problem parsing analysis file " + analyzePath + " for track " + track + " from database " + database, e);
-                    //noinspection ResultOfMethodCallIgnored
-                    file.delete();
-                } finally {
-                    Util.freeNamedLock(filePath);
                 }
-            } else {
-                logger.warn("Unable to find track " + track + " in database " + database);
-            }
-        } catch (Exception e) {
-            logger.error("Problem fetching analysis file for track " + track + " from database " + database, e);
-            if (file != null) {
-                //noinspection ResultOfMethodCallIgnored
-                file.delete();
-            }
+            }, "CrateDigger prefetch " + slot);
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            thread.start();
         }
-        return null;
     }
 
     /**
-     * Find the extended analysis file for the specified track, downloading it from the player if we have not already
-     * done so. Be sure to call {@code _io().close()} when you are done using the returned struct.
+     * Download a single analysis file in the background, if we do not already have it. Only one attempt is made,
+     * since the file will simply be requested again if the track is actually loaded, and older media lacks extended
+     * analysis files entirely. A file which is downloaded is pinned, so that it cannot be evicted until the prefetch
+     * run is finished.
      *
-     * @param track the track whose extended analysis file is desired
-     * @param database the parsed database export from which the analysis path can be determined
+     * @param slot the slot from which the file should be downloaded
+     * @param id the rekordbox ID of the track whose analysis is being fetched
+     * @param path the path of the file within the slot's mounted filesystem
+     * @param suffix identifies the kind of analysis file, for naming the downloaded copy
+     * @param prefetched the files downloaded so far by this prefetch run, to which the file is added if downloaded
      *
-     * @return the parsed file containing the track analysis
+     * @return {@code true} if the file is now available locally
      */
-    private RekordboxAnlz findExtendedAnalysis(DataReference track, Database database) {
-        File file = null;
+    private boolean prefetchFile(SlotReference slot, long id, String path, String suffix, List<File> prefetched) {
+        final File file = downloadFile(slot, "track-" + id + suffix);
+        final String filePath;
         try {
-            RekordboxPdb.TrackRow trackRow = database.trackIndex.get((long) track.rekordboxId);
-            if (trackRow != null) {
-                file = new File(downloadDirectory, slotPrefix(track.getSlotReference()) +
-                        "track-" + track.rekordboxId + "-anlz.ext");
-                final String filePath = file.getCanonicalPath();
-                final String analyzePath = Database.getText(trackRow.analyzePath());
-                final String extendedPath = analyzePath.replaceAll("\\.DAT$", ".EXT");
-                try {
-                    synchronized (Util.allocateNamedLock(filePath)) {
-                        if (file.canRead()) {  // We have already downloaded it.
-                            return new RekordboxAnlz(new RandomAccessFileKaitaiStream(filePath));
-                        }
-                        file.deleteOnExit();  // Prepare to download it.
-
-                        fetchFile(track.getSlotReference(), extendedPath, file);
-                        return new RekordboxAnlz(new RandomAccessFileKaitaiStream(filePath));
-                    }
-                } catch (Exception e) {  // We can give a more specific error including the file path.
-                    logger.error("Problem parsing extended analysis file " + extendedPath + " for track " + track + " from database " + database, e);
-                    //noinspection ResultOfMethodCallIgnored
-                    file.delete();
-                } finally {
-                    Util.freeNamedLock(filePath);
-                }
-            } else {
-                logger.warn("Unable to find track " + track + " in database " + database);
+            filePath = file.getCanonicalPath();
+        } catch (IOException e) {
+            logger.debug("Unable to determine path for prefetching analysis file " + path + " from slot " + slot, e);
+            return false;
+        }
+        if (!fileLocks.tryLock(filePath)) {
+            return false;  // The track is being loaded right now, so the file is already being downloaded.
+        }
+        try {
+            if (!file.canRead()) {
+                fetchFile(slot, path, file, 1);
+                downloadBudget.pin(file);
+                prefetched.add(file);
+                downloadBudget.recordUse(file);
             }
+            return true;
         } catch (Exception e) {
-            logger.error("Problem fetching extended analysis file for track " + track + " from database " + database, e);
-            if (file != null) {
-                //noinspection ResultOfMethodCallIgnored
-                file.delete();
-            }
+            logger.debug("Unable to prefetch analysis file " + path + " from slot " + slot, e);
+            deleteDownload(file);
+        } finally {
+            fileLocks.unlock(filePath);
+            enforceDownloadBudget();
         }
-        return null;
+        return false;
     }
 
     /**
@@ -484,7 +1655,10 @@ public class CrateDigger {
             Database database = findDatabase(track);
             if (database != null) {
                 try {
-                    return new TrackMetadata(track, database, getCueList(sourceMedia, track));
+                    final CueList cueList = getCueList(sourceMedia, track);  // May download, so get it unlocked.
+                    synchronized (database) {
+                        return isClosed(database)? null : new TrackMetadata(track, database, cueList);
+                    }
                 } catch (Exception e) {
                     logger.error("Problem fetching metadata for track " + track + " from database " + database, e);
                 }
@@ -498,24 +1672,35 @@ public class CrateDigger {
             Database database = findDatabase(art);
             if (database != null) {
                 try {
-                    RekordboxPdb.ArtworkRow artworkRow = database.artworkIndex.get((long) art.rekordboxId);
-                    if (artworkRow != null) {
-                        file = new File(downloadDirectory, slotPrefix(art.getSlotReference()) +
-                                "art-" + art.rekordboxId + ".jpg");
-                        if (file.canRead()) {
+                    final String artPath;
+                    synchronized (database) {
+                        if (isClosed(database)) {  // The media was unmounted or its database refreshed meanwhile.
+                            return null;
+                        }
+                        final RekordboxPdb.ArtworkRow artworkRow = database.artworkIndex.get((long) art.rekordboxId);
+                        artPath = (artworkRow == null)? null : Database.getText(artworkRow.path());
+                    }
+                    if (artPath != null) {
+                        file = downloadFile(art.getSlotReference(), "art-" + art.rekordboxId + ".jpg");
+                        final String filePath = file.getCanonicalPath();
+                        fileLocks.lock(filePath);
+                        try {
+                            if (!file.canRead()) {  // We need to download it.
+                                fetchFile(art.getSlotReference(), artPath, file);
+                            }
+                            downloadBudget.recordUse(file);
                             return new AlbumArt(art, file);
+                        } finally {
+                            fileLocks.unlock(filePath);
+                            enforceDownloadBudget();
                         }
-                        file.deleteOnExit();  // Prepare to download it.
-                        fetchFile(art.getSlotReference(), Database.getText(artworkRow.path()), file);
-                        return new AlbumArt(art, file);
                     } else {
                         logger.warn("Unable to find artwork " + art + " in database " + database);
                     }
                 } catch (Exception e) {
                     logger.warn("Problem fetching artwork " + art + " from database " + database, e);
                     if (file != null) {
-                        //noinspection ResultOfMethodCallIgnored
-                        file.delete();
+                        deleteDownload(file);
                     }
                 }
             }
@@ -527,13 +1712,9 @@ public class CrateDigger {
             Database database = findDatabase(track);
             if (database != null) {
                 try {
-                    RekordboxAnlz file = findTrackAnalysis(track, database);
-                    if (file != null) {
-                        try {
-                            return new BeatGrid(track, file);
-                        } finally {
-                            file._io().close();
-                        }
+                    ParsedAnalysis analysis = findParsedAnalysis(track, database, false);
+                    if (analysis != null) {
+                        return analysis.beatGrid;
                     }
                 } catch (Exception e) {
                     logger.error("Problem fetching beat grid for track " + track + " from database " + database, e);
@@ -548,16 +1729,12 @@ public class CrateDigger {
             if (database != null) {
                 try {
                     // Try the extended file first, because it can contain both nxs2-style commented cues and basic cues
-                    RekordboxAnlz file = findExtendedAnalysis(track, database);
-                    if (file ==  null) {  // No extended analysis found, fall back to the basic one
-                        file = findTrackAnalysis(track, database);
+                    ParsedAnalysis analysis = findParsedAnalysis(track, database, true);
+                    if (analysis == null || analysis.cueList == null) {  // No usable extended analysis, try basic one
+                        analysis = findParsedAnalysis(track, database, false);
                     }
-                    if (file != null) {
-                        try {
-                            return new CueList(file);
-                        } finally {
-                            file._io().close();
-                        }
+                    if (analysis != null) {
+                        return analysis.cueList;
                     }
                 } catch (Exception e) {
                     logger.error("Problem fetching cue list for track " + track + " from database " + database, e);
@@ -571,27 +1748,14 @@ public class CrateDigger {
             Database database = findDatabase(track);
             if (database != null) {
                 try {
-                    RekordboxAnlz file = findExtendedAnalysis(track, database);  // Look for color preview first
-                    if (file != null) {
-                        try {
-                            return new WaveformPreview(track, file);
-                        } finally {
-                            file._io().close();
-                        }
+                    ParsedAnalysis analysis = findParsedAnalysis(track, database, true);  // Look for color preview first
+                    if (analysis != null && analysis.preview != null) {
+                        return analysis.preview;
                     }
-                } catch (IllegalStateException e) {
                     logger.info("No color preview waveform found, checking for blue version.");
-                } catch (Exception e) {
-                    logger.error("Problem fetching color waveform preview for track " + track + " from database " + database, e);
-                }
-                try {
-                    RekordboxAnlz file = findTrackAnalysis(track, database);
-                    if (file != null) {
-                        try {
-                            return new WaveformPreview(track, file);
-                        } finally {
-                            file._io().close();
-                        }
+                    analysis = findParsedAnalysis(track, database, false);
+                    if (analysis != null) {
+                        return analysis.preview;
                     }
                 } catch (Exception e) {
                     logger.error("Problem fetching waveform preview for track " + track + " from database " + database, e);
@@ -605,16 +1769,12 @@ public class CrateDigger {
             Database database = findDatabase(track);
             if (database != null) {
                 try {
-                    RekordboxAnlz file = findExtendedAnalysis(track, database);
-                    if (file != null) {
-                        try {
-                            return new WaveformDetail(track, file);
-                        } finally {
-                            file._io().close();
-                        }
+                    ParsedAnalysis analysis = findParsedAnalysis(track, database, true);
+                    if (analysis != null) {
+                        return analysis.detail;
                     }
                 } catch (Exception e) {
-                    logger.error("Problem fetching waveform preview for track " + track + " from database " + database, e);
+                    logger.error("Problem fetching waveform detail for track " + track + " from database " + database, e);
                 }
             }
             return null;
@@ -655,6 +1815,10 @@ public class CrateDigger {
                 database.sourceFile.delete();
             }
             databases.clear();
+            databaseDetails.clear();
+            searchIndexes.clear();
+            parsedAnalysis.clear();
+            parsedExtendedAnalysis.clear();
         }
     }
 
@@ -701,6 +1865,281 @@ public class CrateDigger {
         throw new IllegalStateException("Failed to create download directory within " + TEMP_DIR_ATTEMPTS + " attempts.");
     }
 
+    /**
+     * The default number of bytes that downloaded track analysis and artwork files can occupy before the least
+     * recently used ones are deleted.
+     */
+    public static final long DEFAULT_DOWNLOAD_CACHE_SIZE = 512L * 1024 * 1024;
+
+    /**
+     * Keeps track of the track analysis and artwork files we have downloaded, so we can stay within our budget.
+     */
+    private final DownloadBudget downloadBudget = new DownloadBudget(DEFAULT_DOWNLOAD_CACHE_SIZE);
+
+    /**
+     * Set the number of bytes that downloaded track analysis and artwork files (including any kept from earlier runs
+     * in the {@link #setRetentionDirectory(File) retention directory}) are allowed to occupy. Once they exceed this,
+     * the least recently used files are deleted. Background prefetching stops once they reach nine tenths of this,
+     * leaving room for the files of tracks that are actually loaded. Database exports are not counted.
+     *
+     * @param bytes the space available for downloaded files
+     *
+     * @since 0.6.3
+     */
+    public void setDownloadCacheSize(long bytes) {
+        if (bytes < 0) {
+            throw new IllegalArgumentException("bytes cannot be negative");
+        }
+        downloadBudget.setMaxSize(bytes);
+        enforceDownloadBudget();
+    }
+
+    /**
+     * Check the number of bytes that downloaded track analysis and artwork files are allowed to occupy.
+     *
+     * @return the space available for downloaded files
+     *
+     * @since 0.6.3
+     */
+    @SuppressWarnings("WeakerAccess")
+    public long getDownloadCacheSize() {
+        return downloadBudget.getMaxSize();
+    }
+
+    /**
+     * Check how much space downloaded track analysis and artwork files currently occupy.
+     *
+     * @return the total size of the downloaded files we are keeping, in bytes
+     *
+     * @since 0.6.3
+     */
+    @SuppressWarnings("WeakerAccess")
+    public long getDownloadCacheUsage() {
+        return downloadBudget.getTotalSize();
+    }
+
+    /**
+     * The directory in which downloaded files are kept across restarts, if any.
+     */
+    private final AtomicReference<File> retentionDirectory = new AtomicReference<File>();
+
+    /**
+     * Holds the directories in which files are being kept across restarts for the media mounted in each slot.
+     */
+    private final Map<SlotReference, File> retainedMediaDirectories = new ConcurrentHashMap<SlotReference, File>();
+
+    /**
+     * Set a directory in which downloaded track analysis and artwork files should be kept across restarts, rather
+     * than being deleted when media is unmounted or the JVM exits. Files are grouped in a subdirectory for each piece
+     * of media, identified by its {@link MediaDetails#hashKey()}, along with a copy of the media's database export.
+     * When the media is mounted again, the old and new exports are compared, and files belonging to tracks that
+     * have changed are discarded, while the rest can be used without downloading them again. This takes effect for
+     * media whose databases are fetched after it is set.
+     *
+     * @param directory the directory in which to keep downloaded files, or {@code null} to stop keeping them
+     *
+     * @throws IllegalArgumentException if {@code directory} exists and is not a directory, or cannot be created
+     *
+     * @since 0.6.3
+     */
+    public void setRetentionDirectory(File directory) {
+        if (directory != null && !directory.isDirectory() && !directory.mkdirs()) {
+            throw new IllegalArgumentException("Unable to use " + directory + " as a retention directory");
+        }
+        retentionDirectory.set(directory);
+    }
+
+    /**
+     * Check the directory in which downloaded track analysis and artwork files are being kept across restarts.
+     *
+     * @return the retention directory, or {@code null} if downloaded files are not being kept
+     *
+     * @since 0.6.3
+     */
+    @SuppressWarnings("WeakerAccess")
+    public File getRetentionDirectory() {
+        return retentionDirectory.get();
+    }
+
+    /**
+     * Determine where a file downloaded from a slot should be stored: in the directory in which files from the media
+     * are being kept across restarts, if there is one, otherwise in our temporary download directory, with a prefix
+     * identifying the slot so it can be cleaned up when the media is unmounted.
+     *
+     * @param slot the slot from which the file is downloaded
+     * @param name the name which identifies the file within the media
+     *
+     * @return the local file in which it should be stored
+     */
+    private File downloadFile(SlotReference slot, String name) {
+        final File directory = retainedMediaDirectories.get(slot);
+        if (directory != null) {
+            return new File(directory, name);
+        }
+        return new File(downloadDirectory, slotPrefix(slot) + name);
+    }
+
+    /**
+     * Delete a downloaded file because it is no longer valid, and stop counting it against our budget. The file is
+     * deleted while holding its named lock, so it cannot disappear while another thread is downloading or opening it.
+     * The locks are reentrant, so this can safely be called by a thread which already holds the file's lock.
+     *
+     * @param file the file to be deleted
+     */
+    private void deleteDownload(File file) {
+        String filePath = null;
+        try {
+            filePath = file.getCanonicalPath();
+            fileLocks.lock(filePath);
+        } catch (IOException e) {
+            logger.warn("Unable to determine path of invalid downloaded file " + file + ", deleting it unlocked", e);
+        }
+        try {
+            //noinspection ResultOfMethodCallIgnored
+            file.delete();
+            downloadBudget.forget(file);
+        } finally {
+            if (filePath != null) {
+                fileLocks.unlock(filePath);
+            }
+        }
+    }
+
+    /**
+     * Delete the least recently used downloaded files until the rest fit within our budget. Each file is deleted
+     * while holding its named lock, so it cannot disappear while another thread is downloading or opening it.
+     */
+    private void enforceDownloadBudget() {
+        for (File file : downloadBudget.chooseEvictions()) {
+            final String filePath;
+            try {
+                filePath = file.getCanonicalPath();
+            } catch (IOException e) {
+                logger.warn("Problem evicting downloaded file " + file, e);
+                continue;
+            }
+            fileLocks.lock(filePath);
+            try {
+                //noinspection ResultOfMethodCallIgnored
+                file.delete();
+            } finally {
+                fileLocks.unlock(filePath);
+            }
+        }
+    }
+
+    /**
+     * If we are keeping downloaded files across restarts, set up the directory for a newly mounted piece of media.
+     * If we have kept files for that media before, compare the database export we saved then with the one that
+     * was just downloaded, and discard the files of any tracks or artwork that have changed. Problems are logged,
+     * and simply mean that files for the media will be downloaded to the temporary directory as usual.
+     *
+     * @param details identifies the media that was mounted
+     * @param database the database that was just downloaded and parsed for it
+     */
+    private void attachRetainedDirectory(MediaDetails details, Database database) {
+        final File root = retentionDirectory.get();
+        if (root == null) {
+            return;
+        }
+        final SlotReference slot = details.slotReference;
+        try {
+            final File mediaDirectory = new File(root, mediaDirectoryName(details));
+            if (!mediaDirectory.isDirectory() && !mediaDirectory.mkdirs()) {
+                throw new IOException("Unable to create directory " + mediaDirectory);
+            }
+            final File savedExport = new File(mediaDirectory, "export.pdb");
+            retainedMediaDirectories.put(slot, mediaDirectory);
+            if (savedExport.isFile()) {
+                final int[] pageCounts = countChangedPages(savedExport, database.sourceFile);
+                if (pageCounts[0] > 0) {
+                    final Database savedDatabase = new Database(savedExport);
+                    try {
+                        final DatabaseChange change = compareDatabases(slot, savedDatabase, database,
+                                pageCounts[0], pageCounts[1]);
+                        logger.info("Media " + details.name + " has changed since its files were kept: " + change);
+                        forgetStaleData(slot, savedDatabase, database, change);
+                    } finally {
+                        savedDatabase.close();
+                    }
+                }
+            } else {
+                // Without a saved export, we can't tell whether any files that are there are still valid.
+                final File[] files = mediaDirectory.listFiles();
+                if (files != null) {
+                    for (File file : files) {
+                        deleteDownload(file);
+                    }
+                }
+            }
+            copyFile(database.sourceFile, savedExport);
+            downloadBudget.scan(mediaDirectory, new FileFilter() {
+                @Override
+                public boolean accept(File file) {
+                    return file.isFile() && !file.getName().endsWith(".pdb") && !file.getName().endsWith(".tmp");
+                }
+            });
+            enforceDownloadBudget();
+            logger.info("Keeping files for media " + details.name + " in " + mediaDirectory);
+        } catch (Exception e) {
+            logger.warn("Unable to keep downloaded files for media " + details + " across restarts", e);
+            retainedMediaDirectories.remove(slot);
+        }
+    }
+
+    /**
+     * Build the name of the directory in which files are kept for a particular piece of media. It is derived from
+     * the media's hash key, which contains characters that can't be used in file names.
+     *
+     * @param details identifies the media
+     *
+     * @return the name of the media's subdirectory within the retention directory
+     */
+    private String mediaDirectoryName(MediaDetails details) {
+        try {
+            final byte[] digest = MessageDigest.getInstance("SHA-1").digest(details.hashKey().getBytes("UTF-8"));
+            final StringBuilder sb = new StringBuilder("media-");
+            for (byte b : digest) {
+                sb.append(String.format("%02x", b & 0xff));
+            }
+            return sb.toString();
+        } catch (Exception e) {
+            throw new IllegalStateException("Unable to hash media details", e);
+        }
+    }
+
+    /**
+     * Copy a file, replacing the destination only once the copy is complete.
+     *
+     * @param source the file to be copied
+     * @param destination where the copy should end up
+     *
+     * @throws IOException if there is a problem copying the file
+     */
+    private void copyFile(File source, File destination) throws IOException {
+        final File temp = new File(destination.getParentFile(), destination.getName() + ".tmp");
+        final InputStream in = new FileInputStream(source);
+        try {
+            final OutputStream out = new FileOutputStream(temp);
+            try {
+                final byte[] buffer = new byte[65536];
+                int count;
+                while ((count = in.read(buffer)) > 0) {
+                    out.write(buffer, 0, count);
+                }
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+        //noinspection ResultOfMethodCallIgnored
+        destination.delete();
+        if (!temp.renameTo(destination)) {
+            throw new IOException("Unable to rename " + temp + " to " + destination);
+        }
+    }
+
     /**
      * Keeps track of the registered database listeners.
      */
@@ -770,6 +2209,95 @@ public class CrateDigger {
         }
     }
 
+    /**
+     * Tell all registered listeners that the database for a slot has been refreshed. Listeners which implement
+     * {@link DatabaseUpdateListener} learn exactly what changed; the others are told that the old database was
+     * unmounted and the new one mounted.
+     *
+     * @param slot the media slot whose database was refreshed
+     * @param oldDatabase the database which has been replaced
+     * @param newDatabase the database which replaced it
+     * @param change describes the differences between them
+     */
+    private void deliverDatabaseChange(SlotReference slot, Database oldDatabase, Database newDatabase, DatabaseChange change) {
+        for (final DatabaseListener listener : getDatabaseListeners()) {
+            try {
+                if (listener instanceof DatabaseUpdateListener) {
+                    ((DatabaseUpdateListener) listener).databaseUpdated(slot, oldDatabase, newDatabase, change);
+                } else {
+                    listener.databaseUnmounted(slot, oldDatabase);
+                    listener.databaseMounted(slot, newDatabase);
+                }
+            } catch (Throwable t) {
+                logger.warn("Problem delivering rekordbox database change to listener", t);
+            }
+        }
+    }
+
+    /**
+     * Keeps track of the registered file fetch listeners.
+     */
+    private final Set<FileFetchListener> fetchListeners =
+            Collections.newSetFromMap(new ConcurrentHashMap<FileFetchListener, Boolean>());
+
+    /**
+     * Adds the specified file fetch listener to receive updates about the progress of files being downloaded from
+     * players. If {@code listener} is {@code null} or already present in the set of registered listeners, no
+     * exception is thrown and no action is performed. Downloads which are already underway when the listener is
+     * added are not reported.
+     *
+     * @param listener the file fetch listener to add
+     *
+     * @since 0.6.3
+     */
+    public void addFileFetchListener(FileFetchListener listener) {
+        if (listener != null) {
+            fetchListeners.add(listener);
+        }
+    }
+
+    /**
+     * Removes the specified file fetch listener so that it no longer receives updates about file downloads.
+     * If {@code listener} is {@code null} or not present in the set of registered listeners, no exception is
+     * thrown and no action is performed.
+     *
+     * @param listener the file fetch listener to remove
+     *
+     * @since 0.6.3
+     */
+    public void removeFileFetchListener(FileFetchListener listener) {
+        if (listener != null) {
+            fetchListeners.remove(listener);
+        }
+    }
+
+    /**
+     * Get the set of file fetch listeners that are currently registered.
+     *
+     * @return the currently registered file fetch listeners
+     *
+     * @since 0.6.3
+     */
+    @SuppressWarnings("WeakerAccess")
+    public Set<FileFetchListener> getFileFetchListeners() {
+        // Make a copy so callers get an immutable snapshot of the current state.
+        return Collections.unmodifiableSet(new HashSet<FileFetchListener>(fetchListeners));
+    }
+
+    /**
+     * Send a file fetch progress update to all registered listeners.
+     *
+     * @param progress describes the state of a download
+     */
+    private void deliverFetchProgress(FileFetchProgress progress) {
+        for (final FileFetchListener listener : getFileFetchListeners()) {
+            try {
+                listener.fetchProgress(progress);
+            } catch (Throwable t) {
+                logger.warn("Problem delivering file fetch progress to listener", t);
+            }
+        }
+    }
 
     /**
      * Prevent direct instantiation, create a temporary directory for our file downloads,
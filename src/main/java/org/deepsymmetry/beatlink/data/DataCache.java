@@ -0,0 +1,566 @@
+package org.deepsymmetry.beatlink.data;
+
+import com.googlecode.concurrentlinkedhashmap.ConcurrentLinkedHashMap;
+import com.googlecode.concurrentlinkedhashmap.EntryWeigher;
+import com.googlecode.concurrentlinkedhashmap.EvictionListener;
+import org.deepsymmetry.beatlink.CdjStatus;
+import org.deepsymmetry.beatlink.dbserver.Field;
+import org.deepsymmetry.beatlink.dbserver.Message;
+
+import java.nio.ByteBuffer;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>A single in-memory cache shared by the {@link MetadataFinder}, {@link ArtFinder}, {@link BeatGridFinder}, and
+ * {@link WaveformFinder}, which holds on to the data they obtain even after the track it belongs to is no longer
+ * loaded on any deck, so that reloading the track (or loading another track with the same artwork) does not require
+ * another request to the player.</p>
+ *
+ * <p>Entries are weighed by an estimate of the number of bytes of heap they occupy, rather than simply counted,
+ * because a color waveform detail or a piece of album art can be hundreds of times larger than the metadata of a
+ * track. All kinds of data share a single memory budget, which is enforced by discarding the least recently used
+ * entries, and statistics are kept separately for each kind so the effectiveness of the cache can be monitored.</p>
+ *
+ * <p>Each finder removes its own entries when the media they came from is unmounted, when the player that owned them
+ * disappears, and when the finder is stopped.</p>
+ *
+ * @author James Elliott
+ * @since 0.6.3
+ */
+@SuppressWarnings("WeakerAccess")
+public class DataCache {
+
+    /**
+     * The default number of bytes of heap the cache is allowed to occupy.
+     */
+    public static final long DEFAULT_MAX_SIZE = 32L * 1024 * 1024;
+
+    /**
+     * The estimated number of bytes of overhead that every cached object occupies, beyond its variable-sized data.
+     */
+    private static final int OBJECT_OVERHEAD = 128;
+
+    /**
+     * The kinds of data that can be held in the cache.
+     */
+    public enum Kind {
+        /**
+         * Track metadata, as provided by the {@link MetadataFinder}.
+         */
+        METADATA,
+        /**
+         * Album art, as provided by the {@link ArtFinder}.
+         */
+        ART,
+        /**
+         * Beat grids, as provided by the {@link BeatGridFinder}.
+         */
+        BEAT_GRID,
+        /**
+         * Waveform previews, as provided by the {@link WaveformFinder}.
+         */
+        WAVEFORM_PREVIEW,
+        /**
+         * Waveform details, as provided by the {@link WaveformFinder}.
+         */
+        WAVEFORM_DETAIL
+    }
+
+    /**
+     * Identifies a cache entry, combining the kind of data with the reference used to request it.
+     */
+    private static class Key {
+        final Kind kind;
+        final DataReference reference;
+
+        Key(Kind kind, DataReference reference) {
+            this.kind = kind;
+            this.reference = reference;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Key key = (Key) o;
+            return kind == key.kind && reference.equals(key.reference);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * kind.hashCode() + reference.hashCode();
+        }
+    }
+
+    /**
+     * A snapshot of the statistics gathered for one kind of cached data.
+     */
+    public static class Statistics {
+
+        /**
+         * The kind of data these statistics describe.
+         */
+        public final Kind kind;
+
+        /**
+         * How many times data of this kind was found in the cache.
+         */
+        public final long hitCount;
+
+        /**
+         * How many times data of this kind was looked for in the cache but not found.
+         */
+        public final long missCount;
+
+        /**
+         * How many entries of this kind have been discarded to stay within the memory budget.
+         */
+        public final long evictionCount;
+
+        /**
+         * How many entries of this kind are currently cached.
+         */
+        public final long entryCount;
+
+        /**
+         * The estimated number of bytes occupied by the entries of this kind which are currently cached.
+         */
+        public final long byteCount;
+
+        private Statistics(Kind kind, long hitCount, long missCount, long evictionCount, long entryCount, long byteCount) {
+            this.kind = kind;
+            this.hitCount = hitCount;
+            this.missCount = missCount;
+            this.evictionCount = evictionCount;
+            this.entryCount = entryCount;
+            this.byteCount = byteCount;
+        }
+
+        /**
+         * Calculate the fraction of lookups that were satisfied by the cache.
+         *
+         * @return a value between 0.0 and 1.0, or 0.0 if there have been no lookups
+         */
+        public double getHitRate() {
+            final long lookups = hitCount + missCount;
+            return (lookups == 0)? 0.0 : (double) hitCount / lookups;
+        }
+
+        @Override
+        public String toString() {
+            return "DataCache.Statistics[kind:" + kind + ", hits:" + hitCount + ", misses:" + missCount +
+                    ", evictions:" + evictionCount + ", entries:" + entryCount + ", bytes:" + byteCount + "]";
+        }
+    }
+
+    /**
+     * The running counters for one kind of cached data.
+     */
+    private static class Counters {
+        final AtomicLong hits = new AtomicLong(0);
+        final AtomicLong misses = new AtomicLong(0);
+        final AtomicLong evictions = new AtomicLong(0);
+        final AtomicLong entries = new AtomicLong(0);
+        final AtomicLong bytes = new AtomicLong(0);
+    }
+
+    /**
+     * Holds the counters for each kind of data.
+     */
+    private final Map<Kind, Counters> counters = new EnumMap<Kind, Counters>(Kind.class);
+
+    /**
+     * Weighs each entry by the estimated number of bytes it occupies.
+     */
+    private final EntryWeigher<Key, Object> weigher = new EntryWeigher<Key, Object>() {
+        @Override
+        public int weightOf(Key key, Object value) {
+            return estimateSize(key.kind, value);
+        }
+    };
+
+    /**
+     * Keeps our statistics up to date when entries are discarded to stay within budget.
+     */
+    private final EvictionListener<Key, Object> evictionListener = new EvictionListener<Key, Object>() {
+        @Override
+        public void onEviction(Key key, Object value) {
+            final Counters kindCounters = counters.get(key.kind);
+            kindCounters.evictions.incrementAndGet();
+            kindCounters.entries.decrementAndGet();
+            kindCounters.bytes.addAndGet(-estimateSize(key.kind, value));
+        }
+    };
+
+    /**
+     * The cache itself.
+     */
+    private final ConcurrentLinkedHashMap<Key, Object> cache;
+
+    /**
+     * Estimate how many bytes of heap a cached value occupies.
+     *
+     * @param kind the kind of data
+     * @param value the cached value
+     *
+     * @return the estimated size, which is always at least 1
+     */
+    private static int estimateSize(Kind kind, Object value) {
+        long size = OBJECT_OVERHEAD;
+        switch (kind) {
+            case METADATA:
+                final TrackMetadata metadata = (TrackMetadata) value;
+                if (metadata.rawItems != null) {
+                    for (Message item : metadata.rawItems) {
+                        size += OBJECT_OVERHEAD;
+                        for (Field field : item.fields) {
+                            size += field.getBytes().remaining();
+                        }
+                    }
+                } else {
+                    size += 1024;  // A rough allowance for the strings and searchable items of a database row.
+                }
+                final CueList cueList = metadata.getCueList();
+                if (cueList != null) {
+                    size += cueList.entries.size() * OBJECT_OVERHEAD;
+                }
+                break;
+
+            case ART:
+                size += ((AlbumArt) value).getRawBytes().remaining();
+                break;
+
+            case BEAT_GRID:
+                size += ((BeatGrid) value).beatCount * 16L;
+                final ByteBuffer rawGrid = ((BeatGrid) value).getRawData();
+                if (rawGrid != null) {
+                    size += rawGrid.remaining();
+                }
+                break;
+
+            case WAVEFORM_PREVIEW:
+                size += ((WaveformPreview) value).getData().remaining();
+                break;
+
+            case WAVEFORM_DETAIL:
+                size += ((WaveformDetail) value).getData().remaining();
+                break;
+        }
+        return (int) Math.min(Integer.MAX_VALUE, size);
+    }
+
+    /**
+     * Look up an entry in the cache.
+     *
+     * @param kind the kind of data desired
+     * @param reference the reference that was used to request it
+     *
+     * @return the cached data, or {@code null} if it is not present
+     */
+    private Object get(Kind kind, DataReference reference) {
+        final Object result = cache.get(new Key(kind, reference));
+        if (result == null) {
+            counters.get(kind).misses.incrementAndGet();
+        } else {
+            counters.get(kind).hits.incrementAndGet();
+        }
+        return result;
+    }
+
+    /**
+     * Add an entry to the cache, keeping the statistics up to date.
+     *
+     * @param kind the kind of data being cached
+     * @param reference the reference that was used to request it
+     * @param value the data to be cached
+     */
+    private void put(Kind kind, DataReference reference, Object value) {
+        final Counters kindCounters = counters.get(kind);
+        kindCounters.entries.incrementAndGet();
+        kindCounters.bytes.addAndGet(estimateSize(kind, value));
+        final Object replaced = cache.put(new Key(kind, reference), value);
+        if (replaced != null) {
+            kindCounters.entries.decrementAndGet();
+            kindCounters.bytes.addAndGet(-estimateSize(kind, replaced));
+        }
+    }
+
+    /**
+     * Remove an entry from the cache, keeping the statistics up to date.
+     *
+     * @param key identifies the entry to be removed
+     */
+    private void remove(Key key) {
+        final Object removed = cache.remove(key);
+        if (removed != null) {
+            final Counters kindCounters = counters.get(key.kind);
+            kindCounters.entries.decrementAndGet();
+            kindCounters.bytes.addAndGet(-estimateSize(key.kind, removed));
+        }
+    }
+
+    /**
+     * Look up cached track metadata.
+     *
+     * @param reference the reference that was used to request the metadata
+     * @param trackType the type of track whose metadata is desired
+     *
+     * @return the metadata, or {@code null} if it is not cached for that type of track
+     */
+    public TrackMetadata getMetadata(DataReference reference, CdjStatus.TrackType trackType) {
+        final TrackMetadata result = (TrackMetadata) get(Kind.METADATA, reference);
+        if (result != null && result.trackType != trackType) {
+            return null;
+        }
+        return result;
+    }
+
+    /**
+     * Add track metadata to the cache.
+     *
+     * @param metadata the metadata to be cached; if {@code null}, nothing happens
+     */
+    public void putMetadata(TrackMetadata metadata) {
+        if (metadata != null) {
+            put(Kind.METADATA, metadata.trackReference, metadata);
+        }
+    }
+
+    /**
+     * Look up cached album art.
+     *
+     * @param artReference the reference that was used to request the art
+     *
+     * @return the art, or {@code null} if it is not cached
+     */
+    public AlbumArt getAlbumArt(DataReference artReference) {
+        return (AlbumArt) get(Kind.ART, artReference);
+    }
+
+    /**
+     * Add album art to the cache.
+     *
+     * @param art the art to be cached; if {@code null}, nothing happens
+     */
+    public void putAlbumArt(AlbumArt art) {
+        if (art != null) {
+            put(Kind.ART, art.artReference, art);
+        }
+    }
+
+    /**
+     * Look up a cached beat grid.
+     *
+     * @param trackReference the reference that was used to request the beat grid
+     *
+     * @return the beat grid, or {@code null} if it is not cached
+     */
+    public BeatGrid getBeatGrid(DataReference trackReference) {
+        return (BeatGrid) get(Kind.BEAT_GRID, trackReference);
+    }
+
+    /**
+     * Add a beat grid to the cache.
+     *
+     * @param beatGrid the beat grid to be cached; if {@code null}, nothing happens
+     */
+    public void putBeatGrid(BeatGrid beatGrid) {
+        if (beatGrid != null) {
+            put(Kind.BEAT_GRID, beatGrid.dataReference, beatGrid);
+        }
+    }
+
+    /**
+     * Look up a cached waveform preview.
+     *
+     * @param trackReference the reference that was used to request the preview
+     *
+     * @return the preview, or {@code null} if it is not cached
+     */
+    public WaveformPreview getWaveformPreview(DataReference trackReference) {
+        return (WaveformPreview) get(Kind.WAVEFORM_PREVIEW, trackReference);
+    }
+
+    /**
+     * Add a waveform preview to the cache.
+     *
+     * @param preview the preview to be cached; if {@code null}, nothing happens
+     */
+    public void putWaveformPreview(WaveformPreview preview) {
+        if (preview != null) {
+            put(Kind.WAVEFORM_PREVIEW, preview.dataReference, preview);
+        }
+    }
+
+    /**
+     * Look up a cached waveform detail.
+     *
+     * @param trackReference the reference that was used to request the detail
+     *
+     * @return the detail, or {@code null} if it is not cached
+     */
+    public WaveformDetail getWaveformDetail(DataReference trackReference) {
+        return (WaveformDetail) get(Kind.WAVEFORM_DETAIL, trackReference);
+    }
+
+    /**
+     * Add a waveform detail to the cache.
+     *
+     * @param detail the detail to be cached; if {@code null}, nothing happens
+     */
+    public void putWaveformDetail(WaveformDetail detail) {
+        if (detail != null) {
+            put(Kind.WAVEFORM_DETAIL, detail.dataReference, detail);
+        }
+    }
+
+    /**
+     * Discard any cached data of a particular kind for a single track or piece of art, because it may be out of date.
+     *
+     * @param kind the kind of data to be discarded
+     * @param reference the reference that was used to request it
+     */
+    public void remove(Kind kind, DataReference reference) {
+        if (reference != null) {
+            remove(new Key(kind, reference));
+        }
+    }
+
+    /**
+     * Discard all cached data of a particular kind which was obtained from a particular media slot, because the
+     * media has been unmounted.
+     *
+     * @param kind the kind of data to be discarded
+     * @param slot the slot whose data is no longer valid
+     */
+    public void removeSlot(Kind kind, SlotReference slot) {
+        // Iterate over a copy to avoid concurrent modification issues.
+        for (Key key : new HashSet<Key>(cache.keySet())) {
+            if (key.kind == kind && SlotReference.getSlotReference(key.reference) == slot) {
+                remove(key);
+            }
+        }
+    }
+
+    /**
+     * Discard all cached data of a particular kind which was obtained from a particular player, because the player
+     * has disappeared from the network.
+     *
+     * @param kind the kind of data to be discarded
+     * @param player the player whose data is no longer valid
+     */
+    public void removePlayer(Kind kind, int player) {
+        // Iterate over a copy to avoid concurrent modification issues.
+        for (Key key : new HashSet<Key>(cache.keySet())) {
+            if (key.kind == kind && key.reference.player == player) {
+                remove(key);
+            }
+        }
+    }
+
+    /**
+     * Discard all cached data of a particular kind.
+     *
+     * @param kind the kind of data to be discarded
+     */
+    public void clear(Kind kind) {
+        // Iterate over a copy to avoid concurrent modification issues.
+        for (Key key : new HashSet<Key>(cache.keySet())) {
+            if (key.kind == kind) {
+                remove(key);
+            }
+        }
+    }
+
+    /**
+     * Set the number of bytes of heap the cache is allowed to occupy. If this is smaller than the amount currently
+     * in use, the least recently used entries are discarded immediately.
+     *
+     * @param bytes the memory budget of the cache
+     *
+     * @throws IllegalArgumentException if {@code bytes} is negative
+     */
+    public void setMaxSize(long bytes) {
+        if (bytes < 0) {
+            throw new IllegalArgumentException("Maximum size cannot be negative");
+        }
+        cache.setCapacity(bytes);
+    }
+
+    /**
+     * Get the number of bytes of heap the cache is allowed to occupy.
+     *
+     * @return the memory budget of the cache
+     */
+    public long getMaxSize() {
+        return cache.capacity();
+    }
+
+    /**
+     * Get the estimated number of bytes of heap currently occupied by cached data of all kinds.
+     *
+     * @return the estimated size of the cache
+     */
+    public long getSize() {
+        return cache.weightedSize();
+    }
+
+    /**
+     * Get the statistics gathered for a particular kind of cached data.
+     *
+     * @param kind the kind of data of interest
+     *
+     * @return a snapshot of the counters for that kind of data
+     */
+    public Statistics getStatistics(Kind kind) {
+        final Counters kindCounters = counters.get(kind);
+        return new Statistics(kind, kindCounters.hits.get(), kindCounters.misses.get(), kindCounters.evictions.get(),
+                kindCounters.entries.get(), kindCounters.bytes.get());
+    }
+
+    /**
+     * Get the statistics gathered for all kinds of cached data.
+     *
+     * @return a snapshot of the counters for each kind of data
+     */
+    public Map<Kind, Statistics> getStatistics() {
+        final Map<Kind, Statistics> result = new EnumMap<Kind, Statistics>(Kind.class);
+        for (Kind kind : Kind.values()) {
+            result.put(kind, getStatistics(kind));
+        }
+        return result;
+    }
+
+    /**
+     * Holds the singleton instance of this class.
+     */
+    private static final DataCache ourInstance = new DataCache();
+
+    /**
+     * Get the singleton instance of this class.
+     *
+     * @return the only instance of this class which exists.
+     */
+    public static DataCache getInstance() {
+        return ourInstance;
+    }
+
+    /**
+     * Prevent direct instantiation.
+     */
+    private DataCache() {
+        for (Kind kind : Kind.values()) {
+            counters.put(kind, new Counters());
+        }
+        cache = new ConcurrentLinkedHashMap.Builder<Key, Object>().maximumWeightedCapacity(DEFAULT_MAX_SIZE)
+                .weigher(weigher).listener(evictionListener).build();
+    }
+
+    @Override
+    public String toString() {
+        return "DataCache[maxSize:" + getMaxSize() + ", size:" + getSize() + ", statistics:" + getStatistics().values() + "]";
+    }
+}
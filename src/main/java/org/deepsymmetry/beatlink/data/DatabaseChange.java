@@ -0,0 +1,90 @@
+package org.deepsymmetry.beatlink.data;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Describes how the rekordbox database for a media slot changed when {@link CrateDigger} noticed that the media
+ * had been updated and downloaded a fresh copy of its {@code export.pdb}. Delivered to any
+ * {@link DatabaseUpdateListener} along with the old and new databases.
+ *
+ * @author James Elliott
+ * @since 0.6.3
+ */
+@SuppressWarnings("WeakerAccess")
+public class DatabaseChange {
+
+    /**
+     * The slot whose database changed.
+     */
+    public final SlotReference slot;
+
+    /**
+     * The tracks which are present in the new database but were not in the old one.
+     */
+    public final List<DataReference> addedTracks;
+
+    /**
+     * The tracks which were present in the old database but are not in the new one.
+     */
+    public final List<DataReference> removedTracks;
+
+    /**
+     * The tracks which are present in both databases, but whose rows differ, for example because they were
+     * re-analyzed or their metadata was edited.
+     */
+    public final List<DataReference> changedTracks;
+
+    /**
+     * Indicates whether any playlist was added, removed, or had its tracks changed.
+     */
+    public final boolean playlistsChanged;
+
+    /**
+     * The number of pages of the {@code export.pdb} file which differ between the old and new versions.
+     */
+    public final int changedPages;
+
+    /**
+     * The total number of pages in the new version of the {@code export.pdb} file.
+     */
+    public final int totalPages;
+
+    /**
+     * Constructor simply sets the fields of this immutable value class.
+     *
+     * @param slot the slot whose database changed
+     * @param addedTracks the tracks which are new
+     * @param removedTracks the tracks which are gone
+     * @param changedTracks the tracks whose rows differ
+     * @param playlistsChanged whether any playlists changed
+     * @param changedPages the number of database pages which differ
+     * @param totalPages the number of pages in the new database
+     */
+    DatabaseChange(SlotReference slot, List<DataReference> addedTracks, List<DataReference> removedTracks,
+                   List<DataReference> changedTracks, boolean playlistsChanged, int changedPages, int totalPages) {
+        this.slot = slot;
+        this.addedTracks = Collections.unmodifiableList(addedTracks);
+        this.removedTracks = Collections.unmodifiableList(removedTracks);
+        this.changedTracks = Collections.unmodifiableList(changedTracks);
+        this.playlistsChanged = playlistsChanged;
+        this.changedPages = changedPages;
+        this.totalPages = totalPages;
+    }
+
+    /**
+     * Check whether any tracks were affected by the change.
+     *
+     * @return {@code true} if any tracks were added, removed, or changed
+     */
+    public boolean tracksChanged() {
+        return !(addedTracks.isEmpty() && removedTracks.isEmpty() && changedTracks.isEmpty());
+    }
+
+    @Override
+    public String toString() {
+        return "DatabaseChange[slot:" + slot + ", added:" + addedTracks.size() + ", removed:" + removedTracks.size() +
+                ", changed:" + changedTracks.size() + ", playlistsChanged:" + playlistsChanged +
+                ", changedPages:" + changedPages + "/" + totalPages + "]";
+    }
+}
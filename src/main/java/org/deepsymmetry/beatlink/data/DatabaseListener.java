@@ -31,6 +31,9 @@ public interface DatabaseListener {
      * <em>must</em> finish quickly, or it will add latency for other listeners, and device updates will back up.
      * If you want to perform lengthy processing of any sort, do so on another thread.</p>
      *
+     * <p>The rows of the database are read lazily from a single shared file stream, and other threads will be reading
+     * them to answer metadata requests, so synchronize on the database while reading its rows.</p>
+     *
      * @param slot uniquely identifies a media slot on the network which might host a rekordbox database
      * @param database the database that has been retrieved and parsed from that slot
      */
@@ -0,0 +1,626 @@
+package org.deepsymmetry.beatlink.data;
+
+import org.deepsymmetry.cratedigger.Database;
+import org.deepsymmetry.cratedigger.pdb.RekordboxPdb;
+
+import java.text.Normalizer;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * <p>An in-memory search index over the tracks in a rekordbox database export that {@link CrateDigger} has
+ * downloaded, so that tracks can be found by words in their title, artist, album, genre, label or comment, or by
+ * tempo or musical key, without scanning every track row or asking the player to run menu queries.</p>
+ *
+ * <p>Text is normalized by removing accents and case, and split into words. Every prefix of every word is indexed,
+ * so each word of a query matches any word that starts with it, which is what is wanted for search-as-you-type.
+ * Tempos and keys are held in sorted arrays so that ranges can be found by binary search. All searches return
+ * {@link DataReference} objects for the matching tracks, in order of their rekordbox IDs.</p>
+ *
+ * <p>Instances are built by {@link CrateDigger} when a database has been parsed, and can be obtained through
+ * {@link CrateDigger#findSearchIndex(SlotReference)}. They are built in the background after the database has been
+ * made available for lookups. Rows are read from the database while synchronized on it, which is how
+ * {@link CrateDigger} serializes access to its rows, a chunk of tracks at a time so that lookups are never held up
+ * for long; the index is then built from that text without touching the database again. Instances are immutable,
+ * so they can be searched from any thread.</p>
+ *
+ * @author James Elliott
+ * @since 0.6.3
+ */
+@SuppressWarnings("WeakerAccess")
+public class DatabaseSearchIndex {
+
+    /**
+     * The text fields of a track that can be searched.
+     */
+    public enum Field {
+        TITLE,
+        ARTIST,
+        ALBUM,
+        GENRE,
+        LABEL,
+        COMMENT
+    }
+
+    /**
+     * Used when there are no matching tracks.
+     */
+    private static final int[] NO_TRACKS = new int[0];
+
+    /**
+     * The slot in which the indexed media is mounted.
+     */
+    public final SlotReference slot;
+
+    /**
+     * The number of tracks that were indexed.
+     */
+    private final int trackCount;
+
+    /**
+     * For each searchable field, maps every prefix of every normalized word found in that field to the sorted IDs
+     * of the tracks containing it.
+     */
+    private final Map<Field, Map<String, int[]>> prefixIndexes = new EnumMap<Field, Map<String, int[]>>(Field.class);
+
+    /**
+     * The tempos (in beats per minute times 100) of all tracks, sorted in ascending order.
+     */
+    private final int[] sortedTempos;
+
+    /**
+     * The IDs of the tracks whose tempos are found at the corresponding positions of {@link #sortedTempos}.
+     */
+    private final int[] tempoTrackIds;
+
+    /**
+     * The musical key IDs of all tracks, sorted in ascending order.
+     */
+    private final int[] sortedKeys;
+
+    /**
+     * The IDs of the tracks whose keys are found at the corresponding positions of {@link #sortedKeys}.
+     */
+    private final int[] keyTrackIds;
+
+    /**
+     * Maps the normalized names of musical keys to the IDs of the key rows with that name.
+     */
+    private final Map<String, int[]> keyIdsByName;
+
+    /**
+     * Helper class used to gather the sorted IDs of the tracks containing a word prefix while building the index.
+     * Tracks are visited in ascending ID order, so we only need to avoid adding the same track twice in a row.
+     */
+    private static class PostingsBuilder {
+        private int[] ids = new int[4];
+        private int size = 0;
+
+        void add(int id) {
+            if (size > 0 && ids[size - 1] == id) {
+                return;
+            }
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            ids[size++] = id;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(ids, size);
+        }
+    }
+
+    /**
+     * The number of tracks whose rows are read each time we synchronize on the database.
+     */
+    private static final int READ_CHUNK_SIZE = 500;
+
+    /**
+     * Holds everything the index needs to know about the tracks in a database, read from the database in a single
+     * pass. Reading rows from a {@link Database} is not thread-safe, since its rows are parsed lazily from a single
+     * shared file stream, so they are read while synchronized on the database, a chunk of tracks at a time, and the
+     * index is then built from this without touching the database again.
+     */
+    static class Contents {
+
+        /**
+         * The IDs of all the tracks, in ascending order.
+         */
+        final int[] trackIds;
+
+        /**
+         * The text of each searchable field for the track at the corresponding position of {@link #trackIds}.
+         */
+        final Map<Field, String[]> texts = new EnumMap<Field, String[]>(Field.class);
+
+        /**
+         * The tempo of each track packed with its ID, with the tempo in the upper 32 bits.
+         */
+        final long[] tempos;
+
+        /**
+         * The musical key ID of each track packed with its ID, with the key ID in the upper 32 bits.
+         */
+        final long[] keys;
+
+        /**
+         * The names of the musical keys, indexed by key ID, in ascending order of ID.
+         */
+        final SortedMap<Long, String> keyNames = new TreeMap<Long, String>();
+
+        /**
+         * Read everything the index needs from a database, synchronizing on it while reading each chunk of rows.
+         *
+         * @param database the parsed database export
+         */
+        Contents(Database database) {
+            final long[] ids = new long[database.trackIndex.size()];
+            int count = 0;
+            for (Long id : database.trackIndex.keySet()) {
+                ids[count++] = id;
+            }
+            Arrays.sort(ids, 0, count);
+
+            trackIds = new int[count];
+            for (Field field : Field.values()) {
+                texts.put(field, new String[count]);
+            }
+            tempos = new long[count];
+            keys = new long[count];
+            for (int chunk = 0; chunk < count; chunk += READ_CHUNK_SIZE) {
+                synchronized (database) {
+                    checkOpen(database);
+                    for (int i = chunk; i < Math.min(count, chunk + READ_CHUNK_SIZE); i++) {
+                        readTrack(database, ids[i], i);
+                    }
+                }
+            }
+            synchronized (database) {
+                checkOpen(database);
+                for (Map.Entry<Long, RekordboxPdb.KeyRow> entry : database.musicalKeyIndex.entrySet()) {
+                    keyNames.put(entry.getKey(), Database.getText(entry.getValue().name()));
+                }
+            }
+        }
+
+        /**
+         * Make sure the rows of a database can still be read. Must be called while synchronized on the database.
+         *
+         * @param database the database whose rows are about to be read
+         *
+         * @throws IllegalStateException if the media has been unmounted or its database replaced by a refreshed version
+         */
+        private void checkOpen(Database database) {
+            if (CrateDigger.getInstance().isClosed(database)) {
+                throw new IllegalStateException("Database was closed while building its search index");
+            }
+        }
+
+        /**
+         * Read the text and values of a single track. Must be called while synchronized on the database.
+         *
+         * @param database the parsed database export
+         * @param id the rekordbox ID of the track
+         * @param i the position at which the track's details are to be stored
+         */
+        private void readTrack(Database database, long id, int i) {
+            final RekordboxPdb.TrackRow row = database.trackIndex.get(id);
+            trackIds[i] = (int) id;
+            texts.get(Field.TITLE)[i] = Database.getText(row.title());
+            final RekordboxPdb.ArtistRow artistRow = database.artistIndex.get(row.artistId());
+            if (artistRow != null) {
+                texts.get(Field.ARTIST)[i] = Database.getText(artistRow.name());
+            }
+            final RekordboxPdb.AlbumRow albumRow = database.albumIndex.get(row.albumId());
+            if (albumRow != null) {
+                texts.get(Field.ALBUM)[i] = Database.getText(albumRow.name());
+            }
+            final RekordboxPdb.GenreRow genreRow = database.genreIndex.get(row.genreId());
+            if (genreRow != null) {
+                texts.get(Field.GENRE)[i] = Database.getText(genreRow.name());
+            }
+            final RekordboxPdb.LabelRow labelRow = database.labelIndex.get(row.labelId());
+            if (labelRow != null) {
+                texts.get(Field.LABEL)[i] = Database.getText(labelRow.name());
+            }
+            texts.get(Field.COMMENT)[i] = Database.getText(row.comment());
+            // Pack the value and track ID together so that sorting keeps tracks with the same value in ID order.
+            tempos[i] = (row.tempo() << 32) | (id & 0xffffffffL);
+            keys[i] = (row.keyId() << 32) | (id & 0xffffffffL);
+        }
+    }
+
+    /**
+     * Build the search index for a database that has just been parsed, using all available processors. Rows are
+     * read from the database while synchronized on it, so other threads reading its rows must do the same.
+     *
+     * @param slot the slot in which the media is mounted
+     * @param database the parsed database export
+     */
+    public DatabaseSearchIndex(SlotReference slot, Database database) {
+        this(slot, database, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Build the search index for a database that has just been parsed. Reading rows from a database is not
+     * thread-safe, so they are read while synchronized on the database, and other threads reading its rows must do
+     * the same.
+     *
+     * @param slot the slot in which the media is mounted
+     * @param database the parsed database export
+     * @param threads the maximum number of threads to use to build the prefix indexes
+     *
+     * @throws IllegalArgumentException if {@code threads} is less than 1
+     */
+    public DatabaseSearchIndex(SlotReference slot, Database database, int threads) {
+        this(slot, new Contents(database), threads);
+    }
+
+    /**
+     * Build the search index from the contents that have already been read from a database, so the database itself
+     * is not needed. The prefix indexes for the different fields are built in parallel, since that is where most of
+     * the time goes for large exports.
+     *
+     * @param slot the slot in which the media is mounted
+     * @param contents everything the index needs to know about the tracks in the database
+     * @param threads the maximum number of threads to use to build the prefix indexes
+     *
+     * @throws IllegalArgumentException if {@code threads} is less than 1
+     */
+    DatabaseSearchIndex(SlotReference slot, final Contents contents, int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be at least 1");
+        }
+        this.slot = slot;
+        final int count = contents.trackIds.length;
+        trackCount = count;
+
+        final Map<Field, Future<Map<String, int[]>>> futures = new EnumMap<Field, Future<Map<String, int[]>>>(Field.class);
+        final ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, Field.values().length));
+        try {
+            for (final Field field : Field.values()) {
+                futures.put(field, executor.submit(new Callable<Map<String, int[]>>() {
+                    @Override
+                    public Map<String, int[]> call() {
+                        return buildPrefixIndex(contents.trackIds, contents.texts.get(field));
+                    }
+                }));
+            }
+
+            // While the prefix indexes are being built, sort the tempo and key arrays on this thread.
+            final long[] tempos = contents.tempos.clone();
+            Arrays.sort(tempos);
+            sortedTempos = new int[count];
+            tempoTrackIds = new int[count];
+            unpack(tempos, sortedTempos, tempoTrackIds);
+            final long[] keys = contents.keys.clone();
+            Arrays.sort(keys);
+            sortedKeys = new int[count];
+            keyTrackIds = new int[count];
+            unpack(keys, sortedKeys, keyTrackIds);
+
+            for (Field field : Field.values()) {
+                prefixIndexes.put(field, futures.get(field).get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while building search index", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Problem building search index", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+
+        final Map<String, PostingsBuilder> keyNames = new HashMap<String, PostingsBuilder>();
+        for (Map.Entry<Long, String> entry : contents.keyNames.entrySet()) {
+            final String name = normalize(entry.getValue());
+            PostingsBuilder builder = keyNames.get(name);
+            if (builder == null) {
+                builder = new PostingsBuilder();
+                keyNames.put(name, builder);
+            }
+            builder.add(entry.getKey().intValue());
+        }
+        keyIdsByName = new HashMap<String, int[]>();
+        for (Map.Entry<String, PostingsBuilder> entry : keyNames.entrySet()) {
+            keyIdsByName.put(entry.getKey(), entry.getValue().toArray());
+        }
+    }
+
+    /**
+     * Build the prefix index for a single field.
+     *
+     * @param trackIds the IDs of all the tracks, in ascending order
+     * @param texts the value of the field for the track at the corresponding position of {@code trackIds}
+     *
+     * @return a map from every prefix of every normalized word in the field to the sorted IDs of the tracks
+     *         containing it
+     */
+    private static Map<String, int[]> buildPrefixIndex(int[] trackIds, String[] texts) {
+        final Map<String, PostingsBuilder> builders = new HashMap<String, PostingsBuilder>();
+        for (int i = 0; i < trackIds.length; i++) {
+            indexText(builders, trackIds[i], texts[i]);
+        }
+        final Map<String, int[]> result = new HashMap<String, int[]>(builders.size() * 4 / 3 + 1);
+        for (Map.Entry<String, PostingsBuilder> entry : builders.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().toArray());
+        }
+        return result;
+    }
+
+    /**
+     * Split packed value and track ID pairs back into parallel arrays.
+     *
+     * @param packed the sorted pairs, with the value in the upper 32 bits and the track ID in the lower
+     * @param values receives the values
+     * @param trackIds receives the track IDs
+     */
+    private static void unpack(long[] packed, int[] values, int[] trackIds) {
+        for (int i = 0; i < packed.length; i++) {
+            values[i] = (int) (packed[i] >>> 32);
+            trackIds[i] = (int) packed[i];
+        }
+    }
+
+    /**
+     * Add every prefix of every word in a piece of text to the index for a field.
+     *
+     * @param index the prefix index being built for the field
+     * @param id the ID of the track in which the text was found
+     * @param text the text to be indexed, may be {@code null}
+     */
+    private static void indexText(Map<String, PostingsBuilder> index, int id, String text) {
+        for (String word : tokenize(text)) {
+            for (int length = 1; length <= word.length(); length++) {
+                final String prefix = word.substring(0, length);
+                PostingsBuilder builder = index.get(prefix);
+                if (builder == null) {
+                    builder = new PostingsBuilder();
+                    index.put(prefix, builder);
+                }
+                builder.add(id);
+            }
+        }
+    }
+
+    /**
+     * Normalize text for searching by removing accents and other combining marks, and converting it to lower case.
+     *
+     * @param text the text to be normalized, may be {@code null}
+     *
+     * @return the normalized text, which will be empty if {@code text} was {@code null}
+     */
+    public static String normalize(String text) {
+        if (text == null) {
+            return "";
+        }
+        return Normalizer.normalize(text, Normalizer.Form.NFD).replaceAll("\\p{M}+", "").toLowerCase(Locale.ROOT).trim();
+    }
+
+    /**
+     * Split text into the normalized words that are used for searching.
+     *
+     * @param text the text to be split, may be {@code null}
+     *
+     * @return the distinct normalized words found in the text, in the order they first appear
+     */
+    static Set<String> tokenize(String text) {
+        final Set<String> result = new LinkedHashSet<String>();
+        for (String word : normalize(text).split("[^\\p{L}\\p{N}]+")) {
+            if (!word.isEmpty()) {
+                result.add(word);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Check how many tracks were indexed.
+     *
+     * @return the number of tracks in the database that was indexed
+     */
+    public int getTrackCount() {
+        return trackCount;
+    }
+
+    /**
+     * Find the tracks which contain, in at least one of the specified fields, a word starting with each word of
+     * the query. For example, a query of {@code "arm bu"} would find tracks by Armin van Buuren.
+     *
+     * @param query the words to search for; case and accents are ignored
+     * @param fields the fields to search; if none are supplied, all fields are searched
+     *
+     * @return the tracks matching every word of the query, in order of their IDs; empty if the query has no words
+     */
+    public List<DataReference> search(String query, Field... fields) {
+        final Collection<Field> searchFields = (fields.length == 0) ? Arrays.asList(Field.values()) : Arrays.asList(fields);
+        final Set<String> words = tokenize(query);
+        if (words.isEmpty()) {
+            return Collections.emptyList();
+        }
+        int[] result = null;
+        for (String word : words) {
+            int[] matches = NO_TRACKS;
+            for (Field field : searchFields) {
+                final int[] found = prefixIndexes.get(field).get(word);
+                if (found != null) {
+                    matches = union(matches, found);
+                }
+            }
+            result = (result == null) ? matches : intersect(result, matches);
+            if (result.length == 0) {
+                break;
+            }
+        }
+        return references(result);
+    }
+
+    /**
+     * Find the tracks whose tempos fall within a range.
+     *
+     * @param minBpm the slowest tempo to be included, in beats per minute
+     * @param maxBpm the fastest tempo to be included, in beats per minute
+     *
+     * @return the tracks whose tempos are at least {@code minBpm} and no more than {@code maxBpm}, in order of
+     *         their IDs
+     */
+    public List<DataReference> findByTempo(double minBpm, double maxBpm) {
+        final int from = lowerBound(sortedTempos, (int) Math.ceil(minBpm * 100.0));
+        final int to = lowerBound(sortedTempos, (int) Math.floor(maxBpm * 100.0) + 1);
+        if (from >= to) {
+            return Collections.emptyList();
+        }
+        final int[] result = Arrays.copyOfRange(tempoTrackIds, from, to);
+        Arrays.sort(result);
+        return references(result);
+    }
+
+    /**
+     * Find the tracks that are in any of the specified musical keys, as identified by their rows in the database.
+     *
+     * @param keyIds the IDs of the desired keys
+     *
+     * @return the tracks in any of those keys, in order of their IDs
+     */
+    public List<DataReference> findByKeyId(int... keyIds) {
+        int[] result = NO_TRACKS;
+        for (int keyId : keyIds) {
+            final int from = lowerBound(sortedKeys, keyId);
+            final int to = lowerBound(sortedKeys, keyId + 1);
+            if (from < to) {
+                result = union(result, Arrays.copyOfRange(keyTrackIds, from, to));  // Already in ID order.
+            }
+        }
+        return references(result);
+    }
+
+    /**
+     * Find the tracks that are in any of the specified musical keys, as identified by their names (for example
+     * {@code "Am"} or {@code "8A"}, depending on the notation chosen when the media was exported). Harmonic mixing
+     * tools can pass all the keys that are compatible with the key of the playing track.
+     *
+     * @param keyNames the names of the desired keys; case is ignored
+     *
+     * @return the tracks in any of those keys, in order of their IDs
+     */
+    public List<DataReference> findByKey(String... keyNames) {
+        int[] result = NO_TRACKS;
+        for (String name : keyNames) {
+            final int[] keyIds = keyIdsByName.get(normalize(name));
+            if (keyIds != null) {
+                for (int keyId : keyIds) {
+                    final int from = lowerBound(sortedKeys, keyId);
+                    final int to = lowerBound(sortedKeys, keyId + 1);
+                    if (from < to) {
+                        result = union(result, Arrays.copyOfRange(keyTrackIds, from, to));
+                    }
+                }
+            }
+        }
+        return references(result);
+    }
+
+    /**
+     * Find the first position in a sorted array whose value is not less than the specified value.
+     *
+     * @param values the sorted values to search
+     * @param value the value being sought
+     *
+     * @return the index of the first element that is greater than or equal to {@code value}, or the length of
+     *         the array if there is no such element
+     */
+    private static int lowerBound(int[] values, int value) {
+        int low = 0;
+        int high = values.length;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (values[mid] < value) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Combine two sorted arrays of track IDs, keeping the IDs found in either.
+     *
+     * @param a the first sorted array
+     * @param b the second sorted array
+     *
+     * @return the sorted, distinct IDs found in either array
+     */
+    private static int[] union(int[] a, int[] b) {
+        if (a.length == 0) {
+            return b;
+        }
+        if (b.length == 0) {
+            return a;
+        }
+        final int[] result = new int[a.length + b.length];
+        int i = 0, j = 0, n = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) {
+                result[n++] = a[i++];
+            } else if (a[i] > b[j]) {
+                result[n++] = b[j++];
+            } else {
+                result[n++] = a[i++];
+                j++;
+            }
+        }
+        while (i < a.length) {
+            result[n++] = a[i++];
+        }
+        while (j < b.length) {
+            result[n++] = b[j++];
+        }
+        return Arrays.copyOf(result, n);
+    }
+
+    /**
+     * Combine two sorted arrays of track IDs, keeping only the IDs found in both.
+     *
+     * @param a the first sorted array
+     * @param b the second sorted array
+     *
+     * @return the sorted IDs found in both arrays
+     */
+    private static int[] intersect(int[] a, int[] b) {
+        final int[] result = new int[Math.min(a.length, b.length)];
+        int i = 0, j = 0, n = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                result[n++] = a[i++];
+                j++;
+            }
+        }
+        return Arrays.copyOf(result, n);
+    }
+
+    /**
+     * Build the data references that identify a set of tracks in our slot.
+     *
+     * @param ids the rekordbox IDs of the tracks
+     *
+     * @return the corresponding data references
+     */
+    private List<DataReference> references(int[] ids) {
+        final List<DataReference> result = new ArrayList<DataReference>(ids.length);
+        for (int id : ids) {
+            result.add(new DataReference(slot, id));
+        }
+        return Collections.unmodifiableList(result);
+    }
+
+    @Override
+    public String toString() {
+        return "DatabaseSearchIndex[slot:" + slot + ", tracks:" + trackCount + "]";
+    }
+}
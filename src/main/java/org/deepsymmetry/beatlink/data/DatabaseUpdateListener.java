@@ -0,0 +1,34 @@
+package org.deepsymmetry.beatlink.data;
+
+import org.deepsymmetry.cratedigger.Database;
+
+/**
+ * <p>An extension of {@link DatabaseListener} for classes that want to learn exactly what changed when
+ * {@link CrateDigger} refreshes the database of media that is still mounted, because the media details reported
+ * by the player show that tracks or playlists have been added or removed.</p>
+ *
+ * <p>Register implementations with {@link CrateDigger#addDatabaseListener(DatabaseListener)} as usual. When a
+ * database is refreshed, listeners which implement this interface receive a single call to
+ * {@link #databaseUpdated(SlotReference, Database, Database, DatabaseChange)}, while ordinary database listeners
+ * are told that the old database was unmounted and the new one mounted.</p>
+ *
+ * @author James Elliott
+ * @since 0.6.3
+ */
+@SuppressWarnings("WeakerAccess")
+public interface DatabaseUpdateListener extends DatabaseListener {
+    /**
+     * <p>Invoked when the database for a slot has been replaced by a newer version of the same media's database.
+     * The old database has already been replaced for metadata lookups, and will be closed as soon as all listeners
+     * have returned, so it must not be used after that.</p>
+     *
+     * <p>Any code in this method <em>must</em> finish quickly, or it will add latency for other listeners. If you
+     * want to perform lengthy processing of any sort, do so on another thread.</p>
+     *
+     * @param slot the media slot whose database has changed
+     * @param oldDatabase the database that had previously provided information about tracks in that slot
+     * @param newDatabase the database that now provides information about tracks in that slot
+     * @param change describes the differences between the two databases
+     */
+    void databaseUpdated(SlotReference slot, Database oldDatabase, Database newDatabase, DatabaseChange change);
+}
@@ -0,0 +1,196 @@
+package org.deepsymmetry.beatlink.data;
+
+import java.io.File;
+import java.util.*;
+
+/**
+ * Keeps track of the track analysis and artwork files that {@link CrateDigger} has downloaded, in order of when they
+ * were last used, so that the least recently used ones can be deleted when the space they occupy exceeds the
+ * configured budget. The modification times of the files are updated whenever they are used, so that files kept
+ * across restarts can be placed back in the right order when their directory is scanned.
+ *
+ * Files downloaded speculatively by a prefetch run can be pinned while the run is underway, so that the run cannot
+ * evict the files it fetched earlier (which are the ones most likely to be needed) to make room for later ones.
+ *
+ * @author James Elliott
+ * @since 0.6.3
+ */
+class DownloadBudget {
+
+    /**
+     * The sizes of the files we are tracking, in order from least to most recently used.
+     */
+    private final LinkedHashMap<File, Long> sizes = new LinkedHashMap<File, Long>(16, 0.75f, true);
+
+    /**
+     * The total size of the files we are tracking.
+     */
+    private long totalSize = 0;
+
+    /**
+     * The fraction of the budget, expressed as a divisor, that speculative downloads leave free for files that are
+     * actually needed because tracks are being loaded.
+     */
+    private static final int PREFETCH_HEADROOM_DIVISOR = 10;
+
+    /**
+     * Files which must not be chosen for eviction, because a prefetch run that is still underway fetched them.
+     */
+    private final Set<File> pinned = new HashSet<File>();
+
+    /**
+     * The number of bytes the tracked files are allowed to occupy before some must be deleted.
+     */
+    private long maxSize;
+
+    /**
+     * Constructor sets up the initial budget.
+     *
+     * @param maxSize the number of bytes the tracked files can occupy
+     */
+    DownloadBudget(long maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Change the number of bytes the tracked files are allowed to occupy.
+     *
+     * @param maxSize the new budget, in bytes
+     */
+    synchronized void setMaxSize(long maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Check the number of bytes the tracked files are allowed to occupy.
+     *
+     * @return the budget, in bytes
+     */
+    synchronized long getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Check how much space the tracked files occupy.
+     *
+     * @return the total size of the tracked files, in bytes
+     */
+    synchronized long getTotalSize() {
+        return totalSize;
+    }
+
+    /**
+     * Check whether there is still room to download files speculatively. Speculative downloads stop once the tracked
+     * files reach a low-water mark below the budget, leaving headroom for the files needed by tracks that are actually
+     * loaded, so that prefetching never causes files to be evicted.
+     *
+     * @return {@code true} if the tracked files occupy less than the budget minus its headroom
+     */
+    synchronized boolean hasRoomToPrefetch() {
+        return totalSize < maxSize - maxSize / PREFETCH_HEADROOM_DIVISOR;
+    }
+
+    /**
+     * Protect a file from eviction until it is unpinned, because a prefetch run that is still underway fetched it.
+     *
+     * @param file the file to protect
+     */
+    synchronized void pin(File file) {
+        pinned.add(file);
+    }
+
+    /**
+     * Allow files to be evicted again, because the prefetch run which fetched them has finished.
+     *
+     * @param files the files which no longer need protection
+     */
+    synchronized void unpin(Collection<File> files) {
+        pinned.removeAll(files);
+    }
+
+    /**
+     * Record that a file has just been downloaded or used, making it the most recently used file.
+     *
+     * @param file the file that was used
+     */
+    void recordUse(File file) {
+        final long length = file.length();
+        //noinspection ResultOfMethodCallIgnored
+        file.setLastModified(System.currentTimeMillis());
+        synchronized (this) {
+            final Long previous = sizes.put(file, length);
+            totalSize += length - ((previous == null) ? 0 : previous);
+        }
+    }
+
+    /**
+     * Stop tracking a file, because it has been deleted.
+     *
+     * @param file the file that is gone
+     */
+    synchronized void forget(File file) {
+        pinned.remove(file);
+        final Long previous = sizes.remove(file);
+        if (previous != null) {
+            totalSize -= previous;
+        }
+    }
+
+    /**
+     * Start tracking files that already exist in a directory, such as files kept from an earlier run, placing them
+     * in order of their modification times.
+     *
+     * @param directory the directory whose files should be tracked
+     * @param filter identifies which files in the directory should be tracked
+     */
+    void scan(File directory, java.io.FileFilter filter) {
+        final File[] files = directory.listFiles(filter);
+        if (files == null) {
+            return;
+        }
+        final File[] ordered = Arrays.copyOf(files, files.length);
+        final long[] times = new long[ordered.length];
+        final Integer[] order = new Integer[ordered.length];
+        for (int i = 0; i < ordered.length; i++) {
+            times[i] = ordered[i].lastModified();
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return (times[a] < times[b]) ? -1 : ((times[a] == times[b]) ? 0 : 1);
+            }
+        });
+        synchronized (this) {
+            for (Integer i : order) {
+                if (!sizes.containsKey(ordered[i])) {
+                    final long length = ordered[i].length();
+                    sizes.put(ordered[i], length);
+                    totalSize += length;
+                }
+            }
+        }
+    }
+
+    /**
+     * Choose the least recently used files that need to be deleted to bring the total size back within budget,
+     * and stop tracking them. Pinned files are never chosen, even if that leaves the total over budget until they
+     * are unpinned. The caller is responsible for deleting them.
+     *
+     * @return the files that should be deleted, which may be empty
+     */
+    synchronized List<File> chooseEvictions() {
+        final List<File> result = new ArrayList<File>();
+        final Iterator<Map.Entry<File, Long>> iterator = sizes.entrySet().iterator();
+        while (totalSize > maxSize && iterator.hasNext()) {
+            final Map.Entry<File, Long> entry = iterator.next();
+            if (pinned.contains(entry.getKey())) {
+                continue;
+            }
+            totalSize -= entry.getValue();
+            result.add(entry.getKey());
+            iterator.remove();
+        }
+        return result;
+    }
+}
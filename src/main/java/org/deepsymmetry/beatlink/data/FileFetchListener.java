@@ -0,0 +1,29 @@
+package org.deepsymmetry.beatlink.data;
+
+/**
+ * <p>The listener interface for receiving updates about the progress of files that {@link CrateDigger} is
+ * downloading from players.</p>
+ *
+ * <p>Classes that are interested in showing download progress or throughput can implement this interface, and then
+ * pass the implementing instance to {@link CrateDigger#addFileFetchListener(FileFetchListener)}. Then, whenever a
+ * download attempt starts, makes progress, fails, or finishes, {@link #fetchProgress(FileFetchProgress)} will be
+ * called with the details.</p>
+ *
+ * @author James Elliott
+ * @since 0.6.3
+ */
+@SuppressWarnings("WeakerAccess")
+public interface FileFetchListener {
+    /**
+     * <p>Called when there is news about a file download.</p>
+     *
+     * <p>Updates are delivered either on the thread performing the download, or on a shared thread which monitors
+     * all downloads in progress, so any code in this method <em>must</em> finish quickly, or it will delay the
+     * download or the reporting of other downloads. If you want to interact with user interface objects in this
+     * method, use <code><a href="http://docs.oracle.com/javase/8/docs/api/javax/swing/SwingUtilities.html#invokeLater-java.lang.Runnable-">javax.swing.SwingUtilities.invokeLater(Runnable)</a></code>
+     * to do so on the Event Dispatch Thread.</p>
+     *
+     * @param progress describes the state of the download
+     */
+    void fetchProgress(FileFetchProgress progress);
+}
@@ -0,0 +1,138 @@
+package org.deepsymmetry.beatlink.data;
+
+import java.io.File;
+
+/**
+ * Reports the progress of a file that {@link CrateDigger} is downloading from a player, so that user interfaces can
+ * show how large downloads are going, and problems with the network can be noticed.
+ *
+ * @author James Elliott
+ * @since 0.6.3
+ */
+@SuppressWarnings("WeakerAccess")
+public class FileFetchProgress {
+
+    /**
+     * The stages of a file download that are reported.
+     */
+    public enum State {
+        /**
+         * An attempt to download the file is beginning.
+         */
+        STARTED,
+
+        /**
+         * Data is arriving; reported periodically while the download is underway.
+         */
+        IN_PROGRESS,
+
+        /**
+         * An attempt to download the file failed, and it will be retried after a pause.
+         */
+        RETRYING,
+
+        /**
+         * The file was downloaded successfully, and its length was checked where the format allows that.
+         */
+        FINISHED,
+
+        /**
+         * The file could not be downloaded, and we have given up.
+         */
+        FAILED
+    }
+
+    /**
+     * The media slot from which the file is being downloaded.
+     */
+    public final SlotReference slot;
+
+    /**
+     * The path of the file within the media.
+     */
+    public final String path;
+
+    /**
+     * The local file into which the download is being written.
+     */
+    public final File destination;
+
+    /**
+     * The stage that the download has reached.
+     */
+    public final State state;
+
+    /**
+     * Which attempt to download the file this is, starting with 1.
+     */
+    public final int attempt;
+
+    /**
+     * How many bytes of the file have arrived so far in this attempt.
+     */
+    public final long bytesReceived;
+
+    /**
+     * How long the file is expected to be, or -1 if that can't be known until the download finishes. Track
+     * analysis files record their length in their header, so it becomes known once the first few bytes arrive.
+     */
+    public final long expectedBytes;
+
+    /**
+     * How many milliseconds have elapsed since this attempt began.
+     */
+    public final long elapsedMillis;
+
+    /**
+     * Constructor simply sets the fields of this immutable value class.
+     *
+     * @param slot the slot from which the file is being downloaded
+     * @param path the path of the file within the media
+     * @param destination the local file into which the download is being written
+     * @param state the stage that the download has reached
+     * @param attempt which attempt this is, starting with 1
+     * @param bytesReceived how many bytes have arrived so far
+     * @param expectedBytes how long the file is expected to be, or -1 if not known
+     * @param elapsedMillis how long this attempt has taken so far
+     */
+    FileFetchProgress(SlotReference slot, String path, File destination, State state, int attempt,
+                      long bytesReceived, long expectedBytes, long elapsedMillis) {
+        this.slot = slot;
+        this.path = path;
+        this.destination = destination;
+        this.state = state;
+        this.attempt = attempt;
+        this.bytesReceived = bytesReceived;
+        this.expectedBytes = expectedBytes;
+        this.elapsedMillis = elapsedMillis;
+    }
+
+    /**
+     * Calculate the average rate at which data has arrived during this attempt.
+     *
+     * @return the throughput in bytes per second
+     */
+    public long getBytesPerSecond() {
+        return bytesReceived * 1000 / Math.max(1, elapsedMillis);
+    }
+
+    /**
+     * Calculate how much of the file has arrived.
+     *
+     * @return the fraction of the expected length that has been received, from 0.0 to 1.0, or -1.0 if the expected
+     *         length is not known
+     */
+    public double getFractionComplete() {
+        if (expectedBytes <= 0) {
+            return -1.0;
+        }
+        return Math.min(1.0, (double) bytesReceived / expectedBytes);
+    }
+
+    @Override
+    public String toString() {
+        return "FileFetchProgress[slot:" + slot + ", path:" + path + ", state:" + state + ", attempt:" + attempt +
+                ", bytesReceived:" + bytesReceived + ", expectedBytes:" + expectedBytes +
+                ", elapsedMillis:" + elapsedMillis + "]";
+    }
+}
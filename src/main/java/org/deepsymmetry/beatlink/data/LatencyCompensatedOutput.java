@@ -0,0 +1,232 @@
+package org.deepsymmetry.beatlink.data;
+
+import org.deepsymmetry.beatlink.DeviceUpdate;
+import org.deepsymmetry.beatlink.VirtualCdj;
+
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Represents something driven by a player's position that takes a known amount of time to produce its output,
+ * such as video (which might appear 80 milliseconds after it is rendered) or lasers (15 milliseconds), or which runs
+ * ahead of the players, such as an audio path with a negative latency. Each output is given the position the player
+ * will have reached by the time its output is actually seen or heard, and beat callbacks that are scheduled early
+ * (or late) by the same amount, so that every output driver shares the same prediction instead of building its own
+ * on top of {@link TrackPositionListener}.</p>
+ *
+ * <p>Positions are found using {@link TimeFinder#getTimeAt(int, long)}, which interpolates within the recent
+ * position history or projects forward from the latest position, so the {@link TimeFinder} must be running.
+ * Beat callbacks are delivered by a {@link BeatPhaseClock} configured with the output's latency, which is started
+ * and stopped along with the output.</p>
+ *
+ * @author James Elliott
+ * @since 0.6.3
+ */
+@SuppressWarnings("WeakerAccess")
+public class LatencyCompensatedOutput {
+
+    /**
+     * Identifies the output, for logging and user interfaces.
+     */
+    private final String name;
+
+    /**
+     * The player the output follows, or {@link BeatPhaseClock#MASTER}.
+     */
+    private final int player;
+
+    /**
+     * How long the output takes to appear, in nanoseconds.
+     */
+    private final AtomicLong latency;
+
+    /**
+     * Delivers the output's beat callbacks.
+     */
+    private final BeatPhaseClock clock;
+
+    /**
+     * Create an output which receives one callback per beat.
+     *
+     * @param name identifies the output
+     * @param player the player number to follow, or {@link BeatPhaseClock#MASTER} to follow the tempo master
+     * @param latency how long the output takes to appear, in nanoseconds; negative if it runs ahead of the players
+     *
+     * @throws IllegalArgumentException if {@code player} is negative
+     */
+    public LatencyCompensatedOutput(String name, int player, long latency) {
+        this(name, player, latency, 1);
+    }
+
+    /**
+     * Create an output which receives callbacks at a finer resolution than one per beat.
+     *
+     * @param name identifies the output
+     * @param player the player number to follow, or {@link BeatPhaseClock#MASTER} to follow the tempo master
+     * @param latency how long the output takes to appear, in nanoseconds; negative if it runs ahead of the players
+     * @param ticksPerBeat the number of callbacks to deliver during each beat
+     *
+     * @throws IllegalArgumentException if {@code player} is negative or {@code ticksPerBeat} is less than one
+     */
+    public LatencyCompensatedOutput(String name, int player, long latency, int ticksPerBeat) {
+        this.name = name;
+        this.player = player;
+        this.latency = new AtomicLong(latency);
+        clock = new BeatPhaseClock(player, ticksPerBeat);
+        clock.setLatency(latency);
+    }
+
+    /**
+     * Get the name which identifies this output.
+     *
+     * @return the name supplied when the output was created
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Check which player this output follows.
+     *
+     * @return the player number, or {@link BeatPhaseClock#MASTER} if the output follows the tempo master
+     */
+    public int getPlayer() {
+        return player;
+    }
+
+    /**
+     * Check how long this output takes to appear.
+     *
+     * @return the output latency in nanoseconds
+     */
+    public long getLatency() {
+        return latency.get();
+    }
+
+    /**
+     * Change how long this output takes to appear, for example after measuring it. Takes effect immediately for
+     * both positions and beat callbacks.
+     *
+     * @param nanoseconds the output latency; negative if the output runs ahead of the players
+     */
+    public void setLatency(long nanoseconds) {
+        latency.set(nanoseconds);
+        clock.setLatency(nanoseconds);
+    }
+
+    /**
+     * Find the player whose position is currently being followed.
+     *
+     * @return the player number, or -1 if we are following the tempo master and there is none
+     */
+    private int currentPlayer() {
+        if (player != BeatPhaseClock.MASTER) {
+            return player;
+        }
+        final DeviceUpdate master = VirtualCdj.getInstance().getTempoMaster();
+        return (master == null)? -1 : master.getDeviceNumber();
+    }
+
+    /**
+     * Find the position that this output should be presenting now, which is where the player will be once the
+     * output's latency has elapsed.
+     *
+     * @return the milliseconds into the track that the output should reflect, or -1 if we don't know
+     *
+     * @throws IllegalStateException if the {@link TimeFinder} is not running
+     */
+    public long getTime() {
+        final int target = currentPlayer();
+        if (target < 0) {
+            return -1;
+        }
+        return TimeFinder.getInstance().getTimeAt(target, System.nanoTime() + latency.get());
+    }
+
+    /**
+     * Find the position and playback state that this output should be presenting now, as described in
+     * {@link #getTime()}.
+     *
+     * @return the position once the output's latency has elapsed, or {@code null} if we don't know
+     *
+     * @throws IllegalStateException if the {@link TimeFinder} is not running
+     */
+    public TrackPositionUpdate getPosition() {
+        final int target = currentPlayer();
+        if (target < 0) {
+            return null;
+        }
+        return TimeFinder.getInstance().getPositionAt(target, System.nanoTime() + latency.get());
+    }
+
+    /**
+     * Adds a listener to receive this output's beat callbacks, which are delivered ahead of the player's actual
+     * beats by the output's latency. If {@code listener} is {@code null} or already registered, no exception is
+     * thrown and no action is performed. Callbacks are only delivered while the output is running.
+     *
+     * @param listener the listener to add
+     */
+    public void addBeatTickListener(BeatTickListener listener) {
+        clock.addBeatTickListener(listener);
+    }
+
+    /**
+     * Removes a listener so that it no longer receives this output's beat callbacks. If {@code listener} is
+     * {@code null} or not registered, no exception is thrown and no action is performed.
+     *
+     * @param listener the listener to remove
+     */
+    public void removeBeatTickListener(BeatTickListener listener) {
+        clock.removeBeatTickListener(listener);
+    }
+
+    /**
+     * Get the set of listeners receiving this output's beat callbacks.
+     *
+     * @return the currently registered listeners
+     */
+    public Set<BeatTickListener> getBeatTickListeners() {
+        return clock.getBeatTickListeners();
+    }
+
+    /**
+     * Get the clock which delivers this output's beat callbacks, for example to check its timing statistics.
+     *
+     * @return the clock
+     */
+    public BeatPhaseClock getClock() {
+        return clock;
+    }
+
+    /**
+     * Check whether beat callbacks are being delivered.
+     *
+     * @return {@code true} if the output has been started
+     */
+    public boolean isRunning() {
+        return clock.isRunning();
+    }
+
+    /**
+     * Start delivering beat callbacks. This starts the {@link TimeFinder} if it is not already running.
+     *
+     * @throws Exception if there is a problem starting the required components
+     */
+    public void start() throws Exception {
+        clock.start();
+    }
+
+    /**
+     * Stop delivering beat callbacks.
+     */
+    public void stop() {
+        clock.stop();
+    }
+
+    @Override
+    public String toString() {
+        return "LatencyCompensatedOutput[name:" + name + ", player:" +
+                ((player == BeatPhaseClock.MASTER)? "master" : player) + ", latency:" + latency.get() +
+                ", running:" + isRunning() + "]";
+    }
+}
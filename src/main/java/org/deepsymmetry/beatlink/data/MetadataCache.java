@@ -7,6 +7,7 @@ import org.deepsymmetry.beatlink.dbserver.Client;
 import org.deepsymmetry.beatlink.dbserver.ConnectionManager;
 import org.deepsymmetry.beatlink.dbserver.Message;
 import org.deepsymmetry.beatlink.dbserver.NumberField;
+import org.deepsymmetry.beatlink.dbserver.StringField;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -131,6 +132,11 @@ public class MetadataCache implements MetadataProvider {
      */
     private static final String CACHE_DETAILS_ENTRY = CACHE_PREFIX + "mediaDetails";
 
+    /**
+     * The file entry whose content will be the fingerprint used to quickly rule out auto-attachment candidates.
+     */
+    private static final String CACHE_FINGERPRINT_ENTRY = CACHE_PREFIX + "fingerprint";
+
     /**
      * The prefix for cache file entries that will store track metadata.
      */
@@ -243,6 +249,8 @@ public class MetadataCache implements MetadataProvider {
      * @param client the connection to the dbserver on the player whose metadata is being cached
      * @param slot the slot in which the media to be cached can be found
      * @param cache the file into which the metadata cache should be written
+     * @param existing if not {@code null}, a previously-created cache of the same media whose entries can be
+     *                 copied rather than downloaded again for any tracks whose metadata has not changed
      * @param listener will be informed after each track is added to the cache file being created and offered
      *                 the opportunity to cancel the process
      *
@@ -250,7 +258,7 @@ public class MetadataCache implements MetadataProvider {
      * @throws TimeoutException if we are unable to lock the client for menu operations
      */
     static void copyTracksToCache(List<Message> trackListEntries, int playlistId, Client client, SlotReference slot,
-                                  File cache, MetadataCacheCreationListener listener)
+                                  File cache, MetadataCache existing, MetadataCacheCreationListener listener)
             throws IOException, TimeoutException {
         FileOutputStream fos = null;
         BufferedOutputStream bos = null;
@@ -258,6 +266,7 @@ public class MetadataCache implements MetadataProvider {
         WritableByteChannel channel = null;
         final Set<Integer> tracksAdded = new HashSet<Integer>();
         final Set<Integer> artworkAdded = new HashSet<Integer>();
+        final List<Long> trackDigests = new ArrayList<Long>(trackListEntries.size());
         try {
             fos = new FileOutputStream(cache);
             bos = new BufferedOutputStream(fos);
@@ -272,6 +281,7 @@ public class MetadataCache implements MetadataProvider {
             final int totalToCopy = trackListEntries.size();
             TrackMetadata lastTrackAdded = null;
             int tracksCopied = 0;
+            int tracksReused = 0;
 
             for (Message entry : trackListEntries) {
                 if (entry.getMenuItemType() == Message.MenuItemType.UNKNOWN) {
@@ -280,8 +290,21 @@ public class MetadataCache implements MetadataProvider {
 
                 int rekordboxId = (int)((NumberField)entry.arguments.get(1)).getValue();
                 if (!tracksAdded.contains(rekordboxId)) {  // Ignore extra copies of a track present on a playlist.
-                    lastTrackAdded = copyTrackToCache(client, slot, zos, channel, artworkAdded, rekordboxId);
+                    if (existing == null) {
+                        lastTrackAdded = copyTrackToCache(client, slot, zos, channel, artworkAdded, rekordboxId);
+                    } else {
+                        final TrackMetadata track = MetadataFinder.getInstance().queryMetadata(new DataReference(slot, rekordboxId), CdjStatus.TrackType.REKORDBOX, client);
+                        if (track != null && reuseTrackFromCache(existing, track, zos, artworkAdded)) {
+                            lastTrackAdded = track;
+                            tracksReused++;
+                        } else {
+                            lastTrackAdded = copyTrackToCache(client, slot, zos, channel, artworkAdded, rekordboxId, track);
+                        }
+                    }
                     tracksAdded.add(rekordboxId);
+                    if (lastTrackAdded != null) {
+                        trackDigests.add(MetadataCacheFingerprint.trackDigest(rekordboxId, lastTrackAdded.getTitle()));
+                    }
                 }
 
                 if (listener != null) {
@@ -296,6 +319,12 @@ public class MetadataCache implements MetadataProvider {
 
                 Thread.sleep(getCachePauseInterval());
             }
+            addCacheFingerprintEntry(slot, playlistId, trackListEntries.size(), trackDigests, zos);
+            if (existing != null) {
+                logger.info("Updated metadata cache {}: reused {} unchanged tracks from {}, downloaded {}, dropped {} no longer present.",
+                        cache, tracksReused, existing.getName(), tracksAdded.size() - tracksReused,
+                        countRemovedTracks(existing, tracksAdded));
+            }
         } catch (InterruptedException e) {
             logger.warn("Interrupted while building metadata cache file, aborting", e);
             if (!cache.delete()) {
@@ -374,6 +403,25 @@ public class MetadataCache implements MetadataProvider {
         }
     }
 
+    /**
+     * Record a compact fingerprint of the tracks that have been cached, so that auto-attachment can rule out this
+     * cache without opening it or probing the player's metadata.
+     *
+     * @param slot the slot from which a metadata cache is being created
+     * @param playlistId the playlist contained in the cache, or 0 if it is all tracks from the media
+     * @param trackCount the number of tracks in the track list from which the cache was created
+     * @param trackDigests the digests of the ID and title of each track that was cached
+     * @param zos the stream to which the ZipFile is being written
+     *
+     * @throws IOException if there is a problem writing the fingerprint entry
+     */
+    private static void addCacheFingerprintEntry(SlotReference slot, int playlistId, int trackCount,
+                                                 List<Long> trackDigests, ZipOutputStream zos) throws IOException {
+        final MediaDetails details = MetadataFinder.getInstance().getMediaDetailsFor(slot);
+        zos.putNextEntry(new ZipEntry(CACHE_FINGERPRINT_ENTRY));
+        MetadataCacheFingerprint.forNewCache(details, playlistId, trackCount, trackDigests).write(zos);
+    }
+
     /**
      * Copy a single track's metadata and related objects to a cache file being created.
      *
@@ -393,8 +441,32 @@ public class MetadataCache implements MetadataProvider {
     private static TrackMetadata copyTrackToCache(Client client, SlotReference slot, ZipOutputStream zos,
                                                   WritableByteChannel channel, Set<Integer> artworkAdded, int rekordboxId)
             throws IOException, TimeoutException, InterruptedException {
-
         final TrackMetadata track = MetadataFinder.getInstance().queryMetadata(new DataReference(slot, rekordboxId), CdjStatus.TrackType.REKORDBOX, client);
+        return copyTrackToCache(client, slot, zos, channel, artworkAdded, rekordboxId, track);
+    }
+
+    /**
+     * Copy a single track's metadata and related objects to a cache file being created, when the metadata itself
+     * has already been retrieved from the player.
+     *
+     * @param client the connection to the database server from which the art can be obtained
+     * @param slot the player slot from which the art is being copied
+     * @param zos the stream to which the cache is being written
+     * @param channel the low-level channel to which the cache is being written
+     * @param artworkAdded collects the artwork that has already been added to the cache, to avoid duplicates
+     * @param rekordboxId the database ID of the track to be cached
+     * @param track the metadata that was retrieved for the track, or {@code null} if it could not be found
+     *
+     * @return the track metadata object that was written to the cache, or {@code null} if it could not be found
+     *
+     * @throws IOException if there is a problem communicating with the player or writing to the cache file
+     * @throws InterruptedException if the thread is interrupted while trying to lock the client for menu operations
+     * @throws TimeoutException if we are unable to lock the client for menu operations
+     */
+    private static TrackMetadata copyTrackToCache(Client client, SlotReference slot, ZipOutputStream zos,
+                                                  WritableByteChannel channel, Set<Integer> artworkAdded, int rekordboxId,
+                                                  TrackMetadata track)
+            throws IOException, TimeoutException, InterruptedException {
         if (track != null) {
             logger.debug("Adding metadata with ID {}", track.trackReference.rekordboxId);
             zos.putNextEntry(new ZipEntry(getMetadataEntryName(track.trackReference.rekordboxId)));
@@ -448,6 +520,92 @@ public class MetadataCache implements MetadataProvider {
         return track;
     }
 
+    /**
+     * Try to satisfy a track being added to an updated metadata cache by copying its entries from the cache that is
+     * being updated, rather than downloading them again. This is only possible if the existing cache has an entry
+     * for the track, and the metadata currently reported by the player matches what was cached, which means the
+     * track has not been re-analyzed or edited since the existing cache was created.
+     *
+     * @param existing the cache that is being updated
+     * @param track the current metadata for the track, as reported by the player
+     * @param zos the stream to which the updated cache is being written
+     * @param artworkAdded collects the artwork that has already been added to the cache, to avoid duplicates
+     *
+     * @return {@code true} if all of the track's entries were copied, {@code false} if it needs to be downloaded
+     *
+     * @throws IOException if there is a problem reading the existing cache or writing the new one
+     */
+    private static boolean reuseTrackFromCache(MetadataCache existing, TrackMetadata track, ZipOutputStream zos,
+                                               Set<Integer> artworkAdded) throws IOException {
+        final int rekordboxId = track.trackReference.rekordboxId;
+        if (existing.zipFile.getEntry(getMetadataEntryName(rekordboxId)) == null ||
+                !track.equals(existing.getTrackMetadata(null, track.trackReference))) {
+            return false;  // Either a new track, or one that has changed since the existing cache was created.
+        }
+
+        logger.debug("Reusing unchanged cache entries for track with ID {}", rekordboxId);
+        copyCacheEntry(existing, getMetadataEntryName(rekordboxId), zos);
+        if (track.getArtworkId() != 0 && !artworkAdded.contains(track.getArtworkId())) {
+            if (copyCacheEntry(existing, getArtworkEntryName(track.getArtworkId()), zos)) {
+                artworkAdded.add(track.getArtworkId());
+            }
+        }
+        copyCacheEntry(existing, getBeatGridEntryName(rekordboxId), zos);
+        copyCacheEntry(existing, getCueListEntryName(rekordboxId), zos);
+        copyCacheEntry(existing, getWaveformPreviewEntryName(rekordboxId), zos);
+        copyCacheEntry(existing, getWaveformDetailEntryName(rekordboxId), zos);
+        return true;
+    }
+
+    /**
+     * Copy the raw content of a single entry from an existing metadata cache into one that is being written.
+     *
+     * @param existing the cache from which the entry should be copied
+     * @param entryName the name of the entry to be copied
+     * @param zos the stream to which the new cache is being written
+     *
+     * @return {@code true} if the entry was found and copied, {@code false} if the existing cache lacked it
+     *
+     * @throws IOException if there is a problem reading the existing cache or writing the new one
+     */
+    private static boolean copyCacheEntry(MetadataCache existing, String entryName, ZipOutputStream zos) throws IOException {
+        final ZipEntry entry = existing.zipFile.getEntry(entryName);
+        if (entry == null) {
+            return false;
+        }
+        InputStream is = existing.zipFile.getInputStream(entry);
+        try {
+            zos.putNextEntry(new ZipEntry(entryName));
+            byte[] buffer = new byte[8192];
+            int count;
+            while ((count = is.read(buffer)) > 0) {
+                zos.write(buffer, 0, count);
+            }
+        } finally {
+            is.close();
+        }
+        return true;
+    }
+
+    /**
+     * Count how many of the tracks present in an existing cache did not make it into the updated version, because
+     * they are no longer present in the media (or playlist) being cached.
+     *
+     * @param existing the cache that was updated
+     * @param tracksAdded the IDs of the tracks that were written to the updated cache
+     *
+     * @return the number of tracks which were dropped
+     */
+    private static int countRemovedTracks(MetadataCache existing, Set<Integer> tracksAdded) {
+        int removed = 0;
+        for (Integer id : existing.getTrackIds()) {
+            if (!tracksAdded.contains(id)) {
+                removed++;
+            }
+        }
+        return removed;
+    }
+
     /**
      * Find and read the cache format entry in a metadata cache file.
      *
@@ -498,6 +656,31 @@ public class MetadataCache implements MetadataProvider {
         }
     }
 
+    /**
+     * Obtain the fingerprint summarizing the contents of the cache. Caches created by Beat Link 0.6.3 or later
+     * store this directly; for older caches it is built by reading every track's metadata, which can take a while
+     * for large caches, so callers should hold on to the result.
+     *
+     * @param file the file from which the cache was opened, so its identity can be recorded in the fingerprint
+     *
+     * @return the fingerprint describing the tracks in the cache
+     *
+     * @throws IOException if there is a problem reading the file
+     */
+    MetadataCacheFingerprint getFingerprint(File file) throws IOException {
+        ZipEntry zipEntry = zipFile.getEntry(CACHE_FINGERPRINT_ENTRY);
+        if (zipEntry == null) {
+            logger.info("Building fingerprint for metadata cache {} created by an older version of Beat Link.", getName());
+            return MetadataCacheFingerprint.fromCacheContents(this, file);
+        }
+        InputStream is = new BufferedInputStream(zipFile.getInputStream(zipEntry));
+        try {
+            return MetadataCacheFingerprint.read(is, file);
+        } finally {
+            is.close();
+        }
+    }
+
     /**
      * Returns a list of the rekordbox IDs of the tracks contained in the cache.
      *
@@ -755,7 +938,7 @@ public class MetadataCache implements MetadataProvider {
                 } else {
                     trackList = MetadataFinder.getInstance().getPlaylistItems(slot.slot, 0, playlistId, false, client);
                 }
-                MetadataCache.copyTracksToCache(trackList, playlistId, client, slot, cache, listener);
+                MetadataCache.copyTracksToCache(trackList, playlistId, client, slot, cache, null, listener);
                 return null;
             }
         };
@@ -766,6 +949,74 @@ public class MetadataCache implements MetadataProvider {
         ConnectionManager.getInstance().invokeWithClientSession(slot.player, task, "building metadata cache");
     }
 
+    /**
+     * Updates a metadata cache archive file previously created from the media in the specified slot, so that it
+     * reflects the current contents of that media without having to download everything again. The current track
+     * list (or playlist, if the existing cache was created from one) is compared against the tracks in the existing
+     * cache. Tracks whose metadata is unchanged have all their cached entries copied across, while only new tracks,
+     * and tracks whose metadata differs from what was cached, are fetched from the player. Tracks which are no longer
+     * present are dropped. The result is written to {@code cache}, which can be the same file as {@code existing},
+     * in which case it is replaced once the update is complete.
+     *
+     * If a non-{@code null} {@code listener} is supplied, it is called as each track is processed, just as when
+     * creating a cache with {@link #createMetadataCache(SlotReference, int, File, MetadataCacheCreationListener)}.
+     * Because this can still take a long time relative to CDJ status updates, it can only be performed while
+     * the MetadataFinder is in passive mode.
+     *
+     * @param slot the slot in which the media to be cached can be found
+     * @param existing the metadata cache file previously created from that media
+     * @param cache the file into which the updated metadata cache should be written
+     * @param listener will be informed after each track is added to the cache file being created and offered
+     *                 the opportunity to cancel the process
+     *
+     * @throws Exception if there is a problem communicating with the player, or reading or writing the cache files
+     *
+     * @since 0.6.3
+     */
+    @SuppressWarnings("WeakerAccess")
+    public static void updateMetadataCache(final SlotReference slot, final File existing, final File cache,
+                                           final MetadataCacheCreationListener listener)
+            throws Exception {
+        final MetadataCache previous = new MetadataCache(existing);
+        final boolean replacing = existing.getCanonicalFile().equals(cache.getCanonicalFile());
+        final File destination = replacing? new File(cache.getParentFile(), cache.getName() + ".updating") : cache;
+        try {
+            final MediaDetails details = MetadataFinder.getInstance().getMediaDetailsFor(slot);
+            if (previous.sourceMedia != null && details != null && !previous.sourceMedia.hashKey().equals(details.hashKey())) {
+                throw new IllegalArgumentException("Cache was created for different media (" + previous.sourceMedia.hashKey() +
+                        ") than is in the slot (" + details.hashKey() + ").");
+            }
+
+            ConnectionManager.ClientTask<Object> task = new ConnectionManager.ClientTask<Object>() {
+                @SuppressWarnings("SameReturnValue")
+                @Override
+                public Object useClient(Client client) throws Exception {
+                    final List<Message> trackList;
+                    if (previous.sourcePlaylist == 0) {
+                        trackList = MetadataFinder.getInstance().getFullTrackList(slot.slot, client, 0);
+                    } else {
+                        trackList = MetadataFinder.getInstance().getPlaylistItems(slot.slot, 0, previous.sourcePlaylist, false, client);
+                    }
+                    MetadataCache.copyTracksToCache(trackList, previous.sourcePlaylist, client, slot, destination, previous, listener);
+                    return null;
+                }
+            };
+
+            if (destination.exists() && !destination.delete()) {
+                logger.warn("Unable to delete cache file, {}", destination);
+            }
+            ConnectionManager.getInstance().invokeWithClientSession(slot.player, task, "updating metadata cache");
+        } finally {
+            previous.close();
+        }
+
+        if (replacing && destination.exists()) {  // The update was not canceled, so swap it into place.
+            if (!existing.delete() || !destination.renameTo(cache)) {
+                throw new IOException("Unable to replace metadata cache file " + cache + " with updated version " + destination);
+            }
+        }
+    }
+
 
     /*
      * Methods for auto-attaching metadata caches.
@@ -800,31 +1051,30 @@ public class MetadataCache implements MetadataProvider {
                     if (details != null && details.mediaType == CdjStatus.TrackType.REKORDBOX) {
                         // First stage attempt: See if we can match based on stored media details, which is both more reliable and
                         // less disruptive than trying to sample the player database to compare entries.
-                        boolean attached = false;
+                        // The fingerprint index lets us do this without opening any of the cache files that don't match.
                         for (File file : MetadataFinder.getInstance().getAutoAttachCacheFiles()) {
-                            final MetadataCache cache = new MetadataCache(file);
-                            try {
-                                if (cache.sourceMedia != null && cache.sourceMedia.hashKey().equals(details.hashKey())) {
-                                    // We found a solid match, no need to probe tracks.
-                                    final boolean changed = cache.sourceMedia.hasChanged(details);
-                                    logger.info("Auto-attaching metadata cache " + cache.getName() + " to slot " + slot +
-                                            " based on media details " + (changed? "(changed since created)!" : "(unchanged)."));
-                                    MetadataFinder.getInstance().attachMetadataCacheInternal(slot, cache);
-                                    attached = true;
-                                    return;
-                                }
-                            } finally {
-                                if (!attached) {
-                                    cache.close();
-                                }
+                            final MetadataCacheFingerprint fingerprint = MetadataFinder.getInstance().getAutoAttachFingerprint(file);
+                            if (fingerprint != null && details.hashKey().equals(fingerprint.mediaHashKey)) {
+                                final MetadataCache cache = new MetadataCache(file);
+                                // We found a solid match, no need to probe tracks.
+                                final boolean changed = cache.sourceMedia != null && cache.sourceMedia.hasChanged(details);
+                                logger.info("Auto-attaching metadata cache " + cache.getName() + " to slot " + slot +
+                                        " based on media details " + (changed? "(changed since created)!" : "(unchanged)."));
+                                MetadataFinder.getInstance().attachMetadataCacheInternal(slot, cache);
+                                return;
                             }
                         }
 
                         // Could not match based on media details; fall back to older method based on probing track metadata.
+                        final Map<Integer, LinkedList<File>> candidateGroups = gatherCandidateAttachmentGroups(details);
+                        if (candidateGroups.isEmpty()) {
+                            logger.info("No auto-attach metadata cache files are plausible matches for slot {}.", slot);
+                            return;
+                        }
                         ConnectionManager.ClientTask<Object> task = new ConnectionManager.ClientTask<Object>() {
                             @Override
                             public Object useClient(Client client) throws Exception {
-                                tryAutoAttachingWithConnection(slot, client);
+                                tryAutoAttachingWithConnection(slot, client, candidateGroups);
                                 return null;
                             }
                         };
@@ -840,101 +1090,92 @@ public class MetadataCache implements MetadataProvider {
 
     /**
      * Second stage of the auto-attach process, once we have obtained a connection to the database server for the
-     * media slot we are checking our automatic metadata cache files against. Probes the metadata offered by that
-     * sever to see if it matches any of the available caches, and if so, attaches that cache file.
+     * media slot we are checking our automatic metadata cache files against. Samples the track list offered by that
+     * sever to see if it matches the fingerprint of any of the available caches, and if so, attaches that cache file.
+     * Only the cache that is ultimately attached needs to be opened.
      *
      * @param slot identifies the media slot we are checking for automatic cache matches
      * @param client the dbserver client that is communicating with the appropriate player
+     * @param candidateGroups the cache files that might match, grouped by the playlist they were created from
      *
      * @throws IOException if there is a communication problem
      * @throws InterruptedException if the thread is interrupted while trying to lock the client for menu operations
      * @throws TimeoutException if we are unable to lock the client for menu operations
      */
-    private static void tryAutoAttachingWithConnection(SlotReference slot, Client client) throws IOException, InterruptedException, TimeoutException {
-        // Keeps track of the files we might be able to auto-attach, grouped and sorted by the playlist they
-        // were created from, where playlist 0 means all tracks.
-        final Map<Integer, LinkedList<MetadataCache>> candidateGroups = gatherCandidateAttachmentGroups();
-        MetadataCache match = null;  // We will close any non-matched files from the candidateGroups in our finally clause,
-        // but we will leave this one open because we are returning it.
-        try {
-            // Set up a menu request to process each group.
-            for (Map.Entry<Integer,LinkedList<MetadataCache>> entry : candidateGroups.entrySet()) {
-                final LinkedList<MetadataCache> candidates;
-                ArrayList<Integer> tracksToSample;
-                if (client.tryLockingForMenuOperations(MetadataFinder.MENU_TIMEOUT, TimeUnit.SECONDS)) {
-                    try {
-                        final int playlistId = entry.getKey();
-                        candidates = entry.getValue();
-                        final long count = getTrackCount(slot.slot, client, playlistId);
-                        if (count == Message.NO_MENU_RESULTS_AVAILABLE || count == 0) {
-                            // No tracks available to match this set of candidates.
-                            for (final MetadataCache candidate : candidates) {
-                                candidate.close();
-                            }
-                            candidates.clear();
-                        }
-
-                        // Filter out any candidates with the wrong number of tracks.
-                        final Iterator<MetadataCache> candidateIterator = candidates.iterator();
-                        while (candidateIterator.hasNext()) {
-                            final MetadataCache candidate = candidateIterator.next();
-                            if (candidate.trackCount != count) {
-                                candidate.close();
-                                candidateIterator.remove();
-                            }
-                        }
+    private static void tryAutoAttachingWithConnection(SlotReference slot, Client client,
+                                                       Map<Integer, LinkedList<File>> candidateGroups)
+            throws IOException, InterruptedException, TimeoutException {
+        // Set up a menu request to process each group.
+        for (Map.Entry<Integer,LinkedList<File>> entry : candidateGroups.entrySet()) {
+            final LinkedList<File> candidates = entry.getValue();
+            final Map<Integer, String> tracksToSample;
+            if (client.tryLockingForMenuOperations(MetadataFinder.MENU_TIMEOUT, TimeUnit.SECONDS)) {
+                try {
+                    final int playlistId = entry.getKey();
+                    final long count = getTrackCount(slot.slot, client, playlistId);
+                    if (count == Message.NO_MENU_RESULTS_AVAILABLE || count == 0) {
+                        continue;  // No tracks available to match this set of candidates.
+                    }
 
-                        // Bail before querying any metadata if we can already rule out all the candidates.
-                        if (candidates.isEmpty()) {
-                            continue;
+                    // Filter out any candidates with the wrong number of tracks.
+                    final Iterator<File> candidateIterator = candidates.iterator();
+                    while (candidateIterator.hasNext()) {
+                        final MetadataCacheFingerprint fingerprint = MetadataFinder.getInstance().getAutoAttachFingerprint(candidateIterator.next());
+                        if (fingerprint == null || fingerprint.trackCount != count) {
+                            candidateIterator.remove();
                         }
+                    }
 
-                        // Gather as many track IDs as we are configured to sample, up to the number available
-                        tracksToSample = chooseTrackSample(slot, client, (int) count);
-                    } finally {
-                        client.unlockForMenuOperations();
+                    // Bail before sampling any tracks if we can already rule out all the candidates.
+                    if (candidates.isEmpty()) {
+                        continue;
                     }
-                } else {
-                    throw new TimeoutException("Unable to lock player for menu operations.");
+
+                    // Gather as many track IDs and titles as we are configured to sample, up to the number available
+                    tracksToSample = chooseTrackSample(slot, client, (int) count);
+                } finally {
+                    client.unlockForMenuOperations();
                 }
+            } else {
+                throw new TimeoutException("Unable to lock player for menu operations.");
+            }
 
-                // Winnow out any auto-attachment candidates that don't match any sampled track
-                for (final int trackId : tracksToSample) {
-                    logger.info("Comparing track " + trackId + " with " + candidates.size() + " metadata cache file(s).");
+            // Winnow out any auto-attachment candidates whose fingerprints lack any sampled track.
+            for (Map.Entry<Integer, String> sample : tracksToSample.entrySet()) {
+                logger.info("Comparing track " + sample.getKey() + " with " + candidates.size() + " metadata cache fingerprint(s).");
+                final Iterator<File> candidateIterator = candidates.iterator();
+                while (candidateIterator.hasNext()) {
+                    final MetadataCacheFingerprint fingerprint = MetadataFinder.getInstance().getAutoAttachFingerprint(candidateIterator.next());
+                    if (fingerprint == null || !fingerprint.containsTrack(sample.getKey(), sample.getValue())) {
+                        candidateIterator.remove();
+                    }
+                }
+                if (candidates.isEmpty()) {
+                    break;  // No point checking more tracks, we have ruled out all candidates in this group.
+                }
+            }
 
-                    final DataReference reference = new DataReference(slot, trackId);
+            // Confirm the surviving candidates by comparing the full metadata of one sampled track, opening only
+            // the files that got this far.
+            while (!candidates.isEmpty()) {
+                final File candidateFile = candidates.removeFirst();
+                final MetadataCache candidate = new MetadataCache(candidateFile);
+                boolean attached = false;
+                try {
+                    final DataReference reference = new DataReference(slot, tracksToSample.keySet().iterator().next());
                     final TrackMetadata track = MetadataFinder.getInstance().queryMetadata(reference, CdjStatus.TrackType.REKORDBOX, client);
                     if (track == null) {
                         logger.warn("Unable to retrieve metadata when attempting cache auto-attach for slot {}, giving up", slot);
                         return;
                     }
-
-                    for (int i = candidates.size() - 1; i >= 0; --i) {
-                        final MetadataCache candidate = candidates.get(i);
-                        if (!track.equals(candidate.getTrackMetadata(null, reference))) {
-                            candidate.close();
-                            candidates.remove(i);
-                        }
-                    }
-
-                    if (candidates.isEmpty()) {
-                        break;  // No point sampling more tracks, we have ruled out all candidates in this group.
+                    if (track.equals(candidate.getTrackMetadata(null, reference))) {
+                        logger.info("Auto-attaching metadata cache " + candidate.getName() + " to slot " + slot);
+                        MetadataFinder.getInstance().attachMetadataCacheInternal(slot, candidate);
+                        attached = true;
+                        return;
                     }
-                }
-
-                if (candidates.isEmpty()) {
-                    continue;  // This group has failed; move on to the next candidate group, if any.
-                }
-
-                match = candidates.get(0);  // We have found at least one matching cache, use the first.
-                logger.info("Auto-attaching metadata cache " + match.getName() + " to slot " + slot);
-                MetadataFinder.getInstance().attachMetadataCacheInternal(slot, match);
-                return;
-            }
-        } finally {  // No matter how we leave this function, close any of the remaining zip files we are not attaching.
-            for (Map.Entry<Integer, LinkedList<MetadataCache>> entry : candidateGroups.entrySet()) {
-                for (MetadataCache candidate : entry.getValue()) {
-                    if (candidate != match) {
+                } finally {
+                    if (!attached) {
                         candidate.close();
                     }
                 }
@@ -945,25 +1186,27 @@ public class MetadataCache implements MetadataProvider {
     /**
      * Groups all of the metadata cache files that are candidates for auto-attachment to player slots into lists
      * that are keyed by the playlist ID used to create the cache file. Files that cache all tracks have a playlist
-     * ID of 0.
+     * ID of 0. Uses the fingerprint index maintained by the {@link MetadataFinder}, so none of the files need to be
+     * opened, and rules out any all-track caches whose track count differs from that of the media.
+     *
+     * @param details the details of the media we are trying to match
      *
-     * @return a map from playlist ID to the caches holding tracks from that playlist
+     * @return a map from playlist ID to the cache files holding tracks from that playlist
      */
-    private static Map<Integer, LinkedList<MetadataCache>> gatherCandidateAttachmentGroups() {
-        Map<Integer,LinkedList<MetadataCache>> candidateGroups = new TreeMap<Integer, LinkedList<MetadataCache>>();
-        final Iterator<File> iterator = MetadataFinder.getInstance().getAutoAttachCacheFiles().iterator();
-        while (iterator.hasNext()) {
-            final File file = iterator.next();
-            try {
-                final MetadataCache candidate = new MetadataCache(file);
-                if (candidateGroups.get(candidate.sourcePlaylist) == null) {
-                    candidateGroups.put(candidate.sourcePlaylist, new LinkedList<MetadataCache>());
-                }
-                candidateGroups.get(candidate.sourcePlaylist).add(candidate);
-            } catch (Exception e) {
-                logger.error("Unable to open metadata cache file " + file + ", discarding", e);
-                iterator.remove();
+    private static Map<Integer, LinkedList<File>> gatherCandidateAttachmentGroups(MediaDetails details) {
+        Map<Integer,LinkedList<File>> candidateGroups = new TreeMap<Integer, LinkedList<File>>();
+        for (File file : MetadataFinder.getInstance().getAutoAttachCacheFiles()) {
+            final MetadataCacheFingerprint candidate = MetadataFinder.getInstance().getAutoAttachFingerprint(file);
+            if (candidate == null) {
+                continue;  // The file could not be read; the problem has already been logged.
+            }
+            if (candidate.sourcePlaylist == 0 && candidate.trackCount != details.trackCount) {
+                continue;  // This can't be a cache of all the tracks on this media.
             }
+            if (candidateGroups.get(candidate.sourcePlaylist) == null) {
+                candidateGroups.put(candidate.sourcePlaylist, new LinkedList<File>());
+            }
+            candidateGroups.get(candidate.sourcePlaylist).add(file);
         }
         return candidateGroups;
     }
@@ -977,21 +1220,23 @@ public class MetadataCache implements MetadataProvider {
      * @param client the connection to the player for performing database queries to find track IDs
      * @param count the number of tracks available to sample
      *
-     * @return the IDs of the tracks we have chosen to compare
+     * @return the IDs of the tracks we have chosen to compare, mapped to their titles
      *
      * @throws IOException if there is a problem communicating with the player
      */
-    private static ArrayList<Integer> chooseTrackSample(SlotReference slot, Client client, int count) throws IOException {
+    private static Map<Integer, String> chooseTrackSample(SlotReference slot, Client client, int count) throws IOException {
         int tracksLeft = count;
         int samplesNeeded = Math.min(tracksLeft, MetadataFinder.getInstance().getAutoAttachProbeCount());
-        ArrayList<Integer> tracksToSample = new ArrayList<Integer>(samplesNeeded);
+        Map<Integer, String> tracksToSample = new LinkedHashMap<Integer, String>();
         int offset = 0;
         Random random = new Random();
         while (samplesNeeded > 0) {
             int rand = random.nextInt(tracksLeft);
             if (rand < samplesNeeded) {
                 --samplesNeeded;
-                tracksToSample.add(findTrackIdAtOffset(slot, client, offset));
+                final Message entry = findTrackEntryAtOffset(slot, client, offset);
+                tracksToSample.put((int)((NumberField)entry.arguments.get(1)).getValue(),
+                        ((StringField)entry.arguments.get(3)).getValue());
             }
             --tracksLeft;
             ++offset;
@@ -1029,20 +1274,23 @@ public class MetadataCache implements MetadataProvider {
 
     /**
      * As part of checking whether a metadata cache can be auto-mounted for a particular media slot, this method
-     * looks up the track at the specified offset within the player's track list, and returns its rekordbox ID.
+     * looks up the track at the specified offset within the player's track list, and returns its menu entry, which
+     * contains both its rekordbox ID and its title.
      *
      * @param slot the slot being considered for auto-attaching a metadata cache
      * @param client the connection to the database server on the player holding that slot
      * @param offset an index into the list of all tracks present in the slot
      *
+     * @return the track list menu entry at the specified offset
+     *
      * @throws IOException if there is a problem communicating with the player
      */
-    private static int findTrackIdAtOffset(SlotReference slot, Client client, int offset) throws IOException {
+    private static Message findTrackEntryAtOffset(SlotReference slot, Client client, int offset) throws IOException {
         Message entry = client.renderMenuItems(Message.MenuIdentifier.MAIN_MENU, slot.slot, CdjStatus.TrackType.REKORDBOX, offset, 1).get(0);
         if (entry.getMenuItemType() == Message.MenuItemType.UNKNOWN) {
             logger.warn("Encountered unrecognized track list entry item type: {}", entry);
         }
-        return (int)((NumberField)entry.arguments.get(1)).getValue();
+        return entry;
     }
 
 
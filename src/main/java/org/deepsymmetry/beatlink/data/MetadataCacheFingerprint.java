@@ -0,0 +1,250 @@
+package org.deepsymmetry.beatlink.data;
+
+import org.deepsymmetry.beatlink.CdjStatus;
+import org.deepsymmetry.beatlink.MediaDetails;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * A compact summary of the contents of a {@link MetadataCache} file, which allows candidate files to be ruled out
+ * for auto-attachment without opening their archives or asking the player for more than a handful of track list
+ * entries. Caches written by Beat Link 0.6.3 or later carry this summary as an entry of their own; for older caches
+ * it is built once, by reading the cache, when the file is registered for auto-attachment.
+ *
+ * @author James Elliott
+ * @since 0.6.3
+ */
+@SuppressWarnings("deprecation")
+class MetadataCacheFingerprint {
+
+    /**
+     * The version of the binary format used to store fingerprints inside cache files.
+     */
+    private static final int FORMAT_VERSION = 1;
+
+    /**
+     * The name of the media from which the cache was created, or {@code null} if that was not recorded.
+     */
+    final String mediaName;
+
+    /**
+     * The creation date of the media from which the cache was created, or {@code null} if that was not recorded.
+     */
+    final String mediaCreationDate;
+
+    /**
+     * The {@link MediaDetails#hashKey()} of the media from which the cache was created, or {@code null} if that
+     * was not recorded.
+     */
+    final String mediaHashKey;
+
+    /**
+     * The ID of the playlist from which the cache was created, or 0 if it holds all tracks.
+     */
+    final int sourcePlaylist;
+
+    /**
+     * The number of tracks the cache was built from.
+     */
+    final int trackCount;
+
+    /**
+     * The sorted digests of the ID and title of every track in the cache, for quick membership tests.
+     */
+    private final long[] trackDigests;
+
+    /**
+     * The length of the cache file when this fingerprint was obtained, so we can tell if it has since been replaced.
+     */
+    final long fileLength;
+
+    /**
+     * The modification time of the cache file when this fingerprint was obtained, so we can tell if it has since
+     * been replaced.
+     */
+    final long fileModified;
+
+    /**
+     * Constructor used when all the pieces have been gathered.
+     *
+     * @param mediaName the name of the media from which the cache was created, if known
+     * @param mediaCreationDate the creation date of the media from which the cache was created, if known
+     * @param mediaHashKey the hash key of the media from which the cache was created, if known
+     * @param sourcePlaylist the playlist from which the cache was created, or 0 if it holds all tracks
+     * @param trackCount the number of tracks the cache was built from
+     * @param trackDigests the digests of the tracks in the cache, in any order; will be sorted
+     * @param file the cache file being described, if it has already been written, so its identity can be recorded
+     */
+    private MetadataCacheFingerprint(String mediaName, String mediaCreationDate, String mediaHashKey,
+                                     int sourcePlaylist, int trackCount, long[] trackDigests, File file) {
+        this.mediaName = mediaName;
+        this.mediaCreationDate = mediaCreationDate;
+        this.mediaHashKey = mediaHashKey;
+        this.sourcePlaylist = sourcePlaylist;
+        this.trackCount = trackCount;
+        this.trackDigests = trackDigests;
+        Arrays.sort(this.trackDigests);
+        fileLength = (file == null)? 0 : file.length();
+        fileModified = (file == null)? 0 : file.lastModified();
+    }
+
+    /**
+     * Compute the digest used to represent a track in the fingerprint. This is a 64-bit FNV-1a hash over the
+     * track's rekordbox ID and title, which are both available directly from a track list menu entry, so no metadata
+     * queries are needed to check whether a player's track is present in a cache.
+     *
+     * @param rekordboxId the database ID of the track
+     * @param title the title of the track
+     *
+     * @return the digest that represents the track
+     */
+    static long trackDigest(int rekordboxId, String title) {
+        long hash = 0xcbf29ce484222325L;
+        for (int shift = 0; shift < 32; shift += 8) {
+            hash ^= (rekordboxId >>> shift) & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        final String safeTitle = (title == null)? "" : title;
+        for (int i = 0; i < safeTitle.length(); i++) {
+            final char c = safeTitle.charAt(i);
+            hash ^= c & 0xff;
+            hash *= 0x100000001b3L;
+            hash ^= (c >>> 8) & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /**
+     * Check whether a track appears to be present in the cache.
+     *
+     * @param rekordboxId the database ID of the track
+     * @param title the title of the track
+     *
+     * @return {@code true} if a track with that ID and title was cached (with a vanishingly small chance of a false
+     *         positive), or {@code false} if it definitely was not
+     */
+    boolean containsTrack(int rekordboxId, String title) {
+        return Arrays.binarySearch(trackDigests, trackDigest(rekordboxId, title)) >= 0;
+    }
+
+    /**
+     * Check whether the cache file has been changed since this fingerprint was obtained.
+     *
+     * @param file the cache file that this fingerprint describes
+     *
+     * @return {@code true} if the file length or modification time are different than when we fingerprinted it
+     */
+    boolean isStale(File file) {
+        return file.length() != fileLength || file.lastModified() != fileModified;
+    }
+
+    /**
+     * Build a fingerprint for a cache that is in the process of being written.
+     *
+     * @param details the media from which the cache is being created, if known
+     * @param sourcePlaylist the playlist from which the cache is being created, or 0 if it holds all tracks
+     * @param trackCount the number of tracks the cache is being built from
+     * @param trackDigests the digests of the tracks that have been written to the cache
+     *
+     * @return the fingerprint to be stored in the cache
+     */
+    static MetadataCacheFingerprint forNewCache(MediaDetails details, int sourcePlaylist, int trackCount,
+                                                Collection<Long> trackDigests) {
+        long[] digests = new long[trackDigests.size()];
+        int i = 0;
+        for (Long digest : trackDigests) {
+            digests[i++] = digest;
+        }
+        return new MetadataCacheFingerprint((details == null)? null : details.name,
+                (details == null)? null : details.creationDate, (details == null)? null : details.hashKey(),
+                sourcePlaylist, trackCount, digests, null);
+    }
+
+    /**
+     * Build a fingerprint by examining the contents of an open cache file. This is used for caches created before
+     * fingerprints were stored in them, and is slow for large caches, which is why it happens only once, when the
+     * file is registered for auto-attachment.
+     *
+     * @param cache the cache to be examined
+     * @param file the file from which the cache was opened
+     *
+     * @return the fingerprint describing its contents
+     */
+    static MetadataCacheFingerprint fromCacheContents(MetadataCache cache, File file) {
+        final MediaDetails details = cache.sourceMedia;
+        final List<Integer> ids = cache.getTrackIds();
+        long[] digests = new long[ids.size()];
+        int found = 0;
+        for (Integer id : ids) {
+            final TrackMetadata track = cache.getTrackMetadata(null, new DataReference(0, CdjStatus.TrackSourceSlot.USB_SLOT, id));
+            if (track != null) {
+                digests[found++] = trackDigest(id, track.getTitle());
+            }
+        }
+        return new MetadataCacheFingerprint((details == null)? null : details.name,
+                (details == null)? null : details.creationDate, (details == null)? null : details.hashKey(),
+                cache.sourcePlaylist, cache.trackCount, Arrays.copyOf(digests, found), file);
+    }
+
+    /**
+     * Write the fingerprint in the binary form used to store it in a cache file.
+     *
+     * @param os the stream to which the fingerprint should be written
+     *
+     * @throws IOException if there is a problem writing
+     */
+    void write(OutputStream os) throws IOException {
+        final DataOutputStream dos = new DataOutputStream(os);
+        dos.writeInt(FORMAT_VERSION);
+        dos.writeUTF((mediaName == null)? "" : mediaName);
+        dos.writeUTF((mediaCreationDate == null)? "" : mediaCreationDate);
+        dos.writeUTF((mediaHashKey == null)? "" : mediaHashKey);
+        dos.writeInt(sourcePlaylist);
+        dos.writeInt(trackCount);
+        dos.writeInt(trackDigests.length);
+        for (long digest : trackDigests) {
+            dos.writeLong(digest);
+        }
+        dos.flush();
+    }
+
+    /**
+     * Read a fingerprint from the binary form used to store it in a cache file.
+     *
+     * @param is the stream from which the fingerprint can be read
+     * @param file the cache file from which it is being read, so its identity can be recorded
+     *
+     * @return the fingerprint that was read
+     *
+     * @throws IOException if there is a problem reading, or the fingerprint is in a format we don't understand
+     */
+    static MetadataCacheFingerprint read(InputStream is, File file) throws IOException {
+        final DataInputStream dis = new DataInputStream(is);
+        final int version = dis.readInt();
+        if (version != FORMAT_VERSION) {
+            throw new IOException("Unsupported metadata cache fingerprint version: " + version);
+        }
+        final String name = dis.readUTF();
+        final String creationDate = dis.readUTF();
+        final String hashKey = dis.readUTF();
+        final int sourcePlaylist = dis.readInt();
+        final int trackCount = dis.readInt();
+        long[] digests = new long[dis.readInt()];
+        for (int i = 0; i < digests.length; i++) {
+            digests[i] = dis.readLong();
+        }
+        return new MetadataCacheFingerprint(name.isEmpty()? null : name, creationDate.isEmpty()? null : creationDate,
+                hashKey.isEmpty()? null : hashKey, sourcePlaylist, trackCount, digests, file);
+    }
+
+    @Override
+    public String toString() {
+        return "MetadataCacheFingerprint[mediaName:" + mediaName + ", mediaCreationDate:" + mediaCreationDate +
+                ", sourcePlaylist:" + sourcePlaylist + ", trackCount:" + trackCount +
+                ", tracksFingerprinted:" + trackDigests.length + "]";
+    }
+}
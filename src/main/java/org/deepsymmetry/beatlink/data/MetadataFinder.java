@@ -3,6 +3,7 @@ package org.deepsymmetry.beatlink.data;
 import org.deepsymmetry.beatlink.*;
 import org.deepsymmetry.beatlink.dbserver.Client;
 import org.deepsymmetry.beatlink.dbserver.ConnectionManager;
+import org.deepsymmetry.beatlink.dbserver.Field;
 import org.deepsymmetry.beatlink.dbserver.Message;
 import org.deepsymmetry.beatlink.dbserver.NumberField;
 import org.slf4j.Logger;
@@ -76,8 +77,10 @@ public class MetadataFinder extends LifecycleParticipant {
     }
 
     /**
-     * Ask the specified player for metadata about the track in the specified slot with the specified rekordbox ID,
-     * using cached media instead if it is available, and possibly giving up if we are in passive mode.
+     * Look for track metadata in the shared in-memory {@link DataCache}, so that tracks which have already been
+     * browsed do not need to be requested again, and if it is not there, obtain it and add it to that cache. When a
+     * track is loaded, {@link #handleUpdate(CdjStatus)} discards any cached copy first, because its cue list may have
+     * changed.
      *
      * @param track uniquely identifies the track whose metadata is desired
      * @param trackType identifies the type of track being requested, which affects the type of metadata request
@@ -89,6 +92,29 @@ public class MetadataFinder extends LifecycleParticipant {
      */
     private TrackMetadata requestMetadataInternal(final DataReference track, final CdjStatus.TrackType trackType,
                                                   final boolean failIfPassive) {
+        final TrackMetadata cached = DataCache.getInstance().getMetadata(track, trackType);
+        if (cached != null) {
+            return cached;
+        }
+        final TrackMetadata result = fetchMetadata(track, trackType, failIfPassive);
+        DataCache.getInstance().putMetadata(result);
+        return result;
+    }
+
+    /**
+     * Ask the specified player for metadata about the track in the specified slot with the specified rekordbox ID,
+     * using cached media instead if it is available, and possibly giving up if we are in passive mode.
+     *
+     * @param track uniquely identifies the track whose metadata is desired
+     * @param trackType identifies the type of track being requested, which affects the type of metadata request
+     *                  message that must be used
+     * @param failIfPassive will prevent the request from taking place if we are in passive mode, so that automatic
+     *                      metadata updates will use available caches only
+     *
+     * @return the metadata found, if any
+     */
+    private TrackMetadata fetchMetadata(final DataReference track, final CdjStatus.TrackType trackType,
+                                        final boolean failIfPassive) {
         // First check if we are using cached data for this request.
         @SuppressWarnings("deprecation") MetadataCache cache = getMetadataCache(SlotReference.getSlotReference(track));
         if (cache != null && trackType == CdjStatus.TrackType.REKORDBOX) {
@@ -194,7 +220,23 @@ public class MetadataFinder extends LifecycleParticipant {
             return new CueList(response);
         }
         // Fall back to an original Nexus cue list.
-        response = client.simpleRequest(Message.KnownType.CUE_LIST_REQ, null,
+        return getNexusCueList(rekordboxId, slot, client);
+    }
+
+    /**
+     * Requests the original Nexus-style cue list for a specific track ID, given a dbserver connection to a player
+     * that has already been set up. This is used when the player does not support extended cue lists.
+     *
+     * @param rekordboxId the track of interest
+     * @param slot identifies the media slot we are querying
+     * @param client the dbserver client that is communicating with the appropriate player
+     *
+     * @return the retrieved cue list, or {@code null} if none was available
+     * @throws IOException if there is a communication problem
+     */
+    private CueList getNexusCueList(int rekordboxId, CdjStatus.TrackSourceSlot slot, Client client)
+            throws IOException {
+        final Message response = client.simpleRequest(Message.KnownType.CUE_LIST_REQ, null,
                 client.buildRMST(Message.MenuIdentifier.DATA, slot), new NumberField(rekordboxId));
         if (response.knownType == Message.KnownType.CUE_LIST) {
             return new CueList(response);
@@ -203,6 +245,234 @@ public class MetadataFinder extends LifecycleParticipant {
         return null;
     }
 
+    /**
+     * The default number of tracks whose metadata and cue lists are requested together when retrieving metadata
+     * for a batch of tracks.
+     */
+    public static final int DEFAULT_BATCH_DEPTH = 8;
+
+    /**
+     * The number of tracks whose metadata and cue lists are requested together when retrieving metadata for a batch
+     * of tracks.
+     */
+    private final AtomicInteger batchDepth = new AtomicInteger(DEFAULT_BATCH_DEPTH);
+
+    /**
+     * Set the number of tracks whose metadata is requested together when retrieving metadata for a batch of tracks.
+     * The player is locked for menu operations once for each group of this many tracks, and their cue list requests
+     * are sent without waiting for each other's responses. Larger values reduce the time taken to retrieve large
+     * batches, at the cost of making other menu operations (such as those needed when a new track is loaded) wait
+     * longer for their turn.
+     *
+     * @param depth the number of tracks to be requested at a time
+     *
+     * @throws IllegalArgumentException if {@code depth} is less than 1
+     */
+    public void setBatchDepth(int depth) {
+        if (depth < 1) {
+            throw new IllegalArgumentException("depth must be positive");
+        }
+        batchDepth.set(depth);
+    }
+
+    /**
+     * Get the number of tracks whose metadata is requested together when retrieving metadata for a batch of tracks.
+     *
+     * @return the number of tracks requested at a time
+     */
+    public int getBatchDepth() {
+        return batchDepth.get();
+    }
+
+    /**
+     * Retrieve the metadata of many tracks at once, such as all the tracks in a playlist. Any tracks available from
+     * the shared {@link DataCache}, an attached metadata cache, or a registered metadata provider are delivered first.
+     * The rest are requested from their players using a single dbserver session per player, which is locked for menu
+     * operations once per group of {@link #getBatchDepth()} tracks rather than once per track, with the cue list
+     * requests of each group sent without waiting for each other's responses.
+     *
+     * @param tracks uniquely identify the tracks whose metadata is desired
+     * @param trackType identifies the type of the tracks being requested, which affects the type of metadata request
+     *                  message that must be used
+     * @param listener if not {@code null}, will be informed as the metadata of each track becomes available, and
+     *                 can cancel the rest of the batch
+     *
+     * @return the metadata that was found, keyed by the reference used to request it
+     */
+    public Map<DataReference, TrackMetadata> requestMetadataFrom(final Collection<DataReference> tracks,
+                                                                 final CdjStatus.TrackType trackType,
+                                                                 final TrackMetadataBatchListener listener) {
+        final Map<DataReference, TrackMetadata> results = new LinkedHashMap<DataReference, TrackMetadata>();
+        final Map<Integer, List<DataReference>> toRequest = new TreeMap<Integer, List<DataReference>>();
+        final int total = tracks.size();
+        final AtomicInteger delivered = new AtomicInteger(0);
+
+        // First deliver everything we can find without asking a player.
+        for (DataReference track : tracks) {
+            TrackMetadata found = DataCache.getInstance().getMetadata(track, trackType);
+            boolean resolved = found != null;
+            if (!resolved) {
+                @SuppressWarnings("deprecation") final MetadataCache cache = getMetadataCache(SlotReference.getSlotReference(track));
+                if (cache != null && trackType == CdjStatus.TrackType.REKORDBOX) {
+                    found = cache.getTrackMetadata(null, track);
+                    resolved = true;
+                } else {
+                    final MediaDetails sourceDetails = getMediaDetailsFor(track.getSlotReference());
+                    if (sourceDetails != null) {
+                        found = allMetadataProviders.getTrackMetadata(sourceDetails, track);
+                        resolved = found != null;
+                    }
+                }
+                DataCache.getInstance().putMetadata(found);
+            }
+            if (resolved) {
+                if (!deliverBatchResult(track, found, results, delivered, total, listener)) {
+                    return results;
+                }
+            } else {
+                List<DataReference> playerTracks = toRequest.get(track.player);
+                if (playerTracks == null) {
+                    playerTracks = new ArrayList<DataReference>();
+                    toRequest.put(track.player, playerTracks);
+                }
+                playerTracks.add(track);
+            }
+        }
+
+        // Then request the rest from each player in turn.
+        for (final Map.Entry<Integer, List<DataReference>> entry : toRequest.entrySet()) {
+            ConnectionManager.ClientTask<Boolean> task = new ConnectionManager.ClientTask<Boolean>() {
+                @Override
+                public Boolean useClient(Client client) throws Exception {
+                    final List<DataReference> playerTracks = entry.getValue();
+                    final int depth = batchDepth.get();
+                    for (int start = 0; start < playerTracks.size(); start += depth) {
+                        final List<DataReference> group =
+                                playerTracks.subList(start, Math.min(start + depth, playerTracks.size()));
+                        final List<TrackMetadata> found = queryMetadataGroup(group, trackType, client);
+                        for (int i = 0; i < group.size(); i++) {
+                            DataCache.getInstance().putMetadata(found.get(i));
+                            if (!deliverBatchResult(group.get(i), found.get(i), results, delivered, total, listener)) {
+                                return false;
+                            }
+                        }
+                    }
+                    return true;
+                }
+            };
+
+            try {
+                if (!ConnectionManager.getInstance().invokeWithClientSession(entry.getKey(), task,
+                        "requesting batch metadata")) {
+                    break;  // The listener canceled the batch.
+                }
+            } catch (Exception e) {
+                logger.error("Problem requesting batch metadata from player " + entry.getKey() +
+                        ", skipping its tracks", e);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Record and report the metadata found for one track in a batch.
+     *
+     * @param track the reference used to request the metadata
+     * @param metadata the metadata that was found, if any
+     * @param results the map in which batch results are being gathered
+     * @param delivered counts the tracks that have been delivered so far
+     * @param total the number of tracks in the batch
+     * @param listener if not {@code null}, the listener to be informed of the result
+     *
+     * @return {@code true} unless the listener has asked to cancel the batch
+     */
+    private boolean deliverBatchResult(DataReference track, TrackMetadata metadata,
+                                       Map<DataReference, TrackMetadata> results, AtomicInteger delivered, int total,
+                                       TrackMetadataBatchListener listener) {
+        if (metadata != null) {
+            results.put(track, metadata);
+        }
+        final int count = delivered.incrementAndGet();
+        if (listener != null) {
+            try {
+                return listener.metadataRetrieved(track, metadata, count, total);
+            } catch (Throwable t) {
+                logger.warn("Problem delivering batch metadata to listener", t);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Request metadata for a group of tracks from the same player, holding the menu lock for the whole group, and
+     * sending all of their extended cue list requests before reading any of the responses.
+     *
+     * @param group uniquely identify the tracks whose metadata is desired, all of which must be on the player to
+     *              which {@code client} is connected
+     * @param trackType identifies the type of track being requested, which affects the type of metadata request
+     *                  message that must be used
+     * @param client the dbserver client that is communicating with the appropriate player
+     *
+     * @return the metadata of each track, in the same order as {@code group}, with {@code null} for any track
+     *         that could not be found
+     *
+     * @throws IOException if there is a communication problem
+     * @throws InterruptedException if the thread is interrupted while trying to lock the client for menu operations
+     * @throws TimeoutException if we are unable to lock the client for menu operations
+     */
+    private List<TrackMetadata> queryMetadataGroup(List<DataReference> group, CdjStatus.TrackType trackType,
+                                                   Client client)
+            throws IOException, InterruptedException, TimeoutException {
+        if (client.tryLockingForMenuOperations(MENU_TIMEOUT, TimeUnit.SECONDS)) {
+            try {
+                final Message.KnownType requestType = (trackType == CdjStatus.TrackType.REKORDBOX) ?
+                        Message.KnownType.REKORDBOX_METADATA_REQ : Message.KnownType.UNANALYZED_METADATA_REQ;
+
+                // Menu requests can't overlap, so gather the metadata items one track at a time.
+                final List<List<Message>> itemLists = new ArrayList<List<Message>>(group.size());
+                final List<DataReference> present = new ArrayList<DataReference>(group.size());
+                for (DataReference track : group) {
+                    final Message response = client.menuRequestTyped(requestType, Message.MenuIdentifier.MAIN_MENU,
+                            track.slot, trackType, new NumberField(track.rekordboxId));
+                    if (response.getMenuResultsCount() == Message.NO_MENU_RESULTS_AVAILABLE) {
+                        itemLists.add(null);
+                    } else {
+                        itemLists.add(client.renderMenuItems(Message.MenuIdentifier.MAIN_MENU, track.slot, trackType, response));
+                        present.add(track);
+                    }
+                }
+
+                // The cue list requests are independent of each other, so send them all before reading responses.
+                final List<Field[]> cueListArguments = new ArrayList<Field[]>(present.size());
+                for (DataReference track : present) {
+                    cueListArguments.add(new Field[] { client.buildRMST(Message.MenuIdentifier.DATA, track.slot),
+                            new NumberField(track.rekordboxId), NumberField.WORD_0 });
+                }
+                final List<Message> cueListResponses = client.pipelinedRequests(Message.KnownType.CUE_LIST_EXT_REQ,
+                        null, cueListArguments, batchDepth.get());
+
+                final List<TrackMetadata> results = new ArrayList<TrackMetadata>(group.size());
+                int presentIndex = 0;
+                for (int i = 0; i < group.size(); i++) {
+                    if (itemLists.get(i) == null) {
+                        results.add(null);
+                    } else {
+                        final DataReference track = group.get(i);
+                        final Message cueListResponse = cueListResponses.get(presentIndex++);
+                        final CueList cueList = (cueListResponse.knownType == Message.KnownType.CUE_LIST_EXT) ?
+                                new CueList(cueListResponse) : getNexusCueList(track.rekordboxId, track.slot, client);
+                        results.add(new TrackMetadata(track, trackType, itemLists.get(i), cueList));
+                    }
+                }
+                return results;
+            } finally {
+                client.unlockForMenuOperations();
+            }
+        } else {
+            throw new TimeoutException("Unable to lock the player for menu operations");
+        }
+    }
+
     /**
      * Request the list of all tracks in the specified slot, given a dbserver connection to a player that has already
      * been set up.
@@ -458,6 +728,7 @@ public class MetadataFinder extends LifecycleParticipant {
                 }
             }
         }
+        DataCache.getInstance().removePlayer(DataCache.Kind.METADATA, player);
     }
 
     /**
@@ -639,6 +910,17 @@ public class MetadataFinder extends LifecycleParticipant {
     @Deprecated
     private final Set<File> autoAttachCacheFiles = Collections.newSetFromMap(new ConcurrentHashMap<File, Boolean>());
 
+    /**
+     * Holds the fingerprints of the cache files that we are supposed to automatically attach, so that when media
+     * is mounted, most of them can be ruled out without opening their archives or probing the player's metadata.
+     *
+     * @deprecated
+     * Since the discovery of how to download rekordbox track analysis files from players using Crate Digger, there
+     * is a reliable way to obtain metadata even with four real players in use, so this workaround is no longer needed.
+     */
+    @Deprecated
+    private final Map<File, MetadataCacheFingerprint> autoAttachFingerprints = new ConcurrentHashMap<File, MetadataCacheFingerprint>();
+
     /**
      * Add a metadata cache file to the set being automatically attached when matching media is inserted. Will try
      * to auto-attach the new file to any already-mounted media. Adding a file that is already present in the set
@@ -658,22 +940,21 @@ public class MetadataFinder extends LifecycleParticipant {
     public void addAutoAttachCacheFile(File metadataCacheFile) throws IOException {
         MetadataCache opened = new MetadataCache(metadataCacheFile);  // Make sure it is readable and valid.
         try {
-            if (opened.sourceMedia != null) {  // Remove any auto-attach files created from the same media as the one being added.
+            final MetadataCacheFingerprint fingerprint = opened.getFingerprint(metadataCacheFile);
+            if (fingerprint.mediaHashKey != null) {  // Remove any auto-attach files created from the same media as the one being added.
                 Iterator<File> iterator = autoAttachCacheFiles.iterator();
                 while (iterator.hasNext()) {
                     File file = iterator.next();
                     if (!file.equals(metadataCacheFile)) {
-                        MetadataCache existing = new MetadataCache(file);
-                        try {
-                            if (existing.sourceMedia != null && existing.sourceMedia.hashKey().equals(opened.sourceMedia.hashKey())) {
-                                iterator.remove();
-                            }
-                        } finally {
-                            existing.close();
+                        MetadataCacheFingerprint existing = getAutoAttachFingerprint(file);
+                        if (existing != null && fingerprint.mediaHashKey.equals(existing.mediaHashKey)) {
+                            iterator.remove();
+                            autoAttachFingerprints.remove(file);
                         }
                     }
                 }
             }
+            autoAttachFingerprints.put(metadataCacheFile, fingerprint);
         } finally {
             opened.close();
         }
@@ -698,6 +979,41 @@ public class MetadataFinder extends LifecycleParticipant {
     @Deprecated
     public void removeAutoAttacheCacheFile(File metadataCacheFile) {
         autoAttachCacheFiles.remove(metadataCacheFile);
+        autoAttachFingerprints.remove(metadataCacheFile);
+    }
+
+    /**
+     * Look up the fingerprint of a metadata cache file that has been registered for auto-attachment, re-reading it
+     * if the file has been changed since we last did so. If the file can no longer be read, it is removed from the
+     * set of auto-attach files.
+     *
+     * @param metadataCacheFile the registered auto-attach file whose fingerprint is desired
+     *
+     * @return the fingerprint summarizing its contents, or {@code null} if it could not be read
+     *
+     * @deprecated
+     * Since the discovery of how to download rekordbox track analysis files from players using Crate Digger, there
+     * is a reliable way to obtain metadata even with four real players in use, so this workaround is no longer needed.
+     */
+    @Deprecated
+    MetadataCacheFingerprint getAutoAttachFingerprint(File metadataCacheFile) {
+        MetadataCacheFingerprint fingerprint = autoAttachFingerprints.get(metadataCacheFile);
+        if (fingerprint == null || fingerprint.isStale(metadataCacheFile)) {
+            try {
+                MetadataCache cache = new MetadataCache(metadataCacheFile);
+                try {
+                    fingerprint = cache.getFingerprint(metadataCacheFile);
+                    autoAttachFingerprints.put(metadataCacheFile, fingerprint);
+                } finally {
+                    cache.close();
+                }
+            } catch (Exception e) {
+                logger.error("Unable to open metadata cache file " + metadataCacheFile + ", discarding", e);
+                removeAutoAttacheCacheFile(metadataCacheFile);
+                return null;
+            }
+        }
+        return fingerprint;
     }
 
     /**
@@ -784,6 +1100,24 @@ public class MetadataFinder extends LifecycleParticipant {
                 hotCache.remove(entry.getKey());
             }
         }
+        DataCache.getInstance().removeSlot(DataCache.Kind.METADATA, slot);
+    }
+
+    /**
+     * Discards any cached metadata for a track whose row changed or disappeared when the database of its media was
+     * refreshed. If the track is loaded on a player, it will be looked up again on the next status update.
+     *
+     * @param track the track whose metadata is no longer valid
+     */
+    void forgetTrack(DataReference track) {
+        // Iterate over a copy to avoid concurrent modification issues
+        for (Map.Entry<DeckReference, TrackMetadata> entry : new HashMap<DeckReference,TrackMetadata>(hotCache).entrySet()) {
+            if (track.equals(entry.getValue().trackReference)) {
+                logger.debug("Evicting cached metadata in response to database change {}", entry.getValue());
+                hotCache.remove(entry.getKey());
+            }
+        }
+        DataCache.getInstance().remove(DataCache.Kind.METADATA, track);
     }
 
     /**
@@ -1383,6 +1717,14 @@ public class MetadataFinder extends LifecycleParticipant {
             final DataReference trackReference = new DataReference(update.getTrackSourcePlayer(),
                     update.getTrackSourceSlot(), update.getRekordboxId());
             if (lastMetadata == null || !lastMetadata.trackReference.equals(trackReference)) {  // We have something new!
+                // Cues may have been saved on a player since any copy in the shared cache was fetched, so discard
+                // the cached metadata of the track being loaded, which is always fetched fresh, and of the track this
+                // deck had loaded, whose cues may have been edited while it was here.
+                DataCache.getInstance().remove(DataCache.Kind.METADATA, trackReference);
+                if (lastMetadata != null) {
+                    DataCache.getInstance().remove(DataCache.Kind.METADATA, lastMetadata.trackReference);
+                }
+
                 // First see if we can find the new track in the hot cache as a hot cue
                 for (TrackMetadata cached : hotCache.values()) {
                     if (cached.trackReference.equals(trackReference)) {  // Found a hot cue hit, use it.
@@ -1503,6 +1845,7 @@ public class MetadataFinder extends LifecycleParticipant {
                 }
             });
             hotCache.clear();
+            DataCache.getInstance().clear(DataCache.Kind.METADATA);
             deliverLifecycleAnnouncement(logger, false);
         }
     }
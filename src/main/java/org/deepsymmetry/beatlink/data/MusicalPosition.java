@@ -0,0 +1,177 @@
+package org.deepsymmetry.beatlink.data;
+
+/**
+ * Describes where a player is in musical terms: which bar and beat it has reached, how far through them it is, and
+ * how far it is to the next hot cue, memory point, and loop end. Positions are calculated by the
+ * {@link MusicalPositionTracker}.
+ *
+ * @author James Elliott
+ * @since 0.6.3
+ */
+@SuppressWarnings("WeakerAccess")
+public class MusicalPosition {
+
+    /**
+     * The player whose position is described.
+     */
+    public final int player;
+
+    /**
+     * How far into the track the player had reached, in milliseconds.
+     */
+    public final long milliseconds;
+
+    /**
+     * The beat within the track that the player had reached, or 0 if it was before the first beat.
+     */
+    public final int beatNumber;
+
+    /**
+     * The position of that beat within its bar, from 1 through 4, or 0 if it was before the first beat.
+     */
+    public final int beatWithinBar;
+
+    /**
+     * The bar that the player had reached, counting from 1 at the first down beat of the track. Beats before the
+     * first down beat are in bar 0.
+     */
+    public final int barNumber;
+
+    /**
+     * How far through the current beat the player was, from 0.0 (on the beat) up to but not including 1.0.
+     */
+    public final double beatPhase;
+
+    /**
+     * The next hot cue after the position, or {@code null} if there are none, or the cue list is not available.
+     */
+    public final CueList.Entry nextHotCue;
+
+    /**
+     * The number of beats until {@link #nextHotCue}, or -1.0 if there is none.
+     */
+    public final double beatsUntilHotCue;
+
+    /**
+     * The next memory point after the position, or {@code null} if there are none, or the cue list is not available.
+     */
+    public final CueList.Entry nextMemoryPoint;
+
+    /**
+     * The number of beats until {@link #nextMemoryPoint}, or -1.0 if there is none.
+     */
+    public final double beatsUntilMemoryPoint;
+
+    /**
+     * The loop (either a hot loop or a memory loop) which ends next after the position, or {@code null} if there
+     * are none, or the cue list is not available.
+     */
+    public final CueList.Entry nextLoop;
+
+    /**
+     * The number of beats until the end of {@link #nextLoop}, or -1.0 if there is none.
+     */
+    public final double beatsUntilLoopEnd;
+
+    /**
+     * Constructor simply sets the fields of this immutable value class.
+     *
+     * @param player the player whose position is described
+     * @param milliseconds how far into the track the player had reached
+     * @param beatNumber the beat the player had reached
+     * @param beatWithinBar the position of that beat within its bar
+     * @param barNumber the bar the player had reached
+     * @param beatPhase how far through the beat the player was
+     * @param nextHotCue the next hot cue, if any
+     * @param beatsUntilHotCue the number of beats until that hot cue
+     * @param nextMemoryPoint the next memory point, if any
+     * @param beatsUntilMemoryPoint the number of beats until that memory point
+     * @param nextLoop the next loop to end, if any
+     * @param beatsUntilLoopEnd the number of beats until that loop ends
+     */
+    MusicalPosition(int player, long milliseconds, int beatNumber, int beatWithinBar, int barNumber,
+                    double beatPhase, CueList.Entry nextHotCue, double beatsUntilHotCue,
+                    CueList.Entry nextMemoryPoint, double beatsUntilMemoryPoint,
+                    CueList.Entry nextLoop, double beatsUntilLoopEnd) {
+        this.player = player;
+        this.milliseconds = milliseconds;
+        this.beatNumber = beatNumber;
+        this.beatWithinBar = beatWithinBar;
+        this.barNumber = barNumber;
+        this.beatPhase = beatPhase;
+        this.nextHotCue = nextHotCue;
+        this.beatsUntilHotCue = beatsUntilHotCue;
+        this.nextMemoryPoint = nextMemoryPoint;
+        this.beatsUntilMemoryPoint = beatsUntilMemoryPoint;
+        this.nextLoop = nextLoop;
+        this.beatsUntilLoopEnd = beatsUntilLoopEnd;
+    }
+
+    /**
+     * Calculate how far through the current bar the player was.
+     *
+     * @return the fraction of the bar that had elapsed, from 0.0 (on the down beat) up to but not including 1.0,
+     *         or 0.0 if the player was before the first beat
+     */
+    public double getBarPhase() {
+        if (beatWithinBar < 1) {
+            return 0.0;
+        }
+        return (beatWithinBar - 1 + beatPhase) / 4.0;
+    }
+
+    /**
+     * Find which phrase the player was in, for phrases of a given length counted from the first down beat.
+     *
+     * @param phraseBars the number of bars in each phrase, such as 8, 16 or 32
+     *
+     * @return the phrase number, counting from 1, or 0 if the player was before the first down beat
+     */
+    public int getPhraseNumber(int phraseBars) {
+        if (barNumber < 1) {
+            return 0;
+        }
+        return (barNumber - 1) / phraseBars + 1;
+    }
+
+    /**
+     * Find which bar of its phrase the player was in, for phrases of a given length counted from the first down beat.
+     *
+     * @param phraseBars the number of bars in each phrase, such as 8, 16 or 32
+     *
+     * @return the bar within the phrase, from 1 through {@code phraseBars}, or 0 if the player was before the first
+     *         down beat
+     */
+    public int getBarWithinPhrase(int phraseBars) {
+        if (barNumber < 1) {
+            return 0;
+        }
+        return (barNumber - 1) % phraseBars + 1;
+    }
+
+    /**
+     * Count the whole beats remaining before the next phrase begins, for phrases of a given length counted from the
+     * first down beat, assuming four beats to the bar.
+     *
+     * @param phraseBars the number of bars in each phrase, such as 8, 16 or 32
+     *
+     * @return the number of beats after the current one before the next phrase starts, or -1 if the player was
+     *         before the first down beat
+     */
+    public int getBeatsUntilPhraseEnd(int phraseBars) {
+        if (barNumber < 1 || beatWithinBar < 1) {
+            return -1;
+        }
+        return (phraseBars - getBarWithinPhrase(phraseBars)) * 4 + (4 - beatWithinBar);
+    }
+
+    @Override
+    public String toString() {
+        return "MusicalPosition[player:" + player + ", milliseconds:" + milliseconds + ", beatNumber:" + beatNumber +
+                ", beatWithinBar:" + beatWithinBar + ", barNumber:" + barNumber +
+                ", beatPhase:" + String.format("%.3f", beatPhase) +
+                ", beatsUntilHotCue:" + String.format("%.2f", beatsUntilHotCue) +
+                ", beatsUntilMemoryPoint:" + String.format("%.2f", beatsUntilMemoryPoint) +
+                ", beatsUntilLoopEnd:" + String.format("%.2f", beatsUntilLoopEnd) + "]";
+    }
+}
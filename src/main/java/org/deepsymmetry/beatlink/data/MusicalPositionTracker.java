@@ -0,0 +1,364 @@
+package org.deepsymmetry.beatlink.data;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <p>Works out where each player is in musical terms: the bar it has reached, how far through the bar and beat it is,
+ * which bar of a phrase it is in, and how many beats remain until the next hot cue, memory point, and loop end. This
+ * is what lighting and video software needs to ask about every deck on every frame it renders, so the answers are
+ * calculated incrementally: cues are sorted by kind once for each track, and as playback moves forward the
+ * current beat and the next cue of each kind are found by stepping from where they were at the previous query,
+ * rather than searching the beat grid and cue list from scratch each time. Searches are only needed when a player
+ * jumps backwards or a long way forwards.</p>
+ *
+ * <p>Positions come from the {@link TimeFinder}, which must be running, and cues from the {@link MetadataFinder}
+ * when it is running; without it, positions are still reported but with no cue information.</p>
+ *
+ * @author James Elliott
+ * @since 0.6.3
+ */
+@SuppressWarnings("WeakerAccess")
+public class MusicalPositionTracker {
+
+    /**
+     * If playback has moved forward by more than this many milliseconds since the previous query for a player, the
+     * current beat and cues are found by searching rather than by stepping forward.
+     */
+    private static final long MAX_SCAN_MILLISECONDS = 4000;
+
+    /**
+     * Holds the cues of a single kind (hot cues, memory points, or loop ends) in a track, ordered by the time at
+     * which they will be reached, along with a cursor identifying the next one to be reached.
+     */
+    private static class CueTargets {
+
+        /**
+         * The cue list entries.
+         */
+        final CueList.Entry[] entries;
+
+        /**
+         * The times within the track at which each entry will be reached, in milliseconds.
+         */
+        final long[] times;
+
+        /**
+         * The fractional beat positions at which each entry will be reached.
+         */
+        final double[] beats;
+
+        /**
+         * The index of the first entry which is not before the most recently tracked position.
+         */
+        int cursor;
+
+        /**
+         * Set up the targets for a set of cues.
+         *
+         * @param entries the cue list entries, ordered by the time at which they will be reached
+         * @param loopEnds {@code true} if the entries are reached when their loops end, rather than at their cues
+         * @param beatGrid the beat grid of the track
+         */
+        CueTargets(List<CueList.Entry> entries, boolean loopEnds, BeatGrid beatGrid) {
+            this.entries = entries.toArray(new CueList.Entry[entries.size()]);
+            times = new long[this.entries.length];
+            beats = new double[this.entries.length];
+            for (int i = 0; i < this.entries.length; i++) {
+                times[i] = loopEnds? this.entries[i].loopTime : this.entries[i].cueTime;
+                beats[i] = beatPosition(beatGrid, times[i], Math.max(0, beatGrid.findBeatAtTime(times[i])));
+            }
+        }
+
+        /**
+         * Move the cursor forward past any entries which playback has now passed.
+         *
+         * @param time the current position within the track, in milliseconds
+         */
+        void advance(long time) {
+            while (cursor < times.length && times[cursor] < time) {
+                cursor++;
+            }
+        }
+
+        /**
+         * Position the cursor from scratch, after playback has jumped.
+         *
+         * @param time the current position within the track, in milliseconds
+         */
+        void seek(long time) {
+            int low = 0;
+            int high = times.length;
+            while (low < high) {
+                final int middle = (low + high) >>> 1;
+                if (times[middle] < time) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            cursor = low;
+        }
+
+        /**
+         * Get the next entry that will be reached.
+         *
+         * @return the entry at the cursor, or {@code null} if playback has passed them all
+         */
+        CueList.Entry next() {
+            return (cursor < entries.length)? entries[cursor] : null;
+        }
+
+        /**
+         * Find how far away the next entry is.
+         *
+         * @param beat the current fractional beat position
+         *
+         * @return the number of beats until the entry at the cursor is reached, or -1.0 if there is none
+         */
+        double beatsUntilNext(double beat) {
+            return (cursor < beats.length)? beats[cursor] - beat : -1.0;
+        }
+    }
+
+    /**
+     * Everything we have worked out about the track loaded in a player, and where we last found that player to be.
+     */
+    private static class TrackState {
+
+        /**
+         * The beat grid of the track.
+         */
+        final BeatGrid beatGrid;
+
+        /**
+         * The cue list of the track, or {@code null} if it was not available.
+         */
+        final CueList cueList;
+
+        /**
+         * The hot cues of the track.
+         */
+        final CueTargets hotCues;
+
+        /**
+         * The memory points of the track.
+         */
+        final CueTargets memoryPoints;
+
+        /**
+         * The loops of the track, ordered by the time at which they end.
+         */
+        final CueTargets loopEnds;
+
+        /**
+         * The beat playback had reached at the most recent query, or 0 if it was before the first beat.
+         */
+        int beat;
+
+        /**
+         * The position within the track at the most recent query, in milliseconds, or -1 if there has been none.
+         */
+        long time = -1;
+
+        /**
+         * Work out the information we need about a track.
+         *
+         * @param beatGrid the beat grid of the track
+         * @param cueList the cue list of the track, if available
+         */
+        TrackState(BeatGrid beatGrid, CueList cueList) {
+            this.beatGrid = beatGrid;
+            this.cueList = cueList;
+
+            final List<CueList.Entry> hot = new ArrayList<CueList.Entry>();
+            final List<CueList.Entry> memory = new ArrayList<CueList.Entry>();
+            final List<CueList.Entry> loops = new ArrayList<CueList.Entry>();
+            if (cueList != null) {
+                for (CueList.Entry entry : cueList.entries) {  // Already sorted by cue time.
+                    if (entry.hotCueNumber > 0) {
+                        hot.add(entry);
+                    } else {
+                        memory.add(entry);
+                    }
+                    if (entry.isLoop) {
+                        loops.add(entry);
+                    }
+                }
+                Collections.sort(loops, new Comparator<CueList.Entry>() {
+                    @Override
+                    public int compare(CueList.Entry entry1, CueList.Entry entry2) {
+                        return (entry1.loopTime < entry2.loopTime)? -1 : ((entry1.loopTime == entry2.loopTime)? 0 : 1);
+                    }
+                });
+            }
+            hotCues = new CueTargets(hot, false, beatGrid);
+            memoryPoints = new CueTargets(memory, false, beatGrid);
+            loopEnds = new CueTargets(loops, true, beatGrid);
+        }
+
+        /**
+         * Bring the tracked beat and cue cursors up to date with the player's position, stepping forward from where
+         * they were when playback has moved forward a little, and searching when it has jumped.
+         *
+         * @param player the player whose position is being tracked
+         * @param now the position within the track, in milliseconds
+         *
+         * @return the musical description of the position
+         */
+        synchronized MusicalPosition track(int player, long now) {
+            if (time < 0 || now < time || now - time > MAX_SCAN_MILLISECONDS) {
+                beat = Math.max(0, beatGrid.findBeatAtTime(now));
+                hotCues.seek(now);
+                memoryPoints.seek(now);
+                loopEnds.seek(now);
+            } else {
+                while (beat < beatGrid.beatCount && beatGrid.getTimeWithinTrack(beat + 1) <= now) {
+                    beat++;
+                }
+                hotCues.advance(now);
+                memoryPoints.advance(now);
+                loopEnds.advance(now);
+            }
+            time = now;
+
+            final double position = beatPosition(beatGrid, now, beat);
+            final int beatWithinBar = (beat > 0)? beatGrid.getBeatWithinBar(beat) : 0;
+            final int barNumber = (beat > 0)? beatGrid.getBarNumber(beat) : 0;
+            final double phase = (beat > 0)? position - beat : 0.0;
+            return new MusicalPosition(player, now, beat, beatWithinBar, barNumber, phase,
+                    hotCues.next(), hotCues.beatsUntilNext(position),
+                    memoryPoints.next(), memoryPoints.beatsUntilNext(position),
+                    loopEnds.next(), loopEnds.beatsUntilNext(position));
+        }
+    }
+
+    /**
+     * Convert a time within a track to a fractional beat position, on a scale where beat 1 falls at 1.0, beat 2 at
+     * 2.0, and so on. Times before the first beat produce values less than 1.0, extrapolated from its length.
+     *
+     * @param beatGrid the beat grid of the track
+     * @param time the time within the track, in milliseconds
+     * @param beat the beat in effect at that time, or 0 if the time is before the first beat
+     *
+     * @return the fractional beat position
+     */
+    private static double beatPosition(BeatGrid beatGrid, long time, int beat) {
+        if (beatGrid.beatCount < 1) {
+            return 0.0;
+        }
+        final int reference = Math.max(1, beat);
+        final double length = beatGrid.getBeatInterval(reference);
+        if (length <= 0.0) {
+            return reference;
+        }
+        return reference + (time - beatGrid.getTimeWithinTrack(reference)) / length;
+    }
+
+    /**
+     * Holds the information we have worked out about each player's track, indexed by player number.
+     */
+    private final ConcurrentHashMap<Integer, TrackState> states = new ConcurrentHashMap<Integer, TrackState>();
+
+    /**
+     * Find the state we are tracking for a player's track, replacing it if the player has loaded a different track
+     * (or the cue list for the track has become available) since it was set up.
+     *
+     * @param player the player of interest
+     * @param beatGrid the beat grid of the track currently loaded in the player
+     *
+     * @return the state for the player's current track
+     */
+    private TrackState findState(int player, BeatGrid beatGrid) {
+        CueList cueList = null;
+        final MetadataFinder metadataFinder = MetadataFinder.getInstance();
+        if (metadataFinder.isRunning()) {
+            final TrackMetadata metadata = metadataFinder.getLatestMetadataFor(player);
+            if (metadata != null) {
+                cueList = metadata.getCueList();
+            }
+        }
+        final TrackState existing = states.get(player);
+        if (existing != null && existing.beatGrid == beatGrid && existing.cueList == cueList) {
+            return existing;
+        }
+        final TrackState state = new TrackState(beatGrid, cueList);
+        states.put(player, state);
+        return state;
+    }
+
+    /**
+     * Find out where a player is now in musical terms.
+     *
+     * @param player the player number of interest
+     *
+     * @return the musical description of the player's current position, or {@code null} if its position or beat grid
+     *         is not known
+     *
+     * @throws IllegalStateException if the {@link TimeFinder} is not running
+     */
+    public MusicalPosition getPosition(int player) {
+        return getPositionAt(player, System.nanoTime());
+    }
+
+    /**
+     * Find out where a player was (or will be) at a particular moment in musical terms. Moments in the near future
+     * can be used to compensate for output latency, as with {@link LatencyCompensatedOutput}. Queries are cheapest
+     * when successive moments asked about for a player move forward in small steps, as they do when rendering frames.
+     *
+     * @param player the player number of interest
+     * @param nanoTime the {@link System#nanoTime()} value of the moment of interest
+     *
+     * @return the musical description of the player's position at that moment, or {@code null} if its position or
+     *         beat grid is not known
+     *
+     * @throws IllegalStateException if the {@link TimeFinder} is not running
+     */
+    public MusicalPosition getPositionAt(int player, long nanoTime) {
+        final TimeFinder timeFinder = TimeFinder.getInstance();
+        final long time = timeFinder.getTimeAt(player, nanoTime);
+        final TrackPositionUpdate latest = timeFinder.getLatestPositionFor(player);
+        if (time < 0 || latest == null || latest.beatGrid == null || latest.beatGrid.beatCount < 1) {
+            return null;
+        }
+        return findState(player, latest.beatGrid).track(player, time);
+    }
+
+    /**
+     * Discard everything worked out about the tracks loaded in the players. This is never necessary for correct
+     * results, since changes of track are noticed automatically, but frees the memory used for players which have
+     * left the network.
+     */
+    public void clear() {
+        states.clear();
+    }
+
+    /**
+     * Holds the singleton instance of this class.
+     */
+    private static final MusicalPositionTracker ourInstance = new MusicalPositionTracker();
+
+    /**
+     * Get the singleton instance of this class.
+     *
+     * @return the only instance of this class which exists.
+     */
+    public static MusicalPositionTracker getInstance() {
+        return ourInstance;
+    }
+
+    /**
+     * Prevent direct instantiation.
+     */
+    private MusicalPositionTracker() {
+        // Nothing to do.
+    }
+
+    @Override
+    public String toString() {
+        return "MusicalPositionTracker[players:" + states.keySet() + "]";
+    }
+}
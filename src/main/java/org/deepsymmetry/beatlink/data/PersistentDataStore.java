@@ -0,0 +1,1036 @@
+package org.deepsymmetry.beatlink.data;
+
+import org.deepsymmetry.beatlink.MediaDetails;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>A persistent, content-addressed local store of album art, beat grids, and waveforms, which survives between
+ * runs so that data we have already obtained for a track does not need to be fetched from a player again the next
+ * time the same track shows up, whether on the same media or on another DJ's.</p>
+ *
+ * <p>Each item is encoded and saved in a file named after the SHA-1 hash of its contents, so identical items (such as
+ * the same artwork shared by every track on an album, or found on many different DJs' media) are stored only once.
+ * Small reference files map from the identity of a track to the content hashes of its items. A track is identified
+ * by the parts of its metadata which describe the recording and its analysis (title, artist, album, duration, tempo,
+ * musical key and bit rate) rather than by the media or rekordbox ID where it was found, so the same track exported
+ * to another stick finds the same items, while a track whose analysis changed enough to alter its tempo or duration
+ * is treated as a new track. Beat grids are the exception: a DJ may have moved the downbeat or shifted the grid of
+ * their copy of a track without changing any of that metadata, and a wrong grid throws off everything that follows
+ * the beats, so beat grids are identified by the media hash key and rekordbox ID of the analysis they came from, and
+ * are only shared between loads from the same media. When {@link CrateDigger} notices that the database of mounted
+ * media has changed, it
+ * calls {@link #forgetTrack(TrackMetadata)} for each track that changed or disappeared, so that changes which do not
+ * show up in the metadata (such as an adjusted beat grid) are fetched again as well. The store is kept within a
+ * configurable size budget by deleting the items that were least recently used.</p>
+ *
+ * <p>The store is disabled until a directory is assigned by calling {@link #setDirectory(File)}. Once enabled, it is
+ * consulted by the {@link ArtFinder} and {@link WaveformFinder} when a track is loaded, after checking any attached
+ * metadata cache, but before asking registered metadata providers (such as {@link CrateDigger}) or the dbserver, and
+ * anything they do have to fetch is saved in the store for next time. The {@link BeatGridFinder} gives registered
+ * metadata providers the first chance, since they read the analysis on the mounted media itself, and consults the
+ * store only before falling back to the dbserver.
+ * Items are read and written without holding any lock shared with other threads; files are written under unique
+ * temporary names and then renamed into place, so a reader never sees a partially-written file.</p>
+ *
+ * @author James Elliott
+ * @since 0.6.3
+ */
+@SuppressWarnings("WeakerAccess")
+public class PersistentDataStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(PersistentDataStore.class);
+
+    /**
+     * The name of the subdirectory in which the content-addressed items are stored.
+     */
+    private static final String OBJECTS_DIRECTORY = "objects";
+
+    /**
+     * The name of the subdirectory in which the references to items are stored.
+     */
+    private static final String REFS_DIRECTORY = "refs";
+
+    /**
+     * The version of the binary format used to encode items; stored at the start of each item.
+     */
+    private static final int FORMAT_VERSION = 1;
+
+    /**
+     * The default maximum number of bytes of items we will keep on disk.
+     */
+    public static final long DEFAULT_MAX_SIZE = 256L * 1024 * 1024;
+
+    /**
+     * The kinds of item that can be found in the store, which are recorded in the encoded form of each item.
+     */
+    private enum Kind {
+        ART, BEAT_GRID, WAVEFORM_PREVIEW, WAVEFORM_DETAIL
+    }
+
+    /**
+     * The directory in which the store lives, or {@code null} if it is disabled. Only changed while holding our
+     * lock, but read without it, so that reading and writing items never waits for other threads.
+     */
+    private volatile File directory = null;
+
+    /**
+     * Tracks the size of each item in the store, keyed by content hash, in least-recently-used order. Guarded by
+     * our lock.
+     */
+    private final LinkedHashMap<String, Long> items = new LinkedHashMap<String, Long>(256, 0.75f, true);
+
+    /**
+     * The total number of bytes occupied by the items in the store. Guarded by our lock.
+     */
+    private long totalSize = 0;
+
+    /**
+     * The maximum number of bytes of items we will keep on disk.
+     */
+    private final AtomicLong maxSize = new AtomicLong(DEFAULT_MAX_SIZE);
+
+    /**
+     * Counts the number of requests we were able to satisfy without going to a player.
+     */
+    private final AtomicLong hits = new AtomicLong(0);
+
+    /**
+     * Counts the number of requests we could not satisfy.
+     */
+    private final AtomicLong misses = new AtomicLong(0);
+
+    /**
+     * Set the directory in which the store should be kept, enabling it, or disable the store by passing {@code null}.
+     * The directory is created if it does not already exist, and any items already present are indexed, and pruned
+     * to fit within the current size budget.
+     *
+     * @param directory the directory in which to store items, or {@code null} to stop using the store
+     *
+     * @throws IOException if the directory cannot be created or is not a writable directory
+     */
+    public synchronized void setDirectory(File directory) throws IOException {
+        if (directory != null) {
+            final File objects = new File(directory, OBJECTS_DIRECTORY);
+            final File refs = new File(directory, REFS_DIRECTORY);
+            if ((!objects.isDirectory() && !objects.mkdirs()) || (!refs.isDirectory() && !refs.mkdirs())) {
+                throw new IOException("Unable to create persistent data store in directory " + directory);
+            }
+            if (!directory.canWrite()) {
+                throw new IOException("Persistent data store directory " + directory + " is not writable.");
+            }
+        }
+        this.directory = directory;
+        items.clear();
+        totalSize = 0;
+        if (directory != null) {
+            indexItems(directory);
+            pruneDanglingRefs(directory);
+            deleteFiles(chooseEvictions());
+            logger.info("Using persistent data store {} holding {} items ({} bytes).", directory, items.size(), totalSize);
+        }
+    }
+
+    /**
+     * Get the directory in which the store is being kept.
+     *
+     * @return the directory of the store, or {@code null} if it is disabled
+     */
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Check whether the store is in use.
+     *
+     * @return {@code true} if a directory has been assigned to the store
+     */
+    public boolean isEnabled() {
+        return directory != null;
+    }
+
+    /**
+     * Set the maximum number of bytes of items that will be kept on disk. When this is exceeded, the least recently
+     * used items are deleted.
+     *
+     * @param bytes the size budget of the store
+     *
+     * @throws IllegalArgumentException if {@code bytes} is negative
+     */
+    public void setMaxSize(long bytes) {
+        if (bytes < 0) {
+            throw new IllegalArgumentException("Maximum size cannot be negative");
+        }
+        maxSize.set(bytes);
+        deleteFiles(chooseEvictions());
+    }
+
+    /**
+     * Get the maximum number of bytes of items that will be kept on disk.
+     *
+     * @return the size budget of the store
+     */
+    public long getMaxSize() {
+        return maxSize.get();
+    }
+
+    /**
+     * Get the number of bytes currently occupied by items in the store.
+     *
+     * @return the size of all stored items
+     */
+    public synchronized long getSize() {
+        return totalSize;
+    }
+
+    /**
+     * Get the number of distinct items currently in the store.
+     *
+     * @return the number of content-addressed items being stored
+     */
+    public synchronized int getItemCount() {
+        return items.size();
+    }
+
+    /**
+     * Get the number of requests that have been satisfied from the store since the program started.
+     *
+     * @return the count of store hits
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * Get the number of requests that could not be satisfied from the store since the program started.
+     *
+     * @return the count of store misses
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Look up the album art of a track.
+     *
+     * @param track the metadata of the track whose art is desired
+     * @param artReference the reference to assign to the art that is returned
+     *
+     * @return the art, or {@code null} if it is not in the store
+     */
+    public AlbumArt getAlbumArt(TrackMetadata track, DataReference artReference) {
+        return decodeAlbumArt(artReference, fetch(trackKey(Kind.ART, track)));
+    }
+
+    /**
+     * Look up the beat grid of a track.
+     *
+     * @param track the metadata of the track whose beat grid is desired
+     *
+     * @return the beat grid, or {@code null} if it is not in the store
+     */
+    public BeatGrid getBeatGrid(TrackMetadata track) {
+        return decodeBeatGrid(reference(track), fetch(trackKey(Kind.BEAT_GRID, track)));
+    }
+
+    /**
+     * Look up the waveform preview of a track, in the style (color or blue) currently preferred by the
+     * {@link WaveformFinder}.
+     *
+     * @param track the metadata of the track whose waveform preview is desired
+     *
+     * @return the waveform preview, or {@code null} if it is not in the store
+     */
+    public WaveformPreview getWaveformPreview(TrackMetadata track) {
+        return decodeWaveformPreview(reference(track), fetch(trackKey(Kind.WAVEFORM_PREVIEW, track)));
+    }
+
+    /**
+     * Look up the waveform detail of a track, in the style (color or blue) currently preferred by the
+     * {@link WaveformFinder}.
+     *
+     * @param track the metadata of the track whose waveform detail is desired
+     *
+     * @return the waveform detail, or {@code null} if it is not in the store
+     */
+    public WaveformDetail getWaveformDetail(TrackMetadata track) {
+        return decodeWaveformDetail(reference(track), fetch(trackKey(Kind.WAVEFORM_DETAIL, track)));
+    }
+
+    /**
+     * Save album art that was obtained from a player, so it will not need to be fetched again.
+     *
+     * @param track the metadata of the track to which the art belongs
+     * @param art the art that was obtained
+     */
+    public void storeAlbumArt(TrackMetadata track, AlbumArt art) {
+        if (art != null && isEnabled()) {
+            store(trackKey(Kind.ART, track), encode(art));
+        }
+    }
+
+    /**
+     * Save a beat grid that was obtained from a player, so it will not need to be fetched again.
+     *
+     * @param track the metadata of the track to which the beat grid belongs
+     * @param beatGrid the beat grid that was obtained
+     */
+    public void storeBeatGrid(TrackMetadata track, BeatGrid beatGrid) {
+        if (beatGrid != null && isEnabled()) {
+            store(trackKey(Kind.BEAT_GRID, track), encode(beatGrid));
+        }
+    }
+
+    /**
+     * Save a waveform preview that was obtained from a player, so it will not need to be fetched again.
+     *
+     * @param track the metadata of the track to which the preview belongs
+     * @param preview the waveform preview that was obtained
+     */
+    public void storeWaveformPreview(TrackMetadata track, WaveformPreview preview) {
+        if (preview != null && isEnabled()) {
+            store(trackKey(Kind.WAVEFORM_PREVIEW, track), encode(preview));
+        }
+    }
+
+    /**
+     * Save a waveform detail that was obtained from a player, so it will not need to be fetched again.
+     *
+     * @param track the metadata of the track to which the detail belongs
+     * @param detail the waveform detail that was obtained
+     */
+    public void storeWaveformDetail(TrackMetadata track, WaveformDetail detail) {
+        if (detail != null && isEnabled()) {
+            store(trackKey(Kind.WAVEFORM_DETAIL, track), encode(detail));
+        }
+    }
+
+    /**
+     * Stop offering any stored items for a track, because it has been re-analyzed or edited, or its artwork has been
+     * replaced, so the items may be out of date. They will be fetched again (and stored anew) the next time the track
+     * is loaded. The items themselves are left for the size budget to reclaim, since other tracks may share them.
+     *
+     * @param track the metadata the track had when its items were stored
+     */
+    public void forgetTrack(TrackMetadata track) {
+        final File root = directory;
+        if (root == null || track == null) {
+            return;
+        }
+        for (Kind kind : Kind.values()) {
+            if (kind == Kind.WAVEFORM_PREVIEW || kind == Kind.WAVEFORM_DETAIL) {
+                deleteFile(refFile(root, trackKey(kind.name() + "-COLOR", track)));
+                deleteFile(refFile(root, trackKey(kind.name() + "-BLUE", track)));
+            } else {
+                deleteFile(refFile(root, trackKey(kind.name(), track)));
+            }
+        }
+    }
+
+    /**
+     * Delete everything in the store, leaving it enabled and empty.
+     */
+    public synchronized void clear() {
+        if (directory != null) {
+            for (String hash : new ArrayList<String>(items.keySet())) {
+                removeItem(hash);
+            }
+            final File[] refs = new File(directory, REFS_DIRECTORY).listFiles();
+            if (refs != null) {
+                for (File ref : refs) {
+                    deleteFile(ref);
+                }
+            }
+        }
+    }
+
+    /**
+     * Builds the key under which an item belonging to a track is referenced.
+     *
+     * @param kind the kind of item
+     * @param track the metadata of the track
+     *
+     * @return the reference key, or {@code null} if there is no track to identify
+     */
+    private String trackKey(Kind kind, TrackMetadata track) {
+        return trackKey(kindKey(kind), track);
+    }
+
+    /**
+     * Builds the key under which an item belonging to a track is referenced, from the parts of the track's metadata
+     * that describe the recording and its analysis, so that it does not depend on the media or rekordbox ID at which
+     * the track was found.
+     *
+     * @param kindKey identifies the kind of item, as returned by {@link #kindKey(Kind)}
+     * @param track the metadata of the track
+     *
+     * @return the reference key, or {@code null} if there is no track to identify
+     */
+    private String trackKey(String kindKey, TrackMetadata track) {
+        if (track == null || track.getTitle() == null) {
+            return null;
+        }
+        if (kindKey.equals(Kind.BEAT_GRID.name())) {
+            return analysisKey(kindKey, track);
+        }
+        return "track:" + kindKey + ":" + track.getTitle() + "\u0000" + label(track.getArtist()) + "\u0000" +
+                label(track.getAlbum()) + "\u0000" + track.getDuration() + "\u0000" + track.getTempo() + "\u0000" +
+                label(track.getKey()) + "\u0000" + track.getBitRate();
+    }
+
+    /**
+     * Builds the key under which an item that belongs to a particular analysis of a track is referenced, from the
+     * media on which the track was found and its rekordbox ID there. This is used for beat grids, which DJs can edit
+     * without changing any of the metadata that {@link #trackKey(String, TrackMetadata)} uses to recognize a track.
+     *
+     * @param kindKey identifies the kind of item, as returned by {@link #kindKey(Kind)}
+     * @param track the metadata of the track
+     *
+     * @return the reference key, or {@code null} if the track or the media it came from is not known
+     */
+    private String analysisKey(String kindKey, TrackMetadata track) {
+        final DataReference reference = track.trackReference;
+        if (reference == null) {
+            return null;
+        }
+        final MediaDetails details = MetadataFinder.getInstance().getMediaDetailsFor(reference.getSlotReference());
+        if (details == null) {
+            return null;
+        }
+        return "analysis:" + kindKey + ":" + details.hashKey() + "\u0000" + reference.rekordboxId;
+    }
+
+    /**
+     * Get the reference to assign to an item decoded for a track.
+     *
+     * @param track the metadata of the track, which may be missing
+     *
+     * @return the track's reference, or {@code null} if there is no track
+     */
+    private static DataReference reference(TrackMetadata track) {
+        return (track == null)? null : track.trackReference;
+    }
+
+    /**
+     * Get the text of an optional metadata item, for use in a reference key.
+     *
+     * @param item the item, which may be missing
+     *
+     * @return its label, or an empty string if there is none
+     */
+    private static String label(SearchableItem item) {
+        return (item == null || item.label == null)? "" : item.label;
+    }
+
+    /**
+     * Names a kind of item for use in a reference key, distinguishing the preferred waveform style.
+     *
+     * @param kind the kind of item
+     *
+     * @return the string that identifies that kind of item in reference keys
+     */
+    private String kindKey(Kind kind) {
+        if (kind == Kind.WAVEFORM_PREVIEW || kind == Kind.WAVEFORM_DETAIL) {
+            return kind.name() + (WaveformFinder.getInstance().isColorPreferred()? "-COLOR" : "-BLUE");
+        }
+        return kind.name();
+    }
+
+    /**
+     * Find the encoded item that a reference key points to. Neither the reference nor the item is read while holding
+     * our lock; it is taken only to check the index and record the use of the item.
+     *
+     * @param key the reference key
+     *
+     * @return the encoded item, or {@code null} if the store is disabled or does not contain it
+     */
+    private byte[] fetch(String key) {
+        final File root = directory;
+        if (root == null || key == null) {
+            return null;
+        }
+        final File ref = refFile(root, key);
+        if (ref.isFile()) {
+            try {
+                final String hash = readRef(ref);
+                if (touchItem(hash)) {
+                    final File item = itemFile(root, hash);
+                    final byte[] result = readFully(item);
+                    if (!item.setLastModified(System.currentTimeMillis())) {
+                        logger.debug("Unable to update access time of stored item {}", item);
+                    }
+                    hits.incrementAndGet();
+                    return result;
+                }
+                deleteFile(ref);  // The item it referred to has been evicted.
+            } catch (IOException e) {  // Most likely the item was evicted while we were reading it.
+                logger.debug("Problem reading from persistent data store, discarding reference " + ref, e);
+                deleteFile(ref);
+            }
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Save an encoded item, if it is not already present, and record a reference to it under the specified key.
+     * The files are written without holding our lock; it is taken only to update the index.
+     *
+     * @param key the reference key
+     * @param encoded the encoded item
+     */
+    private void store(String key, byte[] encoded) {
+        final File root = directory;
+        if (root == null || key == null || encoded == null || encoded.length > maxSize.get()) {
+            return;
+        }
+        final String hash = contentHash(encoded);
+        try {
+            if (!touchItem(hash)) {
+                final File item = itemFile(root, hash);
+                final File parent = item.getParentFile();
+                if (!parent.isDirectory() && !parent.mkdirs()) {
+                    throw new IOException("Unable to create directory " + parent);
+                }
+                writeAtomically(item, encoded);
+                addItem(root, hash, encoded.length);
+            }
+            writeAtomically(refFile(root, key), hash.getBytes("UTF-8"));
+            deleteFiles(chooseEvictions());
+        } catch (IOException e) {
+            logger.warn("Problem writing to persistent data store", e);
+        }
+    }
+
+    /**
+     * Check whether an item is in the store, and if so, record that it has just been used.
+     *
+     * @param hash the content hash of the item
+     *
+     * @return {@code true} if the item is present
+     */
+    private synchronized boolean touchItem(String hash) {
+        return items.get(hash) != null;  // Moves it to the most recently used end of our eviction order.
+    }
+
+    /**
+     * Add an item which has just been written to the index, unless the store has been moved to a different
+     * directory in the meantime, or another thread wrote the same item first.
+     *
+     * @param root the directory in which the item was written
+     * @param hash the content hash of the item
+     * @param size the number of bytes in the item
+     */
+    private synchronized void addItem(File root, String hash, long size) {
+        if (root.equals(directory) && !items.containsKey(hash)) {
+            items.put(hash, size);
+            totalSize += size;
+        }
+    }
+
+    /**
+     * Remove the least recently used items from the index until the store fits within its size budget.
+     *
+     * @return the files holding the items that were removed, which the caller should delete once it is no longer
+     *         holding our lock
+     */
+    private synchronized List<File> chooseEvictions() {
+        final List<File> result = new ArrayList<File>();
+        final File root = directory;
+        final Iterator<Map.Entry<String, Long>> iterator = items.entrySet().iterator();
+        while (totalSize > maxSize.get() && iterator.hasNext()) {
+            final Map.Entry<String, Long> entry = iterator.next();
+            iterator.remove();
+            totalSize -= entry.getValue();
+            if (root != null) {
+                result.add(itemFile(root, entry.getKey()));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Delete an item from the store. Must be called while holding our lock.
+     *
+     * @param hash the content hash of the item to be removed
+     */
+    private void removeItem(String hash) {
+        final Long size = items.remove(hash);
+        if (size != null) {
+            totalSize -= size;
+        }
+        deleteFile(itemFile(directory, hash));
+    }
+
+    /**
+     * Scan the store directory to find the items already present, ordering them from least to most recently used
+     * based on their modification times, which we update whenever an item is read. Must be called while holding
+     * our lock.
+     *
+     * @param root the directory in which the store lives
+     */
+    private void indexItems(File root) {
+        final List<File> found = new ArrayList<File>();
+        final File[] buckets = new File(root, OBJECTS_DIRECTORY).listFiles();
+        if (buckets != null) {
+            for (File bucket : buckets) {
+                final File[] files = bucket.listFiles();
+                if (files != null) {
+                    for (File file : files) {
+                        if (file.getName().endsWith(".tmp")) {
+                            deleteFile(file);  // Left over from an interrupted write.
+                        } else {
+                            found.add(file);
+                        }
+                    }
+                }
+            }
+        }
+        Collections.sort(found, new Comparator<File>() {
+            @Override
+            public int compare(File f1, File f2) {
+                final long m1 = f1.lastModified();
+                final long m2 = f2.lastModified();
+                return (m1 < m2)? -1 : ((m1 == m2)? 0 : 1);
+            }
+        });
+        for (File file : found) {
+            items.put(file.getName(), file.length());
+            totalSize += file.length();
+        }
+    }
+
+    /**
+     * Delete any references whose items are no longer present, and any left over from interrupted writes. Must be
+     * called while holding our lock.
+     *
+     * @param root the directory in which the store lives
+     */
+    private void pruneDanglingRefs(File root) {
+        final File[] refs = new File(root, REFS_DIRECTORY).listFiles();
+        if (refs != null) {
+            for (File ref : refs) {
+                try {
+                    if (ref.getName().endsWith(".tmp") || !items.containsKey(readRef(ref))) {
+                        deleteFile(ref);
+                    }
+                } catch (IOException e) {
+                    deleteFile(ref);
+                }
+            }
+        }
+    }
+
+    /**
+     * Find the file in which an item with the specified content hash is stored.
+     *
+     * @param root the directory in which the store lives
+     * @param hash the content hash of the item
+     *
+     * @return the file which holds (or will hold) the item
+     */
+    private static File itemFile(File root, String hash) {
+        return new File(new File(new File(root, OBJECTS_DIRECTORY), hash.substring(0, 2)), hash);
+    }
+
+    /**
+     * Find the file in which the reference with the specified key is stored.
+     *
+     * @param root the directory in which the store lives
+     * @param key the reference key
+     *
+     * @return the file which holds (or will hold) the content hash of the item being referenced
+     */
+    private static File refFile(File root, String key) {
+        try {
+            return new File(new File(root, REFS_DIRECTORY), contentHash(key.getBytes("UTF-8")));
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException("Unable to work with UTF-8 string encoding", e);
+        }
+    }
+
+    /**
+     * Read the content hash stored in a reference file.
+     *
+     * @param ref the reference file
+     *
+     * @return the content hash of the item being referenced
+     *
+     * @throws IOException if there is a problem reading the reference
+     */
+    private static String readRef(File ref) throws IOException {
+        return new String(readFully(ref), "UTF-8").trim();
+    }
+
+    /**
+     * Compute the SHA-1 hash of some bytes as a hexadecimal string.
+     *
+     * @param bytes the content to be hashed
+     *
+     * @return the hexadecimal representation of its hash
+     */
+    private static String contentHash(byte[] bytes) {
+        try {
+            final byte[] result = MessageDigest.getInstance("SHA1").digest(bytes);
+            final StringBuilder hex = new StringBuilder(result.length * 2);
+            for (byte aResult : result) {
+                hex.append(Integer.toString((aResult & 0xff) + 0x100, 16).substring(1));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("Unable to obtain SHA-1 MessageDigest instance", e);
+        }
+    }
+
+    /**
+     * Write a file by first writing a temporary file alongside it and then renaming that into place, so readers
+     * never see a partially-written file. The temporary file has a unique name, so that several threads can safely
+     * write the same file at once.
+     *
+     * @param file the file to be written
+     * @param content the bytes it should contain
+     *
+     * @throws IOException if there is a problem writing the file
+     */
+    private static void writeAtomically(File file, byte[] content) throws IOException {
+        final File temp = File.createTempFile(file.getName() + "-", ".tmp", file.getParentFile());
+        try {
+            final FileOutputStream fos = new FileOutputStream(temp);
+            try {
+                fos.write(content);
+            } finally {
+                fos.close();
+            }
+        } catch (IOException e) {
+            deleteFile(temp);
+            throw e;
+        }
+        if (!temp.renameTo(file)) {
+            deleteFile(file);  // Some platforms will not rename over an existing file.
+            if (!temp.renameTo(file)) {
+                deleteFile(temp);
+                throw new IOException("Unable to rename " + temp + " to " + file);
+            }
+        }
+    }
+
+    /**
+     * Read the entire contents of a file.
+     *
+     * @param file the file to be read
+     *
+     * @return its contents
+     *
+     * @throws IOException if there is a problem reading the file
+     */
+    private static byte[] readFully(File file) throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            final byte[] bytes = new byte[(int) raf.length()];
+            raf.readFully(bytes);
+            return bytes;
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Delete a file, logging if that could not be done.
+     *
+     * @param file the file to be deleted
+     */
+    private static void deleteFile(File file) {
+        if (file.exists() && !file.delete()) {
+            logger.warn("Unable to delete file {} from persistent data store", file);
+        }
+    }
+
+    /**
+     * Delete files which have been removed from the index.
+     *
+     * @param files the files to be deleted
+     */
+    private static void deleteFiles(List<File> files) {
+        for (File file : files) {
+            deleteFile(file);
+        }
+    }
+
+    /**
+     * Begin the encoded form of an item.
+     *
+     * @param bos the stream that will hold the encoded form
+     * @param kind the kind of item being encoded
+     *
+     * @return a data output stream that can be used to write the rest of the item
+     *
+     * @throws IOException if there is a problem writing
+     */
+    private static DataOutputStream startEncoding(ByteArrayOutputStream bos, Kind kind) throws IOException {
+        final DataOutputStream dos = new DataOutputStream(bos);
+        dos.writeInt(FORMAT_VERSION);
+        dos.writeByte(kind.ordinal());
+        return dos;
+    }
+
+    /**
+     * Write the bytes remaining in a buffer, preceded by their length.
+     *
+     * @param dos the stream to which the bytes should be written
+     * @param buffer the bytes to be written
+     *
+     * @throws IOException if there is a problem writing
+     */
+    private static void writeBuffer(DataOutputStream dos, ByteBuffer buffer) throws IOException {
+        final byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        dos.writeInt(bytes.length);
+        dos.write(bytes);
+    }
+
+    /**
+     * Encode album art for storage.
+     *
+     * @param art the art to be encoded
+     *
+     * @return the bytes representing it in the store
+     */
+    private static byte[] encode(AlbumArt art) {
+        try {
+            final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            final DataOutputStream dos = startEncoding(bos, Kind.ART);
+            writeBuffer(dos, art.getRawBytes());
+            dos.flush();
+            return bos.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException("Writing to memory should never fail", e);
+        }
+    }
+
+    /**
+     * Encode a beat grid for storage. We store the parsed beat values, since beat grids loaded by Crate Digger have
+     * no raw form.
+     *
+     * @param beatGrid the beat grid to be encoded
+     *
+     * @return the bytes representing it in the store
+     */
+    private static byte[] encode(BeatGrid beatGrid) {
+        try {
+            final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            final DataOutputStream dos = startEncoding(bos, Kind.BEAT_GRID);
+            dos.writeInt(beatGrid.beatCount);
+            for (int beat = 1; beat <= beatGrid.beatCount; beat++) {
+                dos.writeByte(beatGrid.getBeatWithinBar(beat));
+                dos.writeInt(beatGrid.getBpm(beat));
+                dos.writeInt((int) beatGrid.getTimeWithinTrack(beat));
+            }
+            dos.flush();
+            return bos.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException("Writing to memory should never fail", e);
+        }
+    }
+
+    /**
+     * Encode a waveform preview for storage.
+     *
+     * @param preview the preview to be encoded
+     *
+     * @return the bytes representing it in the store
+     */
+    private static byte[] encode(WaveformPreview preview) {
+        try {
+            final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            final DataOutputStream dos = startEncoding(bos, Kind.WAVEFORM_PREVIEW);
+            dos.writeBoolean(preview.isColor);
+            writeBuffer(dos, preview.getData());
+            dos.flush();
+            return bos.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException("Writing to memory should never fail", e);
+        }
+    }
+
+    /**
+     * Encode a waveform detail for storage.
+     *
+     * @param detail the detail to be encoded
+     *
+     * @return the bytes representing it in the store
+     */
+    private static byte[] encode(WaveformDetail detail) {
+        try {
+            final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            final DataOutputStream dos = startEncoding(bos, Kind.WAVEFORM_DETAIL);
+            dos.writeBoolean(detail.isColor);
+            writeBuffer(dos, detail.getData());
+            dos.flush();
+            return bos.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException("Writing to memory should never fail", e);
+        }
+    }
+
+    /**
+     * Begin decoding an item, verifying that it is of the expected kind.
+     *
+     * @param encoded the encoded item
+     * @param kind the kind of item expected
+     *
+     * @return a data input stream positioned at the body of the item
+     *
+     * @throws IOException if the item is not in a format we understand, or not of the expected kind
+     */
+    private static DataInputStream startDecoding(byte[] encoded, Kind kind) throws IOException {
+        final DataInputStream dis = new DataInputStream(new ByteArrayInputStream(encoded));
+        final int version = dis.readInt();
+        if (version != FORMAT_VERSION) {
+            throw new IOException("Unsupported persistent data store item version: " + version);
+        }
+        final int found = dis.readUnsignedByte();
+        if (found != kind.ordinal()) {
+            throw new IOException("Expected stored item of kind " + kind + " but found kind " + found);
+        }
+        return dis;
+    }
+
+    /**
+     * Read bytes preceded by their length.
+     *
+     * @param dis the stream from which the bytes should be read
+     *
+     * @return a buffer holding the bytes
+     *
+     * @throws IOException if there is a problem reading
+     */
+    private static ByteBuffer readBuffer(DataInputStream dis) throws IOException {
+        final byte[] bytes = new byte[dis.readInt()];
+        dis.readFully(bytes);
+        return ByteBuffer.wrap(bytes);
+    }
+
+    /**
+     * Reconstruct album art from its stored form.
+     *
+     * @param artReference the reference to assign to the art
+     * @param encoded the stored form of the art, if it was found
+     *
+     * @return the art, or {@code null} if it was not found or could not be decoded
+     */
+    private static AlbumArt decodeAlbumArt(DataReference artReference, byte[] encoded) {
+        if (encoded != null) {
+            try {
+                return new AlbumArt(artReference, readBuffer(startDecoding(encoded, Kind.ART)));
+            } catch (IOException e) {
+                logger.warn("Unable to decode stored album art", e);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Reconstruct a beat grid from its stored form.
+     *
+     * @param trackReference the reference to assign to the beat grid
+     * @param encoded the stored form of the beat grid, if it was found
+     *
+     * @return the beat grid, or {@code null} if it was not found or could not be decoded
+     */
+    private static BeatGrid decodeBeatGrid(DataReference trackReference, byte[] encoded) {
+        if (encoded != null) {
+            try {
+                final DataInputStream dis = startDecoding(encoded, Kind.BEAT_GRID);
+                final int beatCount = dis.readInt();
+                final int[] beatWithinBarValues = new int[beatCount];
+                final int[] bpmValues = new int[beatCount];
+                final long[] timeWithinTrackValues = new long[beatCount];
+                for (int i = 0; i < beatCount; i++) {
+                    beatWithinBarValues[i] = dis.readUnsignedByte();
+                    bpmValues[i] = dis.readInt();
+                    timeWithinTrackValues[i] = dis.readInt() & 0xffffffffL;
+                }
+                return new BeatGrid(trackReference, beatWithinBarValues, bpmValues, timeWithinTrackValues);
+            } catch (IOException e) {
+                logger.warn("Unable to decode stored beat grid", e);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Reconstruct a waveform preview from its stored form.
+     *
+     * @param trackReference the reference to assign to the preview
+     * @param encoded the stored form of the preview, if it was found
+     *
+     * @return the preview, or {@code null} if it was not found or could not be decoded
+     */
+    private static WaveformPreview decodeWaveformPreview(DataReference trackReference, byte[] encoded) {
+        if (encoded != null) {
+            try {
+                final DataInputStream dis = startDecoding(encoded, Kind.WAVEFORM_PREVIEW);
+                final boolean isColor = dis.readBoolean();
+                return new WaveformPreview(trackReference, readBuffer(dis), isColor);
+            } catch (IOException e) {
+                logger.warn("Unable to decode stored waveform preview", e);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Reconstruct a waveform detail from its stored form.
+     *
+     * @param trackReference the reference to assign to the detail
+     * @param encoded the stored form of the detail, if it was found
+     *
+     * @return the detail, or {@code null} if it was not found or could not be decoded
+     */
+    private static WaveformDetail decodeWaveformDetail(DataReference trackReference, byte[] encoded) {
+        if (encoded != null) {
+            try {
+                final DataInputStream dis = startDecoding(encoded, Kind.WAVEFORM_DETAIL);
+                final boolean isColor = dis.readBoolean();
+                return new WaveformDetail(trackReference, readBuffer(dis), isColor);
+            } catch (IOException e) {
+                logger.warn("Unable to decode stored waveform detail", e);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Holds the singleton instance of this class.
+     */
+    private static final PersistentDataStore ourInstance = new PersistentDataStore();
+
+    /**
+     * Get the singleton instance of this class.
+     *
+     * @return the only instance of this class which exists.
+     */
+    public static PersistentDataStore getInstance() {
+        return ourInstance;
+    }
+
+    /**
+     * Prevent instantiation.
+     */
+    private PersistentDataStore() {
+        // Nothing to do.
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "PersistentDataStore[directory:" + directory + ", items:" + items.size() + ", size:" + totalSize +
+                ", maxSize:" + maxSize.get() + ", hits:" + hits.get() + ", misses:" + misses.get() + "]";
+    }
+}
@@ -0,0 +1,270 @@
+package org.deepsymmetry.beatlink.data;
+
+/**
+ * A fixed-size ring buffer of the recent playback positions that the {@link TimeFinder} has calculated for a single
+ * player, kept in primitive arrays so that recording a position never allocates anything. This allows questions
+ * like "where was the player at this moment?" to be answered for moments in the recent past, which is needed to
+ * compensate for latency in visuals, or to align recorded audio with the position of the deck afterwards.
+ *
+ * All access is synchronized on the instance, and the critical sections are very short.
+ *
+ * @author James Elliott
+ * @since 0.6.3
+ */
+class PositionHistory {
+
+    /**
+     * Flag bit recording that the player was playing.
+     */
+    private static final byte PLAYING = 1;
+
+    /**
+     * Flag bit recording that the player was playing backwards.
+     */
+    private static final byte REVERSE = 2;
+
+    /**
+     * Flag bit recording that the position came directly from a beat packet.
+     */
+    private static final byte DEFINITIVE = 4;
+
+    /**
+     * Flag bit recording that the position of the player was known. Samples without it record that information was
+     * lost, for example because the track had no beat grid.
+     */
+    private static final byte KNOWN = 8;
+
+    /**
+     * The corrected timestamps of the samples.
+     */
+    private final long[] timestamps;
+
+    /**
+     * The track positions of the samples, in milliseconds.
+     */
+    private final long[] milliseconds;
+
+    /**
+     * The beat numbers of the samples.
+     */
+    private final int[] beatNumbers;
+
+    /**
+     * The playback pitch of the samples.
+     */
+    private final double[] pitches;
+
+    /**
+     * The flags describing the samples.
+     */
+    private final byte[] flags;
+
+    /**
+     * The beat grids against which the samples were calculated, so that samples from different tracks are not
+     * interpolated together.
+     */
+    private final BeatGrid[] beatGrids;
+
+    /**
+     * The index at which the next sample will be stored.
+     */
+    private int next;
+
+    /**
+     * The number of valid samples.
+     */
+    private int count;
+
+    /**
+     * Create an empty history.
+     *
+     * @param capacity the number of samples to keep
+     */
+    PositionHistory(int capacity) {
+        timestamps = new long[capacity];
+        milliseconds = new long[capacity];
+        beatNumbers = new int[capacity];
+        pitches = new double[capacity];
+        flags = new byte[capacity];
+        beatGrids = new BeatGrid[capacity];
+    }
+
+    /**
+     * Find where a sample is stored.
+     *
+     * @param age how many samples older than the newest one the desired sample is; 0 means the newest
+     *
+     * @return the array index of the sample
+     */
+    private int indexOf(int age) {
+        final int index = next - 1 - age;
+        return (index < 0)? index + timestamps.length : index;
+    }
+
+    /**
+     * Store a sample, unless it is older than the newest one already recorded, which can happen when status and
+     * beat packets are processed on different threads.
+     *
+     * @param timestamp when the player was at the position
+     * @param position the sample's track position in milliseconds
+     * @param beatNumber the beat number of the sample
+     * @param pitch the playback pitch of the sample
+     * @param sampleFlags the flags describing the sample
+     * @param beatGrid the beat grid of the track, if known
+     */
+    private void store(long timestamp, long position, int beatNumber, double pitch, byte sampleFlags,
+                       BeatGrid beatGrid) {
+        if (count > 0 && timestamp - timestamps[indexOf(0)] < 0) {
+            return;
+        }
+        timestamps[next] = timestamp;
+        milliseconds[next] = position;
+        beatNumbers[next] = beatNumber;
+        pitches[next] = pitch;
+        flags[next] = sampleFlags;
+        beatGrids[next] = beatGrid;
+        next = (next + 1) % timestamps.length;
+        count = Math.min(count + 1, timestamps.length);
+    }
+
+    /**
+     * Record a new position that has been calculated for the player.
+     *
+     * @param update the position
+     */
+    synchronized void record(TrackPositionUpdate update) {
+        byte sampleFlags = KNOWN;
+        if (update.playing) {
+            sampleFlags |= PLAYING;
+        }
+        if (update.reverse) {
+            sampleFlags |= REVERSE;
+        }
+        if (update.definitive) {
+            sampleFlags |= DEFINITIVE;
+        }
+        store(update.correctedTimestamp, update.milliseconds, update.beatNumber, update.pitch, sampleFlags,
+                update.beatGrid);
+    }
+
+    /**
+     * Record that we no longer know where the player is.
+     *
+     * @param timestamp when the information was lost
+     */
+    synchronized void recordLoss(long timestamp) {
+        store(timestamp, -1, -1, 0.0, (byte) 0, null);
+    }
+
+    /**
+     * Find the newest sample recorded at or before a moment.
+     *
+     * @param nanoTime the moment of interest
+     *
+     * @return the age of the sample, as used by {@link #indexOf(int)}, or -1 if all samples are newer, or there
+     *         are none
+     */
+    private int findAge(long nanoTime) {
+        // Binary search over ages, which run from newest (0) to oldest (count - 1).
+        int low = 0;
+        int high = count - 1;
+        int found = -1;
+        while (low <= high) {
+            final int middle = (low + high) >>> 1;
+            if (timestamps[indexOf(middle)] - nanoTime <= 0) {
+                found = middle;
+                high = middle - 1;
+            } else {
+                low = middle + 1;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Work out where a sample predicts the player will be at a later moment.
+     *
+     * @param index the array index of the sample
+     * @param nanoTime the moment of interest
+     *
+     * @return the predicted track position, in milliseconds
+     */
+    private double extrapolate(int index, long nanoTime) {
+        if ((flags[index] & PLAYING) == 0) {
+            return milliseconds[index];
+        }
+        final double moved = pitches[index] * (nanoTime - timestamps[index]) / 1000000.0;
+        if ((flags[index] & REVERSE) != 0) {
+            return Math.max(0.0, milliseconds[index] - moved);
+        }
+        return milliseconds[index] + moved;
+    }
+
+    /**
+     * Work out where the player was at a moment, interpolating between the samples on either side of it when the
+     * later one is consistent with the player having kept playing smoothly, and otherwise projecting forward from
+     * the earlier sample, because the player must have jumped after the moment of interest.
+     *
+     * @param nanoTime the moment of interest
+     * @param slack how many milliseconds the later sample can differ from where the earlier one predicted while still
+     *              being considered smooth playback
+     *
+     * @return the track position in milliseconds, or -1 if it was not known at that moment or is older than the
+     *         history reaches
+     */
+    synchronized long getTimeAt(long nanoTime, long slack) {
+        final int age = findAge(nanoTime);
+        if (age < 0) {
+            return -1;
+        }
+        final int index = indexOf(age);
+        if ((flags[index] & KNOWN) == 0) {
+            return -1;
+        }
+        if (age > 0) {
+            final int later = indexOf(age - 1);
+            if ((flags[later] & KNOWN) != 0 && beatGrids[later] == beatGrids[index]) {
+                final double predicted = extrapolate(index, timestamps[later]);
+                if (Math.abs(predicted - milliseconds[later]) <= slack && timestamps[later] != timestamps[index]) {
+                    final double fraction = (double) (nanoTime - timestamps[index]) /
+                            (timestamps[later] - timestamps[index]);
+                    return Math.round(milliseconds[index] + fraction * (milliseconds[later] - milliseconds[index]));
+                }
+            }
+        }
+        return Math.round(extrapolate(index, nanoTime));
+    }
+
+    /**
+     * Describe where the player was at a moment, as {@link #getTimeAt(long, long)} would, along with the playback
+     * state recorded in the sample in effect at that moment.
+     *
+     * @param nanoTime the moment of interest
+     * @param slack how many milliseconds of disagreement between samples is considered smooth playback
+     *
+     * @return the position, or {@code null} if it was not known at that moment or is older than the history reaches
+     */
+    synchronized TrackPositionUpdate getPositionAt(long nanoTime, long slack) {
+        final long time = getTimeAt(nanoTime, slack);
+        if (time < 0) {
+            return null;
+        }
+        final int index = indexOf(findAge(nanoTime));
+        final BeatGrid beatGrid = beatGrids[index];
+        int beatNumber = beatNumbers[index];
+        if (beatGrid != null) {
+            beatNumber = Math.max(1, beatGrid.findBeatAtTime(time));
+        }
+        return new TrackPositionUpdate(nanoTime, nanoTime, time, beatNumber, false, (flags[index] & PLAYING) != 0,
+                pitches[index], (flags[index] & REVERSE) != 0, beatGrid);
+    }
+
+    /**
+     * Find out how far back the history reaches.
+     *
+     * @return the timestamp of the oldest sample, or {@link Long#MAX_VALUE} if there are none
+     */
+    synchronized long getOldestTimestamp() {
+        return (count == 0)? Long.MAX_VALUE : timestamps[indexOf(count - 1)];
+    }
+}
@@ -4,12 +4,14 @@ import org.deepsymmetry.beatlink.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * <p>Watches the beat packets and transport information contained in player status update to infer the current
@@ -36,6 +38,41 @@ public class TimeFinder extends LifecycleParticipant {
      */
     private final ConcurrentHashMap<Integer, DeviceUpdate> updates = new ConcurrentHashMap<Integer, DeviceUpdate>();
 
+    /**
+     * The number of position samples kept for each player, which covers the last minute or so of playback.
+     */
+    public static final int POSITION_HISTORY_SIZE = 512;
+
+    /**
+     * Keeps track of the recent positions of each player, indexed by player number.
+     */
+    private final ConcurrentHashMap<Integer, PositionHistory> histories =
+            new ConcurrentHashMap<Integer, PositionHistory>();
+
+    /**
+     * Add a newly calculated position to the history of a player.
+     *
+     * @param player the player whose position has been calculated
+     * @param position the new position, or {@code null} if the position is no longer known
+     * @param timestamp the corrected time of the packet that led to the calculation, which is when the position
+     *                  became unknown if {@code position} is {@code null}
+     */
+    private void recordPosition(int player, TrackPositionUpdate position, long timestamp) {
+        PositionHistory history = histories.get(player);
+        if (history == null) {
+            history = new PositionHistory(POSITION_HISTORY_SIZE);
+            final PositionHistory existing = histories.putIfAbsent(player, history);
+            if (existing != null) {
+                history = existing;
+            }
+        }
+        if (position == null) {
+            history.recordLoss(timestamp);
+        } else {
+            history.record(position);
+        }
+    }
+
     /**
      * Our announcement listener watches for devices to disappear from the network so we can discard all information
      * about them.
@@ -51,6 +88,7 @@ public class TimeFinder extends LifecycleParticipant {
             logger.info("Clearing position information in response to the loss of a device, {}", announcement);
             positions.remove(announcement.getDeviceNumber());
             updates.remove(announcement.getDeviceNumber());
+            histories.remove(announcement.getDeviceNumber());
         }
     };
 
@@ -174,8 +212,9 @@ public class TimeFinder extends LifecycleParticipant {
         final TrackMetadata metadata = MetadataFinder.getInstance().getLatestMetadataFor(update);
         final int newBeat = update.getBeatNumber();
         if (metadata != null && metadata.getCueList() != null) {
+            final BeatGrid.Cursor cursor = beatGrid.cursor();  // Entries are sorted by time, so we can step forward.
             for (CueList.Entry entry : metadata.getCueList().entries) {
-                final int entryBeat = beatGrid.findBeatAtTime(entry.cueTime);
+                final int entryBeat = cursor.findBeatAtTime(entry.cueTime);
                 if (Math.abs(newBeat - entryBeat) < 2) {
                     return entry;  // We have found a cue we likely jumped to
                 }
@@ -271,24 +310,184 @@ public class TimeFinder extends LifecycleParticipant {
         return getTimeFor(update.getDeviceNumber());
     }
 
+    /**
+     * Find out where the specified player was at a moment in the recent past. The answer is interpolated between
+     * the positions recorded before and after that moment when the player seems to have been playing smoothly
+     * between them (to within {@link #getSlack()} milliseconds), and otherwise projected forward from the position
+     * recorded before it. Recorded positions are placed in time using their corrected timestamps (see
+     * {@link TrackPositionUpdate#correctedTimestamp}). Moments later than the most recent position, including
+     * moments in the near future, are projected forward from it, which is how
+     * {@link LatencyCompensatedOutput} predicts positions. This does not allocate any objects, so it can be called
+     * frequently, for example once per rendered frame.
+     *
+     * @param player the player number whose position is desired
+     * @param nanoTime the {@link System#nanoTime()} value of the moment of interest
+     *
+     * @return the milliseconds into the track that playback had reached at that moment, or -1 if we don't know,
+     *         including when the moment is older than the last {@link #POSITION_HISTORY_SIZE} positions recorded
+     *
+     * @throws IllegalStateException if the TimeFinder is not running
+     * @since 0.6.3
+     */
+    public long getTimeAt(int player, long nanoTime) {
+        ensureRunning();
+        final PositionHistory history = histories.get(player);
+        if (history == null) {
+            return -1;
+        }
+        return history.getTimeAt(nanoTime, slack.get());
+    }
+
+    /**
+     * Find out where the specified player was at a moment in the recent past, along with its playback state at the
+     * time, as described in {@link #getTimeAt(int, long)}.
+     *
+     * @param player the player number whose position is desired
+     * @param nanoTime the {@link System#nanoTime()} value of the moment of interest
+     *
+     * @return the position and playback state at that moment, whose timestamps will both be {@code nanoTime}, or
+     *         {@code null} if we don't know
+     *
+     * @throws IllegalStateException if the TimeFinder is not running
+     * @since 0.6.3
+     */
+    public TrackPositionUpdate getPositionAt(int player, long nanoTime) {
+        ensureRunning();
+        final PositionHistory history = histories.get(player);
+        if (history == null) {
+            return null;
+        }
+        return history.getPositionAt(nanoTime, slack.get());
+    }
+
+    /**
+     * Find out how far back into the past {@link #getTimeAt(int, long)} can answer questions about a player.
+     *
+     * @param player the player number of interest
+     *
+     * @return the {@link System#nanoTime()} value of the oldest position remembered for the player, or
+     *         {@link Long#MAX_VALUE} if none are
+     *
+     * @throws IllegalStateException if the TimeFinder is not running
+     * @since 0.6.3
+     */
+    public long getHistoryStart(int player) {
+        ensureRunning();
+        final PositionHistory history = histories.get(player);
+        return (history == null)? Long.MAX_VALUE : history.getOldestTimestamp();
+    }
+
+    /**
+     * Records a track position listener's interest in a particular player, along with the last update that was sent
+     * to it. If no information was known during the last update, the special value {@link #NO_INFORMATION} is used
+     * to represent it, so that we can distinguish that from not having told the listener anything yet.
+     */
+    private static final class ListenerRegistration {
+
+        /**
+         * The listener that registered.
+         */
+        final TrackPositionListener listener;
+
+        /**
+         * The same listener, if it also wants to hear about every beat, or {@code null}.
+         */
+        final TrackPositionBeatListener beatListener;
+
+        /**
+         * The player that the listener is following.
+         */
+        final int player;
+
+        /**
+         * The last update that was sent to the listener.
+         */
+        final AtomicReference<TrackPositionUpdate> lastUpdate;
+
+        /**
+         * Constructor simply sets the fields.
+         *
+         * @param listener the listener that registered
+         * @param player the player that the listener is following
+         * @param lastUpdate the update that the listener is being sent on registration
+         */
+        ListenerRegistration(TrackPositionListener listener, int player, TrackPositionUpdate lastUpdate) {
+            this.listener = listener;
+            this.beatListener = (listener instanceof TrackPositionBeatListener)?
+                    (TrackPositionBeatListener) listener : null;
+            this.player = player;
+            this.lastUpdate = new AtomicReference<TrackPositionUpdate>(lastUpdate);
+        }
+    }
+
     /**
      * Keeps track of the listeners that have registered interest in closely following track playback for a particular
-     * player. The keys are the listener interface, and the values are the last update that was sent to that
-     * listener. If no information was known during the last update, the special value {@link #NO_INFORMATION} is
-     * used to represent it, rather than trying to store a {@code null} value in the hash map.
+     * player, so that registrations can be found when they are replaced or removed. Changes to this map, and to
+     * {@link #listenersByPlayer}, are made while synchronized on this map.
+     */
+    private final Map<TrackPositionListener, ListenerRegistration> trackPositionListeners =
+            new HashMap<TrackPositionListener, ListenerRegistration>();
+
+    /**
+     * Holds the listener registrations for each player, in arrays which are replaced rather than modified whenever
+     * a listener is added or removed, so that they can be scanned without copying or locking every time a packet
+     * arrives.
      */
-    private final ConcurrentHashMap<TrackPositionListener, TrackPositionUpdate> trackPositionListeners =
-            new ConcurrentHashMap<TrackPositionListener, TrackPositionUpdate>();
+    private final ConcurrentHashMap<Integer, ListenerRegistration[]> listenersByPlayer =
+            new ConcurrentHashMap<Integer, ListenerRegistration[]>();
 
     /**
-     * Keeps track of the player numbers that registered track position listeners are interested in.
+     * Used when there are no listeners registered for a player.
      */
-    private final ConcurrentHashMap<TrackPositionListener, Integer> listenerPlayerNumbers =
-            new ConcurrentHashMap<TrackPositionListener, Integer>();
+    private static final ListenerRegistration[] NO_REGISTRATIONS = new ListenerRegistration[0];
+
+    /**
+     * Remove a listener registration from the array of registrations for its player. Must be called while
+     * synchronized on {@link #trackPositionListeners}.
+     *
+     * @param registration the registration to be removed
+     */
+    private void unindexRegistration(ListenerRegistration registration) {
+        final ListenerRegistration[] current = listenersByPlayer.get(registration.player);
+        if (current == null) {
+            return;
+        }
+        final ListenerRegistration[] replacement = new ListenerRegistration[current.length - 1];
+        int index = 0;
+        for (ListenerRegistration candidate : current) {
+            if (candidate != registration) {
+                if (index == replacement.length) {
+                    return;  // The registration was not present.
+                }
+                replacement[index++] = candidate;
+            }
+        }
+        if (replacement.length == 0) {
+            listenersByPlayer.remove(registration.player);
+        } else {
+            listenersByPlayer.put(registration.player, replacement);
+        }
+    }
+
+    /**
+     * Add a listener registration to the array of registrations for its player. Must be called while synchronized
+     * on {@link #trackPositionListeners}.
+     *
+     * @param registration the registration to be added
+     */
+    private void indexRegistration(ListenerRegistration registration) {
+        ListenerRegistration[] current = listenersByPlayer.get(registration.player);
+        if (current == null) {
+            current = NO_REGISTRATIONS;
+        }
+        final ListenerRegistration[] replacement = Arrays.copyOf(current, current.length + 1);
+        replacement[current.length] = registration;
+        listenersByPlayer.put(registration.player, replacement);
+    }
 
     /**
      * This is used to represent the fact that we have told a listener that there is no information for it, since
-     * we can't actually store a {@code null} value in a {@link ConcurrentHashMap}.
+     * we want to distinguish that from a registration which has not yet been sent anything.
      */
     private final TrackPositionUpdate NO_INFORMATION = new TrackPositionUpdate(0, 0, 0,
             false, false, 0, false, null);
@@ -309,9 +508,16 @@ public class TimeFinder extends LifecycleParticipant {
      * @param listener the interface that will be called when there are changes in track playback on the player
      */
     public void addTrackPositionListener(int player, TrackPositionListener listener) {
-        listenerPlayerNumbers.put(listener, player);
         TrackPositionUpdate currentPosition = positions.get(player);
-        trackPositionListeners.put(listener, currentPosition == null? NO_INFORMATION : currentPosition);
+        final ListenerRegistration registration = new ListenerRegistration(listener, player,
+                currentPosition == null? NO_INFORMATION : currentPosition);
+        synchronized (trackPositionListeners) {
+            final ListenerRegistration former = trackPositionListeners.put(listener, registration);
+            if (former != null) {
+                unindexRegistration(former);
+            }
+            indexRegistration(registration);
+        }
         listener.movementChanged(currentPosition);  // If this throws an exception, the caller will catch it.
     }
 
@@ -321,8 +527,12 @@ public class TimeFinder extends LifecycleParticipant {
      * @param listener the interface that will no longer be called for changes in track playback
      */
     public void removeTrackPositionListener(TrackPositionListener listener) {
-        trackPositionListeners.remove(listener);
-        listenerPlayerNumbers.remove(listener);
+        synchronized (trackPositionListeners) {
+            final ListenerRegistration former = trackPositionListeners.remove(listener);
+            if (former != null) {
+                unindexRegistration(former);
+            }
+        }
     }
 
     /**
@@ -355,26 +565,13 @@ public class TimeFinder extends LifecycleParticipant {
         this.slack.set(slack);
     }
 
-    /**
-     * Check whether we have diverged from what we would predict from the last update that was sent to a particular
-     * track position listener.
-     *
-     * @param lastUpdate the last update that was sent to the listener
-     * @param currentUpdate the latest update available for the same player
-     *
-     * @return {@code true} if the listener will have diverged by more than our permitted amount of slack, and so
-     * should be updated
-     */
-    private boolean interpolationsDisagree(TrackPositionUpdate lastUpdate, TrackPositionUpdate currentUpdate) {
-        long now = System.nanoTime();
-        return Math.abs(interpolateTimeSinceUpdate(lastUpdate, now) - interpolateTimeSinceUpdate(currentUpdate, now)) >
-                slack.get();
-    }
-
     /**
      * Check if the current position tracking information for a player represents a significant change compared to
-     * what a listener was last informed to expect, and if so, send another update. If this is a definitive update
-     * (i.e. a new beat), and the listener wants all beats, always send it.
+     * what each listener following that player was last informed to expect, and if so, send another update. If this
+     * is a definitive update (i.e. a new beat), and the listener wants all beats, always send it.
+     *
+     * This runs for every packet received from a player, so it works through the array of registrations for that
+     * player without allocating anything, and calculates the current position only once for all of them.
      *
      * @param player the device number for which an update has occurred
      * @param update the latest track position tracking information for the specified player, or {@code null} if we
@@ -382,45 +579,47 @@ public class TimeFinder extends LifecycleParticipant {
      * @param beat if this update was triggered by a beat packet, contains the packet to pass on to interested listeners
      */
     private void updateListenersIfNeeded(int player, TrackPositionUpdate update, Beat beat) {
-        // Iterate over a copy to avoid issues with concurrent modification
-        for (Map.Entry<TrackPositionListener, TrackPositionUpdate> entry :
-                new HashMap<TrackPositionListener, TrackPositionUpdate>(trackPositionListeners).entrySet()) {
-            if (player == listenerPlayerNumbers.get(entry.getKey())) {  // This listener is interested in this player
-                if (update == null) {  // We are reporting a loss of information
-                    if (entry.getValue() != NO_INFORMATION) {
-                        if (trackPositionListeners.replace(entry.getKey(), entry.getValue(), NO_INFORMATION)) {
-                            try {
-                                entry.getKey().movementChanged(null);
-                            } catch (Throwable t) {
-                                logger.warn("Problem delivering null movementChanged update", t);
-                            }
-                        }
-                    }
-                } else {  // We have some information, see if it is a significant change from what was last reported
-                    final TrackPositionUpdate lastUpdate = entry.getValue();
-                    if (lastUpdate == NO_INFORMATION ||
-                            lastUpdate.playing != update.playing ||
-                            Math.abs(lastUpdate.pitch - update.pitch) > 0.000001 ||
-                            interpolationsDisagree(lastUpdate, update)) {
-                        if (trackPositionListeners.replace(entry.getKey(), entry.getValue(), update)) {
-                            try {
-                                entry.getKey().movementChanged(update);
-                            } catch (Throwable t) {
-                                logger.warn("Problem delivering movementChanged update", t);
-                            }
-                        }
+        final ListenerRegistration[] registrations = listenersByPlayer.get(player);
+        if (registrations == null) {
+            return;
+        }
+        final long now = System.nanoTime();
+        final long allowedSlack = slack.get();
+        final long currentTime = (update == null)? 0 : interpolateTimeSinceUpdate(update, now);
+        for (final ListenerRegistration registration : registrations) {
+            final TrackPositionUpdate lastUpdate = registration.lastUpdate.get();
+            if (update == null) {  // We are reporting a loss of information
+                if (lastUpdate != NO_INFORMATION &&
+                        registration.lastUpdate.compareAndSet(lastUpdate, NO_INFORMATION)) {
+                    try {
+                        registration.listener.movementChanged(null);
+                    } catch (Throwable t) {
+                        logger.warn("Problem delivering null movementChanged update", t);
                     }
-
-                    // And regardless of whether this was a significant change, if this was a new beat and the listener
-                    // implements the interface that requests all beats, send that information.
-                    if (update.definitive && entry.getKey() instanceof TrackPositionBeatListener) {
+                }
+            } else {  // We have some information, see if it is a significant change from what was last reported
+                if (lastUpdate == NO_INFORMATION ||
+                        lastUpdate.playing != update.playing ||
+                        Math.abs(lastUpdate.pitch - update.pitch) > 0.000001 ||
+                        Math.abs(interpolateTimeSinceUpdate(lastUpdate, now) - currentTime) > allowedSlack) {
+                    if (registration.lastUpdate.compareAndSet(lastUpdate, update)) {
                         try {
-                            ((TrackPositionBeatListener) entry.getKey()).newBeat(beat, update);
+                            registration.listener.movementChanged(update);
                         } catch (Throwable t) {
-                            logger.warn("Problem delivering newBeat update", t);
+                            logger.warn("Problem delivering movementChanged update", t);
                         }
                     }
                 }
+
+                // And regardless of whether this was a significant change, if this was a new beat and the listener
+                // implements the interface that requests all beats, send that information.
+                if (update.definitive && registration.beatListener != null) {
+                    try {
+                        registration.beatListener.newBeat(beat, update);
+                    } catch (Throwable t) {
+                        logger.warn("Problem delivering newBeat update", t);
+                    }
+                }
             }
         }
     }
@@ -450,6 +649,7 @@ public class TimeFinder extends LifecycleParticipant {
                                 timeGuess = likelyCue.cueTime;
                             }
                             newPosition = new TrackPositionUpdate(update.getTimestamp(),
+                                    DeviceTimingEstimator.getInstance().getCorrectedTimestamp(update),
                                     timeGuess, beatNumber, false,
                                     ((CdjStatus) update).isPlaying(),
                                     Util.pitchToMultiplier(update.getPitch()),
@@ -461,8 +661,9 @@ public class TimeFinder extends LifecycleParticipant {
                             // they don't do that when they hit the beginning playing backward! That makes for weird timecode and
                             // track waveform positioning, so we make up for it by synthesizing a stopped state here.
                             final boolean newPlaying = ((CdjStatus) update).isPlaying() && (!newReverse || newTime > 0);
-                            newPosition = new TrackPositionUpdate(update.getTimestamp(), newTime, beatNumber,
-                                    false, newPlaying, Util.pitchToMultiplier(update.getPitch()),
+                            newPosition = new TrackPositionUpdate(update.getTimestamp(),
+                                    DeviceTimingEstimator.getInstance().getCorrectedTimestamp(update), newTime,
+                                    beatNumber, false, newPlaying, Util.pitchToMultiplier(update.getPitch()),
                                     newReverse, beatGrid);
                         }
                         if (lastPosition == null) {
@@ -471,6 +672,7 @@ public class TimeFinder extends LifecycleParticipant {
                             done = positions.replace(update.getDeviceNumber(), lastPosition, newPosition);
                         }
                         if (done) {
+                            recordPosition(update.getDeviceNumber(), newPosition, newPosition.correctedTimestamp);
                             updateListenersIfNeeded(update.getDeviceNumber(), newPosition, null);
                         } else {  // Some other thread updated the position while we were working, re-evaluate.
                             lastPosition = positions.get(update.getDeviceNumber());
@@ -478,6 +680,8 @@ public class TimeFinder extends LifecycleParticipant {
                     }
                 } else {
                     positions.remove(update.getDeviceNumber());  // We can't say where that player is.
+                    recordPosition(update.getDeviceNumber(), null,
+                            DeviceTimingEstimator.getInstance().getCorrectedTimestamp(update));
                     updateListenersIfNeeded(update.getDeviceNumber(), null, null);
                 }
             }
@@ -547,12 +751,14 @@ public class TimeFinder extends LifecycleParticipant {
 
                     // We know the player is playing forward because otherwise we don't get beats.
                     final TrackPositionUpdate newPosition = new TrackPositionUpdate(beat.getTimestamp(),
-                            timeOfBeat(beatGrid, beatNumber, beat), beatNumber, true, true,
-                            Util.pitchToMultiplier(beat.getPitch()), false, beatGrid);
+                            beat.getCorrectedTimestamp(), timeOfBeat(beatGrid, beatNumber, beat), beatNumber,
+                            true, true, Util.pitchToMultiplier(beat.getPitch()), false, beatGrid);
                     positions.put(beat.getDeviceNumber(), newPosition);
+                    recordPosition(beat.getDeviceNumber(), newPosition, newPosition.correctedTimestamp);
                     updateListenersIfNeeded(beat.getDeviceNumber(), newPosition, beat);
                 } else {
                     positions.remove(beat.getDeviceNumber());  // We can't determine where the player is.
+                    recordPosition(beat.getDeviceNumber(), null, beat.getCorrectedTimestamp());
                     updateListenersIfNeeded(beat.getDeviceNumber(), null, beat);
                 }
             }
@@ -611,6 +817,7 @@ public class TimeFinder extends LifecycleParticipant {
             running.set(false);
             positions.clear();
             updates.clear();
+            histories.clear();
             deliverLifecycleAnnouncement(logger, false);
         }
     }
@@ -0,0 +1,31 @@
+package org.deepsymmetry.beatlink.data;
+
+/**
+ * <p>The listener interface for receiving track metadata as it is retrieved for a batch of tracks.</p>
+ *
+ * <p>Classes that need metadata for many tracks at once (for example, all the tracks in a playlist) can implement
+ * this interface, and pass the implementing instance to
+ * {@link MetadataFinder#requestMetadataFrom(java.util.Collection, org.deepsymmetry.beatlink.CdjStatus.TrackType, TrackMetadataBatchListener)}.
+ * As the metadata for each track becomes available, {@link #metadataRetrieved(DataReference, TrackMetadata, int, int)}
+ * is called, so the results can be used (and progress can be displayed) without waiting for the entire batch. If
+ * it returns {@code false}, the rest of the batch will be canceled.</p>
+ *
+ * @author James Elliott
+ * @since 0.6.3
+ */
+@SuppressWarnings("WeakerAccess")
+public interface TrackMetadataBatchListener {
+    /**
+     * Called to deliver the metadata of another track in the batch. Tracks are not necessarily delivered in the
+     * order they were requested: those that can be found in caches or through metadata providers are delivered
+     * first, followed by those that needed to be requested from each player.
+     *
+     * @param track the reference that was used to request the metadata
+     * @param metadata the metadata that was found, or {@code null} if none was available for the track
+     * @param tracksRetrieved the number of tracks in the batch that have been delivered so far, including this one
+     * @param totalTracks the total number of tracks in the batch
+     *
+     * @return {@code true} if retrieval of the batch should continue, {@code false} if it should be canceled
+     */
+    boolean metadataRetrieved(DataReference track, TrackMetadata metadata, int tracksRetrieved, int totalTracks);
+}
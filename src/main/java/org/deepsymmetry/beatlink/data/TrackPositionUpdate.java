@@ -50,6 +50,15 @@ public class TrackPositionUpdate {
      */
     public final BeatGrid beatGrid;
 
+    /**
+     * When the packet on which this update was based is estimated to have been sent by the player, once the network
+     * delay learned by the {@link org.deepsymmetry.beatlink.DeviceTimingEstimator} has been subtracted from
+     * {@link #timestamp}.
+     *
+     * @since 0.6.3
+     */
+    public final long correctedTimestamp;
+
     /**
      * Constructor simply sets the fields of this immutable value class.
      *
@@ -64,7 +73,29 @@ public class TrackPositionUpdate {
      */
     public TrackPositionUpdate(long timestamp, long milliseconds, int beatNumber, boolean definitive,
                                boolean playing, double pitch, boolean reverse, BeatGrid beatGrid) {
+        this(timestamp, timestamp, milliseconds, beatNumber, definitive, playing, pitch, reverse, beatGrid);
+    }
+
+    /**
+     * Constructor simply sets the fields of this immutable value class, including a timestamp corrected for network
+     * delay.
+     *
+     * @param timestamp when this update was received
+     * @param correctedTimestamp when the packet on which this update was based is estimated to have been sent
+     * @param milliseconds how far into the track has the player reached
+     * @param beatNumber the beat number that was reported (or incremented) by this update
+     * @param definitive indicates if this was based on a direct report of track position from the player (i.e. a beat)
+     * @param playing indicates whether the player was actively playing a track when this update was received
+     * @param pitch the playback pitch (where 1.0 is normal speed) when this update was received
+     * @param reverse indicates if the player was playing backwards when this update was received
+     * @param beatGrid the track beat grid that was used to calculate the update
+     *
+     * @since 0.6.3
+     */
+    public TrackPositionUpdate(long timestamp, long correctedTimestamp, long milliseconds, int beatNumber,
+                               boolean definitive, boolean playing, double pitch, boolean reverse, BeatGrid beatGrid) {
         this.timestamp = timestamp;
+        this.correctedTimestamp = correctedTimestamp;
         this.milliseconds = milliseconds;
         this.beatNumber = beatNumber;
         this.definitive = definitive;
@@ -76,7 +107,8 @@ public class TrackPositionUpdate {
 
     @Override
     public String toString() {
-        return "TrackPositionUpdate[timestamp:" + timestamp + ", milliseconds:" + milliseconds +
+        return "TrackPositionUpdate[timestamp:" + timestamp + ", correctedTimestamp:" + correctedTimestamp +
+                ", milliseconds:" + milliseconds +
                 ", beatNumber:" + beatNumber + ", definitive:" + definitive + ", playing:" + playing +
                 ", pitch:" + String.format("%.2f", pitch) + ", reverse:" + reverse +
                 ", beatGrid:" + beatGrid + "]";
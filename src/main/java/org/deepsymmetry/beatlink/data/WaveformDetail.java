@@ -212,9 +212,67 @@ public class WaveformDetail {
         return big * 256 + small;
     }
 
+    /**
+     * The summary channel holding waveform heights.
+     */
+    private static final int HEIGHT_CHANNEL = 0;
+
+    /**
+     * The summary channel holding the intensity of blue waveforms, or the red level of color waveforms.
+     */
+    private static final int RED_OR_INTENSITY_CHANNEL = 1;
+
+    /**
+     * The summary channel holding the green level of color waveforms.
+     */
+    private static final int GREEN_CHANNEL = 2;
+
+    /**
+     * The summary channel holding the blue level of color waveforms.
+     */
+    private static final int BLUE_CHANNEL = 3;
+
+    /**
+     * Running totals of the height and color of the waveform, built the first time a zoomed-out view is drawn.
+     */
+    private volatile WaveformSummary summary;
+
+    /**
+     * Get the running totals of the height and color of the waveform, building them if this is the first time they
+     * have been needed. Concurrent first calls may each build them, but the results are identical, so that is
+     * harmless.
+     *
+     * @return the summary of the waveform
+     */
+    private WaveformSummary getSummary() {
+        WaveformSummary result = summary;
+        if (result == null) {
+            final ByteBuffer waveBytes = getData();
+            final int limit = getFrameCount();
+            result = new WaveformSummary(isColor? 4 : 2, limit);
+            for (int i = 0; i < limit; i++) {
+                if (isColor) {
+                    final int bits = getColorWaveformBits(waveBytes, i);
+                    result.add(HEIGHT_CHANNEL, i, (bits >> 2) & 0x1f);
+                    result.add(RED_OR_INTENSITY_CHANNEL, i, (bits >> 13) & 7);
+                    result.add(GREEN_CHANNEL, i, (bits >> 10) & 7);
+                    result.add(BLUE_CHANNEL, i, (bits >> 7) & 7);
+                } else {
+                    final int value = waveBytes.get(i);
+                    result.add(HEIGHT_CHANNEL, i, value & 0x1f);
+                    result.add(RED_OR_INTENSITY_CHANNEL, i, (value & 0xe0) >> 5);
+                }
+            }
+            summary = result;
+        }
+        return result;
+    }
+
     /**
      * Determine the height of the waveform given an index into it. If {@code scale} is larger than 1 we are zoomed out,
-     * so we determine an average height of {@code scale} segments starting with the specified one.
+     * so we determine an average height of {@code scale} segments starting with the specified one. This takes the
+     * same time regardless of the scale, because it uses running totals which are built the first time a
+     * zoomed-out height or color is requested.
      *
      * @param segment the index of the first waveform byte to examine
      * @param scale the number of wave segments being drawn as a single pixel column
@@ -224,22 +282,23 @@ public class WaveformDetail {
      */
     @SuppressWarnings("WeakerAccess")
     public int segmentHeight(final int segment, final int scale) {
-        final ByteBuffer waveBytes = getData();
-        final int limit = getFrameCount();
-        int sum = 0;
-        for (int i = segment; (i < segment + scale) && (i < limit); i++) {
+        if (scale <= 1) {
+            final ByteBuffer waveBytes = getData();
+            if (segment < 0 || segment >= getFrameCount()) {
+                return 0;
+            }
             if (isColor) {
-                sum += (getColorWaveformBits(waveBytes, segment) >> 2) & 0x1f;
-            } else {
-                sum += waveBytes.get(i) & 0x1f;
+                return (getColorWaveformBits(waveBytes, segment) >> 2) & 0x1f;
             }
+            return waveBytes.get(segment) & 0x1f;
         }
-        return sum / scale;
+        return getSummary().sum(HEIGHT_CHANNEL, segment, segment + scale) / scale;
     }
 
     /**
      * Determine the color of the waveform given an index into it. If {@code scale} is larger than 1 we are zoomed out,
-     * so we determine an average color of {@code scale} segments starting with the specified one.
+     * so we determine an average color of {@code scale} segments starting with the specified one. Like
+     * {@link #segmentHeight(int, int)}, this takes the same time regardless of the scale.
      *
      * @param segment the index of the first waveform byte to examine
      * @param scale the number of wave segments being drawn as a single pixel column
@@ -249,29 +308,29 @@ public class WaveformDetail {
      */
     @SuppressWarnings("WeakerAccess")
     public Color segmentColor(final int segment, final int scale) {
-        final ByteBuffer waveBytes = getData();
-        final int limit = getFrameCount();
-        if (isColor) {
-            int red = 0;
-            int green = 0;
-            int blue = 0;
-            for (int i = segment; (i < segment + scale) && (i < limit); i++) {
-                int bits = getColorWaveformBits(waveBytes, segment);
-                red += (bits >> 13) & 7;
-                green += (bits >> 10) & 7;
-                blue += (bits >> 7) & 7;
+        if (scale <= 1) {
+            final ByteBuffer waveBytes = getData();
+            if (segment < 0 || segment >= getFrameCount()) {
+                return isColor? Color.BLACK : COLOR_MAP[0];
+            }
+            if (isColor) {
+                final int bits = getColorWaveformBits(waveBytes, segment);
+                return new Color(((bits >> 13) & 7) * 255 / 7, ((bits >> 10) & 7) * 255 / 7,
+                        ((bits >> 7) & 7) * 255 / 7);
             }
-            return new Color(red * 255 / (scale * 7), blue * 255 / (scale * 7), green * 255 / (scale * 7));
+            return COLOR_MAP[(waveBytes.get(segment) & 0xe0) >> 5];
         }
-        int sum = 0;
-        for (int i = segment; (i < segment + scale) && (i < limit); i++) {
-            sum += (waveBytes.get(i) & 0xe0) >> 5;
+        final WaveformSummary totals = getSummary();
+        final int end = segment + scale;
+        if (isColor) {
+            final int red = totals.sum(RED_OR_INTENSITY_CHANNEL, segment, end);
+            final int green = totals.sum(GREEN_CHANNEL, segment, end);
+            final int blue = totals.sum(BLUE_CHANNEL, segment, end);
+            return new Color(red * 255 / (scale * 7), green * 255 / (scale * 7), blue * 255 / (scale * 7));
         }
-        return COLOR_MAP[sum / scale];
+        return COLOR_MAP[totals.sum(RED_OR_INTENSITY_CHANNEL, segment, end) / scale];
     }
 
-
-
     @Override
     public String toString() {
         return "WaveformDetail[dataReference=" + dataReference + ", size:" + getData().remaining() + "]";
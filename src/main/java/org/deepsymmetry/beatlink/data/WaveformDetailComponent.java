@@ -144,6 +144,11 @@ public class WaveformDetailComponent extends JComponent {
      */
     private final AtomicReference<OverlayPainter> overlayPainter = new AtomicReference<OverlayPainter>();
 
+    /**
+     * Holds pre-rendered tiles of the waveform, so that scrolling and repainting only needs to copy them.
+     */
+    private final WaveformTileCache tileCache = new WaveformTileCache();
+
     /**
      * Control whether the component should automatically center itself on the playback position of the player
      * that is furthest into the track. This is the default behavior of the component, and will allow it to be
@@ -498,9 +503,14 @@ public class WaveformDetailComponent extends JComponent {
     }
 
     /**
-     * Used to signal our animation thread to stop when we are no longer monitoring a player.
+     * Moves our playback position smoothly as the track plays, once per frame of the shared {@link AnimationClock}.
      */
-    private final AtomicBoolean animating = new AtomicBoolean(false);
+    private final AnimationListener animationListener = new AnimationListener() {
+        @Override
+        public void animationFrame(int player, long milliseconds) {
+            setPlaybackPosition(milliseconds);
+        }
+    };
 
     /**
      * Configures the player whose current track waveforms and status will automatically be reflected. Whenever a new
@@ -540,30 +550,13 @@ public class WaveformDetailComponent extends JComponent {
             }
             try {
                 TimeFinder.getInstance().start();
-                if (!animating.getAndSet(true)) {
-                    // Create the thread to update our position smoothly as the track plays
-                    new Thread(new Runnable() {
-                        @Override
-                        public void run() {
-                            while (animating.get()) {
-                                try {
-                                    //noinspection BusyWait
-                                    Thread.sleep(33);  // Animate at 30 fps
-                                } catch (InterruptedException e) {
-                                    logger.warn("Waveform animation thread interrupted; ending");
-                                    animating.set(false);
-                                }
-                                setPlaybackPosition(TimeFinder.getInstance().getTimeFor(getMonitoredPlayer()));
-                            }
-                        }
-                    }).start();
-                }
+                AnimationClock.getInstance().addAnimationListener(player, animationListener);
             } catch (Exception e) {
                 logger.error("Unable to start the TimeFinder to animate the waveform detail view");
-                animating.set(false);
+                AnimationClock.getInstance().removeAnimationListener(animationListener);
             }
         } else {  // Stop monitoring any player
-            animating.set(false);
+            AnimationClock.getInstance().removeAnimationListener(animationListener);
             VirtualCdj.getInstance().removeUpdateListener(updateListener);
             MetadataFinder.getInstance().removeTrackMetadataListener(metadataListener);
             WaveformFinder.getInstance().removeWaveformListener(waveformListener);
@@ -850,23 +843,24 @@ public class WaveformDetailComponent extends JComponent {
             }
         }
 
-        int lastBeat = 0;
-        if (beatGrid.get() != null) {  // Find what beat was represented by the column just before the first we draw.
-            lastBeat = beatGrid.get().findBeatAtTime(Util.halfFrameToTime(getSegmentForX(clipRect.x - 1)));
+        final WaveformDetail currentWaveform = waveform.get();  // Draw the waveform itself, from cached tiles.
+        if (currentWaveform != null) {
+            final int currentScale = scale.get();
+            tileCache.paint((Graphics2D) g, currentWaveform, currentScale, getSegmentForX(0) / currentScale,
+                    clipRect, axis, maxHeight);
+        } else {
+            tileCache.clear();
         }
-        for (int x = clipRect.x; x <= clipRect.x + clipRect.width; x++) {
-            final int segment = getSegmentForX(x);
-            if (waveform.get() != null) { // Drawing the waveform itself
-                if ((segment >= 0) && (segment < waveform.get().getFrameCount())) {
-                    g.setColor(waveform.get().segmentColor(segment, scale.get()));
-                    final int height = (waveform.get().segmentHeight(segment, scale.get()) * maxHeight) / 31;
-                    g.drawLine(x, axis - height, x, axis + height);
-                }
-            }
-            if (beatGrid.get() != null) {  // Draw the beat markers
-                int inBeat = beatGrid.get().findBeatAtTime(Util.halfFrameToTime(segment));
+
+        final BeatGrid currentBeatGrid = beatGrid.get();  // Avoid crashes if the value changes mid-render.
+        if (currentBeatGrid != null) {  // Draw the beat markers, stepping through the grid as the columns advance
+            final BeatGrid.Cursor beatCursor = currentBeatGrid.cursor();
+            // Find what beat was represented by the column just before the first we draw.
+            int lastBeat = beatCursor.findBeatAtTime(Util.halfFrameToTime(getSegmentForX(clipRect.x - 1)));
+            for (int x = clipRect.x; x <= clipRect.x + clipRect.width; x++) {
+                final int inBeat = beatCursor.findBeatAtTime(Util.halfFrameToTime(getSegmentForX(x)));
                 if ((inBeat > 0) && (inBeat != lastBeat)) {  // Start of a new beat, so prepare to draw it
-                    final int beatWithinBar = beatGrid.get().getBeatWithinBar(inBeat);
+                    final int beatWithinBar = currentBeatGrid.getBeatWithinBar(inBeat);
                     if (scale.get() <= MAX_BEAT_SCALE || beatWithinBar == 1) {
                         // Once scale gets large enough, we only draw the down beats, like CDJs.
                         g.setColor((beatWithinBar == 1) ? emphasisColor.get() : indicatorColor.get());
@@ -62,6 +62,7 @@ public class WaveformFinder extends LifecycleParticipant {
             // Inform our listeners, on the proper thread, that the detailed waveforms are no longer available
             final Set<DeckReference> dyingCache = new HashSet<DeckReference>(detailHotCache.keySet());
             detailHotCache.clear();
+            DataCache.getInstance().clear(DataCache.Kind.WAVEFORM_DETAIL);
             SwingUtilities.invokeLater(new Runnable() {
                 @Override
                 public void run() {
@@ -165,9 +166,36 @@ public class WaveformFinder extends LifecycleParticipant {
                     detailHotCache.remove(entry.getKey());
                 }
             }
+            DataCache.getInstance().removeSlot(DataCache.Kind.WAVEFORM_PREVIEW, slot);
+            DataCache.getInstance().removeSlot(DataCache.Kind.WAVEFORM_DETAIL, slot);
         }
     };
 
+    /**
+     * Discards any cached waveforms for a track whose row changed or disappeared when the database of its media was
+     * refreshed, so that they will be retrieved again rather than reused.
+     *
+     * @param track the track whose waveforms are no longer valid
+     */
+    void forgetTrack(DataReference track) {
+        // Iterate over a copy to avoid concurrent modification issues
+        for (Map.Entry<DeckReference, WaveformPreview> entry : new HashMap<DeckReference, WaveformPreview>(previewHotCache).entrySet()) {
+            if (track.equals(entry.getValue().dataReference)) {
+                logger.debug("Evicting cached waveform preview in response to database change {}", entry.getValue());
+                previewHotCache.remove(entry.getKey());
+            }
+        }
+        // Again iterate over a copy to avoid concurrent modification issues
+        for (Map.Entry<DeckReference, WaveformDetail> entry : new HashMap<DeckReference, WaveformDetail>(detailHotCache).entrySet()) {
+            if (track.equals(entry.getValue().dataReference)) {
+                logger.debug("Evicting cached waveform detail in response to database change {}", entry.getValue());
+                detailHotCache.remove(entry.getKey());
+            }
+        }
+        DataCache.getInstance().remove(DataCache.Kind.WAVEFORM_PREVIEW, track);
+        DataCache.getInstance().remove(DataCache.Kind.WAVEFORM_DETAIL, track);
+    }
+
     /**
      * Our announcement listener watches for devices to disappear from the network so we can discard all information
      * about them.
@@ -272,6 +300,8 @@ public class WaveformFinder extends LifecycleParticipant {
                 }
             }
         }
+        DataCache.getInstance().removePlayer(DataCache.Kind.WAVEFORM_PREVIEW, player);
+        DataCache.getInstance().removePlayer(DataCache.Kind.WAVEFORM_DETAIL, player);
     }
 
     /**
@@ -397,17 +427,41 @@ public class WaveformFinder extends LifecycleParticipant {
         return getLatestDetailFor(update.getDeviceNumber());
     }
 
+    /**
+     * Look for a waveform preview in the shared in-memory {@link DataCache}, so that tracks which are reloaded do not need
+     * to be requested again, and if it is not there, obtain it and add it to that cache.
+     *
+     * @param trackReference uniquely identifies the desired waveform preview
+     * @param metadata the metadata of the track, if known, so the {@link PersistentDataStore} can be consulted
+     * @param failIfPassive will prevent the request from taking place if we are in passive mode, so that automatic
+     *                      waveform updates will use available caches only
+     *
+     * @return the waveform preview found, if any
+     */
+    private WaveformPreview requestPreviewInternal(final DataReference trackReference, final TrackMetadata metadata,
+                                                   final boolean failIfPassive) {
+        final WaveformPreview cached = DataCache.getInstance().getWaveformPreview(trackReference);
+        if (cached != null) {
+            return cached;
+        }
+        final WaveformPreview result = fetchPreview(trackReference, metadata, failIfPassive);
+        DataCache.getInstance().putWaveformPreview(result);
+        return result;
+    }
+
     /**
      * Ask the specified player for the waveform preview in the specified slot with the specified rekordbox ID,
      * using cached media instead if it is available, and possibly giving up if we are in passive mode.
      *
      * @param trackReference uniquely identifies the desired waveform preview
+     * @param metadata the metadata of the track, if known, so the {@link PersistentDataStore} can be consulted
      * @param failIfPassive will prevent the request from taking place if we are in passive mode, so that automatic
      *                      waveform updates will use available caches only
      *
      * @return the waveform preview found, if any
      */
-    private WaveformPreview requestPreviewInternal(final DataReference trackReference, final boolean failIfPassive) {
+    private WaveformPreview fetchPreview(final DataReference trackReference, final TrackMetadata metadata,
+                                         final boolean failIfPassive) {
 
         // First check if we are using cached data for this slot
         @SuppressWarnings("deprecation") MetadataCache cache = MetadataFinder.getInstance().getMetadataCache(SlotReference.getSlotReference(trackReference));
@@ -415,11 +469,16 @@ public class WaveformFinder extends LifecycleParticipant {
             return cache.getWaveformPreview(null, trackReference);
         }
 
-        // Then see if any registered metadata providers can offer it for us.
+        // Then see if our persistent data store or any registered metadata providers can offer it for us.
+        final WaveformPreview stored = PersistentDataStore.getInstance().getWaveformPreview(metadata);
+        if (stored != null) {
+            return stored;
+        }
         final MediaDetails sourceDetails = MetadataFinder.getInstance().getMediaDetailsFor(trackReference.getSlotReference());
-        if (sourceDetails !=  null) {
+        if (sourceDetails != null) {
             final WaveformPreview provided = MetadataFinder.getInstance().allMetadataProviders.getWaveformPreview(sourceDetails, trackReference);
             if (provided != null) {
+                PersistentDataStore.getInstance().storeWaveformPreview(metadata, provided);
                 return provided;
             }
         }
@@ -439,7 +498,9 @@ public class WaveformFinder extends LifecycleParticipant {
         };
 
         try {
-            return ConnectionManager.getInstance().invokeWithClientSession(trackReference.player, task, "requesting waveform preview");
+            final WaveformPreview preview = ConnectionManager.getInstance().invokeWithClientSession(trackReference.player, task, "requesting waveform preview");
+            PersistentDataStore.getInstance().storeWaveformPreview(metadata, preview);
+            return preview;
         } catch (Exception e) {
             logger.error("Problem requesting waveform preview, returning null", e);
         }
@@ -463,7 +524,7 @@ public class WaveformFinder extends LifecycleParticipant {
                 return cached;
             }
         }
-        return requestPreviewInternal(dataReference, false);
+        return requestPreviewInternal(dataReference, null, false);
     }
 
     /**
@@ -504,17 +565,41 @@ public class WaveformFinder extends LifecycleParticipant {
         return new WaveformPreview(new DataReference(slot, rekordboxId), response);
     }
 
+    /**
+     * Look for a waveform detail in the shared in-memory {@link DataCache}, so that tracks which are reloaded do not need
+     * to be requested again, and if it is not there, obtain it and add it to that cache.
+     *
+     * @param trackReference uniquely identifies the desired waveform detail
+     * @param metadata the metadata of the track, if known, so the {@link PersistentDataStore} can be consulted
+     * @param failIfPassive will prevent the request from taking place if we are in passive mode, so that automatic
+     *                      artwork updates will use available caches only
+     *
+     * @return the waveform preview found, if any
+     */
+    private WaveformDetail requestDetailInternal(final DataReference trackReference, final TrackMetadata metadata,
+                                                 final boolean failIfPassive) {
+        final WaveformDetail cached = DataCache.getInstance().getWaveformDetail(trackReference);
+        if (cached != null) {
+            return cached;
+        }
+        final WaveformDetail result = fetchDetail(trackReference, metadata, failIfPassive);
+        DataCache.getInstance().putWaveformDetail(result);
+        return result;
+    }
+
     /**
      * Ask the specified player for the waveform detail in the specified slot with the specified rekordbox ID,
      * using cached media instead if it is available, and possibly giving up if we are in passive mode.
      *
      * @param trackReference uniquely identifies the desired waveform detail
+     * @param metadata the metadata of the track, if known, so the {@link PersistentDataStore} can be consulted
      * @param failIfPassive will prevent the request from taking place if we are in passive mode, so that automatic
      *                      artwork updates will use available caches only
      *
      * @return the waveform preview found, if any
      */
-    private WaveformDetail requestDetailInternal(final DataReference trackReference, final boolean failIfPassive) {
+    private WaveformDetail fetchDetail(final DataReference trackReference, final TrackMetadata metadata,
+                                       final boolean failIfPassive) {
 
         // First check if we are using cached data for this slot
         @SuppressWarnings("deprecation") MetadataCache cache = MetadataFinder.getInstance().getMetadataCache(SlotReference.getSlotReference(trackReference));
@@ -522,11 +607,16 @@ public class WaveformFinder extends LifecycleParticipant {
             return cache.getWaveformDetail(null, trackReference);
         }
 
-        // Then see if any registered metadata providers can offer it to us.
+        // Then see if our persistent data store or any registered metadata providers can offer it to us.
+        final WaveformDetail stored = PersistentDataStore.getInstance().getWaveformDetail(metadata);
+        if (stored != null) {
+            return stored;
+        }
         final MediaDetails sourceDetails = MetadataFinder.getInstance().getMediaDetailsFor(trackReference.getSlotReference());
-        if (sourceDetails !=  null) {
+        if (sourceDetails != null) {
             final WaveformDetail provided = MetadataFinder.getInstance().allMetadataProviders.getWaveformDetail(sourceDetails, trackReference);
             if (provided != null) {
+                PersistentDataStore.getInstance().storeWaveformDetail(metadata, provided);
                 return provided;
             }
         }
@@ -546,7 +636,9 @@ public class WaveformFinder extends LifecycleParticipant {
         };
 
         try {
-            return ConnectionManager.getInstance().invokeWithClientSession(trackReference.player, task, "requesting waveform detail");
+            final WaveformDetail detail = ConnectionManager.getInstance().invokeWithClientSession(trackReference.player, task, "requesting waveform detail");
+            PersistentDataStore.getInstance().storeWaveformDetail(metadata, detail);
+            return detail;
         } catch (Exception e) {
             logger.error("Problem requesting waveform preview, returning null", e);
         }
@@ -570,7 +662,7 @@ public class WaveformFinder extends LifecycleParticipant {
                 return cached;
             }
         }
-        return requestDetailInternal(dataReference, false);
+        return requestDetailInternal(dataReference, null, false);
     }
 
     /**
@@ -753,7 +845,8 @@ public class WaveformFinder extends LifecycleParticipant {
                         @Override
                         public void run() {
                             try {
-                                WaveformPreview preview = requestPreviewInternal(update.metadata.trackReference, true);
+                                WaveformPreview preview = requestPreviewInternal(update.metadata.trackReference,
+                                        update.metadata, true);
                                 if (preview != null) {
                                     updatePreview(update, preview);
                                 }
@@ -789,7 +882,8 @@ public class WaveformFinder extends LifecycleParticipant {
                         @Override
                         public void run() {
                             try {
-                                WaveformDetail detail = requestDetailInternal(update.metadata.trackReference, true);
+                                WaveformDetail detail = requestDetailInternal(update.metadata.trackReference,
+                                        update.metadata, true);
                                 if (detail != null) {
                                     updateDetail(update, detail);
                                 }
@@ -895,6 +989,8 @@ public class WaveformFinder extends LifecycleParticipant {
             previewHotCache.clear();
             final Set<DeckReference> dyingDetailCache = new HashSet<DeckReference>(detailHotCache.keySet());
             detailHotCache.clear();
+            DataCache.getInstance().clear(DataCache.Kind.WAVEFORM_PREVIEW);
+            DataCache.getInstance().clear(DataCache.Kind.WAVEFORM_DETAIL);
             SwingUtilities.invokeLater(new Runnable() {
                 @Override
                 public void run() {
@@ -261,6 +261,117 @@ public class WaveformPreview {
         }
     }
 
+    /**
+     * The summary channel holding the back (overall) height of color previews, or the height of blue previews.
+     */
+    private static final int HEIGHT_CHANNEL = 0;
+
+    /**
+     * The summary channel holding the red level of color previews, or the intensity of blue previews.
+     */
+    private static final int RED_OR_INTENSITY_CHANNEL = 1;
+
+    /**
+     * The summary channel holding the green level of color previews.
+     */
+    private static final int GREEN_CHANNEL = 2;
+
+    /**
+     * The summary channel holding the blue level of color previews, which is also their front height.
+     */
+    private static final int BLUE_CHANNEL = 3;
+
+    /**
+     * Running totals of the height and color of the preview, built the first time a range of segments is summarized.
+     */
+    private volatile WaveformSummary summary;
+
+    /**
+     * Get the running totals of the height and color of the preview, building them if this is the first time they
+     * have been needed. Concurrent first calls may each build them, but the results are identical, so that is
+     * harmless.
+     *
+     * @return the summary of the preview
+     */
+    private WaveformSummary getSummary() {
+        WaveformSummary result = summary;
+        if (result == null) {
+            final ByteBuffer bytes = getData();
+            result = new WaveformSummary(isColor? 4 : 2, segmentCount);
+            for (int i = 0; i < segmentCount; i++) {
+                if (isColor) {
+                    final int base = i * 6;
+                    result.add(HEIGHT_CHANNEL, i, segmentHeight(i, false));
+                    result.add(RED_OR_INTENSITY_CHANNEL, i, Util.unsign(bytes.get(base + 3)));
+                    result.add(GREEN_CHANNEL, i, Util.unsign(bytes.get(base + 4)));
+                    result.add(BLUE_CHANNEL, i, Util.unsign(bytes.get(base + 5)));
+                } else {
+                    result.add(HEIGHT_CHANNEL, i, bytes.get(i * 2) & 0x1f);
+                    result.add(RED_OR_INTENSITY_CHANNEL, i, bytes.get(i * 2 + 1) & 0x07);
+                }
+            }
+            summary = result;
+        }
+        return result;
+    }
+
+    /**
+     * Determine the average height of a range of preview segments, for drawing the preview narrower than
+     * {@link #segmentCount} pixels. This takes the same time regardless of the size of the range, because it uses
+     * running totals which are built the first time a range is summarized.
+     *
+     * @param segment the index of the first waveform preview segment to examine
+     * @param count the number of segments being drawn as a single pixel column
+     * @param front if {@code true} the height of the front (brighter) segments of a color waveform preview is
+     *              averaged, otherwise the height of the back (dimmer) segments. Has no effect for blue previews.
+     *
+     * @return a value from 0 to 31 representing the average height of the waveform over the range
+     * @since 0.6.3
+     */
+    @SuppressWarnings("WeakerAccess")
+    public int segmentHeight(final int segment, final int count, final boolean front) {
+        if (count <= 1) {
+            return segmentHeight(segment, front);
+        }
+        final int channel = (isColor && front)? BLUE_CHANNEL : HEIGHT_CHANNEL;
+        return getSummary().sum(channel, segment, segment + count) / count;
+    }
+
+    /**
+     * Determine the average color of a range of preview segments, for drawing the preview narrower than
+     * {@link #segmentCount} pixels. Like {@link #segmentHeight(int, int, boolean)}, this takes the same time
+     * regardless of the size of the range.
+     *
+     * @param segment the index of the first waveform preview segment to examine
+     * @param count the number of segments being drawn as a single pixel column
+     * @param front if {@code true} the front (brighter) color of a color waveform preview is returned,
+     *              otherwise the back (dimmer) color is returned. Has no effect for blue previews.
+     *
+     * @return the average color of the waveform over the range
+     * @since 0.6.3
+     */
+    @SuppressWarnings("WeakerAccess")
+    public Color segmentColor(final int segment, final int count, final boolean front) {
+        if (count <= 1) {
+            return segmentColor(segment, front);
+        }
+        final WaveformSummary totals = getSummary();
+        final int end = segment + count;
+        if (isColor) {
+            final int backHeight = totals.sum(HEIGHT_CHANNEL, segment, end);
+            if (backHeight == 0) {
+                return Color.BLACK;
+            }
+            final int maxLevel = front? 255 : 191;
+            final int red = totals.sum(RED_OR_INTENSITY_CHANNEL, segment, end) * maxLevel / backHeight;
+            final int green = totals.sum(GREEN_CHANNEL, segment, end) * maxLevel / backHeight;
+            final int blue = totals.sum(BLUE_CHANNEL, segment, end) * maxLevel / backHeight;
+            return new Color(red, green, blue);
+        }
+        final int intensity = totals.sum(RED_OR_INTENSITY_CHANNEL, segment, end) / count;
+        return (intensity >= 5) ? INTENSE_COLOR : NORMAL_COLOR;
+    }
+
     @Override
     public String toString() {
         return "WaveformPreview[dataReference=" + dataReference + ", isColor? " + isColor + ", size:" + getData().remaining() +
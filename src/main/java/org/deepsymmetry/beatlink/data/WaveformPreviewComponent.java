@@ -9,7 +9,6 @@ import java.awt.*;
 import java.awt.image.BufferedImage;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 
@@ -567,9 +566,14 @@ public class WaveformPreviewComponent extends JComponent {
     }
 
     /**
-     * Used to signal our animation thread to stop when we are no longer monitoring a player.
+     * Moves our playback position smoothly as the track plays, once per frame of the shared {@link AnimationClock}.
      */
-    private final AtomicBoolean animating = new AtomicBoolean(false);
+    private final AnimationListener animationListener = new AnimationListener() {
+        @Override
+        public void animationFrame(int player, long milliseconds) {
+            setPlaybackPosition(milliseconds);
+        }
+    };
 
     /**
      * Configures the player whose current track waveforms and status will automatically be reflected. Whenever a new
@@ -614,30 +618,13 @@ public class WaveformPreviewComponent extends JComponent {
             VirtualCdj.getInstance().addUpdateListener(updateListener);
             try {
                 TimeFinder.getInstance().start();
-                if (!animating.getAndSet(true)) {
-                    // Create the thread to update our position smoothly as the track plays
-                    new Thread(new Runnable() {
-                        @Override
-                        public void run() {
-                            while (animating.get()) {
-                                try {
-                                    //noinspection BusyWait
-                                    Thread.sleep(33);  // Animate at 30 fps
-                                } catch (InterruptedException e) {
-                                    logger.warn("Waveform animation thread interrupted; ending");
-                                    animating.set(false);
-                                }
-                                setPlaybackPosition(TimeFinder.getInstance().getTimeFor(getMonitoredPlayer()));
-                            }
-                        }
-                    }).start();
-                }
+                AnimationClock.getInstance().addAnimationListener(player, animationListener);
             } catch (Exception e) {
                 logger.error("Unable to start the TimeFinder to animate the waveform preview");
-                animating.set(false);
+                AnimationClock.getInstance().removeAnimationListener(animationListener);
             }
         } else {  // Stop monitoring any player
-            animating.set(false);
+            AnimationClock.getInstance().removeAnimationListener(animationListener);
             VirtualCdj.getInstance().removeUpdateListener(updateListener);
             MetadataFinder.getInstance().removeTrackMetadataListener(metadataListener);
             WaveformFinder.getInstance().removeWaveformListener(waveformListener);
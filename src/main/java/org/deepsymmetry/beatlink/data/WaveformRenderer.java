@@ -0,0 +1,589 @@
+package org.deepsymmetry.beatlink.data;
+
+import org.deepsymmetry.beatlink.Util;
+
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>Draws waveform previews, waveform detail sections, their beat and cue overlays, and album art thumbnails into
+ * images without needing any Swing components, so they can be produced by servers such as web dashboards or
+ * streaming overlays, which may be running with {@code java.awt.headless} set.</p>
+ *
+ * <p>The static {@code render} methods draw a single image on the calling thread. The {@code submit} methods draw
+ * on a pool of worker threads, so that images for a whole playlist can be produced in parallel, and return the
+ * result encoded as PNG data or raw RGBA pixels. Results are cached by a caller-supplied signature, such as the
+ * track signature calculated by the {@link SignatureFinder}, together with the parameters of the request, so
+ * asking again for an image which has already been produced (or is being produced) does not draw it again. The
+ * cache key also includes a digest of any cues and beat grid being drawn, because those are not covered by the
+ * signature: an image is drawn afresh when cues have been edited, even though the track is the same.</p>
+ *
+ * @author James Elliott
+ * @since 0.6.3
+ */
+@SuppressWarnings("WeakerAccess")
+public class WaveformRenderer {
+
+    /**
+     * The encodings in which submitted images can be returned.
+     */
+    public enum Format {
+        /**
+         * A PNG image file.
+         */
+        PNG,
+
+        /**
+         * Raw pixels, four bytes per pixel in red, green, blue, alpha order, row by row from the top left, with no
+         * premultiplication of the alpha channel.
+         */
+        RGBA
+    }
+
+    /**
+     * The number of encoded images kept unless a different size is passed to the constructor.
+     */
+    public static final int DEFAULT_CACHE_SIZE = 256;
+
+    /**
+     * How many pixels high are the beat markers in waveform detail images.
+     */
+    private static final int BEAT_MARKER_HEIGHT = 4;
+
+    /**
+     * How many pixels high are the cue markers.
+     */
+    private static final int CUE_MARKER_HEIGHT = 4;
+
+    /**
+     * How many pixels above and below the waveform detail are left for markers.
+     */
+    private static final int VERTICAL_MARGIN = 15;
+
+    /**
+     * The largest scale at which we will draw individual beat markers; above this we show only bars.
+     */
+    private static final int MAX_BEAT_SCALE = 9;
+
+    /**
+     * The color drawn behind sections of the waveform detail which represent loops.
+     */
+    private static final Color LOOP_BACKGROUND = new Color(204, 121, 29);
+
+    /**
+     * The color with which beat markers are drawn.
+     */
+    private static final Color BEAT_COLOR = Color.WHITE;
+
+    /**
+     * The color with which down beat markers are drawn.
+     */
+    private static final Color DOWN_BEAT_COLOR = Color.RED;
+
+    /**
+     * Renders the images that have been submitted.
+     */
+    private final ExecutorService executor;
+
+    /**
+     * The maximum number of encoded images to keep.
+     */
+    private final int cacheSize;
+
+    /**
+     * Holds the results of recent requests, including those still being rendered, indexed by the signature and
+     * parameters of the request, in order of use so that the least recently used result is discarded first.
+     */
+    private final LinkedHashMap<String, Future<byte[]>> cache;
+
+    /**
+     * Create a renderer with a worker thread for each available processor, and the default cache size.
+     */
+    public WaveformRenderer() {
+        this(Runtime.getRuntime().availableProcessors(), DEFAULT_CACHE_SIZE);
+    }
+
+    /**
+     * Create a renderer.
+     *
+     * @param threads the number of images to render at the same time
+     * @param cacheSize the number of encoded images to keep; 0 disables caching
+     *
+     * @throws IllegalArgumentException if {@code threads} is less than one or {@code cacheSize} is negative
+     */
+    public WaveformRenderer(int threads, final int cacheSize) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be positive");
+        }
+        if (cacheSize < 0) {
+            throw new IllegalArgumentException("cacheSize cannot be negative");
+        }
+        this.cacheSize = cacheSize;
+        cache = new LinkedHashMap<String, Future<byte[]>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Future<byte[]>> eldest) {
+                return size() > cacheSize;
+            }
+        };
+        final AtomicInteger threadNumber = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                final Thread thread = new Thread(r, "WaveformRenderer worker " + threadNumber.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Create a transparent image on which to draw.
+     *
+     * @param width the width of the image
+     * @param height the height of the image
+     *
+     * @return the image
+     *
+     * @throws IllegalArgumentException if {@code width} or {@code height} is less than one
+     */
+    private static BufferedImage createImage(int width, int height) {
+        if (width < 1 || height < 1) {
+            throw new IllegalArgumentException("width and height must be positive");
+        }
+        return new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+    }
+
+    /**
+     * Draw a cue marker, a small downward-pointing triangle in the color of the cue.
+     *
+     * @param g the graphics in which to draw
+     * @param entry the cue being marked
+     * @param x the horizontal position of the cue
+     * @param top the vertical position of the top of the marker
+     */
+    private static void drawCueMarker(Graphics2D g, CueList.Entry entry, int x, int top) {
+        g.setColor(entry.getColor());
+        for (int i = 0; i < CUE_MARKER_HEIGHT; i++) {
+            g.drawLine(x - 3 + i, top + i, x + 3 - i, top + i);
+        }
+    }
+
+    /**
+     * Draw a waveform preview stretched or squeezed to fit an image, with markers for its cues if they are
+     * supplied. When the image is narrower than the preview, each column shows the average of the preview
+     * segments it covers.
+     *
+     * @param preview the waveform preview to draw
+     * @param cueList the cues to mark along the top of the image, or {@code null} to draw only the waveform
+     * @param duration the length of the track in milliseconds, needed to position the cues
+     * @param width the width of the image
+     * @param height the height of the image
+     *
+     * @return the image, with a transparent background
+     *
+     * @throws IllegalArgumentException if {@code width} or {@code height} is less than one
+     */
+    public static BufferedImage renderPreview(WaveformPreview preview, CueList cueList, long duration,
+                                              int width, int height) {
+        final BufferedImage image = createImage(width, height);
+        final Graphics2D g = image.createGraphics();
+        try {
+            final boolean drawCues = cueList != null && duration > 0;
+            final int top = drawCues? CUE_MARKER_HEIGHT + 2 : 0;
+            final int waveHeight = height - top;
+            final int maxHeight = Math.max(1, preview.maxHeight);
+            for (int x = 0; x < width; x++) {
+                final int segment = (int) ((long) x * preview.segmentCount / width);
+                final int next = (int) ((long) (x + 1) * preview.segmentCount / width);
+                final int count = Math.max(1, next - segment);
+                final int backHeight = preview.segmentHeight(segment, count, false) * waveHeight / maxHeight;
+                g.setColor(preview.segmentColor(segment, count, false));
+                g.drawLine(x, height, x, height - backHeight);
+                if (preview.isColor) {  // We have a front color segment to draw on top.
+                    final int frontHeight = preview.segmentHeight(segment, count, true) * waveHeight / maxHeight;
+                    g.setColor(preview.segmentColor(segment, count, true));
+                    g.drawLine(x, height, x, height - frontHeight);
+                }
+            }
+            if (drawCues) {
+                for (CueList.Entry entry : cueList.entries) {
+                    drawCueMarker(g, entry, (int) (entry.cueTime * width / duration), 0);
+                }
+            }
+        } finally {
+            g.dispose();
+        }
+        return image;
+    }
+
+    /**
+     * Draw a section of a waveform detail at a given scale, in the same style as {@link WaveformDetailComponent},
+     * with beat markers and cue markers and loop regions if they are supplied.
+     *
+     * @param detail the waveform detail to draw
+     * @param beatGrid the beats to mark above and below the waveform, or {@code null} to leave them out
+     * @param cueList the cues and loops to mark, or {@code null} to leave them out
+     * @param firstSegment the waveform segment (half-frame) to draw at the left edge of the image
+     * @param scale the number of segments to average into each column of pixels
+     * @param width the width of the image
+     * @param height the height of the image
+     *
+     * @return the image, with a transparent background
+     *
+     * @throws IllegalArgumentException if {@code width} or {@code height} is less than one, or {@code scale} is
+     *         less than one
+     */
+    public static BufferedImage renderDetail(WaveformDetail detail, BeatGrid beatGrid, CueList cueList,
+                                             int firstSegment, int scale, int width, int height) {
+        if (scale < 1) {
+            throw new IllegalArgumentException("scale must be positive");
+        }
+        final BufferedImage image = createImage(width, height);
+        final Graphics2D g = image.createGraphics();
+        try {
+            final int axis = height / 2;
+            final int maxHeight = Math.max(1, axis - VERTICAL_MARGIN);
+
+            if (cueList != null) {  // Draw the loop regions first, so the waveform appears over them.
+                g.setColor(LOOP_BACKGROUND);
+                for (CueList.Entry entry : cueList.entries) {
+                    if (entry.isLoop) {
+                        final int start = (Util.timeToHalfFrame(entry.cueTime) - firstSegment) / scale;
+                        final int end = (Util.timeToHalfFrame(entry.loopTime) - firstSegment) / scale;
+                        g.fillRect(start, axis - maxHeight, end - start, maxHeight * 2);
+                    }
+                }
+            }
+
+            final int frameCount = detail.getFrameCount();
+            final BeatGrid.Cursor beatCursor = (beatGrid == null)? null : beatGrid.cursor();
+            int lastBeat = (beatCursor == null)? 0 :
+                    beatCursor.findBeatAtTime(Util.halfFrameToTime(firstSegment - scale));
+            for (int x = 0; x < width; x++) {
+                final int segment = firstSegment + x * scale;
+                if ((segment >= 0) && (segment < frameCount)) {
+                    g.setColor(detail.segmentColor(segment, scale));
+                    final int segmentHeight = (detail.segmentHeight(segment, scale) * maxHeight) / 31;
+                    g.drawLine(x, axis - segmentHeight, x, axis + segmentHeight);
+                }
+                if (beatCursor != null) {
+                    final int inBeat = beatCursor.findBeatAtTime(Util.halfFrameToTime(segment));
+                    if ((inBeat > 0) && (inBeat != lastBeat)) {  // Start of a new beat.
+                        final int beatWithinBar = beatGrid.getBeatWithinBar(inBeat);
+                        if (scale <= MAX_BEAT_SCALE || beatWithinBar == 1) {
+                            g.setColor((beatWithinBar == 1)? DOWN_BEAT_COLOR : BEAT_COLOR);
+                            g.drawLine(x, axis - maxHeight - 2 - BEAT_MARKER_HEIGHT, x, axis - maxHeight - 2);
+                            g.drawLine(x, axis + maxHeight + 2, x, axis + maxHeight + BEAT_MARKER_HEIGHT + 2);
+                        }
+                        lastBeat = inBeat;
+                    }
+                }
+            }
+
+            if (cueList != null) {
+                for (CueList.Entry entry : cueList.entries) {
+                    final int x = (Util.timeToHalfFrame(entry.cueTime) - firstSegment) / scale;
+                    if (x > -4 && x < width + 4) {
+                        drawCueMarker(g, entry, x, axis - maxHeight - BEAT_MARKER_HEIGHT - CUE_MARKER_HEIGHT);
+                    }
+                }
+            }
+        } finally {
+            g.dispose();
+        }
+        return image;
+    }
+
+    /**
+     * Draw a thumbnail of album art, scaled to fit within a square while keeping its proportions.
+     *
+     * @param art the album art to draw
+     * @param size the largest width and height of the thumbnail
+     *
+     * @return the thumbnail, or {@code null} if the artwork could not be decoded
+     *
+     * @throws IllegalArgumentException if {@code size} is less than one
+     */
+    public static BufferedImage renderArtThumbnail(AlbumArt art, int size) {
+        if (size < 1) {
+            throw new IllegalArgumentException("size must be positive");
+        }
+        final BufferedImage original = art.getImage();
+        if (original == null) {
+            return null;
+        }
+        final double ratio = Math.min((double) size / original.getWidth(), (double) size / original.getHeight());
+        final BufferedImage image = createImage(Math.max(1, (int) Math.round(original.getWidth() * ratio)),
+                Math.max(1, (int) Math.round(original.getHeight() * ratio)));
+        final Graphics2D g = image.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            g.drawImage(original, 0, 0, image.getWidth(), image.getHeight(), null);
+        } finally {
+            g.dispose();
+        }
+        return image;
+    }
+
+    /**
+     * Encode an image in the specified format.
+     *
+     * @param image the image to encode
+     * @param format the desired encoding
+     *
+     * @return the encoded bytes
+     *
+     * @throws IOException if there is a problem creating PNG data
+     */
+    public static byte[] encode(BufferedImage image, Format format) throws IOException {
+        if (format == Format.PNG) {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            if (!ImageIO.write(image, "png", out)) {
+                throw new IOException("No PNG writer is available");
+            }
+            return out.toByteArray();
+        }
+        final int width = image.getWidth();
+        final int height = image.getHeight();
+        final int[] pixels = image.getRGB(0, 0, width, height, null, 0, width);
+        final byte[] result = new byte[pixels.length * 4];
+        for (int i = 0; i < pixels.length; i++) {
+            final int argb = pixels[i];
+            result[i * 4] = (byte) (argb >> 16);
+            result[i * 4 + 1] = (byte) (argb >> 8);
+            result[i * 4 + 2] = (byte) argb;
+            result[i * 4 + 3] = (byte) (argb >>> 24);
+        }
+        return result;
+    }
+
+    /**
+     * Arrange for an image to be rendered and encoded on a worker thread, unless the result of an identical request
+     * is already cached (or being rendered), in which case that is returned.
+     *
+     * @param key identifies the request in the cache, or {@code null} if it should not be cached
+     * @param renderer draws the image
+     * @param format the desired encoding
+     *
+     * @return the eventual encoded image
+     */
+    private Future<byte[]> submit(final String key, final Callable<BufferedImage> renderer, final Format format) {
+        final Callable<byte[]> task = new Callable<byte[]>() {
+            @Override
+            public byte[] call() throws Exception {
+                final BufferedImage image = renderer.call();
+                return (image == null)? null : encode(image, format);
+            }
+        };
+        if (key == null || cacheSize == 0) {
+            return executor.submit(task);
+        }
+        synchronized (cache) {
+            final Future<byte[]> existing = cache.get(key);
+            if (existing != null) {
+                return existing;
+            }
+            final FutureTask<byte[]> future = new FutureTask<byte[]>(task) {
+                @Override
+                protected void done() {
+                    boolean failed = isCancelled();
+                    if (!failed) {
+                        try {
+                            get();
+                        } catch (ExecutionException e) {
+                            failed = true;
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                    if (failed) {  // Don't keep failures, so the request can be tried again.
+                        synchronized (cache) {
+                            if (cache.get(key) == this) {
+                                cache.remove(key);
+                            }
+                        }
+                    }
+                }
+            };
+            cache.put(key, future);
+            executor.execute(future);
+            return future;
+        }
+    }
+
+    /**
+     * Mix a value into a 64-bit FNV-1a style hash, used to summarize the overlays drawn into an image for its
+     * cache key.
+     *
+     * @param hash the hash so far
+     * @param value the value to mix in
+     *
+     * @return the updated hash
+     */
+    private static long mix(long hash, long value) {
+        return (hash ^ value) * 0x100000001b3L;
+    }
+
+    /**
+     * Summarize everything about a cue list that affects how it is drawn, so that images showing cues which have
+     * since been edited are not found in the cache.
+     *
+     * @param cueList the cues being drawn, if any
+     *
+     * @return a short string that differs whenever the positions, loops, or colors of the cues differ
+     */
+    private static String cueDigest(CueList cueList) {
+        if (cueList == null) {
+            return "-";
+        }
+        long hash = mix(0xcbf29ce484222325L, cueList.entries.size());
+        for (CueList.Entry entry : cueList.entries) {
+            final Color color = entry.getColor();
+            hash = mix(hash, entry.cueTime);
+            hash = mix(hash, entry.isLoop? entry.loopTime : -1);
+            hash = mix(hash, entry.hotCueNumber);
+            hash = mix(hash, (color == null)? 0 : color.getRGB());
+        }
+        return Long.toHexString(hash);
+    }
+
+    /**
+     * Summarize everything about a beat grid that affects how it is drawn, so that images showing a beat grid which
+     * has since been changed are not found in the cache.
+     *
+     * @param beatGrid the beat grid being drawn, if any
+     *
+     * @return a short string that differs whenever the timing or bar positions of the beats differ
+     */
+    private static String beatGridDigest(BeatGrid beatGrid) {
+        if (beatGrid == null) {
+            return "-";
+        }
+        long hash = mix(0xcbf29ce484222325L, beatGrid.beatCount);
+        for (int beat = 1; beat <= beatGrid.beatCount; beat++) {
+            hash = mix(hash, beatGrid.getTimeWithinTrack(beat));
+            hash = mix(hash, beatGrid.getBeatWithinBar(beat));
+        }
+        return Long.toHexString(hash);
+    }
+
+    /**
+     * Render and encode a waveform preview on a worker thread, as described in
+     * {@link #renderPreview(WaveformPreview, CueList, long, int, int)}.
+     *
+     * @param signature identifies the track for caching, such as its {@link SignatureFinder} signature, or
+     *                  {@code null} to skip the cache
+     * @param preview the waveform preview to draw
+     * @param cueList the cues to mark along the top of the image, or {@code null} to draw only the waveform
+     * @param duration the length of the track in milliseconds, needed to position the cues
+     * @param width the width of the image
+     * @param height the height of the image
+     * @param format the desired encoding
+     *
+     * @return the eventual encoded image
+     */
+    public Future<byte[]> submitPreview(String signature, final WaveformPreview preview, final CueList cueList,
+                                        final long duration, final int width, final int height, Format format) {
+        final String key = (signature == null)? null : signature + "/preview/" + width + "x" + height + "/" +
+                ((cueList == null)? "-" : duration + ":" + cueDigest(cueList)) + "/" + format;
+        return submit(key, new Callable<BufferedImage>() {
+            @Override
+            public BufferedImage call() {
+                return renderPreview(preview, cueList, duration, width, height);
+            }
+        }, format);
+    }
+
+    /**
+     * Render and encode a section of a waveform detail on a worker thread, as described in
+     * {@link #renderDetail(WaveformDetail, BeatGrid, CueList, int, int, int, int)}.
+     *
+     * @param signature identifies the track for caching, such as its {@link SignatureFinder} signature, or
+     *                  {@code null} to skip the cache
+     * @param detail the waveform detail to draw
+     * @param beatGrid the beats to mark above and below the waveform, or {@code null} to leave them out
+     * @param cueList the cues and loops to mark, or {@code null} to leave them out
+     * @param firstSegment the waveform segment (half-frame) to draw at the left edge of the image
+     * @param scale the number of segments to average into each column of pixels
+     * @param width the width of the image
+     * @param height the height of the image
+     * @param format the desired encoding
+     *
+     * @return the eventual encoded image
+     */
+    public Future<byte[]> submitDetail(String signature, final WaveformDetail detail, final BeatGrid beatGrid,
+                                       final CueList cueList, final int firstSegment, final int scale,
+                                       final int width, final int height, Format format) {
+        final String key = (signature == null)? null : signature + "/detail/" + firstSegment + "+" + scale + "/" +
+                width + "x" + height + "/" + beatGridDigest(beatGrid) + "/" + cueDigest(cueList) + "/" + format;
+        return submit(key, new Callable<BufferedImage>() {
+            @Override
+            public BufferedImage call() {
+                return renderDetail(detail, beatGrid, cueList, firstSegment, scale, width, height);
+            }
+        }, format);
+    }
+
+    /**
+     * Render and encode an album art thumbnail on a worker thread, as described in
+     * {@link #renderArtThumbnail(AlbumArt, int)}.
+     *
+     * @param signature identifies the artwork for caching, such as the signature of a track it belongs to, or
+     *                  {@code null} to skip the cache
+     * @param art the album art to draw
+     * @param size the largest width and height of the thumbnail
+     * @param format the desired encoding
+     *
+     * @return the eventual encoded thumbnail, which will be {@code null} if the artwork could not be decoded
+     */
+    public Future<byte[]> submitArtThumbnail(String signature, final AlbumArt art, final int size, Format format) {
+        final String key = (signature == null)? null : signature + "/art/" + size + "/" + format;
+        return submit(key, new Callable<BufferedImage>() {
+            @Override
+            public BufferedImage call() {
+                return renderArtThumbnail(art, size);
+            }
+        }, format);
+    }
+
+    /**
+     * Discard all cached images. Requests which are still being rendered will complete, but their results will not
+     * be found by later requests.
+     */
+    public void clearCache() {
+        synchronized (cache) {
+            cache.clear();
+        }
+    }
+
+    /**
+     * Stop the worker threads once any images that have been submitted are finished. No more images can be
+     * submitted after this is called.
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    @Override
+    public String toString() {
+        final int cached;
+        synchronized (cache) {
+            cached = cache.size();
+        }
+        return "WaveformRenderer[cacheSize:" + cacheSize + ", cached:" + cached + "]";
+    }
+}
@@ -0,0 +1,65 @@
+package org.deepsymmetry.beatlink.data;
+
+/**
+ * Holds running totals of one or more values (such as height, or the red, green and blue levels) along a waveform,
+ * so that the total or average of any range of segments can be found with two array lookups, no matter how many
+ * segments are in the range. This is what makes drawing zoomed-out waveforms cheap, since each pixel column
+ * summarizes many segments.
+ *
+ * Summaries are filled in order by the waveform class that owns them, and are then never changed, so they can be
+ * shared between threads once built.
+ *
+ * @author James Elliott
+ * @since 0.6.3
+ */
+class WaveformSummary {
+
+    /**
+     * The running totals of each channel. The entry at index <i>n</i> of a channel holds the total of the first
+     * <i>n</i> segments' values.
+     */
+    private final int[][] sums;
+
+    /**
+     * The number of segments summarized.
+     */
+    final int length;
+
+    /**
+     * Create a summary whose totals are all zero, ready to be filled in.
+     *
+     * @param channels the number of different values tracked for each segment
+     * @param length the number of segments in the waveform
+     */
+    WaveformSummary(int channels, int length) {
+        this.length = length;
+        sums = new int[channels][length + 1];
+    }
+
+    /**
+     * Record the value of a channel at a segment. Segments must be recorded in order, starting with segment 0.
+     *
+     * @param channel the channel being recorded
+     * @param segment the segment whose value is being recorded
+     * @param value the value of the channel at that segment
+     */
+    void add(int channel, int segment, int value) {
+        sums[channel][segment + 1] = sums[channel][segment] + value;
+    }
+
+    /**
+     * Find the total of a channel's values over a range of segments. Any part of the range which lies outside the
+     * waveform contributes nothing.
+     *
+     * @param channel the channel of interest
+     * @param start the first segment in the range
+     * @param end the segment after the last one in the range
+     *
+     * @return the total of the channel's values over the segments in the range
+     */
+    int sum(int channel, int start, int end) {
+        final int from = Math.max(0, Math.min(start, length));
+        final int to = Math.max(from, Math.min(end, length));
+        return sums[channel][to] - sums[channel][from];
+    }
+}
@@ -0,0 +1,168 @@
+package org.deepsymmetry.beatlink.data;
+
+import java.awt.*;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Draws the body of a waveform detail by copying pre-rendered tiles, each covering a fixed number of pixel columns,
+ * rather than drawing every column each time the component is painted. While a waveform scrolls, the same tiles
+ * simply get copied to different positions, so only the tiles that newly come into view need to be rendered.
+ *
+ * Tiles are transparent apart from the waveform itself, so whatever was drawn beneath them (the background and loop
+ * regions) shows through, and the beat, cue and playback markers are drawn on top by the component as before. The
+ * cache is discarded whenever the waveform, zoom scale, height, or display scaling changes. Tiles are created to be
+ * compatible with the display being painted, so Java2D can keep them in video memory where that is supported.
+ *
+ * @author James Elliott
+ * @since 0.6.3
+ */
+class WaveformTileCache {
+
+    /**
+     * The number of pixel columns in each tile.
+     */
+    static final int TILE_WIDTH = 256;
+
+    /**
+     * The number of tiles kept, which is enough to cover a very wide component with some to spare as it scrolls.
+     */
+    private static final int MAX_TILES = 16;
+
+    /**
+     * The waveform the cached tiles were rendered from.
+     */
+    private WaveformDetail waveform;
+
+    /**
+     * The number of segments averaged into each column of the cached tiles.
+     */
+    private int scale;
+
+    /**
+     * The largest waveform height the cached tiles were rendered to fit.
+     */
+    private int maxHeight;
+
+    /**
+     * The horizontal device scaling (such as for high resolution displays) the cached tiles were rendered for.
+     */
+    private double pixelScaleX;
+
+    /**
+     * The vertical device scaling the cached tiles were rendered for.
+     */
+    private double pixelScaleY;
+
+    /**
+     * The cached tiles, indexed by tile number (column number divided by {@link #TILE_WIDTH}), in order of use so
+     * that the least recently used tile is discarded first.
+     */
+    private final LinkedHashMap<Integer, BufferedImage> tiles =
+            new LinkedHashMap<Integer, BufferedImage>(MAX_TILES * 2, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Integer, BufferedImage> eldest) {
+                    return size() > MAX_TILES;
+                }
+            };
+
+    /**
+     * Divide, rounding towards negative infinity, because columns to the left of the start of the track have
+     * negative numbers.
+     *
+     * @param dividend the number to be divided
+     * @param divisor the positive number by which to divide it
+     *
+     * @return the largest integer which is not greater than the exact quotient
+     */
+    private static int floorDiv(int dividend, int divisor) {
+        final int quotient = dividend / divisor;
+        return (dividend % divisor < 0)? quotient - 1 : quotient;
+    }
+
+    /**
+     * Render a tile of the waveform.
+     *
+     * @param g the graphics into which the tile will be drawn, so a compatible image can be created
+     * @param tile the tile number to render
+     *
+     * @return the rendered tile
+     */
+    private BufferedImage renderTile(Graphics2D g, int tile) {
+        final int height = maxHeight * 2 + 1;
+        final int pixelWidth = (int) Math.ceil(TILE_WIDTH * pixelScaleX);
+        final int pixelHeight = (int) Math.ceil(height * pixelScaleY);
+        final GraphicsConfiguration configuration = g.getDeviceConfiguration();
+        final BufferedImage image = (configuration == null)?
+                new BufferedImage(pixelWidth, pixelHeight, BufferedImage.TYPE_INT_ARGB) :
+                configuration.createCompatibleImage(pixelWidth, pixelHeight, Transparency.TRANSLUCENT);
+        final Graphics2D tileGraphics = image.createGraphics();
+        try {
+            tileGraphics.scale(pixelScaleX, pixelScaleY);
+            final int frameCount = waveform.getFrameCount();
+            for (int x = 0; x < TILE_WIDTH; x++) {
+                final int segment = (tile * TILE_WIDTH + x) * scale;
+                if ((segment >= 0) && (segment < frameCount)) {
+                    tileGraphics.setColor(waveform.segmentColor(segment, scale));
+                    final int segmentHeight = (waveform.segmentHeight(segment, scale) * maxHeight) / 31;
+                    tileGraphics.drawLine(x, maxHeight - segmentHeight, x, maxHeight + segmentHeight);
+                }
+            }
+        } finally {
+            tileGraphics.dispose();
+        }
+        return image;
+    }
+
+    /**
+     * Draw the visible part of a waveform, rendering any tiles which are not already cached.
+     *
+     * @param g the graphics in which the component is being painted
+     * @param detail the waveform being drawn
+     * @param segmentScale the number of segments averaged into each pixel column
+     * @param firstColumn the waveform column (segment number divided by scale) drawn at x coordinate zero
+     * @param clipRect the region of the component which needs to be drawn
+     * @param axis the y coordinate of the center line of the waveform
+     * @param height the largest waveform height, above and below the axis
+     */
+    synchronized void paint(Graphics2D g, WaveformDetail detail, int segmentScale, int firstColumn,
+                            Rectangle clipRect, int axis, int height) {
+        if (height < 1) {
+            return;
+        }
+        final AffineTransform transform = g.getTransform();
+        final double scaleX = Math.max(1.0, transform.getScaleX());
+        final double scaleY = Math.max(1.0, transform.getScaleY());
+        if (detail != waveform || segmentScale != scale || height != maxHeight ||
+                scaleX != pixelScaleX || scaleY != pixelScaleY) {
+            tiles.clear();
+            waveform = detail;
+            scale = segmentScale;
+            maxHeight = height;
+            pixelScaleX = scaleX;
+            pixelScaleY = scaleY;
+        }
+
+        final int firstTile = floorDiv(firstColumn + clipRect.x, TILE_WIDTH);
+        final int lastTile = floorDiv(firstColumn + clipRect.x + clipRect.width, TILE_WIDTH);
+        for (int tile = firstTile; tile <= lastTile; tile++) {
+            BufferedImage image = tiles.get(tile);
+            if (image == null) {
+                image = renderTile(g, tile);
+                tiles.put(tile, image);
+            }
+            g.drawImage(image, tile * TILE_WIDTH - firstColumn, axis - maxHeight, TILE_WIDTH, maxHeight * 2 + 1,
+                    null);
+        }
+    }
+
+    /**
+     * Discard all cached tiles, for example when the component they were drawn for is no longer visible.
+     */
+    synchronized void clear() {
+        tiles.clear();
+        waveform = null;
+    }
+}
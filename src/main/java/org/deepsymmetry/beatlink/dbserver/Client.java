@@ -14,6 +14,8 @@ import java.nio.channels.Channels;
 import java.nio.channels.WritableByteChannel;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
@@ -360,6 +362,53 @@ public class Client {
         return response;
     }
 
+    /**
+     * Send a series of simple requests of the same type without waiting for each response before sending the next,
+     * so that the round-trip latency to the player is paid once per window rather than once per request. The
+     * dbserver handles requests on a connection strictly in order, so responses are read back in the order the
+     * requests were sent, and no more than {@code maxInFlight} requests are ever awaiting a response.
+     *
+     * @param requestType identifies what kind of request to send
+     * @param responseType if non-{@code null}, every response must have this type
+     * @param argumentLists the arguments of each request to be sent
+     * @param maxInFlight the largest number of requests that may be sent before their responses have been read
+     *
+     * @return the responses, in the same order as the argument lists
+     *
+     * @throws IOException if there is a communication problem, if any response does not have the transaction ID of
+     *                     its request, or if any response is of the wrong type
+     * @throws IllegalArgumentException if {@code maxInFlight} is less than 1
+     */
+    public synchronized List<Message> pipelinedRequests(Message.KnownType requestType, Message.KnownType responseType,
+                                                        List<Field[]> argumentLists, int maxInFlight)
+            throws IOException {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("maxInFlight must be positive");
+        }
+        final List<Message> results = new ArrayList<Message>(argumentLists.size());
+        final LinkedList<NumberField> pending = new LinkedList<NumberField>();
+        final Iterator<Field[]> iterator = argumentLists.iterator();
+        while (iterator.hasNext() || !pending.isEmpty()) {
+            while (iterator.hasNext() && pending.size() < maxInFlight) {
+                final NumberField transaction = assignTransactionNumber();
+                sendMessage(new Message(transaction, new NumberField(requestType.protocolValue, 2), iterator.next()));
+                pending.addLast(transaction);
+            }
+            final NumberField transaction = pending.removeFirst();
+            final Message response = Message.read(is);
+            if (response.transaction.getValue() != transaction.getValue()) {
+                throw new IOException("Received response with wrong transaction ID. Expected: " + transaction.getValue() +
+                        ", got: " + response);
+            }
+            if (responseType != null && response.knownType != responseType) {
+                throw new IOException("Received response with wrong type. Expected: " + responseType +
+                        ", got: " + response);
+            }
+            results.add(response);
+        }
+        return results;
+    }
+
     /**
      * Send a request for a menu that we will retrieve items from in subsequent requests. This variant works for
      * nearly all menus, but when you are trying to request metadata for an unanalyzed (non-rekordbox) track, you